@@ -0,0 +1,23 @@
+package com.example.cloudstorage.config;
+
+import com.example.cloudstorage.service.AdmissionControlService;
+import com.example.cloudstorage.service.StorageHealthService;
+import org.springframework.boot.autoconfigure.security.SecurityProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class AdmissionControlConfig {
+
+    // После цепочки Spring Security: разрешения достаются только запросам с действующим токеном
+    // (и подписанным ссылкам /public/**, которые проверяет сам контроллер)
+    @Bean
+    public FilterRegistrationBean<AdmissionControlFilter> admissionControlFilter(AdmissionControlService admissionControl,
+                                                                                 StorageHealthService storageHealth) {
+        FilterRegistrationBean<AdmissionControlFilter> registration =
+                new FilterRegistrationBean<>(new AdmissionControlFilter(admissionControl, storageHealth));
+        registration.setOrder(SecurityProperties.DEFAULT_FILTER_ORDER + 10);
+        return registration;
+    }
+}
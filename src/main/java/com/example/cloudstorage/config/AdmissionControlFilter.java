@@ -0,0 +1,150 @@
+package com.example.cloudstorage.config;
+
+import com.example.cloudstorage.service.AdmissionControlService;
+import com.example.cloudstorage.service.AdmissionControlService.Decision;
+import com.example.cloudstorage.service.AdmissionControlService.Operation;
+import com.example.cloudstorage.service.AdmissionControlService.Permit;
+import com.example.cloudstorage.service.AdmissionControlService.Rejection;
+import com.example.cloudstorage.service.StorageHealthService;
+import com.example.cloudstorage.service.StorageHealthService.WriteRejection;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Допуск тяжелых запросов (загрузки, скачивания, архивы) до чтения тела. Стоит после Spring Security:
+ * запрос без действующего токена получает 401 и не занимает ни разрешение, ни бюджет памяти.
+ * Асинхронный запрос держит разрешение, пока не завершится async-обмен.
+ *
+ * <p>Загрузки до допуска проверяются по состоянию томов хранилища: если объявленный размер не помещается
+ * с запасом (507) или диск сбоит или тормозит (503), отказ приходит до того, как клиент отправит тело.
+ */
+public class AdmissionControlFilter extends OncePerRequestFilter {
+
+    private final AdmissionControlService admissionControl;
+    private final StorageHealthService storageHealth;
+
+    public AdmissionControlFilter(AdmissionControlService admissionControl, StorageHealthService storageHealth) {
+        this.admissionControl = admissionControl;
+        this.storageHealth = storageHealth;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+
+        Operation operation = admissionControl.isEnabled() || storageHealth.isEnabled() ? classify(request) : null;
+        if (operation != null && operation.writes()) {
+            // У копии тело - список имен: объем записи по нему не оценить
+            long declaredBytes = operation == Operation.COPY ? -1 : request.getContentLengthLong();
+            WriteRejection storageRejection = storageHealth.checkWrite(declaredBytes);
+            if (storageRejection != null) {
+                rejectWrite(response, storageRejection);
+                return;
+            }
+        }
+        if (operation == null || !admissionControl.isEnabled()) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        Decision decision = admissionControl.tryAdmit(operation, request.getContentLengthLong());
+        if (!decision.admitted()) {
+            reject(response, decision.rejection());
+            return;
+        }
+
+        Permit permit = decision.permit();
+        AtomicLong transferred = new AtomicLong();
+        boolean async = false;
+        try {
+            filterChain.doFilter(CountingServletStreams.wrap(request, transferred),
+                    CountingServletStreams.wrap(response, transferred));
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new PermitReleaser(permit, response, transferred));
+                async = true;
+            }
+        } finally {
+            if (!async) {
+                permit.release(transferred.get(), response.getStatus() >= 500);
+            }
+        }
+    }
+
+    // Путь без context-path: /file, /archive, /async/file ...
+    private Operation classify(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        String method = request.getMethod();
+        return switch (method + " " + path) {
+            case "POST /file", "PUT /file/content" -> Operation.UPLOAD;
+            case "POST /archive", "POST /async/file", "PUT /file/delta" -> Operation.STREAM_UPLOAD;
+            case "GET /file", "GET /file/version", "GET /async/file", "GET /file/signature",
+                 "GET /public/file" -> Operation.DOWNLOAD;
+            case "GET /archive" -> Operation.ARCHIVE;
+            case "POST /file/copy", "POST /file/copy/bulk" -> Operation.COPY;
+            default -> null;
+        };
+    }
+
+    private void reject(HttpServletResponse response, Rejection rejection) throws IOException {
+        switch (rejection) {
+            case TOO_LARGE -> writeError(response, HttpStatus.PAYLOAD_TOO_LARGE,
+                    "Request body is too large to be processed in memory");
+            case LENGTH_REQUIRED -> writeError(response, HttpStatus.LENGTH_REQUIRED,
+                    "Content-Length is required for uploads processed in memory");
+            default -> writeError(response, HttpStatus.SERVICE_UNAVAILABLE, "Server is busy, retry later");
+        }
+    }
+
+    // Нехватка места - 507 без Retry-After: повтор поможет, только когда место освободят
+    private void rejectWrite(HttpServletResponse response, WriteRejection rejection) throws IOException {
+        if (rejection == WriteRejection.NO_SPACE) {
+            writeError(response, HttpStatus.INSUFFICIENT_STORAGE, "Not enough storage space for the upload");
+        } else {
+            writeError(response, HttpStatus.SERVICE_UNAVAILABLE, "Storage is degraded, retry later");
+        }
+    }
+
+    private void writeError(HttpServletResponse response, HttpStatus status, String message) throws IOException {
+        response.setStatus(status.value());
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        if (status == HttpStatus.SERVICE_UNAVAILABLE) {
+            response.setHeader(HttpHeaders.RETRY_AFTER, Integer.toString(admissionControl.getRetryAfterSeconds()));
+        }
+        response.getWriter().write("{\"message\": \"" + message + "\", \"id\": " + status.value() + "}");
+    }
+
+    private record PermitReleaser(Permit permit, HttpServletResponse response, AtomicLong transferred)
+            implements AsyncListener {
+        @Override
+        public void onComplete(AsyncEvent event) {
+            permit.release(transferred.get(), response.getStatus() >= 500);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            permit.release(transferred.get(), true);
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            permit.release(transferred.get(), true);
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // Повторный startAsync снимает слушатели - регистрируемся снова
+            event.getAsyncContext().addListener(this);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.cloudstorage.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Ограничения на одновременные передачи: admission.operations.{upload|stream-upload|download|archive|copy}.*
+ * и общий бюджет памяти для загрузок, тело которых целиком читается в память.
+ */
+@Component
+@ConfigurationProperties(prefix = "admission")
+@Data
+public class AdmissionProperties {
+    private boolean enabled = true;
+    private long memoryBudgetBytes = 256L * 1024 * 1024;
+    // Base64 в JSON-строке плюс декодированный массив
+    private double memoryFactor = 2.0;
+    private int retryAfterSeconds = 1;
+    private Map<String, Operation> operations = new HashMap<>();
+
+    @Data
+    public static class Operation {
+        private int initialLimit = 16;
+        private int minLimit = 2;
+        private int maxLimit = 64;
+        // Задержка выше цели уменьшает лимит (AIMD); в пересчете на мегабайт, переданный в запросе и ответе
+        private long targetLatencyMs = 2000;
+        private double backoffRatio = 0.9;
+    }
+}
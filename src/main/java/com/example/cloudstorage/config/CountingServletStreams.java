@@ -0,0 +1,142 @@
+package com.example.cloudstorage.config;
+
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Подсчет переданных байт: прочитанных из тела запроса и записанных в тело ответа. Контролю допуска
+ * нужен фактический объем - у скачиваний Content-Length запроса нет, у chunked-загрузок тоже.
+ * Неблокирующие передачи идут через те же потоки, поэтому учитываются так же.
+ */
+final class CountingServletStreams {
+
+    private CountingServletStreams() {
+    }
+
+    static HttpServletRequest wrap(HttpServletRequest request, AtomicLong transferred) {
+        return new HttpServletRequestWrapper(request) {
+            private ServletInputStream in;
+
+            @Override
+            public ServletInputStream getInputStream() throws IOException {
+                if (in == null) {
+                    in = new CountingInputStream(super.getInputStream(), transferred);
+                }
+                return in;
+            }
+        };
+    }
+
+    static HttpServletResponse wrap(HttpServletResponse response, AtomicLong transferred) {
+        return new HttpServletResponseWrapper(response) {
+            private ServletOutputStream out;
+
+            @Override
+            public ServletOutputStream getOutputStream() throws IOException {
+                if (out == null) {
+                    out = new CountingOutputStream(super.getOutputStream(), transferred);
+                }
+                return out;
+            }
+        };
+    }
+
+    private static final class CountingInputStream extends ServletInputStream {
+        private final ServletInputStream delegate;
+        private final AtomicLong transferred;
+
+        CountingInputStream(ServletInputStream delegate, AtomicLong transferred) {
+            this.delegate = delegate;
+            this.transferred = transferred;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = delegate.read();
+            if (value != -1) {
+                transferred.incrementAndGet();
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = delegate.read(buffer, offset, length);
+            if (read > 0) {
+                transferred.addAndGet(read);
+            }
+            return read;
+        }
+
+        @Override
+        public boolean isFinished() {
+            return delegate.isFinished();
+        }
+
+        @Override
+        public boolean isReady() {
+            return delegate.isReady();
+        }
+
+        @Override
+        public void setReadListener(ReadListener listener) {
+            delegate.setReadListener(listener);
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+
+    private static final class CountingOutputStream extends ServletOutputStream {
+        private final ServletOutputStream delegate;
+        private final AtomicLong transferred;
+
+        CountingOutputStream(ServletOutputStream delegate, AtomicLong transferred) {
+            this.delegate = delegate;
+            this.transferred = transferred;
+        }
+
+        @Override
+        public void write(int value) throws IOException {
+            delegate.write(value);
+            transferred.incrementAndGet();
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            delegate.write(buffer, offset, length);
+            transferred.addAndGet(length);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            delegate.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+
+        @Override
+        public boolean isReady() {
+            return delegate.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener listener) {
+            delegate.setWriteListener(listener);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.cloudstorage.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Учет SQL-запросов, проходящих через InstrumentedDataSource: таймер db.query по имени запроса,
+ * лог медленных запросов и захват запросов текущего потока для тестов на число запросов.
+ */
+@Component
+public class QueryMetrics {
+    // Явное имя запроса задается ведущим комментарием: /* token.validate */ SELECT ...
+    private static final Pattern NAME_COMMENT = Pattern.compile("^\\s*/\\*\\s*([a-zA-Z0-9_.:-]+)\\s*\\*/");
+    private static final Pattern UPDATE_TABLE = Pattern.compile(
+            "^\\s*update\\s+([a-z0-9_.\"]+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern SOURCE_TABLE = Pattern.compile(
+            "\\b(?:from|into)\\s+([a-z0-9_.\"]+)", Pattern.CASE_INSENSITIVE);
+
+    private static final ThreadLocal<List<String>> CAPTURE = new ThreadLocal<>();
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${db.slow-query-threshold-ms:200}")
+    private long slowQueryThresholdMs;
+
+    public QueryMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public void record(String sql, long nanos, boolean success) {
+        String name = statementName(sql);
+
+        Timer.builder("db.query")
+                .tag("statement", name)
+                .tag("outcome", success ? "success" : "error")
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        if (millis >= slowQueryThresholdMs) {
+            System.out.println("🐢 Slow query [" + name + "] " + millis + " ms: " + sql);
+        }
+
+        List<String> captured = CAPTURE.get();
+        if (captured != null) {
+            captured.add(name);
+        }
+    }
+
+    // Начинает запись имен запросов, выполненных в текущем потоке (MockMvc выполняет запрос в потоке теста)
+    public static List<String> startCapture() {
+        List<String> captured = new ArrayList<>();
+        CAPTURE.set(captured);
+        return captured;
+    }
+
+    public static void stopCapture() {
+        CAPTURE.remove();
+    }
+
+    static String statementName(String sql) {
+        if (sql == null) {
+            return "unknown";
+        }
+
+        Matcher comment = NAME_COMMENT.matcher(sql);
+        if (comment.find()) {
+            return comment.group(1);
+        }
+
+        String trimmed = sql.stripLeading();
+        int space = trimmed.indexOf(' ');
+        String verb = (space > 0 ? trimmed.substring(0, space) : trimmed).strip().toLowerCase(Locale.ROOT);
+
+        Matcher table = "update".equals(verb) ? UPDATE_TABLE.matcher(trimmed) : SOURCE_TABLE.matcher(trimmed);
+        if (table.find()) {
+            return verb + ":" + table.group(1).replace("\"", "").toLowerCase(Locale.ROOT);
+        }
+        return verb;
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.cloudstorage.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Лимиты по тарифам: rate-limit.tiers.{tier}.*, пользователь привязывается к тарифу через
+ * rate-limit.users.{login}={tier}, остальные получают default-tier.
+ */
+@Component
+@ConfigurationProperties(prefix = "rate-limit")
+@Data
+public class RateLimitProperties {
+    private boolean enabled = true;
+    private String defaultTier = "standard";
+    private Map<String, Tier> tiers = new HashMap<>();
+    private Map<String, String> users = new HashMap<>();
+
+    @Data
+    public static class Tier {
+        // 0 - без ограничения
+        private double requestsPerSecond;
+        private int requestBurst = 1;
+        private long uploadBytesPerSecond;
+        private long downloadBytesPerSecond;
+        // Сколько секунд трафика можно передать разом после простоя
+        private double bandwidthBurstSeconds = 1;
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.cloudstorage.config;
+
+import java.util.function.Supplier;
+
+/**
+ * Подсказки для ReplicaRoutingDataSource в текущем потоке: чей это запрос (для чтения своих записей)
+ * и можно ли читать с реплики вне транзакции readOnly. Без включенной реплики ни на что не влияют.
+ */
+public final class ReadRouting {
+    private static final ThreadLocal<String> CURRENT_USER = new ThreadLocal<>();
+    private static final ThreadLocal<Target> TARGET = new ThreadLocal<>();
+
+    enum Target {
+        PRIMARY, REPLICA
+    }
+
+    private ReadRouting() {
+    }
+
+    public static void setCurrentUser(String login) {
+        CURRENT_USER.set(login);
+    }
+
+    public static void clearCurrentUser() {
+        CURRENT_USER.remove();
+    }
+
+    static String currentUser() {
+        return CURRENT_USER.get();
+    }
+
+    static Target target() {
+        return TARGET.get();
+    }
+
+    // Чтение вне транзакции, которому допустимо отставание реплики (например, проверка токена)
+    public static <T> T onReplica(Supplier<T> action) {
+        return with(Target.REPLICA, action);
+    }
+
+    // Чтение, которое обязано видеть последние записи, даже внутри транзакции readOnly
+    public static <T> T onPrimary(Supplier<T> action) {
+        return with(Target.PRIMARY, action);
+    }
+
+    private static <T> T with(Target target, Supplier<T> action) {
+        Target previous = TARGET.get();
+        TARGET.set(target);
+        try {
+            return action.get();
+        } finally {
+            if (previous == null) {
+                TARGET.remove();
+            } else {
+                TARGET.set(previous);
+            }
+        }
+    }
+}
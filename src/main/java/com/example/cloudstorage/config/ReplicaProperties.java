@@ -0,0 +1,24 @@
+package com.example.cloudstorage.config;
+
+import lombok.Data;
+
+/**
+ * Реплика для чтения метаданных: replica.*. Привязывается в ReplicaRoutingConfig до создания бинов
+ * (пост-процессор пула соединений), поэтому это не @ConfigurationProperties-бин.
+ */
+@Data
+public class ReplicaProperties {
+    private boolean enabled = false;
+    private String url;
+    private String username;
+    private String password;
+    private int maximumPoolSize = 10;
+    // После собственной записи пользователь столько читает с основной базы, чтобы видеть свои изменения
+    private long stickinessMs = 5000;
+    // Реплика, отставшая сильнее, не используется до следующей проверки
+    private long maxLagMs = 1000;
+    private long lagCheckIntervalMs = 1000;
+    // Отставание в миллисекундах; 0, если все полученное WAL уже применено
+    private String lagQuery = "SELECT CASE WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 " +
+            "ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000, 0) END";
+}
@@ -0,0 +1,100 @@
+package com.example.cloudstorage.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+
+/**
+ * Реплика для чтения (replica.enabled): основной пул из spring.datasource.* оборачивается в
+ * LazyConnectionDataSourceProxy над ReplicaRoutingDataSource. Пул по-прежнему создает Spring Boot,
+ * поэтому его настройки, метрики HikariCP и JdbcConnectionDetails не меняются.
+ */
+@Configuration
+public class ReplicaRoutingConfig {
+
+    // static: пост-процессор должен создаваться раньше остальных бинов конфигурации
+    @Bean
+    public static ReplicaRoutingPostProcessor replicaRoutingPostProcessor(Environment environment) {
+        return new ReplicaRoutingPostProcessor(Binder.get(environment)
+                .bind("replica", ReplicaProperties.class)
+                .orElseGet(ReplicaProperties::new));
+    }
+
+    @Bean
+    public MeterBinder replicaMetrics(ReplicaRoutingPostProcessor postProcessor) {
+        return registry -> {
+            ReplicaRoutingDataSource routing = postProcessor.getRoutingDataSource();
+            if (routing == null) {
+                return;
+            }
+            Gauge.builder("db.replica.lag", routing, ReplicaRoutingDataSource::getReplicaLagMs)
+                    .description("Replication lag measured on the read replica, -1 when it is unreachable")
+                    .baseUnit("milliseconds")
+                    .register(registry);
+            Gauge.builder("db.replica.usable", routing, source -> source.isReplicaUsable() ? 1 : 0)
+                    .description("Whether reads are currently routed to the replica")
+                    .register(registry);
+        };
+    }
+
+    /**
+     * Выполняется раньше пост-процессора метрик SQL, так что InstrumentedDataSource оборачивает уже
+     * маршрутизирующий источник и учитывает запросы к обеим базам.
+     */
+    public static class ReplicaRoutingPostProcessor implements BeanPostProcessor, Ordered, DisposableBean {
+        private final ReplicaProperties properties;
+        private ReplicaRoutingDataSource routingDataSource;
+        private HikariDataSource replicaPool;
+
+        ReplicaRoutingPostProcessor(ReplicaProperties properties) {
+            this.properties = properties;
+        }
+
+        @Override
+        public Object postProcessAfterInitialization(Object bean, String beanName) {
+            if (!properties.isEnabled() || !"dataSource".equals(beanName) || !(bean instanceof DataSource primary)) {
+                return bean;
+            }
+            replicaPool = new HikariDataSource();
+            replicaPool.setPoolName("replica");
+            replicaPool.setJdbcUrl(properties.getUrl());
+            replicaPool.setUsername(properties.getUsername());
+            replicaPool.setPassword(properties.getPassword());
+            replicaPool.setMaximumPoolSize(properties.getMaximumPoolSize());
+            replicaPool.setReadOnly(true);
+
+            routingDataSource = new ReplicaRoutingDataSource(primary, replicaPool, properties, true);
+            System.out.println("🔀 Metadata reads are routed to replica " + properties.getUrl());
+            return new LazyConnectionDataSourceProxy(routingDataSource);
+        }
+
+        ReplicaRoutingDataSource getRoutingDataSource() {
+            return routingDataSource;
+        }
+
+        @Override
+        public int getOrder() {
+            return Ordered.HIGHEST_PRECEDENCE;
+        }
+
+        @Override
+        public void destroy() {
+            if (routingDataSource != null) {
+                routingDataSource.close();
+            }
+            if (replicaPool != null) {
+                replicaPool.close();
+            }
+        }
+    }
+}
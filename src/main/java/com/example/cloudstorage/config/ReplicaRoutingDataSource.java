@@ -0,0 +1,159 @@
+package com.example.cloudstorage.config;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Выбор базы для соединения: транзакции readOnly и чтения, помеченные {@link ReadRouting#onReplica},
+ * идут на реплику, все остальное - на основную базу. Решение принимается в момент получения физического
+ * соединения, поэтому снаружи должен стоять LazyConnectionDataSourceProxy: к этому моменту признак
+ * readOnly транзакции уже выставлен.
+ *
+ * <p>Основная база используется и для чтений, если реплика недоступна или отстала больше replica.max-lag-ms,
+ * а также для пользователя, который сам недавно писал (replica.stickiness-ms), - иначе он мог бы
+ * не увидеть только что загруженный файл.
+ */
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+    public enum Route {
+        PRIMARY, REPLICA
+    }
+
+    private final DataSource primary;
+    private final DataSource replica;
+    private final ReplicaProperties properties;
+    // login -> момент последней записи (System.nanoTime)
+    private final ConcurrentHashMap<String, Long> lastWrites = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService checker;
+    // До первой успешной проверки реплика не используется
+    private volatile boolean replicaUsable;
+    private volatile long replicaLagMs = -1;
+
+    public ReplicaRoutingDataSource(DataSource primary, DataSource replica, ReplicaProperties properties,
+                                    boolean startChecker) {
+        this.primary = primary;
+        this.replica = replica;
+        this.properties = properties;
+        setTargetDataSources(Map.of(Route.PRIMARY, primary, Route.REPLICA, replica));
+        setDefaultTargetDataSource(primary);
+        setLenientFallback(false);
+        afterPropertiesSet();
+
+        if (startChecker) {
+            checker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "replica-lag-check");
+                thread.setDaemon(true);
+                return thread;
+            });
+            checker.scheduleWithFixedDelay(this::checkReplica, 0, properties.getLagCheckIntervalMs(),
+                    TimeUnit.MILLISECONDS);
+        } else {
+            checker = null;
+        }
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        String user = ReadRouting.currentUser();
+        ReadRouting.Target target = ReadRouting.target();
+        boolean readOnly = TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+
+        if (!readOnly && target != ReadRouting.Target.REPLICA) {
+            // Транзакция на запись: с этого момента пользователь читает свои данные с основной базы
+            if (user != null && TransactionSynchronizationManager.isActualTransactionActive()) {
+                lastWrites.put(user, System.nanoTime());
+            }
+            return Route.PRIMARY;
+        }
+        if (target == ReadRouting.Target.PRIMARY || !replicaUsable || (user != null && wroteRecently(user))) {
+            return Route.PRIMARY;
+        }
+        return Route.REPLICA;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (determineCurrentLookupKey() == Route.REPLICA) {
+            try {
+                return replica.getConnection();
+            } catch (SQLException e) {
+                markReplicaDown(e);
+            }
+        }
+        return primary.getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        if (determineCurrentLookupKey() == Route.REPLICA) {
+            try {
+                return replica.getConnection(username, password);
+            } catch (SQLException e) {
+                markReplicaDown(e);
+            }
+        }
+        return primary.getConnection(username, password);
+    }
+
+    public void checkReplica() {
+        try (Connection connection = replica.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery(properties.getLagQuery())) {
+            long lag = rs.next() ? rs.getLong(1) : Long.MAX_VALUE;
+            boolean usable = lag <= properties.getMaxLagMs();
+            if (usable != replicaUsable) {
+                System.out.println(usable
+                        ? "✅ Read replica is in sync (lag " + lag + " ms), routing reads to it"
+                        : "⚠️ Read replica lags " + lag + " ms, routing reads to primary");
+            }
+            replicaLagMs = lag;
+            replicaUsable = usable;
+        } catch (SQLException e) {
+            markReplicaDown(e);
+        } catch (RuntimeException e) {
+            System.out.println("❌ Replica check failed: " + e.getMessage());
+        }
+
+        long horizon = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(properties.getStickinessMs());
+        lastWrites.values().removeIf(writtenAt -> writtenAt - horizon < 0);
+    }
+
+    public boolean isReplicaUsable() {
+        return replicaUsable;
+    }
+
+    public long getReplicaLagMs() {
+        return replicaLagMs;
+    }
+
+    public void close() {
+        if (checker != null) {
+            checker.shutdownNow();
+        }
+    }
+
+    private boolean wroteRecently(String user) {
+        Long writtenAt = lastWrites.get(user);
+        return writtenAt != null
+                && System.nanoTime() - writtenAt < TimeUnit.MILLISECONDS.toNanos(properties.getStickinessMs());
+    }
+
+    private void markReplicaDown(SQLException e) {
+        if (replicaUsable) {
+            System.out.println("❌ Read replica is unavailable, routing reads to primary: " + e.getMessage());
+        }
+        replicaUsable = false;
+        replicaLagMs = -1;
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.cloudstorage.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Копии файлов на дополнительных томах: file.replication.volumes - корни на других дисках
+ * (основной том - file.storage.location). Пустой список - репликация выключена.
+ */
+@Component
+@ConfigurationProperties(prefix = "file.replication")
+@Data
+public class ReplicationProperties {
+    private List<String> volumes = new ArrayList<>();
+    // Сколько копий, включая основную, должно быть записано до ответа клиенту
+    private int writeQuorum = 2;
+    private int ioThreads = 8;
+    // Повторное чтение с другого тома, если первый не ответил за свой p95 (но не раньше min и не позже max)
+    private boolean hedgedReads = true;
+    private long hedgeMinDelayMs = 5;
+    private long hedgeMaxDelayMs = 200;
+    // Том, чей p95 во столько раз выше медианы по томам, считается выбросом и читается последним
+    private double outlierFactor = 3.0;
+    private long repairIntervalMs = 10000;
+}
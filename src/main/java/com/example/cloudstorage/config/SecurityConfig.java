@@ -1,6 +1,7 @@
 package com.example.cloudstorage.config;
 
 import com.example.cloudstorage.service.TokenService;
+import com.example.cloudstorage.service.UserRateLimiter;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpMethod;
@@ -23,9 +24,11 @@ import java.util.List;
 public class SecurityConfig {
 
     private final TokenService tokenService;
+    private final UserRateLimiter rateLimiter;
 
-    public SecurityConfig(TokenService tokenService) {
+    public SecurityConfig(TokenService tokenService, UserRateLimiter rateLimiter) {
         this.tokenService = tokenService;
+        this.rateLimiter = rateLimiter;
     }
 
     @Bean
@@ -40,10 +43,14 @@ public class SecurityConfig {
                 .csrf(AbstractHttpConfigurer::disable)
                 .authorizeHttpRequests(authz -> authz
                         .requestMatchers(HttpMethod.OPTIONS, "/**").permitAll()
+                        // Метрики (в т.ч. по SQL-запросам) - только с токеном
+                        .requestMatchers("/actuator/metrics/**").authenticated()
                         // Разрешаем actuator endpoints
                         .requestMatchers("/actuator/health", "/actuator/info", "/actuator/**").permitAll()
                         // Разрешаем auth endpoints
                         .requestMatchers("/login", "/register", "/logout").permitAll()
+                        // Подписанные ссылки проверяет сам контроллер
+                        .requestMatchers("/public/**").permitAll()
                         .anyRequest().authenticated()
                 )
                 .sessionManagement(session -> session
@@ -52,7 +59,7 @@ public class SecurityConfig {
                 // ОТКЛЮЧАЕМ СТАНДАРТНЫЙ LOGOUT
                 .logout(AbstractHttpConfigurer::disable)
                 // Добавляем наш кастомный фильтр ДО стандартной аутентификации
-                .addFilterBefore(new TokenAuthenticationFilter(tokenService),
+                .addFilterBefore(new TokenAuthenticationFilter(tokenService, rateLimiter),
                         UsernamePasswordAuthenticationFilter.class);
 
         return http.build();
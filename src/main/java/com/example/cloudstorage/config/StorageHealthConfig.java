@@ -0,0 +1,60 @@
+package com.example.cloudstorage.config;
+
+import com.example.cloudstorage.service.StorageHealthService;
+import com.example.cloudstorage.service.StorageHealthService.Condition;
+import com.example.cloudstorage.service.StorageHealthService.VolumeSample;
+import org.springframework.boot.actuate.health.CompositeHealthContributor;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@Configuration
+public class StorageHealthConfig {
+
+    // Компонент "storage" в /actuator/health и в группе readiness: по индикатору на том (volume0 - основной)
+    @Bean
+    public CompositeHealthContributor storageHealthContributor(StorageHealthService storageHealth) {
+        Map<String, HealthIndicator> indicators = new LinkedHashMap<>();
+        for (int i = 0; i < storageHealth.getVolumeCount(); i++) {
+            indicators.put("volume" + i, volumeIndicator(storageHealth, i));
+        }
+        return CompositeHealthContributor.fromMap(indicators);
+    }
+
+    // Индикатор отдает последний снимок тома и диск не трогает
+    private static HealthIndicator volumeIndicator(StorageHealthService storageHealth, int index) {
+        return () -> {
+            Condition condition = storageHealth.getCondition(index);
+            Health.Builder builder = switch (condition) {
+                case UNKNOWN -> Health.unknown();
+                case UP -> Health.up();
+                // Медленный диск еще работает, но новых загрузок на узел лучше не направлять
+                case SLOW -> Health.outOfService();
+                case LOW_SPACE, LOW_INODES, FAILING -> Health.down();
+            };
+            builder.withDetail("condition", condition.name().toLowerCase());
+
+            VolumeSample sample = storageHealth.getSample(index);
+            if (sample != null) {
+                builder.withDetail("path", sample.root().toString())
+                        .withDetail("freeBytes", sample.usableBytes())
+                        .withDetail("totalBytes", sample.totalBytes())
+                        .withDetail("probeLatencyMs", sample.probeLatencyNanos() / 1_000_000.0)
+                        .withDetail("sampledAt", Instant.ofEpochMilli(sample.sampledAt()).toString());
+                if (sample.totalInodes() >= 0) {
+                    builder.withDetail("freeInodes", sample.freeInodes())
+                            .withDetail("totalInodes", sample.totalInodes());
+                }
+                if (sample.probeError() != null) {
+                    builder.withDetail("error", sample.probeError());
+                }
+            }
+            return builder.build();
+        };
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.cloudstorage.config;
+
+import com.example.cloudstorage.service.UserRateLimiter.UserLimits;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ограничение полосы для блокирующих обработчиков: тело запроса и ответа читается/пишется
+ * через обертки, которые после каждой порции засыпают на время, выданное лимитером пользователя.
+ * Неблокирующие передачи (/async) сюда не попадают - AsyncTransferService ограничивает их сам,
+ * откладывая следующую порцию вместо сна.
+ */
+final class ThrottledServletStreams {
+
+    private ThrottledServletStreams() {
+    }
+
+    static HttpServletRequest wrap(HttpServletRequest request, UserLimits limits) {
+        return new HttpServletRequestWrapper(request) {
+            private ServletInputStream in;
+
+            @Override
+            public ServletInputStream getInputStream() throws IOException {
+                if (in == null) {
+                    in = new ThrottledInputStream(super.getInputStream(), limits);
+                }
+                return in;
+            }
+        };
+    }
+
+    static HttpServletResponse wrap(HttpServletResponse response, UserLimits limits) {
+        return new HttpServletResponseWrapper(response) {
+            private ServletOutputStream out;
+
+            @Override
+            public ServletOutputStream getOutputStream() throws IOException {
+                if (out == null) {
+                    out = new ThrottledOutputStream(super.getOutputStream(), limits);
+                }
+                return out;
+            }
+        };
+    }
+
+    private static void pause(long nanos) throws InterruptedIOException {
+        if (nanos <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttled");
+        }
+    }
+
+    private static final class ThrottledInputStream extends ServletInputStream {
+        private final ServletInputStream delegate;
+        private final UserLimits limits;
+
+        ThrottledInputStream(ServletInputStream delegate, UserLimits limits) {
+            this.delegate = delegate;
+            this.limits = limits;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = delegate.read();
+            if (value != -1) {
+                pause(limits.reserveUpload(1));
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = delegate.read(buffer, offset, length);
+            if (read > 0) {
+                pause(limits.reserveUpload(read));
+            }
+            return read;
+        }
+
+        @Override
+        public boolean isFinished() {
+            return delegate.isFinished();
+        }
+
+        @Override
+        public boolean isReady() {
+            return delegate.isReady();
+        }
+
+        @Override
+        public void setReadListener(ReadListener listener) {
+            delegate.setReadListener(listener);
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+
+    private static final class ThrottledOutputStream extends ServletOutputStream {
+        private final ServletOutputStream delegate;
+        private final UserLimits limits;
+
+        ThrottledOutputStream(ServletOutputStream delegate, UserLimits limits) {
+            this.delegate = delegate;
+            this.limits = limits;
+        }
+
+        @Override
+        public void write(int value) throws IOException {
+            pause(limits.reserveDownload(1));
+            delegate.write(value);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            pause(limits.reserveDownload(length));
+            delegate.write(buffer, offset, length);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            delegate.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+
+        @Override
+        public boolean isReady() {
+            return delegate.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener listener) {
+            delegate.setWriteListener(listener);
+        }
+    }
+}
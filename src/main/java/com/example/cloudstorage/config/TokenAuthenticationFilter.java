@@ -1,10 +1,13 @@
 package com.example.cloudstorage.config;
 
 import com.example.cloudstorage.service.TokenService;
+import com.example.cloudstorage.service.UserRateLimiter;
+import com.example.cloudstorage.service.UserRateLimiter.UserLimits;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -12,13 +15,16 @@ import org.springframework.security.web.authentication.WebAuthenticationDetailsS
 import org.springframework.web.filter.OncePerRequestFilter;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class TokenAuthenticationFilter extends OncePerRequestFilter {
 
     private final TokenService tokenService;
+    private final UserRateLimiter rateLimiter;
 
-    public TokenAuthenticationFilter(TokenService tokenService) {
+    public TokenAuthenticationFilter(TokenService tokenService, UserRateLimiter rateLimiter) {
         this.tokenService = tokenService;
+        this.rateLimiter = rateLimiter;
     }
 
     @Override
@@ -39,11 +45,25 @@ public class TokenAuthenticationFilter extends OncePerRequestFilter {
                 String username = tokenService.getUsernameFromToken(token);
 
                 if (username != null) {
+                    ReadRouting.setCurrentUser(username);
                     UsernamePasswordAuthenticationToken authentication =
                             new UsernamePasswordAuthenticationToken(username, null, List.of());
                     authentication.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
 
                     SecurityContextHolder.getContext().setAuthentication(authentication);
+
+                    UserLimits limits = rateLimiter.limitsFor(username);
+                    long waitNanos = limits.acquireRequest();
+                    if (waitNanos > 0) {
+                        tooManyRequests(response, waitNanos);
+                        return;
+                    }
+                    // Неблокирующие передачи ограничивают полосу сами, без сна в потоке контейнера
+                    if (limits.shapesBandwidth() && !requestPath.startsWith("/cloud/async/")) {
+                        filterChain.doFilter(ThrottledServletStreams.wrap(request, limits),
+                                ThrottledServletStreams.wrap(response, limits));
+                        return;
+                    }
                 }
             } else if (token != null) {
                 // Токен есть, но невалидный
@@ -62,16 +82,26 @@ public class TokenAuthenticationFilter extends OncePerRequestFilter {
         } catch (Exception e) {
             response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR.value());
             response.getWriter().write("{\"error\": \"Internal server error\"}");
+        } finally {
+            ReadRouting.clearCurrentUser();
         }
     }
 
+    private void tooManyRequests(HttpServletResponse response, long waitNanos) throws IOException {
+        long retryAfterSeconds = Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds));
+        response.getWriter().write("{\"error\": \"Too many requests\"}");
+    }
+
     private boolean isPublicEndpoint(String path) {
         return path.equals("/cloud/actuator/health") ||
                 path.equals("/cloud/actuator/info") ||
                 path.equals("/cloud/login") ||
                 path.equals("/cloud/register") ||
                 path.equals("/cloud/logout") ||
-                path.startsWith("/cloud/actuator/");
+                path.startsWith("/cloud/public/") ||
+                (path.startsWith("/cloud/actuator/") && !path.startsWith("/cloud/actuator/metrics"));
     }
 
     private String extractTokenFromRequest(HttpServletRequest request) {
@@ -4,22 +4,61 @@ import com.example.cloudstorage.dto.*;
 import com.example.cloudstorage.entity.FileEntity;
 import com.example.cloudstorage.entity.UserEntity;
 import com.example.cloudstorage.exception.FileStorageException;
+import com.example.cloudstorage.repository.FileAccessRepository.FileAccessStat;
+import com.example.cloudstorage.repository.FileBulkRepository.FileStat;
+import com.example.cloudstorage.repository.FileVersionRepository;
+import com.example.cloudstorage.repository.TrashRepository;
+import com.example.cloudstorage.service.ArchiveImportService;
+import com.example.cloudstorage.service.ArchiveService;
+import com.example.cloudstorage.service.AsyncTransferService;
+import com.example.cloudstorage.service.ChangeFeedService;
+import com.example.cloudstorage.service.ChangeJournalService;
+import com.example.cloudstorage.service.DeltaSyncService;
+import com.example.cloudstorage.service.FileAccessService;
+import com.example.cloudstorage.service.FileEncryptionService;
 import com.example.cloudstorage.service.FileStorageService;
+import com.example.cloudstorage.service.FileStorageService.CopiedFile;
+import com.example.cloudstorage.service.FileStorageService.CopySpec;
+import com.example.cloudstorage.service.FileVersionService;
+import com.example.cloudstorage.service.FilenameIndexService;
+import com.example.cloudstorage.service.FolderService;
+import com.example.cloudstorage.service.ListingCacheService;
+import com.example.cloudstorage.service.SignedLinkService;
+import com.example.cloudstorage.service.StorageScrubService;
 import com.example.cloudstorage.service.TokenService;
 import com.example.cloudstorage.service.UserService;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.Pattern;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.Base64;
+import java.util.HashSet;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 @RequiredArgsConstructor
@@ -27,6 +66,24 @@ public class CloudStorageController {
     private final UserService userService;
     private final TokenService tokenService;
     private final FileStorageService fileStorageService;
+    private final FilenameIndexService filenameIndexService;
+    private final ArchiveService archiveService;
+    private final ArchiveImportService archiveImportService;
+    private final AsyncTransferService asyncTransferService;
+    private final ListingCacheService listingCacheService;
+    private final FolderService folderService;
+    private final FileVersionService fileVersionService;
+    private final DeltaSyncService deltaSyncService;
+    private final StorageScrubService storageScrubService;
+    private final SignedLinkService signedLinkService;
+    private final ChangeFeedService changeFeedService;
+    private final ChangeJournalService changeJournalService;
+    private final FileEncryptionService fileEncryption;
+    private final FileAccessService fileAccessService;
+    private final ObjectMapper objectMapper;
+
+    @Value("${admin.logins:}")
+    private Set<String> adminLogins;
 
     @PostMapping("/register")
     public ResponseEntity<?> register(@Valid @RequestBody RegisterRequest registerRequest) {
@@ -157,6 +214,380 @@ public class CloudStorageController {
         }
     }
 
+    // Метаданные файла без чтения содержимого: явный HEAD, иначе Spring выполнил бы GET и отбросил тело
+    @RequestMapping(value = "/file", method = RequestMethod.HEAD)
+    public ResponseEntity<?> statFile(
+            @RequestHeader(value = "Authorization", required = false) String authHeader,
+            @RequestHeader(value = "auth-token", required = false) String authToken,
+            @RequestParam("filename") String filename) {
+
+        Optional<UserEntity> user = authenticate(authHeader, authToken);
+        if (user.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+
+        Optional<FileStat> stat = fileStorageService.statFile(user.get(), filename);
+        if (stat.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+
+        FileStat file = stat.get();
+        return ResponseEntity.ok()
+                .contentLength(file.size())
+                .header(HttpHeaders.CONTENT_TYPE, file.contentType() != null
+                        ? file.contentType() : MediaType.APPLICATION_OCTET_STREAM_VALUE)
+                .eTag(file.etag())
+                .lastModified(file.modifiedAt().atZone(ZoneId.systemDefault()))
+                .header("X-Created-At", file.createdAt().toString())
+                .build();
+    }
+
+    // Пакетная проверка для синхронизации: один запрос к БД на весь список, ответ пишется по мере чтения строк
+    @PostMapping("/file/stat")
+    public ResponseEntity<?> statFiles(
+            @RequestHeader(value = "Authorization", required = false) String authHeader,
+            @RequestHeader(value = "auth-token", required = false) String authToken,
+            @RequestBody List<String> filenames,
+            HttpServletResponse response) throws IOException {
+
+        Optional<UserEntity> user = authenticate(authHeader, authToken);
+        if (user.isEmpty()) {
+            return unauthorizedResponse();
+        }
+
+        Set<String> requested = fileStorageService.validateStatRequest(filenames);
+
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        // Без сброса буфера после каждой записи: тысячи строк не должны превращаться в тысячи мелких пакетов
+        ObjectWriter writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        Set<String> found = new HashSet<>();
+        try (JsonGenerator json = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+            json.writeStartObject();
+            json.writeArrayFieldStart("files");
+            try {
+                fileStorageService.statFiles(user.get(), requested, file -> {
+                    found.add(file.filename());
+                    try {
+                        writer.writeValue(json, new FileStatResponse(file.filename(), file.size(),
+                                file.contentType(), file.etag(), file.createdAt(), file.modifiedAt()));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            json.writeEndArray();
+            json.writeArrayFieldStart("missing");
+            for (String filename : requested) {
+                if (!found.contains(filename)) {
+                    json.writeString(filename);
+                }
+            }
+            json.writeEndArray();
+            json.writeEndObject();
+        }
+        return null;
+    }
+
+    // Ссылка для скачивания без токена: кто получил ссылку, может скачать файл до истечения срока
+    @PostMapping("/file/link")
+    public ResponseEntity<?> createSignedLink(
+            @RequestHeader(value = "Authorization", required = false) String authHeader,
+            @RequestHeader(value = "auth-token", required = false) String authToken,
+            @RequestParam("filename") String filename,
+            @RequestParam(value = "ttlSeconds", required = false) Long ttlSeconds) {
+
+        Optional<UserEntity> user = authenticate(authHeader, authToken);
+        if (user.isEmpty()) {
+            return unauthorizedResponse();
+        }
+
+        SignedLinkService.SignedLink link = signedLinkService.createLink(user.get(), filename, ttlSeconds);
+        String url = ServletUriComponentsBuilder.fromCurrentContextPath()
+                .path("/public/file")
+                .queryParam("u", link.login())
+                .queryParam("f", link.filename())
+                .queryParam("t", link.issuedAt())
+                .queryParam("e", link.expiresAt())
+                .queryParam("s", link.signature())
+                .encode()
+                .toUriString();
+        return ResponseEntity.ok(new SignedLinkResponse(url,
+                LocalDateTime.ofInstant(Instant.ofEpochMilli(link.expiresAt()), ZoneId.systemDefault())));
+    }
+
+    // Скачивание по подписанной ссылке: ни токена, ни запросов к БД (кроме первого чтения ключа шифрования
+    // пользователя на узле и адреса упакованного файла); Range обрабатывает Spring по Resource
+    @GetMapping("/public/file")
+    public ResponseEntity<?> downloadSignedLink(
+            @RequestParam("u") String login,
+            @RequestParam("f") String filename,
+            @RequestParam("t") long issuedAt,
+            @RequestParam("e") long expiresAt,
+            @RequestParam("s") String signature) {
+
+        Optional<Path> path = signedLinkService.resolve(login, filename, issuedAt, expiresAt, signature);
+        if (path.isEmpty()) {
+            return forbiddenResponse();
+        }
+
+        // Зашифрованный файл отдается расшифрованным, Range расшифровывает только нужные сегменты
+        Resource resource = fileEncryption.resource(login, path.get());
+        try {
+            // Упакованного файла на диске нет - его адрес в сегменте берется из БД
+            if (!resource.exists()) {
+                Optional<Resource> packed = fileStorageService.packedResource(login, filename);
+                if (packed.isPresent()) {
+                    resource = packed.get();
+                }
+            }
+            return ResponseEntity.ok()
+                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
+                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                    .lastModified(resource.lastModified())
+                    .body(resource);
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(new ErrorResponse("File not found", 404));
+        }
+    }
+
+    @GetMapping("/file/thumbnail")
+    public ResponseEntity<?> downloadThumbnail(
+            @RequestHeader(value = "Authorization", required = false) String authHeader,
+            @RequestHeader(value = "auth-token", required = false) String authToken,
+            @RequestParam("filename") String filename) {
+
+        Optional<UserEntity> user = authenticate(authHeader, authToken);
+        if (user.isEmpty()) {
+            return unauthorizedResponse();
+        }
+
+        // Превью появляется после фоновой обработки; до этого отдаем 404
+        return fileStorageService.getThumbnail(user.get(), filename)
+                .<ResponseEntity<?>>map(thumbnail -> ResponseEntity.ok()
+                        .cacheControl(CacheControl.maxAge(1, TimeUnit.HOURS).cachePrivate())
+                        .contentType(MediaType.IMAGE_JPEG)
+                        .body(thumbnail))
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND)
+                        .body(new ErrorResponse("Thumbnail not available", 404)));
+    }
+
+    @PutMapping("/file/content")
+    public ResponseEntity<?> overwriteFile(
+            @RequestHeader(value = "Authorization", required = false) String authHeader,
+            @RequestHeader(value = "auth-token", required = false) String authToken,
+            @RequestParam("filename") String filename,
+            @RequestBody FileUploadRequest fileRequest) {
+
+        Optional<UserEntity> user = authenticate(authHeader, authToken);
+        if (user.isEmpty()) {
+            return unauthorizedResponse();
+        }
+
+        try {
+            byte[] fileContent = Base64.getDecoder().decode(fileRequest.getContent());
+            fileVersionService.overwriteFile(user.get(), filename, fileContent, fileRequest.getContentType());
+            return ResponseEntity.ok().build();
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(new ErrorResponse("Error overwriting file", 500));
+        }
+    }
+
+    @GetMapping("/file/versions")
+    public ResponseEntity<?> listVersions(
+            @RequestHeader(value = "Authorization", required = false) String authHeader,
+            @RequestHeader(value = "auth-token", required = false) String authToken,
+            @RequestParam("filename") String filename) {
+
+        Optional<UserEntity> user = authenticate(authHeader, authToken);
+        if (user.isEmpty()) {
+            return unauthorizedResponse();
+        }
+
+        return ResponseEntity.ok(fileVersionService.getVersions(user.get(), filename).stream()
+                .map(version -> new VersionResponse(
+                        version.version(), version.size(), version.contentType(), version.createdAt()))
+                .toList());
+    }
+
+    @GetMapping("/file/version")
+    public ResponseEntity<?> downloadVersion(
+            @RequestHeader(value = "Authorization", required = false) String authHeader,
+            @RequestHeader(value = "auth-token", required = false) String authToken,
+            @RequestParam("filename") String filename,
+            @RequestParam("version") int version) {
+
+        Optional<UserEntity> user = authenticate(authHeader, authToken);
+        if (user.isEmpty()) {
+            return unauthorizedResponse();
+        }
+
+        FileVersionRepository.Version stored = fileVersionService.getVersion(user.get(), filename, version);
+        // Версия собирается из чанков прямо в ответ
+        StreamingResponseBody body = out -> fileVersionService.writeVersion(user.get().getLogin(), stored, out);
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .contentLength(stored.size())
+                .body(body);
+    }
+
+    @DeleteMapping("/file/versions")
+    public ResponseEntity<?> pruneVersions(
+            @RequestHeader(value = "Authorization", required = false) String authHeader,
+            @RequestHeader(value = "auth-token", required = false) String authToken,
+            @RequestParam("filename") String filename,
+            @RequestParam("keep") int keep) {
+
+        Optional<UserEntity> user = authenticate(authHeader, authToken);
+        if (user.isEmpty()) {
+            return unauthorizedResponse();
+        }
+
+        return ResponseEntity.ok(new VersionPruneResponse(fileVersionService.pruneVersions(user.get(), filename, keep)));
+    }
+
+    // Дельта-синхронизация: клиент берет сигнатуру блоков и присылает только изменившиеся байты
+    @GetMapping("/file/signature")
+    public ResponseEntity<?> downloadSignature(
+            @RequestHeader(value = "Authorization", required = false) String authHeader,
+            @RequestHeader(value = "auth-token", required = false) String authToken,
+            @RequestParam("filename") String filename,
+            @RequestParam(value = "blockSize", defaultValue = "0") int blockSize) {
+
+        Optional<UserEntity> user = authenticate(authHeader, authToken);
+        if (user.isEmpty()) {
+            return unauthorizedResponse();
+        }
+
+        try {
+            DeltaSyncService.SignaturePlan plan = deltaSyncService.prepareSignature(user.get(), filename, blockSize);
+            StreamingResponseBody body = out -> deltaSyncService.writeSignature(plan, out);
+            return ResponseEntity.ok()
+                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                    .body(body);
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(new ErrorResponse("Error reading file", 500));
+        }
+    }
+
+    @PutMapping(value = "/file/delta", consumes = MediaType.ALL_VALUE)
+    public ResponseEntity<?> uploadDelta(
+            @RequestHeader(value = "Authorization", required = false) String authHeader,
+            @RequestHeader(value = "auth-token", required = false) String authToken,
+            @RequestParam("filename") String filename,
+            @RequestParam(value = "contentType", required = false) String contentType,
+            HttpServletRequest request) {
+
+        Optional<UserEntity> user = authenticate(authHeader, authToken);
+        if (user.isEmpty()) {
+            return unauthorizedResponse();
+        }
+
+        try {
+            return ResponseEntity.ok(deltaSyncService.applyDelta(user.get(), filename, contentType, request.getInputStream()));
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(new ErrorResponse("Error applying delta", 500));
+        }
+    }
+
+    @GetMapping("/archive")
+    public ResponseEntity<?> downloadArchive(
+            @RequestHeader(value = "Authorization", required = false) String authHeader,
+            @RequestHeader(value = "auth-token", required = false) String authToken,
+            @RequestParam(value = "filename", required = false) List<String> filenames,
+            @RequestParam(value = "all", defaultValue = "false") boolean all) {
+
+        Optional<UserEntity> user = authenticate(authHeader, authToken);
+        if (user.isEmpty()) {
+            return unauthorizedResponse();
+        }
+
+        List<FileEntity> files;
+        if (all) {
+            files = fileStorageService.getUserFiles(user.get(), 0);
+        } else if (filenames != null && !filenames.isEmpty()) {
+            files = fileStorageService.getFilesByNames(user.get(), filenames);
+        } else {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(new ErrorResponse("Specify filename parameters or all=true", 400));
+        }
+
+        // Архив пишется прямо в ответ по мере чтения файлов, без временного файла
+        StreamingResponseBody body = out -> archiveService.writeZip(user.get(), files, out);
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"files.zip\"")
+                .contentType(MediaType.parseMediaType("application/zip"))
+                .body(body);
+    }
+
+    @PostMapping(value = "/archive", consumes = MediaType.ALL_VALUE)
+    public ResponseEntity<?> uploadArchive(
+            @RequestHeader(value = "Authorization", required = false) String authHeader,
+            @RequestHeader(value = "auth-token", required = false) String authToken,
+            @RequestParam(value = "format", defaultValue = ArchiveImportService.FORMAT_ZIP) String format,
+            HttpServletRequest request) {
+
+        Optional<UserEntity> user = authenticate(authHeader, authToken);
+        if (user.isEmpty()) {
+            return unauthorizedResponse();
+        }
+
+        // Тело читается потоком прямо из запроса, архив целиком на диск не сохраняется
+        try {
+            return ResponseEntity.ok(archiveImportService.importArchive(user.get(), request.getInputStream(), format));
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(new ErrorResponse("Error importing archive", 500));
+        }
+    }
+
+    // Неблокирующие варианты загрузки/скачивания для больших файлов и медленных клиентов.
+    // После старта async-обмена ответ пишет AsyncTransferService, поэтому обработчик возвращает null.
+    @GetMapping("/async/file")
+    public ResponseEntity<?> downloadFileAsync(
+            @RequestHeader(value = "Authorization", required = false) String authHeader,
+            @RequestHeader(value = "auth-token", required = false) String authToken,
+            @RequestParam("filename") String filename,
+            HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+
+        Optional<UserEntity> user = authenticate(authHeader, authToken);
+        if (user.isEmpty()) {
+            return unauthorizedResponse();
+        }
+
+        if (!asyncTransferService.startDownload(user.get(), filename, request, response)) {
+            return serviceUnavailableResponse();
+        }
+        return null;
+    }
+
+    @PostMapping(value = "/async/file", consumes = MediaType.ALL_VALUE)
+    public ResponseEntity<?> uploadFileAsync(
+            @RequestHeader(value = "Authorization", required = false) String authHeader,
+            @RequestHeader(value = "auth-token", required = false) String authToken,
+            @RequestParam("filename") @Pattern(regexp = "^[a-zA-Z0-9._-]+$") String filename,
+            HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+
+        Optional<UserEntity> user = authenticate(authHeader, authToken);
+        if (user.isEmpty()) {
+            return unauthorizedResponse();
+        }
+
+        if (!asyncTransferService.startUpload(user.get(), filename, request.getContentType(), request, response)) {
+            return serviceUnavailableResponse();
+        }
+        return null;
+    }
+
     @DeleteMapping("/file")
     public ResponseEntity<?> deleteFile(
             @RequestHeader(value = "Authorization", required = false) String authHeader,
@@ -183,6 +614,57 @@ public class CloudStorageController {
         }
     }
 
+    // Корзина: удаленные файлы хранятся file.trash.retention-hours, затем их удаляет TrashPurgeService
+    @GetMapping("/trash")
+    public ResponseEntity<?> listTrash(
+            @RequestHeader(value = "Authorization", required = false) String authHeader,
+            @RequestHeader(value = "auth-token", required = false) String authToken) {
+
+        Optional<UserEntity> user = authenticate(authHeader, authToken);
+        if (user.isEmpty()) {
+            return unauthorizedResponse();
+        }
+
+        return ResponseEntity.ok(fileStorageService.getTrash(user.get()).stream()
+                .map(file -> new TrashEntryResponse(file.filename(), file.size(), file.deletedAt()))
+                .toList());
+    }
+
+    @PostMapping("/trash/restore")
+    public ResponseEntity<?> restoreFromTrash(
+            @RequestHeader(value = "Authorization", required = false) String authHeader,
+            @RequestHeader(value = "auth-token", required = false) String authToken,
+            @RequestParam("filename") String filename) {
+
+        Optional<UserEntity> user = authenticate(authHeader, authToken);
+        if (user.isEmpty()) {
+            return unauthorizedResponse();
+        }
+
+        TrashRepository.TrashedFile restored = fileStorageService.restoreFile(user.get(), filename);
+        return ResponseEntity.ok(new FileResponse(restored.filename(), restored.size()));
+    }
+
+    @DeleteMapping("/trash")
+    public ResponseEntity<?> discardFromTrash(
+            @RequestHeader(value = "Authorization", required = false) String authHeader,
+            @RequestHeader(value = "auth-token", required = false) String authToken,
+            @RequestParam("filename") String filename) {
+
+        Optional<UserEntity> user = authenticate(authHeader, authToken);
+        if (user.isEmpty()) {
+            return unauthorizedResponse();
+        }
+
+        try {
+            fileStorageService.discardFile(user.get(), filename);
+            return ResponseEntity.ok().build();
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(new ErrorResponse("Error deleting file", 500));
+        }
+    }
+
     @PutMapping("/file")
     public ResponseEntity<?> renameFile(
             @RequestHeader(value = "Authorization", required = false) String authHeader,
@@ -210,6 +692,54 @@ public class CloudStorageController {
         }
     }
 
+    // Копия на сервере: содержимое не идет через клиента, на диске по возможности reflink или жесткая ссылка
+    @PostMapping("/file/copy")
+    public ResponseEntity<?> copyFile(
+            @RequestHeader(value = "Authorization", required = false) String authHeader,
+            @RequestHeader(value = "auth-token", required = false) String authToken,
+            @RequestParam("filename") String filename,
+            @Valid @RequestBody CopyRequest copyRequest) {
+
+        Optional<UserEntity> user = authenticate(authHeader, authToken);
+        if (user.isEmpty()) {
+            return unauthorizedResponse();
+        }
+
+        try {
+            List<CopiedFile> copied = fileStorageService.copyFiles(user.get(),
+                    List.of(new CopySpec(filename, copyRequest.getName())));
+            return ResponseEntity.ok(toCopyResponse(copied.get(0)));
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(new ErrorResponse("Error copying file", 500));
+        }
+    }
+
+    // Пакетная копия: имена проверяются до первой копии, при ошибке не создается ни одного файла
+    @PostMapping("/file/copy/bulk")
+    public ResponseEntity<?> copyFiles(
+            @RequestHeader(value = "Authorization", required = false) String authHeader,
+            @RequestHeader(value = "auth-token", required = false) String authToken,
+            @RequestBody List<CopyRequest> copyRequests) {
+
+        Optional<UserEntity> user = authenticate(authHeader, authToken);
+        if (user.isEmpty()) {
+            return unauthorizedResponse();
+        }
+
+        try {
+            List<CopySpec> copies = copyRequests == null ? List.of() : copyRequests.stream()
+                    .map(request -> new CopySpec(request.getFilename(), request.getName()))
+                    .toList();
+            return ResponseEntity.ok(fileStorageService.copyFiles(user.get(), copies).stream()
+                    .map(CloudStorageController::toCopyResponse)
+                    .toList());
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(new ErrorResponse("Error copying files", 500));
+        }
+    }
+
     @GetMapping("/list")
     public ResponseEntity<?> listFiles(
             @RequestHeader(value = "Authorization", required = false) String authHeader,
@@ -257,13 +787,13 @@ public class CloudStorageController {
             UserEntity user = userService.findByLogin(username)
                     .orElseThrow(() -> new RuntimeException("User not found: " + username));
 
-            List<FileEntity> files = fileStorageService.getUserFiles(user, limit);
-            List<FileResponse> response = files.stream()
-                    .map(file -> new FileResponse(file.getFilename(), file.getSize()))
-                    .collect(Collectors.toList());
+            // Готовый JSON из кэша; при промахе список строится и сериализуется один раз
+            byte[] response = listingCacheService.getListing(user, limit);
 
-            System.out.println("✅ Successfully returned " + files.size() + " files");
-            return ResponseEntity.ok(response);
+            System.out.println("✅ Successfully returned file list (" + response.length + " bytes)");
+            return ResponseEntity.ok()
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(response);
 
         } catch (Exception e) {
             System.out.println("❌ Error in listFiles: " + e.getMessage());
@@ -273,7 +803,259 @@ public class CloudStorageController {
         }
     }
 
+    // Изменения файлов по SSE вместо опроса /list; после события resync или переподключения список перечитывается
+    @GetMapping(value = "/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> subscribeChanges(
+            @RequestHeader(value = "Authorization", required = false) String authHeader,
+            @RequestHeader(value = "auth-token", required = false) String authToken) {
+
+        Optional<UserEntity> user = authenticate(authHeader, authToken);
+        if (user.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+
+        return changeFeedService.subscribe(user.get())
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                        .header(HttpHeaders.RETRY_AFTER, "1")
+                        .build());
+    }
+
+    // Изменения после курсора из журнала - для клиента, который был офлайн; запрос без since открывает SSE выше
+    @GetMapping(value = "/changes", params = "since", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> listChangesSince(
+            @RequestHeader(value = "Authorization", required = false) String authHeader,
+            @RequestHeader(value = "auth-token", required = false) String authToken,
+            @RequestParam("since") long since,
+            @RequestParam(value = "limit", defaultValue = "500") int limit) {
+
+        Optional<UserEntity> user = authenticate(authHeader, authToken);
+        if (user.isEmpty()) {
+            return unauthorizedResponse();
+        }
+
+        ChangeJournalService.ChangePage page = changeJournalService.getChangesSince(user.get(), since, limit);
+        return ResponseEntity.ok(new ChangeListResponse(page.changes(), page.cursor(), page.hasMore(), page.resync()));
+    }
+
+    @GetMapping("/search")
+    public ResponseEntity<?> searchFiles(
+            @RequestHeader(value = "Authorization", required = false) String authHeader,
+            @RequestHeader(value = "auth-token", required = false) String authToken,
+            @RequestParam("q") String query,
+            @RequestParam(value = "mode", defaultValue = FilenameIndexService.MODE_SUBSTRING) String mode,
+            @RequestParam(value = "page", defaultValue = "0") int page,
+            @RequestParam(value = "size", defaultValue = "50") int size) {
+
+        Optional<UserEntity> user = authenticate(authHeader, authToken);
+        if (user.isEmpty()) {
+            return unauthorizedResponse();
+        }
+
+        return ResponseEntity.ok(filenameIndexService.search(user.get(), query, mode, page, size));
+    }
+
+    @PostMapping("/folder")
+    public ResponseEntity<?> createFolder(
+            @RequestHeader(value = "Authorization", required = false) String authHeader,
+            @RequestHeader(value = "auth-token", required = false) String authToken,
+            @Valid @RequestBody FolderRequest folderRequest) {
+
+        Optional<UserEntity> user = authenticate(authHeader, authToken);
+        if (user.isEmpty()) {
+            return unauthorizedResponse();
+        }
+
+        return ResponseEntity.ok(folderService.createFolder(
+                user.get(), folderRequest.getName(), folderRequest.getParentId()));
+    }
+
+    @GetMapping("/folder")
+    public ResponseEntity<?> listFolder(
+            @RequestHeader(value = "Authorization", required = false) String authHeader,
+            @RequestHeader(value = "auth-token", required = false) String authToken,
+            @RequestParam(value = "id", required = false) Long folderId,
+            @RequestParam(value = "limit", defaultValue = "0") int limit) {
+
+        Optional<UserEntity> user = authenticate(authHeader, authToken);
+        if (user.isEmpty()) {
+            return unauthorizedResponse();
+        }
+
+        return ResponseEntity.ok(folderService.listFolder(user.get(), folderId, limit));
+    }
+
+    @PutMapping("/folder")
+    public ResponseEntity<?> renameFolder(
+            @RequestHeader(value = "Authorization", required = false) String authHeader,
+            @RequestHeader(value = "auth-token", required = false) String authToken,
+            @RequestParam("id") Long folderId,
+            @Valid @RequestBody RenameRequest renameRequest) {
+
+        Optional<UserEntity> user = authenticate(authHeader, authToken);
+        if (user.isEmpty()) {
+            return unauthorizedResponse();
+        }
+
+        return ResponseEntity.ok(folderService.renameFolder(user.get(), folderId, renameRequest.getName()));
+    }
+
+    @PutMapping("/folder/move")
+    public ResponseEntity<?> moveFolder(
+            @RequestHeader(value = "Authorization", required = false) String authHeader,
+            @RequestHeader(value = "auth-token", required = false) String authToken,
+            @RequestParam("id") Long folderId,
+            @RequestBody MoveRequest moveRequest) {
+
+        Optional<UserEntity> user = authenticate(authHeader, authToken);
+        if (user.isEmpty()) {
+            return unauthorizedResponse();
+        }
+
+        return ResponseEntity.ok(folderService.moveFolder(user.get(), folderId, moveRequest.getFolderId()));
+    }
+
+    @DeleteMapping("/folder")
+    public ResponseEntity<?> deleteFolder(
+            @RequestHeader(value = "Authorization", required = false) String authHeader,
+            @RequestHeader(value = "auth-token", required = false) String authToken,
+            @RequestParam("id") Long folderId) {
+
+        Optional<UserEntity> user = authenticate(authHeader, authToken);
+        if (user.isEmpty()) {
+            return unauthorizedResponse();
+        }
+
+        folderService.deleteFolder(user.get(), folderId);
+        return ResponseEntity.ok().build();
+    }
+
+    @PutMapping("/file/move")
+    public ResponseEntity<?> moveFile(
+            @RequestHeader(value = "Authorization", required = false) String authHeader,
+            @RequestHeader(value = "auth-token", required = false) String authToken,
+            @RequestParam("filename") String filename,
+            @RequestBody MoveRequest moveRequest) {
+
+        Optional<UserEntity> user = authenticate(authHeader, authToken);
+        if (user.isEmpty()) {
+            return unauthorizedResponse();
+        }
+
+        folderService.moveFile(user.get(), filename, moveRequest.getFolderId());
+        return ResponseEntity.ok().build();
+    }
+
+    // Сверка хранилища с БД; доступна только логинам из admin.logins
+    @PostMapping("/admin/scrub")
+    public ResponseEntity<?> startScrub(
+            @RequestHeader(value = "Authorization", required = false) String authHeader,
+            @RequestHeader(value = "auth-token", required = false) String authToken,
+            @RequestParam(value = "repair", defaultValue = "false") boolean repair,
+            @RequestParam(value = "verifyChecksums", defaultValue = "false") boolean verifyChecksums) {
+
+        Optional<UserEntity> user = authenticate(authHeader, authToken);
+        if (user.isEmpty()) {
+            return unauthorizedResponse();
+        }
+        if (!adminLogins.contains(user.get().getLogin())) {
+            return forbiddenResponse();
+        }
+
+        try {
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(storageScrubService.startScrub(repair, verifyChecksums));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(new ErrorResponse(e.getMessage(), 409));
+        }
+    }
+
+    @GetMapping("/admin/scrub")
+    public ResponseEntity<?> getScrubReport(
+            @RequestHeader(value = "Authorization", required = false) String authHeader,
+            @RequestHeader(value = "auth-token", required = false) String authToken) {
+
+        Optional<UserEntity> user = authenticate(authHeader, authToken);
+        if (user.isEmpty()) {
+            return unauthorizedResponse();
+        }
+        if (!adminLogins.contains(user.get().getLogin())) {
+            return forbiddenResponse();
+        }
+
+        ScrubReport report = storageScrubService.getLastReport();
+        if (report == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(new ErrorResponse("Scrub has not been run yet", 404));
+        }
+        return ResponseEntity.ok(report);
+    }
+
+    // Самые скачиваемые файлы - кандидаты в кэш; счетчики отстают от скачиваний на интервал сброса
+    @GetMapping("/admin/files/popular")
+    public ResponseEntity<?> getPopularFiles(
+            @RequestHeader(value = "Authorization", required = false) String authHeader,
+            @RequestHeader(value = "auth-token", required = false) String authToken,
+            @RequestParam(value = "days", defaultValue = "7") int days,
+            @RequestParam(value = "limit", defaultValue = "100") int limit) {
+
+        Optional<UserEntity> user = authenticate(authHeader, authToken);
+        if (user.isEmpty()) {
+            return unauthorizedResponse();
+        }
+        if (!adminLogins.contains(user.get().getLogin())) {
+            return forbiddenResponse();
+        }
+
+        return ResponseEntity.ok(fileAccessService.getPopular(days, limit).stream()
+                .map(CloudStorageController::toAccessResponse)
+                .toList());
+    }
+
+    // Давно не скачиваемые файлы, крупные первыми - кандидаты на перенос в холодное хранилище
+    @GetMapping("/admin/files/cold")
+    public ResponseEntity<?> getColdFiles(
+            @RequestHeader(value = "Authorization", required = false) String authHeader,
+            @RequestHeader(value = "auth-token", required = false) String authToken,
+            @RequestParam(value = "idleDays", defaultValue = "30") int idleDays,
+            @RequestParam(value = "limit", defaultValue = "100") int limit) {
+
+        Optional<UserEntity> user = authenticate(authHeader, authToken);
+        if (user.isEmpty()) {
+            return unauthorizedResponse();
+        }
+        if (!adminLogins.contains(user.get().getLogin())) {
+            return forbiddenResponse();
+        }
+
+        return ResponseEntity.ok(fileAccessService.getCold(idleDays, limit).stream()
+                .map(CloudStorageController::toAccessResponse)
+                .toList());
+    }
+
+    private static CopyResponse toCopyResponse(CopiedFile file) {
+        return new CopyResponse(file.filename(), file.size(), file.method());
+    }
+
+    private static FileAccessResponse toAccessResponse(FileAccessStat stat) {
+        return new FileAccessResponse(stat.login(), stat.filename(), stat.size(),
+                stat.downloadCount(), stat.lastAccessedAt());
+    }
+
     // Вспомогательные методы
+    private Optional<UserEntity> authenticate(String authHeader, String authToken) {
+        String token = extractTokenFromHeaders(authHeader, authToken);
+        if (token == null || !tokenService.validateToken(token)) {
+            return Optional.empty();
+        }
+
+        String username = tokenService.getUsernameFromToken(token);
+        if (username == null) {
+            return Optional.empty();
+        }
+        return userService.findByLogin(username);
+    }
+
     private String extractTokenFromHeaders(String authHeader, String authToken) {
         String token = authToken;
         if (token == null && authHeader != null && authHeader.startsWith("Bearer ")) {
@@ -306,6 +1088,17 @@ public class CloudStorageController {
                 .body(new ErrorResponse("Unauthorized", 401));
     }
 
+    private ResponseEntity<ErrorResponse> forbiddenResponse() {
+        return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                .body(new ErrorResponse("Forbidden", 403));
+    }
+
+    private ResponseEntity<ErrorResponse> serviceUnavailableResponse() {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(new ErrorResponse("Server is busy, retry later", 503));
+    }
+
     private void logAllHeaders(HttpServletRequest request) {
         System.out.println("=== REQUEST HEADERS ===");
         java.util.Enumeration<String> headerNames = request.getHeaderNames();
@@ -0,0 +1,15 @@
+package com.example.cloudstorage.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ArchiveImportResponse {
+    private int imported;
+    private List<String> skipped;
+}
@@ -0,0 +1,20 @@
+package com.example.cloudstorage.dto;
+
+import com.example.cloudstorage.repository.ChangeJournalRepository.JournalChange;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChangeListResponse {
+    private List<JournalChange> changes;
+    // Передается как since в следующий запрос
+    private long cursor;
+    private boolean hasMore;
+    // Курсор слишком старый: перечитать /list и продолжить с cursor
+    private boolean resync;
+}
@@ -0,0 +1,13 @@
+package com.example.cloudstorage.dto;
+
+import jakarta.validation.constraints.NotBlank;
+import lombok.Data;
+
+@Data
+public class CopyRequest {
+    // Исходный файл; в POST /file/copy передается параметром filename
+    private String filename;
+
+    @NotBlank(message = "New name is required")
+    private String name;
+}
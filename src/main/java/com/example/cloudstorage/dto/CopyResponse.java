@@ -0,0 +1,15 @@
+package com.example.cloudstorage.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CopyResponse {
+    private String filename;
+    private long size;
+    // reflink, hard_link, transfer или segment
+    private String method;
+}
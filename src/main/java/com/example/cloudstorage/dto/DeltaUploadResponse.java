@@ -0,0 +1,17 @@
+package com.example.cloudstorage.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DeltaUploadResponse {
+    private long size;
+    // Байт передано клиентом / скопировано из прежней версии / реально записано на диск
+    private long literalBytes;
+    private long copiedBytes;
+    private long writtenBytes;
+    private boolean inPlace;
+}
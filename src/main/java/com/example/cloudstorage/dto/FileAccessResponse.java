@@ -0,0 +1,18 @@
+package com.example.cloudstorage.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FileAccessResponse {
+    private String login;
+    private String filename;
+    private long size;
+    private long downloadCount;
+    private LocalDateTime lastAccessedAt;
+}
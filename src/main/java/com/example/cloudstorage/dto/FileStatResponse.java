@@ -0,0 +1,19 @@
+package com.example.cloudstorage.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FileStatResponse {
+    private String filename;
+    private long size;
+    private String contentType;
+    private String etag;
+    private LocalDateTime createdAt;
+    private LocalDateTime modifiedAt;
+}
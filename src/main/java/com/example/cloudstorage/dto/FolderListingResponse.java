@@ -0,0 +1,19 @@
+package com.example.cloudstorage.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FolderListingResponse {
+    // null для корня
+    private Long id;
+    // Цепочка папок от корня до текущей включительно
+    private List<FolderResponse> path;
+    private List<FolderResponse> folders;
+    private List<FileResponse> files;
+}
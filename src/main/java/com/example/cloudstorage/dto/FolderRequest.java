@@ -0,0 +1,13 @@
+package com.example.cloudstorage.dto;
+
+import jakarta.validation.constraints.NotBlank;
+import lombok.Data;
+
+@Data
+public class FolderRequest {
+    @NotBlank(message = "Folder name is required")
+    private String name;
+
+    // null - создать в корне
+    private Long parentId;
+}
@@ -0,0 +1,14 @@
+package com.example.cloudstorage.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FolderResponse {
+    private Long id;
+    private String name;
+    private Long parentId;
+}
@@ -0,0 +1,9 @@
+package com.example.cloudstorage.dto;
+
+import lombok.Data;
+
+@Data
+public class MoveRequest {
+    // Папка назначения; null - корень
+    private Long folderId;
+}
@@ -0,0 +1,31 @@
+package com.example.cloudstorage.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ScrubReport {
+    private boolean running;
+    private boolean repair;
+    private boolean verifyChecksums;
+    private LocalDateTime startedAt;
+    private LocalDateTime finishedAt;
+    private long rowsChecked;
+    private long blobsChecked;
+    private long bytesVerified;
+    // Строка есть, файла на диске нет / файл есть, строки нет
+    private long missingBlobs;
+    private long orphanBlobs;
+    private long sizeMismatches;
+    private long checksumMismatches;
+    private long repaired;
+    private String error;
+    // Первые найденные расхождения, для разбора вручную
+    private List<String> issues;
+}
@@ -0,0 +1,16 @@
+package com.example.cloudstorage.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TrashEntryResponse {
+    private String filename;
+    private long size;
+    private LocalDateTime deletedAt;
+}
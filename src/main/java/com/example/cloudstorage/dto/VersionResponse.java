@@ -0,0 +1,17 @@
+package com.example.cloudstorage.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class VersionResponse {
+    private int version;
+    private long size;
+    private String contentType;
+    private LocalDateTime createdAt;
+}
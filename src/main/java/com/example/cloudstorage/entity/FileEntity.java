@@ -2,10 +2,13 @@ package com.example.cloudstorage.entity;
 
 import jakarta.persistence.*;
 import lombok.Data;
+import org.hibernate.annotations.SQLRestriction;
 import java.time.LocalDateTime;
 
 @Entity
 @Table(name = "files")
+// Файлы в корзине не видны ни одному JPA-запросу; с корзиной работает TrashRepository
+@SQLRestriction("deleted_at IS NULL")
 @Data
 public class FileEntity {
     @Id
@@ -28,11 +31,34 @@ public class FileEntity {
     @JoinColumn(name = "user_id", nullable = false)
     private UserEntity user;
 
+    // null - файл в корне; папка влияет только на листинг, путь на диске от нее не зависит
+    @Column(name = "folder_id")
+    private Long folderId;
+
     @Column(name = "created_at")
     private LocalDateTime createdAt;
 
+    // Меняется только при записи содержимого; переименование и перенос в папку его не трогают
+    @Column(name = "modified_at")
+    private LocalDateTime modifiedAt;
+
+    @Column(name = "deleted_at")
+    private LocalDateTime deletedAt;
+
+    // Мелкий файл, упакованный в сегмент (file.pack.*): содержимое по адресу (сегмент, смещение, длина),
+    // отдельного файла на диске нет. У обычного файла - null
+    @Column(name = "segment_id")
+    private Long segmentId;
+
+    @Column(name = "segment_offset")
+    private Long segmentOffset;
+
+    @Column(name = "segment_length")
+    private Integer segmentLength;
+
     @PrePersist
     protected void onCreate() {
         createdAt = LocalDateTime.now();
+        modifiedAt = createdAt;
     }
 }
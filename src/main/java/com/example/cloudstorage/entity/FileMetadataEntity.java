@@ -0,0 +1,33 @@
+package com.example.cloudstorage.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.ToString;
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "file_metadata")
+@Data
+public class FileMetadataEntity {
+    @Id
+    @Column(name = "file_id")
+    private Long fileId;
+
+    @Column(length = 64)
+    private String checksum;
+
+    @Column(name = "detected_type", length = 100)
+    private String detectedType;
+
+    private Integer width;
+
+    private Integer height;
+
+    // Превью хранится рядом с метаданными, чтобы галерея не читала оригиналы с диска
+    @Column(columnDefinition = "bytea")
+    @ToString.Exclude
+    private byte[] thumbnail;
+
+    @Column(name = "processed_at")
+    private LocalDateTime processedAt;
+}
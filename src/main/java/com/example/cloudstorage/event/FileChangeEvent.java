@@ -0,0 +1,38 @@
+package com.example.cloudstorage.event;
+
+/**
+ * Публикуется FileStorageService после каждого изменения файлов пользователя.
+ * Слушатели (поисковый индекс и т.п.) поддерживают по нему свои производные структуры.
+ */
+public record FileChangeEvent(
+        Type type,
+        Long userId,
+        String login,
+        Long fileId,
+        String filename,
+        String oldFilename,
+        Long size
+) {
+    public enum Type {
+        CREATED,
+        DELETED,
+        RENAMED,
+        MODIFIED
+    }
+
+    public static FileChangeEvent created(Long userId, String login, Long fileId, String filename, Long size) {
+        return new FileChangeEvent(Type.CREATED, userId, login, fileId, filename, null, size);
+    }
+
+    public static FileChangeEvent deleted(Long userId, String login, Long fileId, String filename) {
+        return new FileChangeEvent(Type.DELETED, userId, login, fileId, filename, null, null);
+    }
+
+    public static FileChangeEvent modified(Long userId, String login, Long fileId, String filename, Long size) {
+        return new FileChangeEvent(Type.MODIFIED, userId, login, fileId, filename, null, size);
+    }
+
+    public static FileChangeEvent renamed(Long userId, String login, Long fileId, String oldFilename, String filename, Long size) {
+        return new FileChangeEvent(Type.RENAMED, userId, login, fileId, filename, oldFilename, size);
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.cloudstorage.event;
+
+import jakarta.annotation.PreDestroy;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.JdbcConnectionDetails;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Шина уведомлений между узлами на Postgres LISTEN/NOTIFY. Слушает отдельное соединение
+ * (не из пула), поэтому не занимает слот Hikari. Собственные уведомления узла отфильтровываются.
+ * Уведомления, пришедшие пока соединение было разорвано, теряются - после переподключения
+ * подписчики получают onResync и должны сбросить все, что строили на основе уведомлений.
+ */
+@Component
+public class PostgresNotificationBus {
+    private static final Pattern CHANNEL_NAME = Pattern.compile("[a-z_][a-z0-9_]*");
+    private static final long RECONNECT_DELAY_MS = 5000;
+
+    private final JdbcConnectionDetails connectionDetails;
+    private final JdbcTemplate jdbcTemplate;
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final Map<String, List<Consumer<String>>> handlers = new ConcurrentHashMap<>();
+    private final List<Runnable> resyncHandlers = new CopyOnWriteArrayList<>();
+
+    @Value("${cluster.notify.enabled:true}")
+    private boolean enabled;
+
+    @Value("${cluster.notify.poll-timeout-ms:1000}")
+    private int pollTimeoutMs;
+
+    private volatile boolean running;
+    private volatile boolean channelsChanged;
+    private volatile Connection connection;
+    private Thread listener;
+
+    public PostgresNotificationBus(JdbcConnectionDetails connectionDetails, JdbcTemplate jdbcTemplate) {
+        this.connectionDetails = connectionDetails;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public void subscribe(String channel, Consumer<String> handler) {
+        if (!CHANNEL_NAME.matcher(channel).matches()) {
+            throw new IllegalArgumentException("Invalid notification channel: " + channel);
+        }
+        handlers.computeIfAbsent(channel, key -> new CopyOnWriteArrayList<>()).add(handler);
+        channelsChanged = true;
+    }
+
+    public void onResync(Runnable handler) {
+        resyncHandlers.add(handler);
+    }
+
+    // Postgres доставит уведомление после коммита текущей транзакции (или сразу в autocommit)
+    public void publish(String channel, String payload) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            jdbcTemplate.query("/* notify.publish */ SELECT pg_notify(?, ?)", rs -> null, channel, nodeId + ":" + payload);
+        } catch (DataAccessException e) {
+            System.out.println("❌ Error publishing notification to " + channel + ": " + e.getMessage());
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled || running) {
+            return;
+        }
+        running = true;
+        listener = new Thread(this::listen, "pg-notification-listener");
+        listener.setDaemon(true);
+        listener.start();
+    }
+
+    @PreDestroy
+    void stop() {
+        running = false;
+        if (listener != null) {
+            listener.interrupt();
+        }
+        closeConnection();
+    }
+
+    private void listen() {
+        while (running) {
+            try {
+                connection = DriverManager.getConnection(connectionDetails.getJdbcUrl(),
+                        connectionDetails.getUsername(), connectionDetails.getPassword());
+                channelsChanged = true;
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                resyncHandlers.forEach(Runnable::run);
+
+                while (running) {
+                    if (channelsChanged) {
+                        listenAll();
+                    }
+                    PGNotification[] notifications = pgConnection.getNotifications(pollTimeoutMs);
+                    if (notifications != null) {
+                        for (PGNotification notification : notifications) {
+                            dispatch(notification.getName(), notification.getParameter());
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                if (running) {
+                    System.out.println("❌ Notification listener disconnected: " + e.getMessage());
+                }
+            } finally {
+                closeConnection();
+            }
+
+            if (running) {
+                try {
+                    Thread.sleep(RECONNECT_DELAY_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void listenAll() throws SQLException {
+        channelsChanged = false;
+        try (Statement statement = connection.createStatement()) {
+            for (String channel : handlers.keySet()) {
+                // Имя канала проверено в subscribe(), LISTEN не принимает параметры
+                statement.execute("LISTEN " + channel);
+            }
+        }
+    }
+
+    private void dispatch(String channel, String message) {
+        int separator = message.indexOf(':');
+        if (separator < 0 || message.substring(0, separator).equals(nodeId)) {
+            return;
+        }
+        String payload = message.substring(separator + 1);
+        for (Consumer<String> handler : handlers.getOrDefault(channel, List.of())) {
+            try {
+                handler.accept(payload);
+            } catch (RuntimeException e) {
+                System.out.println("❌ Error handling notification on " + channel + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void closeConnection() {
+        Connection current = connection;
+        connection = null;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (SQLException e) {
+                // Соединение уже разорвано
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.cloudstorage.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Журнал изменений файлов: у каждого пользователя своя возрастающая последовательность номеров.
+ * Записи старше срока хранения удаляются сжатием, граница сохраняется в file_change_seq.min_seq.
+ */
+@Repository
+public class ChangeJournalRepository {
+    private final JdbcTemplate jdbcTemplate;
+
+    public ChangeJournalRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public record NewChange(String type, String filename, String oldFilename, Long size) {
+    }
+
+    public record JournalChange(long seq, String type, String filename, String oldFilename, Long size,
+                                LocalDateTime changedAt) {
+    }
+
+    public record RenamedName(String login, String oldFilename, LocalDateTime renamedAt) {
+    }
+
+    // seq - последний выданный номер, horizon - номер, до которого (включительно) журнал сжат
+    public record Cursor(long seq, long horizon) {
+    }
+
+    // Одна вставка на пачку: счетчик увеличивается сразу на размер пачки, номера раздаются по порядку
+    public void append(Long userId, List<NewChange> changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.update(connection -> {
+            PreparedStatement statement = connection.prepareStatement(
+                    "WITH counter AS (INSERT INTO file_change_seq (user_id, seq) VALUES (?, ?) " +
+                            "ON CONFLICT (user_id) DO UPDATE SET seq = file_change_seq.seq + EXCLUDED.seq RETURNING seq) " +
+                            "INSERT INTO file_changes (user_id, seq, type, filename, old_filename, size) " +
+                            "SELECT ?, counter.seq - ? + t.ord, t.type, t.filename, t.old_filename, t.size " +
+                            "FROM counter, unnest(?::varchar[], ?::varchar[], ?::varchar[], ?::bigint[]) " +
+                            "WITH ORDINALITY AS t(type, filename, old_filename, size, ord)");
+            statement.setLong(1, userId);
+            statement.setLong(2, changes.size());
+            statement.setLong(3, userId);
+            statement.setLong(4, changes.size());
+            statement.setArray(5, connection.createArrayOf("varchar", changes.stream().map(NewChange::type).toArray()));
+            statement.setArray(6, connection.createArrayOf("varchar", changes.stream().map(NewChange::filename).toArray()));
+            statement.setArray(7, connection.createArrayOf("varchar", changes.stream().map(NewChange::oldFilename).toArray()));
+            statement.setArray(8, connection.createArrayOf("bigint", changes.stream().map(NewChange::size).toArray()));
+            return statement;
+        });
+    }
+
+    public Cursor findCursor(Long userId) {
+        return jdbcTemplate.query(
+                "SELECT seq, min_seq FROM file_change_seq WHERE user_id = ?",
+                (rs, rowNum) -> new Cursor(rs.getLong("seq"), rs.getLong("min_seq")),
+                userId
+        ).stream().findFirst().orElse(new Cursor(0, 0));
+    }
+
+    // Читается по первичному ключу (user_id, seq) - стоимость зависит от числа изменений, а не файлов
+    public List<JournalChange> findSince(Long userId, long since, int limit) {
+        return jdbcTemplate.query(
+                "SELECT seq, type, filename, old_filename, size, changed_at FROM file_changes " +
+                        "WHERE user_id = ? AND seq > ? ORDER BY seq LIMIT ?",
+                (rs, rowNum) -> new JournalChange(
+                        rs.getLong("seq"),
+                        rs.getString("type"),
+                        rs.getString("filename"),
+                        rs.getString("old_filename"),
+                        rs.getObject("size", Long.class),
+                        rs.getTimestamp("changed_at").toLocalDateTime()),
+                userId, since, limit);
+    }
+
+    // Прежние имена переименованных файлов за окно времени; выборка идет по индексу changed_at
+    public List<RenamedName> findRenamedSince(long seconds) {
+        return jdbcTemplate.query(
+                "SELECT u.login, c.old_filename, c.changed_at FROM file_changes c JOIN users u ON u.id = c.user_id " +
+                        "WHERE c.changed_at > NOW() - (? * INTERVAL '1 second') AND c.type = 'renamed'",
+                (rs, rowNum) -> new RenamedName(rs.getString("login"), rs.getString("old_filename"),
+                        rs.getTimestamp("changed_at").toLocalDateTime()),
+                seconds);
+    }
+
+    // Удаляет пачку записей старше срока хранения и сдвигает границу журнала их пользователей
+    public int compact(long retentionSeconds, int limit) {
+        Integer removed = jdbcTemplate.queryForObject(
+                "WITH removed AS (DELETE FROM file_changes WHERE (user_id, seq) IN (" +
+                        "SELECT user_id, seq FROM file_changes WHERE changed_at < NOW() - (? * INTERVAL '1 second') " +
+                        "ORDER BY changed_at LIMIT ? FOR UPDATE SKIP LOCKED) RETURNING user_id, seq), " +
+                        "horizons AS (UPDATE file_change_seq c SET min_seq = GREATEST(c.min_seq, h.seq) " +
+                        "FROM (SELECT user_id, MAX(seq) AS seq FROM removed GROUP BY user_id) h " +
+                        "WHERE c.user_id = h.user_id RETURNING 1) " +
+                        "SELECT COUNT(*) FROM removed",
+                Integer.class, retentionSeconds, limit);
+        return removed != null ? removed : 0;
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.cloudstorage.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Накопленная статистика обращений к файлам. Пишется только пачками из FileAccessService,
+ * читается администратором для выбора горячих (кэш) и холодных (вынос на дешевый том) файлов.
+ */
+@Repository
+public class FileAccessRepository {
+    private final JdbcTemplate jdbcTemplate;
+
+    public FileAccessRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public record AccessDelta(long fileId, long hits, LocalDateTime lastAccessedAt) {
+    }
+
+    public record FileAccessStat(long fileId, String login, String filename, long size,
+                                 long downloadCount, LocalDateTime lastAccessedAt) {
+    }
+
+    /**
+     * Одна вставка на весь сброс. Строки упорядочены по file_id, чтобы параллельные сбросы с разных узлов
+     * брали блокировки в одном порядке; id файлов, удаленных за это время, отбрасываются соединением с files.
+     */
+    public int upsert(List<AccessDelta> deltas) {
+        if (deltas.isEmpty()) {
+            return 0;
+        }
+        return jdbcTemplate.update(connection -> {
+            PreparedStatement statement = connection.prepareStatement(
+                    "INSERT INTO file_access_stats (file_id, download_count, last_accessed_at) " +
+                            "SELECT t.file_id, t.hits, t.accessed_at " +
+                            "FROM unnest(?::bigint[], ?::bigint[], ?::timestamp[]) AS t(file_id, hits, accessed_at) " +
+                            "JOIN files f ON f.id = t.file_id ORDER BY t.file_id " +
+                            "ON CONFLICT (file_id) DO UPDATE SET " +
+                            "download_count = file_access_stats.download_count + EXCLUDED.download_count, " +
+                            "last_accessed_at = GREATEST(file_access_stats.last_accessed_at, EXCLUDED.last_accessed_at)");
+            statement.setArray(1, connection.createArrayOf("bigint", deltas.stream().map(AccessDelta::fileId).toArray()));
+            statement.setArray(2, connection.createArrayOf("bigint", deltas.stream().map(AccessDelta::hits).toArray()));
+            statement.setArray(3, connection.createArrayOf("timestamp",
+                    deltas.stream().map(delta -> Timestamp.valueOf(delta.lastAccessedAt())).toArray()));
+            return statement;
+        });
+    }
+
+    // Самые скачиваемые живые файлы среди тех, к которым обращались за последние days дней
+    public List<FileAccessStat> findPopular(int days, int limit) {
+        return jdbcTemplate.query(
+                "SELECT s.file_id, u.login, f.filename, f.size, s.download_count, s.last_accessed_at " +
+                        "FROM file_access_stats s JOIN files f ON f.id = s.file_id AND f.deleted_at IS NULL " +
+                        "JOIN users u ON u.id = f.user_id " +
+                        "WHERE s.last_accessed_at > NOW() - (? * INTERVAL '1 day') " +
+                        "ORDER BY s.download_count DESC, s.file_id LIMIT ?",
+                (rs, rowNum) -> stat(rs.getLong("file_id"), rs.getString("login"), rs.getString("filename"),
+                        rs.getLong("size"), rs.getLong("download_count"), rs.getTimestamp("last_accessed_at")),
+                days, limit);
+    }
+
+    /**
+     * Живые файлы, к которым не обращались дольше idleDays дней (никогда не скачанные - по времени создания),
+     * самые крупные первыми: их перенос освобождает больше места на быстром томе.
+     */
+    public List<FileAccessStat> findCold(int idleDays, int limit) {
+        return jdbcTemplate.query(
+                "SELECT f.id AS file_id, u.login, f.filename, f.size, COALESCE(s.download_count, 0) AS download_count, " +
+                        "s.last_accessed_at FROM files f JOIN users u ON u.id = f.user_id " +
+                        "LEFT JOIN file_access_stats s ON s.file_id = f.id " +
+                        "WHERE f.deleted_at IS NULL " +
+                        "AND COALESCE(s.last_accessed_at, f.created_at) < NOW() - (? * INTERVAL '1 day') " +
+                        "ORDER BY f.size DESC, f.id LIMIT ?",
+                (rs, rowNum) -> stat(rs.getLong("file_id"), rs.getString("login"), rs.getString("filename"),
+                        rs.getLong("size"), rs.getLong("download_count"), rs.getTimestamp("last_accessed_at")),
+                idleDays, limit);
+    }
+
+    private static FileAccessStat stat(long fileId, String login, String filename, long size,
+                                       long downloadCount, Timestamp lastAccessedAt) {
+        return new FileAccessStat(fileId, login, filename, size, downloadCount,
+                lastAccessedAt != null ? lastAccessedAt.toLocalDateTime() : null);
+    }
+}
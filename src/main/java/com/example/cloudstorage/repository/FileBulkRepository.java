@@ -0,0 +1,87 @@
+package com.example.cloudstorage.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+@Repository
+public class FileBulkRepository {
+    private final JdbcTemplate jdbcTemplate;
+
+    public FileBulkRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public record NewFile(String filename, long size, String contentType) {
+    }
+
+    public record FileStat(long id, String filename, long size, String contentType,
+                           LocalDateTime createdAt, LocalDateTime modifiedAt) {
+
+        // Новая загрузка под тем же именем получает новый id, перезапись содержимого - новый modified_at
+        public String etag() {
+            long modifiedMillis = modifiedAt.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            return "\"" + Long.toHexString(id) + "-" + Long.toHexString(modifiedMillis) + "-" + Long.toHexString(size) + "\"";
+        }
+    }
+
+    // Одна вставка на пачку через unnest: один round trip и сгенерированные id в ответе
+    public Map<String, Long> insertAll(Long userId, List<NewFile> files) {
+        String[] filenames = files.stream().map(NewFile::filename).toArray(String[]::new);
+        Long[] sizes = files.stream().map(NewFile::size).toArray(Long[]::new);
+        String[] contentTypes = files.stream().map(NewFile::contentType).toArray(String[]::new);
+
+        Map<String, Long> ids = new LinkedHashMap<>();
+        jdbcTemplate.query(
+                connection -> {
+                    PreparedStatement statement = connection.prepareStatement(
+                            "INSERT INTO files (filename, original_filename, size, content_type, user_id, created_at, modified_at) " +
+                                    "SELECT t.filename, t.filename, t.size, t.content_type, ?, NOW(), NOW() " +
+                                    "FROM unnest(?::varchar[], ?::bigint[], ?::varchar[]) AS t(filename, size, content_type) " +
+                                    "RETURNING id, filename");
+                    statement.setLong(1, userId);
+                    statement.setArray(2, connection.createArrayOf("varchar", filenames));
+                    statement.setArray(3, connection.createArrayOf("bigint", sizes));
+                    statement.setArray(4, connection.createArrayOf("varchar", contentTypes));
+                    return statement;
+                },
+                rs -> {
+                    ids.put(rs.getString("filename"), rs.getLong("id"));
+                }
+        );
+        return ids;
+    }
+
+    // Метаданные по списку имен одним запросом; строки передаются потребителю по мере чтения, без сборки списка
+    public void forEachStat(Long userId, Collection<String> filenames, Consumer<FileStat> consumer) {
+        jdbcTemplate.query(
+                connection -> {
+                    PreparedStatement statement = connection.prepareStatement(
+                            "SELECT id, filename, size, content_type, created_at, COALESCE(modified_at, created_at) AS modified_at " +
+                                    "FROM files WHERE user_id = ? AND filename = ANY(?) AND deleted_at IS NULL");
+                    statement.setLong(1, userId);
+                    statement.setArray(2, connection.createArrayOf("varchar", filenames.toArray()));
+                    // В транзакции драйвер читает курсором, а не загружает весь результат в память
+                    statement.setFetchSize(500);
+                    return statement;
+                },
+                rs -> {
+                    consumer.accept(new FileStat(
+                            rs.getLong("id"),
+                            rs.getString("filename"),
+                            rs.getLong("size"),
+                            rs.getString("content_type"),
+                            rs.getTimestamp("created_at").toLocalDateTime(),
+                            rs.getTimestamp("modified_at").toLocalDateTime()));
+                }
+        );
+    }
+}
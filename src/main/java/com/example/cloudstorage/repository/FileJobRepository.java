@@ -0,0 +1,87 @@
+package com.example.cloudstorage.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.PreparedStatement;
+import java.util.List;
+
+@Repository
+public class FileJobRepository {
+    private final JdbcTemplate jdbcTemplate;
+
+    public FileJobRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public record ClaimedJob(long id, long fileId, int attempts) {
+    }
+
+    // Задача ставится в той же транзакции, что и строка файла: иначе сбой между ними оставит файл без обработки
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void enqueue(Long fileId) {
+        jdbcTemplate.update("INSERT INTO file_jobs (file_id) VALUES (?)", fileId);
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void enqueueAll(List<Long> fileIds) {
+        if (fileIds.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.update(connection -> {
+            PreparedStatement statement = connection.prepareStatement("INSERT INTO file_jobs (file_id) SELECT unnest(?::bigint[])");
+            statement.setArray(1, connection.createArrayOf("bigint", fileIds.toArray()));
+            return statement;
+        });
+    }
+
+    // Забираем пачку задач; SKIP LOCKED позволяет нескольким узлам разбирать очередь без блокировок друг друга.
+    // Задачи RUNNING с истекшей арендой (упавший воркер) подбираются повторно.
+    public List<ClaimedJob> claim(int limit, int leaseSeconds) {
+        return jdbcTemplate.query(
+                "UPDATE file_jobs SET status = 'RUNNING', attempts = attempts + 1, " +
+                        "locked_until = NOW() + (? * INTERVAL '1 second'), updated_at = NOW() " +
+                        "WHERE id IN (SELECT id FROM file_jobs " +
+                        "WHERE (status = 'PENDING' AND next_run_at <= NOW()) " +
+                        "OR (status = 'RUNNING' AND locked_until < NOW()) " +
+                        "ORDER BY next_run_at LIMIT ? FOR UPDATE SKIP LOCKED) " +
+                        "RETURNING id, file_id, attempts",
+                (rs, rowNum) -> new ClaimedJob(rs.getLong("id"), rs.getLong("file_id"), rs.getInt("attempts")),
+                leaseSeconds, limit
+        );
+    }
+
+    public void complete(long jobId) {
+        jdbcTemplate.update("DELETE FROM file_jobs WHERE id = ?", jobId);
+    }
+
+    public void retryLater(long jobId, long delayMillis, String error) {
+        jdbcTemplate.update(
+                "UPDATE file_jobs SET status = 'PENDING', locked_until = NULL, last_error = ?, " +
+                        "next_run_at = NOW() + (? * INTERVAL '1 millisecond'), updated_at = NOW() WHERE id = ?",
+                truncate(error), delayMillis, jobId
+        );
+    }
+
+    public void fail(long jobId, String error) {
+        jdbcTemplate.update(
+                "UPDATE file_jobs SET status = 'FAILED', locked_until = NULL, last_error = ?, updated_at = NOW() WHERE id = ?",
+                truncate(error), jobId
+        );
+    }
+
+    public long countPending() {
+        Long count = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM file_jobs WHERE status IN ('PENDING', 'RUNNING')", Long.class);
+        return count != null ? count : 0;
+    }
+
+    private String truncate(String error) {
+        if (error == null) {
+            return null;
+        }
+        return error.length() > 1000 ? error.substring(0, 1000) : error;
+    }
+}
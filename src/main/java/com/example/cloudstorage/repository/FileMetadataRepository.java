@@ -0,0 +1,9 @@
+package com.example.cloudstorage.repository;
+
+import com.example.cloudstorage.entity.FileMetadataEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface FileMetadataRepository extends JpaRepository<FileMetadataEntity, Long> {
+}
@@ -1,11 +1,17 @@
 package com.example.cloudstorage.repository;
 
+import com.example.cloudstorage.dto.FileResponse;
 import com.example.cloudstorage.entity.FileEntity;
 import com.example.cloudstorage.entity.UserEntity;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -14,6 +20,25 @@ public interface FileRepository  extends JpaRepository<FileEntity, Long> {
     Optional<FileEntity> findByUserAndFilename(UserEntity user, String filename);
     List<FileEntity> findByUserOrderByCreatedAtDesc(UserEntity user);
     boolean existsByUserAndFilename(UserEntity user, String filename);
+    List<FileEntity> findByUserAndFilenameIn(UserEntity user, Collection<String> filenames);
+    @Query("SELECT f FROM FileEntity f JOIN FETCH f.user WHERE f.id = :id")
+    Optional<FileEntity> findWithUserById(@Param("id") Long id);
+    @Query("SELECT f FROM FileEntity f JOIN FETCH f.user u WHERE u.login = :login AND f.filename = :filename AND f.segmentId IS NOT NULL")
+    Optional<FileEntity> findPackedByLoginAndFilename(@Param("login") String login, @Param("filename") String filename);
+    @Query("SELECT new com.example.cloudstorage.dto.FileResponse(f.filename, f.size) FROM FileEntity f WHERE f.user.id = :userId")
+    List<FileResponse> findNamesAndSizesByUserId(@Param("userId") Long userId);
+    // Холодный путь поиска: LIKE по lower(filename) обслуживается GIN-индексом pg_trgm
+    @Query(value = "SELECT * FROM files WHERE user_id = :userId AND deleted_at IS NULL AND lower(filename) LIKE :pattern ESCAPE '\\' " +
+            "ORDER BY lower(filename), filename LIMIT :limit OFFSET :offset", nativeQuery = true)
+    List<FileEntity> searchByFilenamePattern(@Param("userId") Long userId, @Param("pattern") String pattern,
+                                             @Param("limit") int limit, @Param("offset") int offset);
+    List<FileEntity> findByUserAndFolderIdOrderByFilename(UserEntity user, Long folderId, Limit limit);
+    List<FileEntity> findByUserAndFolderIdIsNullOrderByFilename(UserEntity user, Limit limit);
+    boolean existsByFolderId(Long folderId);
+    @Transactional
+    @Modifying
+    @Query("UPDATE FileEntity f SET f.folderId = :folderId WHERE f.user = :user AND f.filename = :filename")
+    int moveToFolder(@Param("user") UserEntity user, @Param("filename") String filename, @Param("folderId") Long folderId);
     @Transactional
     void deleteByUserAndFilename(UserEntity user, String filename);
 }
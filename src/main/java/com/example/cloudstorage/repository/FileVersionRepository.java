@@ -0,0 +1,120 @@
+package com.example.cloudstorage.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public class FileVersionRepository {
+    private final JdbcTemplate jdbcTemplate;
+
+    public FileVersionRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public record Version(long id, int version, long size, String contentType, LocalDateTime createdAt) {
+    }
+
+    // Регистрирует чанки (или продлевает им жизнь) до того, как на них появятся ссылки:
+    // сборщик мусора не удаляет чанки моложе grace-периода
+    public void touchChunks(List<String> hashes, List<Integer> sizes) {
+        if (hashes.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.update(connection -> {
+            PreparedStatement statement = connection.prepareStatement(
+                    "INSERT INTO file_chunks (hash, size) SELECT * FROM unnest(?::char(64)[], ?::integer[]) " +
+                            "ON CONFLICT (hash) DO UPDATE SET created_at = NOW()");
+            statement.setArray(1, connection.createArrayOf("varchar", hashes.toArray()));
+            statement.setArray(2, connection.createArrayOf("integer", sizes.toArray()));
+            return statement;
+        });
+    }
+
+    // Номер версии вычисляется в том же запросе; параллельный снимок того же файла упадет на UNIQUE
+    public Version insertVersion(long fileId, long size, String contentType) {
+        return jdbcTemplate.queryForObject(
+                "INSERT INTO file_versions (file_id, version, size, content_type) " +
+                        "SELECT ?, COALESCE(MAX(version), 0) + 1, ?, ? FROM file_versions WHERE file_id = ? " +
+                        "RETURNING id, version, size, content_type, created_at",
+                (rs, rowNum) -> new Version(rs.getLong("id"), rs.getInt("version"), rs.getLong("size"),
+                        rs.getString("content_type"), rs.getTimestamp("created_at").toLocalDateTime()),
+                fileId, size, contentType, fileId
+        );
+    }
+
+    public void insertChunkRefs(long versionId, List<String> hashes) {
+        if (hashes.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.update(connection -> {
+            PreparedStatement statement = connection.prepareStatement(
+                    "INSERT INTO file_version_chunks (version_id, seq, chunk_hash) " +
+                            "SELECT ?, ord, hash FROM unnest(?::char(64)[]) WITH ORDINALITY AS t(hash, ord)");
+            statement.setLong(1, versionId);
+            statement.setArray(2, connection.createArrayOf("varchar", hashes.toArray()));
+            return statement;
+        });
+    }
+
+    public List<Version> findVersions(long fileId) {
+        return jdbcTemplate.query(
+                "SELECT id, version, size, content_type, created_at FROM file_versions WHERE file_id = ? ORDER BY version DESC",
+                (rs, rowNum) -> new Version(rs.getLong("id"), rs.getInt("version"), rs.getLong("size"),
+                        rs.getString("content_type"), rs.getTimestamp("created_at").toLocalDateTime()),
+                fileId
+        );
+    }
+
+    public Optional<Version> findVersion(long fileId, int version) {
+        return jdbcTemplate.query(
+                "SELECT id, version, size, content_type, created_at FROM file_versions WHERE file_id = ? AND version = ?",
+                (rs, rowNum) -> new Version(rs.getLong("id"), rs.getInt("version"), rs.getLong("size"),
+                        rs.getString("content_type"), rs.getTimestamp("created_at").toLocalDateTime()),
+                fileId, version
+        ).stream().findFirst();
+    }
+
+    public List<String> findChunkHashes(long versionId) {
+        return jdbcTemplate.queryForList(
+                "SELECT chunk_hash FROM file_version_chunks WHERE version_id = ? ORDER BY seq",
+                String.class, versionId);
+    }
+
+    // Оставляет keep последних версий и удаляет версии старше maxAgeDays (0 - без ограничения по возрасту)
+    public int deleteByRetention(long fileId, int keep, int maxAgeDays) {
+        return jdbcTemplate.update(
+                "DELETE FROM file_versions WHERE file_id = ? AND (" +
+                        "version <= (SELECT MAX(version) FROM file_versions WHERE file_id = ?) - ? " +
+                        "OR (? > 0 AND created_at < NOW() - (? * INTERVAL '1 day')))",
+                fileId, fileId, keep, maxAgeDays, maxAgeDays
+        );
+    }
+
+    public int deleteOlderThan(int maxAgeDays) {
+        return jdbcTemplate.update(
+                "DELETE FROM file_versions WHERE created_at < NOW() - (? * INTERVAL '1 day')", maxAgeDays);
+    }
+
+    public void deleteVersion(long versionId) {
+        jdbcTemplate.update("DELETE FROM file_versions WHERE id = ?", versionId);
+    }
+
+    public void deleteByFileId(long fileId) {
+        jdbcTemplate.update("DELETE FROM file_versions WHERE file_id = ?", fileId);
+    }
+
+    // Вызывается в транзакции: строки чанков остаются заблокированными, пока файлы удаляются с диска,
+    // поэтому параллельный touchChunks того же хэша дождется коммита и запишет чанк заново
+    public List<String> deleteUnreferencedChunks(int graceSeconds, int limit) {
+        return jdbcTemplate.queryForList(
+                "DELETE FROM file_chunks WHERE hash IN (SELECT hash FROM file_chunks " +
+                        "WHERE ref_count = 0 AND created_at < NOW() - (? * INTERVAL '1 second') " +
+                        "LIMIT ? FOR UPDATE SKIP LOCKED) RETURNING hash",
+                String.class, graceSeconds, limit);
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.cloudstorage.repository;
+
+import com.example.cloudstorage.entity.FolderEntity;
+import com.example.cloudstorage.entity.UserEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface FolderRepository extends JpaRepository<FolderEntity, Long> {
+    interface PathElement {
+        Long getId();
+        String getName();
+    }
+
+    Optional<FolderEntity> findByIdAndUser(Long id, UserEntity user);
+    List<FolderEntity> findByUserAndParentIdOrderByName(UserEntity user, Long parentId);
+    List<FolderEntity> findByUserAndParentIdIsNullOrderByName(UserEntity user);
+    boolean existsByUserAndParentIdAndName(UserEntity user, Long parentId, String name);
+    boolean existsByUserAndParentIdIsNullAndName(UserEntity user, String name);
+    boolean existsByParentId(Long parentId);
+    // Цепочка от корня до папки; глубина ограничена, чтобы испорченные данные не зациклили запрос
+    @Query(value = "WITH RECURSIVE ancestors(id, parent_id, name, depth) AS (" +
+            "SELECT id, parent_id, name, 0 FROM folders WHERE id = :id " +
+            "UNION ALL " +
+            "SELECT f.id, f.parent_id, f.name, a.depth + 1 FROM folders f JOIN ancestors a ON f.id = a.parent_id " +
+            "WHERE a.depth < :maxDepth) " +
+            "SELECT id, name FROM ancestors ORDER BY depth DESC", nativeQuery = true)
+    List<PathElement> findPath(@Param("id") Long id, @Param("maxDepth") int maxDepth);
+    // Изменения дерева папок пользователя выполняются по очереди: иначе два встречных переноса образуют цикл,
+    // а параллельные создание и переименование - две одноименные папки
+    @Query(value = "SELECT 1 FROM (SELECT pg_advisory_xact_lock(:userId)) AS tree_lock", nativeQuery = true)
+    Integer lockUserTree(@Param("userId") Long userId);
+}
@@ -0,0 +1,98 @@
+package com.example.cloudstorage.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+/**
+ * Сегменты упаковки мелких файлов и адреса файлов в них (files.segment_*). Строки files здесь читаются
+ * без учета корзины: удаленный файл можно восстановить, поэтому его содержимое в сегменте остается живым.
+ */
+@Repository
+public class PackedSegmentRepository {
+    private final JdbcTemplate jdbcTemplate;
+
+    public PackedSegmentRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public record SegmentUsage(long id, long liveBytes) {
+    }
+
+    public record PackedEntry(long fileId, long offset, int length) {
+    }
+
+    public long create() {
+        return jdbcTemplate.queryForObject("INSERT INTO pack_segments DEFAULT VALUES RETURNING id", Long.class);
+    }
+
+    public void seal(long segmentId) {
+        jdbcTemplate.update("UPDATE pack_segments SET sealed = TRUE WHERE id = ?", segmentId);
+    }
+
+    /**
+     * Сегменты, которые можно уплотнять: запечатанные и брошенные (не запечатаны, но старше abandonedSeconds -
+     * узел, который в них писал, упал), с суммой длин файлов, которые на них ссылаются.
+     */
+    public List<SegmentUsage> findCompactable(long abandonedSeconds) {
+        return jdbcTemplate.query(
+                "SELECT s.id, COALESCE(SUM(f.segment_length), 0) AS live_bytes FROM pack_segments s " +
+                        "LEFT JOIN files f ON f.segment_id = s.id " +
+                        "WHERE s.retired_at IS NULL " +
+                        "AND (s.sealed OR s.created_at < NOW() - (? * INTERVAL '1 second')) " +
+                        "AND (s.lease_until IS NULL OR s.lease_until < NOW()) " +
+                        "GROUP BY s.id ORDER BY s.id",
+                (rs, rowNum) -> new SegmentUsage(rs.getLong("id"), rs.getLong("live_bytes")),
+                abandonedSeconds);
+    }
+
+    // Аренда на уплотнение: один сегмент уплотняет один узел; после падения узла аренда истекает
+    public boolean claim(long segmentId, long leaseSeconds) {
+        return jdbcTemplate.update(
+                "UPDATE pack_segments SET lease_until = NOW() + (? * INTERVAL '1 second') " +
+                        "WHERE id = ? AND retired_at IS NULL AND (lease_until IS NULL OR lease_until < NOW())",
+                leaseSeconds, segmentId) > 0;
+    }
+
+    public List<PackedEntry> findEntries(long segmentId) {
+        return jdbcTemplate.query(
+                "SELECT id, segment_offset, segment_length FROM files WHERE segment_id = ? ORDER BY segment_offset",
+                (rs, rowNum) -> new PackedEntry(rs.getLong("id"), rs.getLong("segment_offset"), rs.getInt("segment_length")),
+                segmentId);
+    }
+
+    // Адрес меняется, только если файл все еще там, откуда его скопировали (его не распаковали и не удалили)
+    public boolean relocate(long fileId, long fromSegmentId, long fromOffset, long toSegmentId, long toOffset) {
+        return jdbcTemplate.update(
+                "UPDATE files SET segment_id = ?, segment_offset = ? WHERE id = ? AND segment_id = ? AND segment_offset = ?",
+                toSegmentId, toOffset, fileId, fromSegmentId, fromOffset) > 0;
+    }
+
+    // Файл перенесен в отдельный файл на диске
+    public void unpack(long fileId) {
+        jdbcTemplate.update(
+                "UPDATE files SET segment_id = NULL, segment_offset = NULL, segment_length = NULL WHERE id = ?", fileId);
+    }
+
+    // Сегмент без ссылок выводится из оборота; файл удаляется позже, когда дочитают начатые по старому адресу чтения
+    public boolean retire(long segmentId) {
+        return jdbcTemplate.update(
+                "UPDATE pack_segments SET retired_at = NOW(), lease_until = NULL WHERE id = ? AND retired_at IS NULL " +
+                        "AND NOT EXISTS (SELECT 1 FROM files WHERE segment_id = ?)",
+                segmentId, segmentId) > 0;
+    }
+
+    public List<Long> findExpired(long graceSeconds) {
+        return jdbcTemplate.queryForList(
+                "SELECT id FROM pack_segments WHERE retired_at < NOW() - (? * INTERVAL '1 second') ORDER BY id",
+                Long.class, graceSeconds);
+    }
+
+    public boolean delete(long segmentId) {
+        return jdbcTemplate.update(
+                "DELETE FROM pack_segments WHERE id = ? AND retired_at IS NOT NULL " +
+                        "AND NOT EXISTS (SELECT 1 FROM files WHERE segment_id = ?)",
+                segmentId, segmentId) > 0;
+    }
+}
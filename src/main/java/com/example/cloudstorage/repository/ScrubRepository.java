@@ -0,0 +1,93 @@
+package com.example.cloudstorage.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+@Repository
+public class ScrubRepository {
+    private static final String SELECT_STORED =
+            "SELECT f.id, f.user_id, u.login, f.filename, f.size, f.created_at, m.checksum, m.processed_at, " +
+                    "f.segment_id, f.segment_offset, f.segment_length " +
+                    "FROM files f JOIN users u ON u.id = f.user_id LEFT JOIN file_metadata m ON m.file_id = f.id ";
+
+    private static final RowMapper<StoredFile> STORED_FILE = (rs, rowNum) -> new StoredFile(
+            rs.getLong("id"), rs.getLong("user_id"), rs.getString("login"), rs.getString("filename"),
+            rs.getLong("size"), toLocalDateTime(rs.getTimestamp("created_at")),
+            rs.getString("checksum"), toLocalDateTime(rs.getTimestamp("processed_at")),
+            rs.getObject("segment_id", Long.class), rs.getLong("segment_offset"), rs.getInt("segment_length"));
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public ScrubRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    // segmentId не null - файл упакован в сегмент по адресу (segmentId, segmentOffset, segmentLength)
+    public record StoredFile(long id, long userId, String login, String filename, long size,
+                             LocalDateTime createdAt, String checksum, LocalDateTime checksumAt,
+                             Long segmentId, long segmentOffset, int segmentLength) {
+    }
+
+    // Keyset-пагинация по id: каждая страница - короткий индексный запрос, без OFFSET и длинной транзакции
+    public List<StoredFile> findAfter(long afterId, int limit) {
+        return jdbcTemplate.query(SELECT_STORED + "WHERE f.id > ? ORDER BY f.id LIMIT ?", STORED_FILE, afterId, limit);
+    }
+
+    public long countFiles() {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM files", Long.class);
+    }
+
+    public List<StoredFile> findByIds(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        return jdbcTemplate.query(
+                connection -> {
+                    PreparedStatement statement = connection.prepareStatement(SELECT_STORED + "WHERE f.id = ANY(?)");
+                    statement.setArray(1, connection.createArrayOf("bigint", ids.toArray()));
+                    return statement;
+                },
+                STORED_FILE);
+    }
+
+    // Какие из имен, найденных в каталоге пользователя, зарегистрированы в БД
+    public Set<String> findExistingFilenames(String login, List<String> filenames) {
+        Set<String> existing = new HashSet<>();
+        if (filenames.isEmpty()) {
+            return existing;
+        }
+        jdbcTemplate.query(
+                connection -> {
+                    PreparedStatement statement = connection.prepareStatement(
+                            "SELECT f.filename FROM files f JOIN users u ON u.id = f.user_id " +
+                                    "WHERE u.login = ? AND f.filename = ANY(?)");
+                    statement.setString(1, login);
+                    statement.setArray(2, connection.createArrayOf("varchar", filenames.toArray()));
+                    return statement;
+                },
+                rs -> {
+                    existing.add(rs.getString("filename"));
+                });
+        return existing;
+    }
+
+    public int updateSize(long fileId, long size) {
+        return jdbcTemplate.update("UPDATE files SET size = ? WHERE id = ?", size, fileId);
+    }
+
+    public int deleteFile(long fileId) {
+        return jdbcTemplate.update("DELETE FROM files WHERE id = ?", fileId);
+    }
+
+    private static LocalDateTime toLocalDateTime(Timestamp timestamp) {
+        return timestamp != null ? timestamp.toLocalDateTime() : null;
+    }
+}
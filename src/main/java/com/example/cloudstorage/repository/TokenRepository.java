@@ -16,12 +16,12 @@ public class TokenRepository {
         try {
             // Получаем user_id по username
             Integer userId = jdbcTemplate.queryForObject(
-                    "SELECT id FROM users WHERE login = ?",
+                    "/* token.user-id */ SELECT id FROM users WHERE login = ?",
                     Integer.class, username
             );
 
             jdbcTemplate.update(
-                    "INSERT INTO user_tokens (user_id, token, expires_at) VALUES (?, ?, ?)",
+                    "/* token.save */ INSERT INTO user_tokens (user_id, token, expires_at) VALUES (?, ?, ?)",
                     userId, token, expiration
             );
             System.out.println("✅ Token saved in user_tokens table");
@@ -33,7 +33,7 @@ public class TokenRepository {
     public boolean isTokenValid(String token) {
         try {
             Integer count = jdbcTemplate.queryForObject(
-                    "SELECT COUNT(*) FROM user_tokens WHERE token = ? AND expires_at > NOW()",
+                    "/* token.validate */ SELECT COUNT(*) FROM user_tokens WHERE token = ? AND expires_at > NOW()",
                     Integer.class, token
             );
             return count != null && count > 0;
@@ -46,7 +46,7 @@ public class TokenRepository {
     public String getUsernameByToken(String token) {
         try {
             return jdbcTemplate.queryForObject(
-                    "SELECT u.login FROM users u JOIN user_tokens ut ON u.id = ut.user_id WHERE ut.token = ? AND ut.expires_at > NOW()",
+                    "/* token.username */ SELECT u.login FROM users u JOIN user_tokens ut ON u.id = ut.user_id WHERE ut.token = ? AND ut.expires_at > NOW()",
                     String.class, token
             );
         } catch (Exception e) {
@@ -57,7 +57,7 @@ public class TokenRepository {
 
     public void invalidateToken(String token) {
         try {
-            jdbcTemplate.update("DELETE FROM user_tokens WHERE token = ?", token);
+            jdbcTemplate.update("/* token.invalidate */ DELETE FROM user_tokens WHERE token = ?", token);
         } catch (Exception e) {
             System.out.println("❌ Error invalidating token: " + e.getMessage());
         }
@@ -66,10 +66,10 @@ public class TokenRepository {
     public void invalidateUserTokens(String username) {
         try {
             Integer userId = jdbcTemplate.queryForObject(
-                    "SELECT id FROM users WHERE login = ?",
+                    "/* token.user-id */ SELECT id FROM users WHERE login = ?",
                     Integer.class, username
             );
-            jdbcTemplate.update("DELETE FROM user_tokens WHERE user_id = ?", userId);
+            jdbcTemplate.update("/* token.invalidate-user */ DELETE FROM user_tokens WHERE user_id = ?", userId);
         } catch (Exception e) {
             System.out.println("❌ Error invalidating user tokens: " + e.getMessage());
         }
@@ -0,0 +1,144 @@
+package com.example.cloudstorage.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Корзина: удаленная строка остается в files с deleted_at, JPA ее не видит (@SQLRestriction на FileEntity).
+ * Физически строки и файлы удаляет TrashPurgeService по истечении срока хранения.
+ */
+@Repository
+public class TrashRepository {
+    private final JdbcTemplate jdbcTemplate;
+
+    public TrashRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public record TrashedFile(long id, String filename, long size, LocalDateTime deletedAt) {
+    }
+
+    public record PurgedFile(long id, String login, String filename, LocalDateTime deletedAt) {
+    }
+
+    public record DeletedName(String login, String filename, LocalDateTime deletedAt) {
+    }
+
+    // Удаление - одно обновление по индексу (user_id, filename), без загрузки сущности и без I/O на диске
+    public Optional<Long> moveToTrash(long userId, String filename) {
+        return jdbcTemplate.queryForList(
+                "UPDATE files SET deleted_at = NOW() WHERE user_id = ? AND filename = ? AND deleted_at IS NULL RETURNING id",
+                Long.class, userId, filename).stream().findFirst();
+    }
+
+    // Восстановление не проходит, если за это время появился живой файл с тем же именем
+    public Optional<TrashedFile> restore(long userId, String filename) {
+        return jdbcTemplate.query(
+                "UPDATE files SET deleted_at = NULL WHERE user_id = ? AND filename = ? AND deleted_at IS NOT NULL " +
+                        "AND NOT EXISTS (SELECT 1 FROM files WHERE user_id = ? AND filename = ? AND deleted_at IS NULL) " +
+                        "RETURNING id, filename, size, deleted_at",
+                (rs, rowNum) -> new TrashedFile(rs.getLong("id"), rs.getString("filename"), rs.getLong("size"), null),
+                userId, filename, userId, filename
+        ).stream().findFirst();
+    }
+
+    public List<TrashedFile> findTrash(long userId) {
+        return jdbcTemplate.query(
+                "SELECT id, filename, size, deleted_at FROM files WHERE user_id = ? AND deleted_at IS NOT NULL " +
+                        "ORDER BY deleted_at DESC",
+                (rs, rowNum) -> new TrashedFile(rs.getLong("id"), rs.getString("filename"), rs.getLong("size"),
+                        rs.getTimestamp("deleted_at").toLocalDateTime()),
+                userId);
+    }
+
+    // Имена, удаленные за последние seconds секунд (вместе с уже очищенными из корзины строки не возвращаются)
+    public List<DeletedName> findDeletedSince(long seconds) {
+        return jdbcTemplate.query(
+                "SELECT u.login, f.filename, f.deleted_at FROM files f JOIN users u ON u.id = f.user_id " +
+                        "WHERE f.deleted_at > NOW() - (? * INTERVAL '1 second')",
+                (rs, rowNum) -> new DeletedName(rs.getString("login"), rs.getString("filename"),
+                        rs.getTimestamp("deleted_at").toLocalDateTime()),
+                seconds);
+    }
+
+    /**
+     * Окончательно удаляет строки корзины с этими именами. Вызывается перед тем, как имя займет новый файл:
+     * путь на диске определяется именем, поэтому содержимое удаленного файла все равно будет перезаписано.
+     */
+    public List<Long> discard(long userId, List<String> filenames) {
+        if (filenames.isEmpty()) {
+            return List.of();
+        }
+        List<Long> ids = jdbcTemplate.query(
+                connection -> {
+                    PreparedStatement statement = connection.prepareStatement(
+                            "DELETE FROM files WHERE user_id = ? AND filename = ANY(?) AND deleted_at IS NOT NULL RETURNING id");
+                    statement.setLong(1, userId);
+                    statement.setArray(2, connection.createArrayOf("varchar", filenames.toArray()));
+                    return statement;
+                },
+                (rs, rowNum) -> rs.getLong("id"));
+        deleteDependents(ids);
+        return ids;
+    }
+
+    // Пачка просроченных строк удаляется одним запросом; SKIP LOCKED позволяет запускать очистку на нескольких узлах
+    public List<PurgedFile> purgeExpired(long retentionSeconds, int limit) {
+        List<PurgedFile> purged = jdbcTemplate.query(
+                "DELETE FROM files f USING users u WHERE u.id = f.user_id AND f.id IN (" +
+                        "SELECT id FROM files WHERE deleted_at < NOW() - (? * INTERVAL '1 second') " +
+                        "ORDER BY deleted_at LIMIT ? FOR UPDATE SKIP LOCKED) " +
+                        "RETURNING f.id, u.login, f.filename, f.deleted_at",
+                (rs, rowNum) -> new PurgedFile(rs.getLong("id"), rs.getString("login"), rs.getString("filename"),
+                        rs.getTimestamp("deleted_at").toLocalDateTime()),
+                retentionSeconds, limit);
+        deleteDependents(purged.stream().map(PurgedFile::id).toList());
+        return purged;
+    }
+
+    // Папку можно удалить, когда в ней остались только файлы из корзины: при восстановлении они окажутся в корне
+    public int detachFromFolder(long folderId) {
+        return jdbcTemplate.update(
+                "UPDATE files SET folder_id = NULL WHERE folder_id = ? AND deleted_at IS NOT NULL", folderId);
+    }
+
+    // Какие из имен сейчас заняты строками (живыми или в корзине): их файлы на диске трогать нельзя
+    public Set<String> findOccupiedFilenames(String login, List<String> filenames) {
+        Set<String> occupied = new HashSet<>();
+        jdbcTemplate.query(
+                connection -> {
+                    PreparedStatement statement = connection.prepareStatement(
+                            "SELECT f.filename FROM files f JOIN users u ON u.id = f.user_id " +
+                                    "WHERE u.login = ? AND f.filename = ANY(?)");
+                    statement.setString(1, login);
+                    statement.setArray(2, connection.createArrayOf("varchar", filenames.toArray()));
+                    return statement;
+                },
+                rs -> {
+                    occupied.add(rs.getString("filename"));
+                });
+        return occupied;
+    }
+
+    // Версии и метаданные удаляются явно: внешние ключи на files есть не во всех схемах
+    private void deleteDependents(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        for (String table : List.of("file_versions", "file_metadata")) {
+            jdbcTemplate.update(connection -> {
+                PreparedStatement statement = connection.prepareStatement(
+                        "DELETE FROM " + table + " WHERE file_id = ANY(?)");
+                statement.setArray(1, connection.createArrayOf("bigint", ids.toArray()));
+                return statement;
+            });
+        }
+    }
+}
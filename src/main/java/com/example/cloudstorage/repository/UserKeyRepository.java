@@ -0,0 +1,38 @@
+package com.example.cloudstorage.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+/**
+ * Обернутые (зашифрованные мастер-ключом) ключи шифрования файлов пользователей.
+ * Поиск по логину: подписанные ссылки знают только логин владельца.
+ */
+@Repository
+public class UserKeyRepository {
+    private final JdbcTemplate jdbcTemplate;
+
+    public UserKeyRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public record WrappedKey(byte[] wrappedKey, String kekAlias) {
+    }
+
+    public Optional<WrappedKey> findByLogin(String login) {
+        return jdbcTemplate.query(
+                "SELECT k.wrapped_key, k.kek_alias FROM user_keys k JOIN users u ON u.id = k.user_id WHERE u.login = ?",
+                (rs, rowNum) -> new WrappedKey(rs.getBytes("wrapped_key"), rs.getString("kek_alias")),
+                login
+        ).stream().findFirst();
+    }
+
+    // Ключ создается один раз: если другой узел успел раньше, его ключ остается, а наш отбрасывается
+    public void insertIfAbsent(String login, byte[] wrappedKey, String kekAlias) {
+        jdbcTemplate.update(
+                "INSERT INTO user_keys (user_id, wrapped_key, kek_alias) " +
+                        "SELECT id, ?, ? FROM users WHERE login = ? ON CONFLICT (user_id) DO NOTHING",
+                wrappedKey, kekAlias, login);
+    }
+}
@@ -0,0 +1,250 @@
+package com.example.cloudstorage.service;
+
+import com.example.cloudstorage.config.AdmissionProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Контроль допуска: пока сервер не насыщен, запрос проходит; при насыщении - быстрый отказ (503),
+ * а не очередь и OutOfMemoryError.
+ *
+ * <p>Для каждого типа операции свой лимит одновременных запросов, который подстраивается по AIMD:
+ * задержка выше цели уменьшает его умножением, нормальная задержка при загруженном лимите - увеличивает
+ * на единицу. Загрузки, тело которых целиком читается в память, дополнительно списывают Content-Length
+ * с общего бюджета памяти до того, как тело начнет читаться. Без Content-Length такая загрузка не
+ * допускается: объем тела неизвестен, и бюджет не защищал бы от него.
+ */
+@Service
+@RequiredArgsConstructor
+public class AdmissionControlService {
+    private static final long BYTES_PER_MB = 1024 * 1024;
+
+    public enum Operation {
+        UPLOAD("upload", true, true),
+        STREAM_UPLOAD("stream-upload", false, true),
+        DOWNLOAD("download", false, false),
+        ARCHIVE("archive", false, false),
+        // Копия на сервере: тело - список имен, но без reflink содержимое переписывается на диске целиком
+        COPY("copy", false, true);
+
+        private final String key;
+        private final boolean buffered;
+        private final boolean writes;
+
+        Operation(String key, boolean buffered, boolean writes) {
+            this.key = key;
+            this.buffered = buffered;
+            this.writes = writes;
+        }
+
+        public String key() {
+            return key;
+        }
+
+        // Пишет в хранилище: перед допуском проверяется место и состояние томов
+        public boolean writes() {
+            return writes;
+        }
+    }
+
+    public enum Rejection {
+        CONCURRENCY, MEMORY, TOO_LARGE, LENGTH_REQUIRED
+    }
+
+    private final AdmissionProperties properties;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<Operation, OperationLimiter> limiters = new EnumMap<>(Operation.class);
+    private final AtomicLong bufferedBytes = new AtomicLong();
+
+    @PostConstruct
+    void start() {
+        for (Operation operation : Operation.values()) {
+            AdmissionProperties.Operation config = properties.getOperations()
+                    .getOrDefault(operation.key(), new AdmissionProperties.Operation());
+            limiters.put(operation, new OperationLimiter(operation, config));
+        }
+        Gauge.builder("admission.buffered.bytes", bufferedBytes, AtomicLong::get)
+                .description("Request body bytes reserved from the in-flight memory budget")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    public int getRetryAfterSeconds() {
+        return properties.getRetryAfterSeconds();
+    }
+
+    /**
+     * Результат попытки допуска: либо разрешение, которое нужно вернуть через {@link Permit#release},
+     * либо причина отказа.
+     */
+    public record Decision(Permit permit, Rejection rejection) {
+        public boolean admitted() {
+            return permit != null;
+        }
+    }
+
+    public Decision tryAdmit(Operation operation, long contentLength) {
+        OperationLimiter limiter = limiters.get(operation);
+
+        long reserved = 0;
+        if (operation.buffered) {
+            if (contentLength < 0) {
+                return limiter.reject(Rejection.LENGTH_REQUIRED);
+            }
+            // Контейнер не читает тело дальше Content-Length, поэтому резерв покрывает его целиком
+            reserved = (long) (contentLength * properties.getMemoryFactor());
+            if (reserved > properties.getMemoryBudgetBytes()) {
+                return limiter.reject(Rejection.TOO_LARGE);
+            }
+            if (!reserveMemory(reserved)) {
+                return limiter.reject(Rejection.MEMORY);
+            }
+        }
+
+        if (!limiter.tryAcquire()) {
+            bufferedBytes.addAndGet(-reserved);
+            return limiter.reject(Rejection.CONCURRENCY);
+        }
+        return new Decision(new Permit(limiter, reserved, System.nanoTime()), null);
+    }
+
+    private boolean reserveMemory(long bytes) {
+        while (true) {
+            long current = bufferedBytes.get();
+            if (current + bytes > properties.getMemoryBudgetBytes()) {
+                return false;
+            }
+            if (bufferedBytes.compareAndSet(current, current + bytes)) {
+                return true;
+            }
+        }
+    }
+
+    public int getLimit(Operation operation) {
+        return limiters.get(operation).limit;
+    }
+
+    public int getInFlight(Operation operation) {
+        return limiters.get(operation).inFlight.get();
+    }
+
+    public long getBufferedBytes() {
+        return bufferedBytes.get();
+    }
+
+    public final class Permit {
+        private final OperationLimiter limiter;
+        private final long reservedBytes;
+        private final long startNanos;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(OperationLimiter limiter, long reservedBytes, long startNanos) {
+            this.limiter = limiter;
+            this.reservedBytes = reservedBytes;
+            this.startNanos = startNanos;
+        }
+
+        /**
+         * Вызывается ровно один раз по завершении запроса (в том числе асинхронного). transferredBytes -
+         * фактически прочитано из тела запроса и записано в ответ; failed - ошибка сервера.
+         */
+        public void release(long transferredBytes, boolean failed) {
+            if (!released.compareAndSet(false, true)) {
+                return;
+            }
+            bufferedBytes.addAndGet(-reservedBytes);
+            limiter.release(System.nanoTime() - startNanos, transferredBytes, failed);
+        }
+    }
+
+    private final class OperationLimiter {
+        private final AdmissionProperties.Operation config;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final long targetLatencyNanos;
+        private final Counter rejectedConcurrency;
+        private final Counter rejectedMemory;
+        private final Counter rejectedTooLarge;
+        private final Counter rejectedLengthRequired;
+        private volatile int limit;
+
+        OperationLimiter(Operation operation, AdmissionProperties.Operation config) {
+            this.config = config;
+            this.limit = Math.max(config.getMinLimit(), Math.min(config.getMaxLimit(), config.getInitialLimit()));
+            this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(config.getTargetLatencyMs());
+            this.rejectedConcurrency = rejectedCounter(operation, Rejection.CONCURRENCY);
+            this.rejectedMemory = rejectedCounter(operation, Rejection.MEMORY);
+            this.rejectedTooLarge = rejectedCounter(operation, Rejection.TOO_LARGE);
+            this.rejectedLengthRequired = rejectedCounter(operation, Rejection.LENGTH_REQUIRED);
+
+            Gauge.builder("admission.limit", this, limiter -> limiter.limit)
+                    .description("Current adaptive concurrency limit")
+                    .tag("operation", operation.key())
+                    .register(meterRegistry);
+            Gauge.builder("admission.inflight", inFlight, AtomicInteger::get)
+                    .description("Admitted requests currently in progress")
+                    .tag("operation", operation.key())
+                    .register(meterRegistry);
+        }
+
+        private Counter rejectedCounter(Operation operation, Rejection reason) {
+            return Counter.builder("admission.rejected")
+                    .description("Requests shed by admission control")
+                    .tag("operation", operation.key())
+                    .tag("reason", reason.name().toLowerCase())
+                    .register(meterRegistry);
+        }
+
+        boolean tryAcquire() {
+            while (true) {
+                int current = inFlight.get();
+                if (current >= limit) {
+                    return false;
+                }
+                if (inFlight.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        Decision reject(Rejection reason) {
+            switch (reason) {
+                case CONCURRENCY -> rejectedConcurrency.increment();
+                case MEMORY -> rejectedMemory.increment();
+                case TOO_LARGE -> rejectedTooLarge.increment();
+                case LENGTH_REQUIRED -> rejectedLengthRequired.increment();
+            }
+            return new Decision(null, reason);
+        }
+
+        void release(long latencyNanos, long transferredBytes, boolean failed) {
+            int inFlightBefore = inFlight.getAndDecrement();
+            // Большой файл идет дольше сам по себе: сравниваем задержку в пересчете на переданный мегабайт
+            long megabytes = Math.max(1, transferredBytes / BYTES_PER_MB);
+            boolean slow = failed || latencyNanos / megabytes > targetLatencyNanos;
+            synchronized (this) {
+                if (slow) {
+                    limit = Math.max(config.getMinLimit(), (int) (limit * config.getBackoffRatio()));
+                } else if (inFlightBefore * 2 >= limit) {
+                    // Увеличиваем, только когда лимит действительно используется, иначе он растет без проверки
+                    limit = Math.min(config.getMaxLimit(), limit + 1);
+                }
+            }
+        }
+    }
+}
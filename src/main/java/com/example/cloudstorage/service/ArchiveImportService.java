@@ -0,0 +1,417 @@
+package com.example.cloudstorage.service;
+
+import com.example.cloudstorage.dto.ArchiveImportResponse;
+import com.example.cloudstorage.entity.UserEntity;
+import com.example.cloudstorage.event.FileChangeEvent;
+import com.example.cloudstorage.repository.FileBulkRepository;
+import com.example.cloudstorage.repository.FileBulkRepository.NewFile;
+import com.example.cloudstorage.repository.FileJobRepository;
+import com.example.cloudstorage.repository.FileRepository;
+import com.example.cloudstorage.repository.TrashRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLConnection;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Импорт ZIP/TAR архива, который читается прямо из тела запроса по мере поступления.
+ * Содержимое небольших записей передается в ограниченный пул на запись, крупные записи
+ * пишутся потоком из архива; строки files вставляются пачками в конце импорта, одной транзакцией.
+ * Существующие файлы не заменяются, даже если появились уже после начала импорта.
+ */
+@Service
+@RequiredArgsConstructor
+public class ArchiveImportService {
+    public static final String FORMAT_ZIP = "zip";
+    public static final String FORMAT_TAR = "tar";
+    public static final String FORMAT_TGZ = "tgz";
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final long RATIO_GRACE_BYTES = 1024 * 1024;
+    private static final int MAX_REPORTED_SKIPS = 100;
+
+    private final FileStorageService fileStorageService;
+    private final FileRepository fileRepository;
+    private final FileBulkRepository fileBulkRepository;
+    private final FileJobRepository fileJobRepository;
+    private final TrashRepository trashRepository;
+    private final VolumeReplicationService volumeReplication;
+    private final TransactionTemplate transactionTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+
+    @Value("${file.import.writer-threads:4}")
+    private int writerThreads;
+
+    @Value("${file.import.buffer-threshold:4194304}")
+    private int bufferThreshold;
+
+    @Value("${file.import.memory-budget:67108864}")
+    private int memoryBudget;
+
+    @Value("${file.import.max-entries:10000}")
+    private int maxEntries;
+
+    @Value("${file.import.max-total-size:10737418240}")
+    private long maxTotalSize;
+
+    @Value("${file.import.max-compression-ratio:100}")
+    private int maxCompressionRatio;
+
+    @Value("${file.import.batch-size:500}")
+    private int batchSize;
+
+    private ThreadPoolExecutor writers;
+    private Semaphore memory;
+
+    // written = false: имя заняли, пока запись шла во временный файл
+    private record WrittenFile(String filename, long size, String contentType, boolean written) {
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value != -1) {
+                count++;
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    @PostConstruct
+    void start() {
+        // Запись буферизуется целиком в счет бюджета: при пороге больше бюджета импорт ждал бы вечно
+        if (bufferThreshold <= 0 || bufferThreshold >= memoryBudget) {
+            throw new IllegalStateException("file.import.buffer-threshold must be positive and less than file.import.memory-budget");
+        }
+        memory = new Semaphore(memoryBudget);
+        AtomicInteger threadNumber = new AtomicInteger();
+        // CallerRunsPolicy: если писатели не успевают, чтение архива притормаживает само
+        writers = new ThreadPoolExecutor(writerThreads, writerThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(writerThreads * 2),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "archive-import-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @PreDestroy
+    void stop() {
+        writers.shutdownNow();
+    }
+
+    public ArchiveImportResponse importArchive(UserEntity user, InputStream body, String format) throws IOException {
+        CountingInputStream raw = new CountingInputStream(body);
+        List<Future<WrittenFile>> pending = new ArrayList<>();
+        List<String> skipped = new ArrayList<>();
+        // Имена существующих файлов грузим одним запросом, а не проверяем каждую запись отдельно
+        Set<String> seen = new HashSet<>();
+        fileRepository.findNamesAndSizesByUserId(user.getId()).forEach(file -> seen.add(file.getFilename()));
+        // Файлы корзины остаются на диске под своими именами: их архив заменяет
+        Set<String> trashed = new HashSet<>();
+        trashRepository.findTrash(user.getId()).forEach(file -> trashed.add(file.filename()));
+        long totalSize = 0;
+        int entries = 0;
+        boolean success = false;
+
+        try (ArchiveInputStream<?> archive = open(raw, format)) {
+            fileStorageService.createUserDirectory(user);
+
+            ArchiveEntry entry;
+            while ((entry = archive.getNextEntry()) != null) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                if (++entries > maxEntries) {
+                    throw new IllegalArgumentException("Archive has too many entries (limit " + maxEntries + ")");
+                }
+
+                String filename = baseName(entry.getName());
+                String reason = rejectReason(filename, seen, archive, entry);
+                if (reason != null) {
+                    skip(skipped, entry.getName() + ": " + reason);
+                    continue;
+                }
+                seen.add(filename);
+
+                Path target = fileStorageService.getFilePath(user, filename);
+                String contentType = guessContentType(filename);
+                boolean replaceable = trashed.contains(filename);
+
+                // Читаем не больше порога + 1 байт: так узнаем, помещается ли запись в буфер
+                memory.acquireUninterruptibly(bufferThreshold);
+                byte[] head;
+                try {
+                    head = archive.readNBytes(bufferThreshold + 1);
+                    totalSize = checkLimits(totalSize + head.length, raw.count);
+                } catch (IOException | RuntimeException e) {
+                    memory.release(bufferThreshold);
+                    throw e;
+                }
+
+                if (head.length <= bufferThreshold) {
+                    memory.release(bufferThreshold - head.length);
+                    byte[] data = head;
+                    pending.add(writers.submit(() -> {
+                        try {
+                            boolean written = writeAtomically(target, data, replaceable);
+                            return new WrittenFile(filename, data.length, contentType, written);
+                        } finally {
+                            memory.release(data.length);
+                        }
+                    }));
+                } else {
+                    // Крупная запись: дописываем потоком на этом же потоке, сразу освобождая бюджет
+                    memory.release(bufferThreshold);
+                    Path temp = tempPath(target);
+                    try {
+                        long size = writeTemp(temp, head, archive, raw, totalSize);
+                        totalSize += size - head.length;
+                        pending.add(CompletableFuture.completedFuture(
+                                new WrittenFile(filename, size, contentType, place(temp, target, replaceable))));
+                    } finally {
+                        Files.deleteIfExists(temp);
+                    }
+                }
+            }
+
+            List<WrittenFile> written = new ArrayList<>(pending.size());
+            for (WrittenFile file : awaitAll(pending)) {
+                if (file.written()) {
+                    written.add(file);
+                } else {
+                    skip(skipped, file.filename() + ": file already exists");
+                }
+            }
+            insertRows(user, written);
+            success = true;
+            // Копии на остальные тома - только после фиксации: откат удаляет лишь файлы основного тома
+            for (WrittenFile file : written) {
+                volumeReplication.replicate(user.getLogin(), file.filename());
+            }
+            return new ArchiveImportResponse(written.size(), skipped);
+        } finally {
+            if (!success) {
+                rollback(user, pending);
+            }
+        }
+    }
+
+    private ArchiveInputStream<?> open(InputStream raw, String format) throws IOException {
+        return switch (format) {
+            case FORMAT_ZIP -> new ZipArchiveInputStream(raw);
+            case FORMAT_TAR -> new TarArchiveInputStream(raw);
+            case FORMAT_TGZ -> new TarArchiveInputStream(new GzipCompressorInputStream(raw));
+            default -> throw new IllegalArgumentException("Unsupported archive format: " + format);
+        };
+    }
+
+    private String rejectReason(String filename, Set<String> seen, ArchiveInputStream<?> archive, ArchiveEntry entry) {
+        try {
+            fileStorageService.validateFilename(filename);
+        } catch (IllegalArgumentException e) {
+            return e.getMessage();
+        }
+        if (!archive.canReadEntryData(entry)) {
+            return "unsupported compression method or encryption";
+        }
+        if (seen.contains(filename)) {
+            return "file already exists";
+        }
+        return null;
+    }
+
+    // Защита от zip-бомб: общий объем и отношение распакованного к реально прочитанному из запроса
+    private long checkLimits(long totalSize, long rawBytes) {
+        if (totalSize > maxTotalSize) {
+            throw new IllegalArgumentException("Archive exceeds maximum extracted size");
+        }
+        if (totalSize > RATIO_GRACE_BYTES && totalSize > rawBytes * maxCompressionRatio) {
+            throw new IllegalArgumentException("Archive compression ratio is suspiciously high");
+        }
+        return totalSize;
+    }
+
+    private boolean writeAtomically(Path target, byte[] data, boolean replaceable) throws IOException {
+        Path temp = tempPath(target);
+        try {
+            Files.write(temp, data);
+            return place(temp, target, replaceable);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private long writeTemp(Path temp, byte[] head, InputStream archive,
+                           CountingInputStream raw, long totalSize) throws IOException {
+        long size = head.length;
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            out.write(head);
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            int read;
+            while ((read = archive.read(buffer)) != -1) {
+                size += read;
+                checkLimits(totalSize + size - head.length, raw.count);
+                out.write(buffer, 0, read);
+            }
+        }
+        return size;
+    }
+
+    // Свое временное имя у каждой записи: одноименные записи параллельных импортов не пишут в один файл.
+    // Имя записи в него не входит: с суффиксом длинное имя вышло бы за предел файловой системы
+    private static Path tempPath(Path target) {
+        return target.resolveSibling(UUID.randomUUID() + ".part");
+    }
+
+    /**
+     * Переносит файл на место, не заменяя чужой: пока запись шла, имя могла занять параллельная загрузка.
+     * Жесткая ссылка создается атомарно и только на свободное имя; временный файл затем удаляется.
+     */
+    private static boolean place(Path temp, Path target, boolean replaceable) throws IOException {
+        if (replaceable) {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        }
+        try {
+            Files.createLink(target, temp);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        } catch (UnsupportedOperationException | IOException e) {
+            // Файловая система без жестких ссылок: move без REPLACE_EXISTING тоже откажет на занятое имя
+        }
+        try {
+            Files.move(temp, target);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        }
+    }
+
+    private List<WrittenFile> awaitAll(List<Future<WrittenFile>> pending) throws IOException {
+        List<WrittenFile> written = new ArrayList<>(pending.size());
+        for (Future<WrittenFile> future : pending) {
+            try {
+                written.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Archive import interrupted", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException io) {
+                    throw io;
+                }
+                throw new IOException("Error writing archive entry", e.getCause());
+            }
+        }
+        return written;
+    }
+
+    // Весь импорт - одна транзакция: при сбое любой пачки откатываются все строки, и файлы на диске
+    // можно удалить без риска оставить строку без файла. Пачки только ограничивают размер запроса.
+    private void insertRows(UserEntity user, List<WrittenFile> written) {
+        transactionTemplate.executeWithoutResult(status -> {
+            for (int from = 0; from < written.size(); from += batchSize) {
+                List<WrittenFile> batch = written.subList(from, Math.min(written.size(), from + batchSize));
+                // Файлы из корзины с теми же именами уже перезаписаны архивом
+                trashRepository.discard(user.getId(), batch.stream().map(WrittenFile::filename).toList());
+                Map<String, Long> ids = fileBulkRepository.insertAll(user.getId(), batch.stream()
+                        .map(file -> new NewFile(file.filename(), file.size(), file.contentType()))
+                        .toList());
+                fileJobRepository.enqueueAll(new ArrayList<>(ids.values()));
+
+                for (WrittenFile file : batch) {
+                    eventPublisher.publishEvent(FileChangeEvent.created(
+                            user.getId(), user.getLogin(), ids.get(file.filename()), file.filename(), file.size()));
+                }
+            }
+        });
+    }
+
+    // Импорт прерван (лимиты, обрыв соединения, сбой транзакции): убираем файлы, записанные этим импортом
+    private void rollback(UserEntity user, List<Future<WrittenFile>> pending) {
+        for (Future<WrittenFile> future : pending) {
+            try {
+                WrittenFile file = future.get();
+                if (!file.written()) {
+                    continue;
+                }
+                Files.deleteIfExists(fileStorageService.getFilePath(user, file.filename()));
+            } catch (Exception e) {
+                // Запись не состоялась или уже удалена - откатывать нечего
+            }
+        }
+    }
+
+    private void skip(List<String> skipped, String reason) {
+        if (skipped.size() < MAX_REPORTED_SKIPS) {
+            skipped.add(reason);
+        }
+    }
+
+    private String baseName(String entryName) {
+        String normalized = entryName.replace('\\', '/');
+        return normalized.substring(normalized.lastIndexOf('/') + 1);
+    }
+
+    private String guessContentType(String filename) {
+        String contentType = URLConnection.guessContentTypeFromName(filename);
+        return contentType != null ? contentType : "application/octet-stream";
+    }
+}
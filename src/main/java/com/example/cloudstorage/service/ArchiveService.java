@@ -0,0 +1,269 @@
+package com.example.cloudstorage.service;
+
+import com.example.cloudstorage.entity.FileEntity;
+import com.example.cloudstorage.entity.UserEntity;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Потоковая выдача нескольких файлов одним ZIP-архивом. Архив пишется прямо в ответ,
+ * без временных файлов; следующие файлы заранее читаются с диска параллельно,
+ * а общий объем буферов ограничен глобальным бюджетом памяти.
+ */
+@Service
+@RequiredArgsConstructor
+public class ArchiveService {
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    // Уже сжатые форматы: повторное сжатие только тратит CPU
+    private static final Set<String> COMPRESSED_TYPES = Set.of(
+            "image/jpeg", "image/png", "image/gif", "image/webp",
+            "application/zip", "application/gzip", "application/x-gzip", "application/x-bzip2",
+            "application/x-xz", "application/x-7z-compressed", "application/x-rar-compressed",
+            "application/vnd.rar", "application/pdf");
+    private static final Set<String> COMPRESSED_EXTENSIONS = Set.of(
+            "jpg", "jpeg", "png", "gif", "webp", "heic", "zip", "gz", "tgz", "bz2", "xz", "7z", "rar",
+            "mp3", "aac", "ogg", "flac", "mp4", "m4a", "mkv", "avi", "mov", "webm",
+            "docx", "xlsx", "pptx", "odt", "jar", "pdf");
+
+    private final FileStorageService fileStorageService;
+    private final FileEncryptionService fileEncryption;
+
+    @Value("${file.archive.read-ahead-threads:4}")
+    private int readAheadThreads;
+
+    @Value("${file.archive.read-ahead-window:4}")
+    private int readAheadWindow;
+
+    @Value("${file.archive.buffer-threshold:1048576}")
+    private int bufferThreshold;
+
+    @Value("${file.archive.memory-budget:67108864}")
+    private int memoryBudget;
+
+    private ExecutorService readAheadExecutor;
+    private Semaphore memory;
+
+    private static final class PreparedEntry {
+        private final FileEntity file;
+        private final String login;
+        private final Path path;
+        private final boolean stored;
+        private final byte[] data;
+        private final long crc;
+        private final Semaphore budget;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private PreparedEntry(FileEntity file, String login, Path path, boolean stored, byte[] data, long crc,
+                              Semaphore budget) {
+            this.file = file;
+            this.login = login;
+            this.path = path;
+            this.stored = stored;
+            this.data = data;
+            this.crc = crc;
+            this.budget = budget;
+        }
+
+        void release() {
+            if (data != null && released.compareAndSet(false, true)) {
+                budget.release(data.length);
+            }
+        }
+    }
+
+    @PostConstruct
+    void start() {
+        memory = new Semaphore(memoryBudget);
+        AtomicInteger threadNumber = new AtomicInteger();
+        readAheadExecutor = Executors.newFixedThreadPool(readAheadThreads, runnable -> {
+            Thread thread = new Thread(runnable, "archive-read-ahead-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    void stop() {
+        readAheadExecutor.shutdownNow();
+    }
+
+    public void writeZip(UserEntity user, List<FileEntity> files, OutputStream out) throws IOException {
+        List<CompletableFuture<PreparedEntry>> pending = new ArrayList<>(files.size());
+        int consumed = 0;
+
+        try (ZipOutputStream zip = new ZipOutputStream(out)) {
+            int window = Math.max(1, readAheadWindow);
+            for (int i = 0; i < Math.min(window, files.size()); i++) {
+                pending.add(prepareAsync(user, files.get(i)));
+            }
+
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            for (int i = 0; i < files.size(); i++) {
+                PreparedEntry entry = await(pending.get(i));
+                consumed = i + 1;
+                if (i + window < files.size()) {
+                    pending.add(prepareAsync(user, files.get(i + window)));
+                }
+
+                try {
+                    writeEntry(zip, entry, buffer);
+                } finally {
+                    entry.release();
+                }
+            }
+        } finally {
+            // Клиент мог оборвать соединение: буферы уже прочитанных вперед файлов возвращаем в бюджет
+            for (int i = consumed; i < pending.size(); i++) {
+                pending.get(i).thenAccept(PreparedEntry::release);
+            }
+        }
+    }
+
+    boolean isCompressed(FileEntity file) {
+        String contentType = file.getContentType();
+        if (contentType != null) {
+            String type = contentType.toLowerCase(Locale.ROOT);
+            if (COMPRESSED_TYPES.contains(type) || type.startsWith("video/") || type.startsWith("audio/")) {
+                return true;
+            }
+        }
+
+        String filename = file.getFilename();
+        int dot = filename.lastIndexOf('.');
+        return dot > 0 && COMPRESSED_EXTENSIONS.contains(filename.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    private CompletableFuture<PreparedEntry> prepareAsync(UserEntity user, FileEntity file) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return prepare(user, file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, readAheadExecutor);
+    }
+
+    private PreparedEntry prepare(UserEntity user, FileEntity file) throws IOException {
+        Path path = fileStorageService.getFilePath(user, file.getFilename());
+        boolean stored = isCompressed(file);
+        String login = user.getLogin();
+
+        if (file.getSegmentId() != null) {
+            // Упакованный файл - одно позиционное чтение из сегмента; файла на диске нет, поэтому буферизуется
+            // всегда, а вне бюджета - только если бюджет исчерпан (он не больше file.pack.max-file-size)
+            byte[] data = fileStorageService.readPacked(user, file);
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            Semaphore budget = memory.tryAcquire(data.length) ? memory : new Semaphore(0);
+            return new PreparedEntry(file, login, path, stored, data, crc.getValue(), budget);
+        }
+        // Размер содержимого: у зашифрованного файла он меньше размера на диске
+        long size = fileEncryption.plaintextSize(path);
+
+        // Небольшие файлы буферизуем, только если бюджет позволяет; иначе читаем с диска при записи.
+        // tryAcquire, а не acquire: ожидание бюджета в пуле чтения может заблокировать писателя.
+        if (size <= bufferThreshold && memory.tryAcquire((int) size)) {
+            byte[] data;
+            try {
+                data = fileEncryption.readAllBytes(login, path);
+            } catch (IOException | RuntimeException e) {
+                memory.release((int) size);
+                throw e;
+            }
+            if (data.length != size) {
+                // Файл изменился между stat и чтением: отдаем его потоком с диска
+                memory.release((int) size);
+                return new PreparedEntry(file, login, path, stored, null, stored ? crc(login, path) : 0, memory);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            return new PreparedEntry(file, login, path, stored, data, crc.getValue(), memory);
+        }
+
+        // Для STORED-записи CRC нужен до заголовка, поэтому большой файл проходим заранее
+        return new PreparedEntry(file, login, path, stored, null, stored ? crc(login, path) : 0, memory);
+    }
+
+    private void writeEntry(ZipOutputStream zip, PreparedEntry entry, byte[] buffer) throws IOException {
+        ZipEntry zipEntry = new ZipEntry(entry.file.getFilename());
+        if (entry.file.getCreatedAt() != null) {
+            zipEntry.setTimeLocal(entry.file.getCreatedAt());
+        }
+
+        if (entry.stored) {
+            long size = entry.data != null ? entry.data.length : fileEncryption.plaintextSize(entry.path);
+            zipEntry.setMethod(ZipEntry.STORED);
+            zipEntry.setSize(size);
+            zipEntry.setCompressedSize(size);
+            zipEntry.setCrc(entry.crc);
+        } else {
+            zipEntry.setMethod(ZipEntry.DEFLATED);
+        }
+
+        zip.putNextEntry(zipEntry);
+        if (entry.data != null) {
+            zip.write(entry.data);
+        } else {
+            try (InputStream in = fileEncryption.openInputStream(entry.login, entry.path)) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    zip.write(buffer, 0, read);
+                }
+            }
+        }
+        zip.closeEntry();
+    }
+
+    private long crc(String login, Path path) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        try (InputStream in = fileEncryption.openInputStream(login, path)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+            }
+        }
+        return crc.getValue();
+    }
+
+    private PreparedEntry await(CompletableFuture<PreparedEntry> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Archive streaming interrupted", e);
+        } catch (ExecutionException | CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException unchecked) {
+                throw unchecked.getCause();
+            }
+            throw new IOException("Error preparing archive entry", cause);
+        }
+    }
+}
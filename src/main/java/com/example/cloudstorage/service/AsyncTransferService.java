@@ -0,0 +1,514 @@
+package com.example.cloudstorage.service;
+
+import com.example.cloudstorage.entity.UserEntity;
+import com.example.cloudstorage.exception.FileStorageException;
+import com.example.cloudstorage.service.UserRateLimiter.UserLimits;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Неблокирующая передача больших файлов: servlet async I/O (ReadListener/WriteListener)
+ * в связке с AsynchronousFileChannel. Пока клиент медленно читает или пишет, соединение
+ * не занимает поток запроса; на соединение приходится ровно один буфер фиксированного размера.
+ * Полоса пользователя ограничивается так же без блокировок: следующая порция откладывается
+ * на выданную лимитером паузу через общий планировщик.
+ *
+ * <p>Зашифрованный файл отдается через расшифровывающий поток: сегменты читаются и расшифровываются
+ * блокирующе, но в отдельном небольшом пуле, поэтому поток запроса по-прежнему не занят.
+ */
+@Service
+@RequiredArgsConstructor
+public class AsyncTransferService {
+    private final FileStorageService fileStorageService;
+    private final UserRateLimiter rateLimiter;
+    private final FileEncryptionService fileEncryption;
+
+    @Value("${file.async.buffer-size:65536}")
+    private int bufferSize;
+
+    @Value("${file.async.timeout-ms:600000}")
+    private long timeoutMs;
+
+    @Value("${file.async.max-connections:10000}")
+    private int maxConnections;
+
+    @Value("${file.async.max-upload-size:10737418240}")
+    private long maxUploadSize;
+
+    @Value("${file.async.decrypt-threads:4}")
+    private int decryptThreads;
+
+    private Semaphore connections;
+    private ScheduledExecutorService throttle;
+    private ExecutorService decryptor;
+
+    @PostConstruct
+    void start() {
+        connections = new Semaphore(maxConnections);
+        throttle = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "async-transfer-throttle");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger threadNumber = new AtomicInteger();
+        decryptor = Executors.newFixedThreadPool(decryptThreads, runnable -> {
+            Thread thread = new Thread(runnable, "async-transfer-decrypt-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    void stop() {
+        throttle.shutdownNow();
+        decryptor.shutdownNow();
+    }
+
+    public boolean startDownload(UserEntity user, String filename,
+                                 HttpServletRequest request, HttpServletResponse response) throws IOException {
+        // Отдача идет из файла на диске: упакованный файл переносится из сегмента
+        Path path = fileStorageService.requireStoredPath(user, filename);
+        if (!Files.exists(path)) {
+            throw new FileStorageException("File not found: " + filename);
+        }
+        if (!connections.tryAcquire()) {
+            return false;
+        }
+
+        Closeable source;
+        long size;
+        try {
+            if (fileEncryption.isEncrypted(path)) {
+                // Размер открытого текста известен по длине файла; расшифровываются только отдаваемые сегменты
+                size = fileEncryption.plaintextSize(path);
+                source = fileEncryption.openInputStream(user.getLogin(), path);
+            } else {
+                AsynchronousFileChannel channel = AsynchronousFileChannel.open(path, StandardOpenOption.READ);
+                size = channel.size();
+                source = channel;
+            }
+        } catch (IOException e) {
+            connections.release();
+            throw e;
+        }
+
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        response.setContentLengthLong(size);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"");
+
+        AsyncContext context = request.startAsync();
+        context.setTimeout(timeoutMs);
+        UserLimits limits = rateLimiter.limitsFor(user.getLogin());
+        Download download = source instanceof AsynchronousFileChannel channel
+                ? new FileDownload(context, channel, response.getOutputStream(), limits)
+                : new DecryptedDownload(context, (InputStream) source, response.getOutputStream(), limits);
+        context.addListener(download);
+        response.getOutputStream().setWriteListener(download);
+        return true;
+    }
+
+    public boolean startUpload(UserEntity user, String filename, String contentType,
+                               HttpServletRequest request, HttpServletResponse response) throws IOException {
+        fileStorageService.validateFilename(filename);
+        if (fileStorageService.fileExists(user, filename)) {
+            throw new FileStorageException("File already exists");
+        }
+        if (request.getContentLengthLong() > maxUploadSize) {
+            throw new FileStorageException("File too large");
+        }
+        if (!connections.tryAcquire()) {
+            return false;
+        }
+
+        fileStorageService.createUserDirectory(user);
+        Path target = fileStorageService.getFilePath(user, filename);
+        // У каждой загрузки свой временный файл: одноименные загрузки не пишут в один и тот же .part.
+        // Имя без исходного: с суффиксом длинное имя вышло бы за предел файловой системы
+        Path temp = target.resolveSibling(UUID.randomUUID() + ".part");
+        AsynchronousFileChannel channel;
+        try {
+            channel = AsynchronousFileChannel.open(temp,
+                    StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException e) {
+            connections.release();
+            throw e;
+        }
+
+        AsyncContext context = request.startAsync();
+        context.setTimeout(timeoutMs);
+        Upload upload = new Upload(context, channel, request.getInputStream(), response,
+                user, filename, contentType, temp, target, rateLimiter.limitsFor(user.getLogin()));
+        context.addListener(upload);
+        request.getInputStream().setReadListener(upload);
+        return true;
+    }
+
+    /**
+     * Общая часть: закрытие канала, освобождение слота соединения и завершение async-контекста
+     * выполняются ровно один раз, откуда бы ни пришло завершение (успех, ошибка, таймаут).
+     */
+    private abstract class Transfer implements AsyncListener {
+        protected final AsyncContext context;
+        private final Closeable source;
+        protected final UserLimits limits;
+        protected final ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        Transfer(AsyncContext context, Closeable source, UserLimits limits) {
+            this.context = context;
+            this.source = source;
+            this.limits = limits;
+        }
+
+        // Продолжение передачи сразу или после паузы лимитера
+        protected void resumeAfter(long pauseNanos) {
+            if (pauseNanos > 0) {
+                throttle.schedule(this::resume, pauseNanos, TimeUnit.NANOSECONDS);
+            } else {
+                resume();
+            }
+        }
+
+        protected abstract void resume();
+
+        protected boolean close(boolean completeContext) {
+            if (!closed.compareAndSet(false, true)) {
+                return false;
+            }
+            try {
+                source.close();
+            } catch (IOException e) {
+                System.out.println("❌ Error closing async transfer source: " + e.getMessage());
+            }
+            connections.release();
+            onClosed();
+            if (completeContext) {
+                context.complete();
+            }
+            return true;
+        }
+
+        protected void onClosed() {
+        }
+
+        protected boolean isClosed() {
+            return closed.get();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            close(false);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            close(true);
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            close(true);
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+
+    private abstract class Download extends Transfer implements WriteListener, CompletionHandler<Integer, Void> {
+        private final ServletOutputStream out;
+        protected long position;
+        private boolean eof;
+
+        Download(AsyncContext context, Closeable source, ServletOutputStream out, UserLimits limits) {
+            super(context, source, limits);
+            this.out = out;
+            buffer.limit(0);
+        }
+
+        // Следующая порция в buffer; по готовности - completed или failed
+        protected abstract void readNext();
+
+        // Вызывается контейнером, когда сокет снова готов к записи, и нами после завершения чтения с диска.
+        // Пока идет чтение с диска, isReady() не вызывается, поэтому контейнер не войдет сюда параллельно.
+        @Override
+        public void onWritePossible() throws IOException {
+            while (!isClosed() && out.isReady()) {
+                if (buffer.hasRemaining()) {
+                    out.write(buffer.array(), buffer.position(), buffer.remaining());
+                    buffer.position(buffer.limit());
+                } else if (eof) {
+                    close(true);
+                    return;
+                } else {
+                    buffer.clear();
+                    readNext();
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void completed(Integer read, Void attachment) {
+            if (read == -1) {
+                eof = true;
+                buffer.limit(0);
+                resume();
+            } else {
+                position += read;
+                buffer.flip();
+                resumeAfter(limits.reserveDownload(read));
+            }
+        }
+
+        @Override
+        protected void resume() {
+            try {
+                onWritePossible();
+            } catch (IOException e) {
+                close(true);
+            }
+        }
+
+        @Override
+        public void failed(Throwable error, Void attachment) {
+            System.out.println("❌ Async download read failed: " + error.getMessage());
+            close(true);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            // Клиент оборвал соединение
+            close(true);
+        }
+    }
+
+    private final class FileDownload extends Download {
+        private final AsynchronousFileChannel channel;
+
+        FileDownload(AsyncContext context, AsynchronousFileChannel channel, ServletOutputStream out, UserLimits limits) {
+            super(context, channel, out, limits);
+            this.channel = channel;
+        }
+
+        @Override
+        protected void readNext() {
+            channel.read(buffer, position, null, this);
+        }
+    }
+
+    private final class DecryptedDownload extends Download {
+        private final InputStream in;
+
+        DecryptedDownload(AsyncContext context, InputStream in, ServletOutputStream out, UserLimits limits) {
+            super(context, in, out, limits);
+            this.in = in;
+        }
+
+        @Override
+        protected void readNext() {
+            decryptor.execute(() -> {
+                int read;
+                try {
+                    read = in.read(buffer.array(), 0, buffer.capacity());
+                } catch (IOException e) {
+                    failed(e, null);
+                    return;
+                }
+                // Как после чтения из канала: позиция буфера - конец прочитанного
+                buffer.position(Math.max(read, 0));
+                completed(read, null);
+            });
+        }
+    }
+
+    private final class Upload extends Transfer implements ReadListener, CompletionHandler<Integer, Void> {
+        private final AsynchronousFileChannel channel;
+        private final ServletInputStream in;
+        private final HttpServletResponse response;
+        private final UserEntity user;
+        private final String filename;
+        private final String contentType;
+        private final Path temp;
+        private final Path target;
+        private long position;
+        private boolean writing;
+        private boolean allDataRead;
+        private boolean stored;
+        private long pauseNanos;
+
+        Upload(AsyncContext context, AsynchronousFileChannel channel, ServletInputStream in,
+               HttpServletResponse response, UserEntity user, String filename, String contentType,
+               Path temp, Path target, UserLimits limits) {
+            super(context, channel, limits);
+            this.channel = channel;
+            this.in = in;
+            this.response = response;
+            this.user = user;
+            this.filename = filename;
+            this.contentType = contentType;
+            this.temp = temp;
+            this.target = target;
+        }
+
+        @Override
+        public synchronized void onDataAvailable() throws IOException {
+            readWhileReady();
+        }
+
+        // Буфер заполнен - перестаем читать из сокета, пока он не сброшен на диск.
+        // После записи возвращаемся сюда сами: контейнер не позовет onDataAvailable, пока isReady() не вернет false.
+        private void readWhileReady() throws IOException {
+            while (!writing && !isClosed() && in.isReady()) {
+                int read = in.read(buffer.array(), buffer.position(), buffer.remaining());
+                if (read == -1) {
+                    return;
+                }
+                buffer.position(buffer.position() + read);
+                if (position + buffer.position() > maxUploadSize) {
+                    fail(HttpStatus.PAYLOAD_TOO_LARGE, "File too large");
+                    return;
+                }
+                if (!buffer.hasRemaining()) {
+                    flush();
+                }
+            }
+        }
+
+        @Override
+        public synchronized void onAllDataRead() {
+            allDataRead = true;
+            if (!writing) {
+                if (buffer.position() > 0) {
+                    flush();
+                } else {
+                    finish();
+                }
+            }
+        }
+
+        private void flush() {
+            writing = true;
+            buffer.flip();
+            pauseNanos = limits.reserveUpload(buffer.remaining());
+            channel.write(buffer, position, null, this);
+        }
+
+        @Override
+        public synchronized void completed(Integer written, Void attachment) {
+            position += written;
+            if (buffer.hasRemaining()) {
+                channel.write(buffer, position, null, this);
+                return;
+            }
+
+            buffer.clear();
+            // Пока идет пауза, writing остается true: сокет не читается и клиент упирается в TCP-окно
+            resumeAfter(pauseNanos);
+        }
+
+        @Override
+        protected synchronized void resume() {
+            if (isClosed()) {
+                return;
+            }
+            writing = false;
+            if (allDataRead) {
+                finish();
+                return;
+            }
+            try {
+                readWhileReady();
+            } catch (IOException e) {
+                close(true);
+            }
+        }
+
+        @Override
+        public void failed(Throwable error, Void attachment) {
+            fail(HttpStatus.INTERNAL_SERVER_ERROR, "Error uploading file");
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            close(true);
+        }
+
+        private void finish() {
+            try {
+                channel.force(true);
+                channel.close();
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+                fileStorageService.registerStoredFile(user, filename, position, contentType);
+                stored = true;
+                response.setStatus(HttpStatus.OK.value());
+            } catch (IOException | RuntimeException e) {
+                System.out.println("❌ Error completing async upload: " + e.getMessage());
+                response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR.value());
+            }
+            close(true);
+        }
+
+        private void fail(HttpStatus status, String message) {
+            if (!response.isCommitted()) {
+                response.setStatus(status.value());
+                response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+                try {
+                    response.getWriter().write("{\"message\": \"" + message + "\", \"id\": " + status.value() + "}");
+                } catch (IOException | IllegalStateException e) {
+                    // Ответ уже недоступен - просто завершаем обмен
+                }
+            }
+            close(true);
+        }
+
+        @Override
+        protected void onClosed() {
+            if (!stored) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (NoSuchFileException e) {
+                    // Уже удален
+                } catch (IOException e) {
+                    System.out.println("❌ Error removing partial upload: " + e.getMessage());
+                }
+            }
+        }
+    }
+}
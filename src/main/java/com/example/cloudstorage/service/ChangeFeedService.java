@@ -0,0 +1,245 @@
+package com.example.cloudstorage.service;
+
+import com.example.cloudstorage.entity.UserEntity;
+import com.example.cloudstorage.event.FileChangeEvent;
+import com.example.cloudstorage.event.PostgresNotificationBus;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Поток изменений файлов пользователя по SSE вместо периодического опроса /list.
+ *
+ * <p>Подписка - это SseEmitter (async servlet) и очередь событий: пока событий нет, подписка не занимает
+ * ни потока, ни соединения с БД. Рассылка без блокировок: подписчики пользователя лежат в
+ * CopyOnWriteArrayList, событие кладется в очередь каждого, а отправку выполняет виртуальный поток,
+ * который запускается только при непустой очереди и живет, пока ее не опустошит. Очередь ограничена
+ * file.changes.buffer-size: клиент, который не успевает читать, отключается и при переподключении
+ * должен перечитать /list.
+ *
+ * <p>События с других узлов приходят через Postgres LISTEN/NOTIFY. Уведомления, потерянные при
+ * разрыве соединения шины, не восстановить - после переподключения всем подписчикам уходит resync.
+ */
+@Service
+@RequiredArgsConstructor
+public class ChangeFeedService {
+    static final String CHANNEL = "file_changes";
+
+    private final PostgresNotificationBus notificationBus;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${file.changes.buffer-size:256}")
+    private int bufferSize;
+
+    @Value("${file.changes.timeout-ms:1800000}")
+    private long timeoutMs;
+
+    @Value("${file.changes.max-subscribers:100000}")
+    private int maxSubscribers;
+
+    private final ConcurrentHashMap<Long, CopyOnWriteArrayList<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+
+    private ExecutorService senders;
+    private Counter slowDisconnects;
+
+    // То, что получает клиент и другие узлы; userId клиенту не отправляется
+    public record Change(Long userId, String type, String filename, String oldFilename, Long size) {
+    }
+
+    private record ClientChange(String type, String filename, String oldFilename, Long size) {
+    }
+
+    private final class Subscriber {
+        private final Long userId;
+        private final SseEmitter emitter;
+        // Построитель события одноразовый (build() дописывает в него), поэтому в очереди - фабрики
+        private final ConcurrentLinkedQueue<Supplier<SseEmitter.SseEventBuilder>> queue = new ConcurrentLinkedQueue<>();
+        // Число событий в очереди плюс отправляемое; переход 0 -> 1 запускает отправку
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        Subscriber(Long userId, SseEmitter emitter) {
+            this.userId = userId;
+            this.emitter = emitter;
+        }
+
+        void offer(Supplier<SseEmitter.SseEventBuilder> event) {
+            if (closed.get()) {
+                return;
+            }
+            if (pending.get() >= bufferSize) {
+                slowDisconnects.increment();
+                System.out.println("🐌 Change feed subscriber of user " + userId + " is too slow, disconnecting");
+                close();
+                return;
+            }
+            queue.add(event);
+            if (pending.getAndIncrement() == 0) {
+                senders.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            do {
+                Supplier<SseEmitter.SseEventBuilder> event = queue.poll();
+                if (closed.get()) {
+                    return;
+                }
+                try {
+                    emitter.send(event.get());
+                } catch (IOException | IllegalStateException e) {
+                    // Клиент ушел - SseEmitter сам завершит запрос, подписку убираем сразу
+                    unregister(this);
+                    return;
+                }
+            } while (pending.decrementAndGet() > 0);
+        }
+
+        void close() {
+            if (unregister(this)) {
+                emitter.complete();
+            }
+        }
+    }
+
+    @PostConstruct
+    void start() {
+        senders = Executors.newVirtualThreadPerTaskExecutor();
+        slowDisconnects = Counter.builder("file.changes.disconnected")
+                .description("Change feed subscribers disconnected because their buffer overflowed")
+                .tag("reason", "slow")
+                .register(meterRegistry);
+        Gauge.builder("file.changes.subscribers", subscriberCount, AtomicInteger::get)
+                .description("Open change feed connections")
+                .register(meterRegistry);
+
+        notificationBus.subscribe(CHANNEL, this::onRemoteChange);
+        notificationBus.onResync(this::resyncAll);
+    }
+
+    @PreDestroy
+    void stop() {
+        subscribers.values().forEach(list -> list.forEach(Subscriber::close));
+        senders.shutdownNow();
+    }
+
+    // empty - превышен file.changes.max-subscribers
+    public Optional<SseEmitter> subscribe(UserEntity user) {
+        if (subscriberCount.get() >= maxSubscribers) {
+            return Optional.empty();
+        }
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        Subscriber subscriber = register(user.getId(), emitter);
+        // Первое событие сразу отправляет заголовки: клиент знает, что подписка активна
+        subscriber.offer(() -> SseEmitter.event().name("ready").data("{}", MediaType.APPLICATION_JSON));
+        return Optional.of(emitter);
+    }
+
+    private Subscriber register(Long userId, SseEmitter emitter) {
+        Subscriber subscriber = new Subscriber(userId, emitter);
+        emitter.onCompletion(() -> unregister(subscriber));
+        emitter.onTimeout(() -> unregister(subscriber));
+        emitter.onError(error -> unregister(subscriber));
+        subscribers.compute(userId, (key, list) -> {
+            CopyOnWriteArrayList<Subscriber> target = list != null ? list : new CopyOnWriteArrayList<>();
+            target.add(subscriber);
+            return target;
+        });
+        subscriberCount.incrementAndGet();
+        return subscriber;
+    }
+
+    // После коммита: клиент, получивший событие, должен увидеть изменение в /list
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onFileChange(FileChangeEvent event) {
+        Change change = new Change(event.userId(), event.type().name().toLowerCase(),
+                event.filename(), event.oldFilename(), event.size());
+        deliver(change);
+        try {
+            notificationBus.publish(CHANNEL, objectMapper.writeValueAsString(change));
+        } catch (JsonProcessingException e) {
+            System.out.println("❌ Error serializing file change: " + e.getMessage());
+        }
+    }
+
+    // Heartbeat: через простаивающее соединение иначе не узнать, что клиент уже ушел
+    @Scheduled(fixedDelayString = "${file.changes.heartbeat-interval-ms:30000}")
+    public void heartbeat() {
+        broadcast(() -> SseEmitter.event().comment("keepalive"));
+    }
+
+    public int getSubscriberCount() {
+        return subscriberCount.get();
+    }
+
+    private void onRemoteChange(String payload) {
+        try {
+            deliver(objectMapper.readValue(payload, Change.class));
+        } catch (JsonProcessingException e) {
+            System.out.println("❌ Malformed file change notification: " + e.getMessage());
+        }
+    }
+
+    private void deliver(Change change) {
+        List<Subscriber> targets = subscribers.get(change.userId());
+        if (targets == null) {
+            return;
+        }
+        ClientChange data = new ClientChange(change.type(), change.filename(), change.oldFilename(), change.size());
+        Supplier<SseEmitter.SseEventBuilder> event = () -> SseEmitter.event()
+                .name(change.type())
+                .data(data, MediaType.APPLICATION_JSON);
+        for (Subscriber subscriber : targets) {
+            subscriber.offer(event);
+        }
+    }
+
+    private void resyncAll() {
+        broadcast(() -> SseEmitter.event().name("resync").data("{}", MediaType.APPLICATION_JSON));
+    }
+
+    private void broadcast(Supplier<SseEmitter.SseEventBuilder> event) {
+        for (List<Subscriber> list : subscribers.values()) {
+            for (Subscriber subscriber : list) {
+                subscriber.offer(event);
+            }
+        }
+    }
+
+    private boolean unregister(Subscriber subscriber) {
+        if (!subscriber.closed.compareAndSet(false, true)) {
+            return false;
+        }
+        subscribers.computeIfPresent(subscriber.userId, (key, list) -> {
+            list.remove(subscriber);
+            return list.isEmpty() ? null : list;
+        });
+        subscriberCount.decrementAndGet();
+        return true;
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.cloudstorage.service;
+
+import com.example.cloudstorage.entity.UserEntity;
+import com.example.cloudstorage.event.FileChangeEvent;
+import com.example.cloudstorage.repository.ChangeJournalRepository;
+import com.example.cloudstorage.repository.ChangeJournalRepository.Cursor;
+import com.example.cloudstorage.repository.ChangeJournalRepository.JournalChange;
+import com.example.cloudstorage.repository.ChangeJournalRepository.NewChange;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Журнал изменений файлов для клиентов, которые были офлайн: GET /changes?since={seq} отдает только
+ * изменения после курсора, постранично, и стоимость переподключения зависит от числа изменений,
+ * а не от числа файлов.
+ *
+ * <p>Запись в журнал - в той же транзакции, что и изменение: события FileChangeEvent копятся до
+ * коммита и пишутся одной вставкой на пользователя (импорт архива из сотен файлов - один запрос).
+ * Без транзакции событие пишется сразу.
+ *
+ * <p>Снимок состояния - это сама таблица files (/list), журнал хранит только хвост за
+ * file.journal.retention-hours. Курсор старше сжатой части получает resync: клиент перечитывает /list
+ * и продолжает с выданного курсора.
+ */
+@Service
+@RequiredArgsConstructor
+public class ChangeJournalService {
+    private static final Object PENDING_KEY = new Object();
+
+    private final ChangeJournalRepository journalRepository;
+
+    @Value("${file.journal.retention-hours:168}")
+    private long retentionHours;
+
+    @Value("${file.journal.compact-batch-size:5000}")
+    private int compactBatchSize;
+
+    @Value("${file.journal.max-page-size:5000}")
+    private int maxPageSize;
+
+    public record ChangePage(List<JournalChange> changes, long cursor, boolean hasMore, boolean resync) {
+    }
+
+    // Синхронно, внутри транзакции изменения - не @TransactionalEventListener
+    @EventListener
+    public void onFileChange(FileChangeEvent event) {
+        NewChange change = new NewChange(event.type().name().toLowerCase(), event.filename(),
+                event.oldFilename(), event.size());
+        if (!TransactionSynchronizationManager.isSynchronizationActive()
+                || !TransactionSynchronizationManager.isActualTransactionActive()) {
+            journalRepository.append(event.userId(), List.of(change));
+            return;
+        }
+        pendingChanges().computeIfAbsent(event.userId(), key -> new ArrayList<>()).add(change);
+    }
+
+    @Transactional(readOnly = true)
+    public ChangePage getChangesSince(UserEntity user, long since, int limit) {
+        if (limit <= 0 || limit > maxPageSize) {
+            throw new IllegalArgumentException("Limit must be between 1 and " + maxPageSize);
+        }
+        Cursor cursor = journalRepository.findCursor(user.getId());
+        // Нужные записи уже сжаты (или курсор не из этой базы) - только полный список
+        if (since < cursor.horizon() || since > cursor.seq()) {
+            return new ChangePage(List.of(), cursor.seq(), false, true);
+        }
+        List<JournalChange> changes = journalRepository.findSince(user.getId(), since, limit + 1);
+        boolean hasMore = changes.size() > limit;
+        if (hasMore) {
+            changes = changes.subList(0, limit);
+        }
+        long next = changes.isEmpty() ? since : changes.get(changes.size() - 1).seq();
+        return new ChangePage(changes, next, hasMore, false);
+    }
+
+    @Scheduled(fixedDelayString = "${file.journal.compact-interval-ms:600000}")
+    public void compact() {
+        long retentionSeconds = TimeUnit.HOURS.toSeconds(retentionHours);
+        int removed;
+        int total = 0;
+        do {
+            removed = journalRepository.compact(retentionSeconds, compactBatchSize);
+            total += removed;
+        } while (removed == compactBatchSize);
+        if (total > 0) {
+            System.out.println("🗜️ Compacted change journal: " + total + " entries removed");
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<Long, List<NewChange>> pendingChanges() {
+        Map<Long, List<NewChange>> pending =
+                (Map<Long, List<NewChange>>) TransactionSynchronizationManager.getResource(PENDING_KEY);
+        if (pending != null) {
+            return pending;
+        }
+        Map<Long, List<NewChange>> created = new LinkedHashMap<>();
+        TransactionSynchronizationManager.bindResource(PENDING_KEY, created);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                created.forEach(journalRepository::append);
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(PENDING_KEY);
+            }
+        });
+        return created;
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.cloudstorage.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.SplittableRandom;
+
+/**
+ * Разбиение содержимого на чанки по содержимому (gear rolling hash, как в FastCDC).
+ * Граница ставится там, где хэш последних байт дает нули под маской, поэтому вставка
+ * или удаление в середине файла сдвигает только соседние границы, а остальные чанки совпадают
+ * с чанками прежней версии.
+ */
+public class ContentChunker {
+    // Таблица фиксирована (постоянное зерно): от нее зависят границы, а значит и дедупликация между рестартами
+    private static final long[] GEAR = new long[256];
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x5EEDC0DEL);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    @FunctionalInterface
+    public interface ChunkConsumer {
+        void accept(byte[] buffer, int length) throws IOException;
+    }
+
+    private final int minSize;
+    private final int maxSize;
+    private final long mask;
+
+    public ContentChunker(int minSize, int averageSize, int maxSize) {
+        if (Integer.bitCount(averageSize) != 1 || minSize <= 0 || minSize > averageSize || averageSize > maxSize) {
+            throw new IllegalArgumentException("Invalid chunk sizes");
+        }
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        // Старшие биты gear-хэша перемешаны лучше младших
+        this.mask = (long) (averageSize - 1) << (Long.SIZE - Integer.numberOfTrailingZeros(averageSize));
+    }
+
+    /**
+     * Передает в consumer чанки по порядку. Буфер переиспользуется между вызовами,
+     * consumer должен скопировать данные, если они нужны после возврата.
+     */
+    public void chunk(InputStream in, ChunkConsumer consumer) throws IOException {
+        byte[] buffer = new byte[maxSize];
+        int length = 0;
+        long hash = 0;
+
+        byte[] readBuffer = new byte[64 * 1024];
+        int read;
+        while ((read = in.read(readBuffer)) != -1) {
+            for (int i = 0; i < read; i++) {
+                byte value = readBuffer[i];
+                buffer[length++] = value;
+                hash = (hash << 1) + GEAR[value & 0xFF];
+
+                if ((length >= minSize && (hash & mask) == 0) || length == maxSize) {
+                    consumer.accept(buffer, length);
+                    length = 0;
+                    hash = 0;
+                }
+            }
+        }
+        if (length > 0) {
+            consumer.accept(buffer, length);
+        }
+    }
+}
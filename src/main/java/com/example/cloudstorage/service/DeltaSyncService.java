@@ -0,0 +1,361 @@
+package com.example.cloudstorage.service;
+
+import com.example.cloudstorage.dto.DeltaUploadResponse;
+import com.example.cloudstorage.entity.FileEntity;
+import com.example.cloudstorage.entity.UserEntity;
+import com.example.cloudstorage.exception.FileStorageException;
+import com.example.cloudstorage.repository.FileRepository;
+import com.example.cloudstorage.repository.FileVersionRepository.Version;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Дельта-синхронизация в духе rsync.
+ *
+ * <p>Сигнатура (GET /file/signature), big-endian: int magic "CSIG", byte версия протокола,
+ * int размер блока, long размер файла, long время изменения (мс), int число блоков, затем
+ * для каждого блока int слабая сумма ({@link RollingChecksum}) и 16 байт SHA-256 блока.
+ *
+ * <p>Дельта (PUT /file/delta): int magic "CDLT", byte версия, int размер блока, long размер
+ * и long время изменения из сигнатуры, long размер нового файла, int число копий и сами копии
+ * (long смещение в новом файле, int номер первого блока, int число блоков) по возрастанию смещения.
+ * Дальше идут байты всех промежутков между копиями подряд, в конце - 32 байта SHA-256 нового файла.
+ *
+ * <p>Копии известны заранее, поэтому сервер сам решает, можно ли собирать файл на месте:
+ * если ни одна копия не читает блок, который к этому моменту уже перезаписан, файл правится
+ * на месте и блоки, оставшиеся на своих местах, не переписываются вовсе. Иначе новый файл
+ * собирается рядом и атомарно подменяет старый. Прежнее содержимое в обоих случаях
+ * сохраняется как версия, из нее же файл восстанавливается при сбое правки на месте.
+ */
+@Service
+@RequiredArgsConstructor
+public class DeltaSyncService {
+    public static final int SIGNATURE_MAGIC = 0x43534947;
+    public static final int DELTA_MAGIC = 0x43444C54;
+    public static final int PROTOCOL_VERSION = 1;
+    public static final int STRONG_HASH_LENGTH = 16;
+    public static final int MIN_BLOCK_SIZE = 512;
+    public static final int MAX_BLOCK_SIZE = 1 << 20;
+
+    private static final int IO_BUFFER_SIZE = 256 * 1024;
+    private static final int DIGEST_LENGTH = 32;
+
+    private final FileStorageService fileStorageService;
+    private final FileVersionService fileVersionService;
+    private final FileRepository fileRepository;
+    private final FileEncryptionService fileEncryption;
+    private final FileCloneService fileCloneService;
+    private final FileLockService fileLocks;
+
+    @Value("${file.delta.max-file-size:10737418240}")
+    private long maxFileSize;
+
+    public record SignaturePlan(Path path, long size, long modified, int blockSize) {
+    }
+
+    private record Copy(long target, long source, long length) {
+    }
+
+    private record Delta(int blockSize, long baseSize, long baseModified, long newSize, List<Copy> copies) {
+        long copiedBytes() {
+            return copies.stream().mapToLong(Copy::length).sum();
+        }
+
+        // Копия читает [source, source + length) после того, как записано все левее target
+        boolean inPlaceSafe() {
+            return copies.stream().allMatch(copy -> copy.source() >= copy.target());
+        }
+    }
+
+    public SignaturePlan prepareSignature(UserEntity user, String filename, int requestedBlockSize) throws IOException {
+        Path path = requireStoredPath(user, requireFile(user, filename));
+        long size = Files.size(path);
+        int blockSize = requestedBlockSize > 0 ? checkBlockSize(requestedBlockSize) : defaultBlockSize(size);
+        return new SignaturePlan(path, size, Files.getLastModifiedTime(path).toMillis(), blockSize);
+    }
+
+    public void writeSignature(SignaturePlan plan, OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, IO_BUFFER_SIZE));
+        long blocks = blockCount(plan.size(), plan.blockSize());
+        data.writeInt(SIGNATURE_MAGIC);
+        data.writeByte(PROTOCOL_VERSION);
+        data.writeInt(plan.blockSize());
+        data.writeLong(plan.size());
+        data.writeLong(plan.modified());
+        data.writeInt((int) blocks);
+
+        MessageDigest digest = sha256();
+        byte[] block = new byte[plan.blockSize()];
+        try (InputStream in = Files.newInputStream(plan.path())) {
+            for (long i = 0; i < blocks; i++) {
+                int length = in.readNBytes(block, 0, block.length);
+                if (length == 0) {
+                    throw new IOException("File changed while building signature");
+                }
+                data.writeInt(RollingChecksum.of(block, 0, length));
+                digest.update(block, 0, length);
+                data.write(digest.digest(), 0, STRONG_HASH_LENGTH);
+            }
+        }
+        data.flush();
+    }
+
+    public DeltaUploadResponse applyDelta(UserEntity user, String filename, String contentType,
+                                          InputStream body) throws IOException {
+        FileEntity file = requireFile(user, filename);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(body, IO_BUFFER_SIZE));
+        Delta delta = readPreamble(in);
+
+        try (FileLockService.Held ignored = fileLocks.lock(user.getId(), filename)) {
+            Path path = requireStoredPath(user, file);
+            if (Files.size(path) != delta.baseSize()
+                    || Files.getLastModifiedTime(path).toMillis() != delta.baseModified()) {
+                throw new FileStorageException("File changed since the signature was taken");
+            }
+
+            Version previous = fileVersionService.snapshot(user, file, path);
+            long written;
+            if (delta.inPlaceSafe()) {
+                // Файл может быть жесткой ссылкой-копией: правка на месте не должна дойти до других имен
+                fileCloneService.breakLink(path);
+                written = applyInPlace(user.getLogin(), path, delta, in, previous);
+            } else {
+                written = rebuild(path, delta, in);
+            }
+
+            fileStorageService.updateStoredFile(user, file, delta.newSize(),
+                    contentType != null ? contentType : file.getContentType());
+            fileVersionService.applyRetention(file);
+
+            long copied = delta.copiedBytes();
+            return new DeltaUploadResponse(delta.newSize(), delta.newSize() - copied, copied, written, delta.inPlaceSafe());
+        }
+    }
+
+    private Delta readPreamble(DataInputStream in) throws IOException {
+        if (in.readInt() != DELTA_MAGIC || in.readUnsignedByte() != PROTOCOL_VERSION) {
+            throw new IllegalArgumentException("Unsupported delta format");
+        }
+        int blockSize = checkBlockSize(in.readInt());
+        long baseSize = in.readLong();
+        long baseModified = in.readLong();
+        long newSize = in.readLong();
+        if (baseSize < 0 || newSize < 0 || newSize > maxFileSize) {
+            throw new IllegalArgumentException("Invalid delta file size");
+        }
+
+        long baseBlocks = blockCount(baseSize, blockSize);
+        int copyCount = in.readInt();
+        if (copyCount < 0 || copyCount > 2 * (newSize / blockSize) + 2) {
+            throw new IllegalArgumentException("Invalid delta copy count");
+        }
+
+        // Емкость не берем из copyCount: число пришло от клиента, список растет по мере чтения инструкций
+        List<Copy> copies = new ArrayList<>();
+        long end = 0;
+        for (int i = 0; i < copyCount; i++) {
+            long target = in.readLong();
+            long firstBlock = Integer.toUnsignedLong(in.readInt());
+            long blocks = Integer.toUnsignedLong(in.readInt());
+            if (blocks == 0 || firstBlock + blocks > baseBlocks || target < end) {
+                throw new IllegalArgumentException("Invalid delta copy instruction " + i);
+            }
+            long source = firstBlock * blockSize;
+            long length = Math.min((firstBlock + blocks) * blockSize, baseSize) - source;
+            if (target + length > newSize) {
+                throw new IllegalArgumentException("Invalid delta copy instruction " + i);
+            }
+            copies.add(new Copy(target, source, length));
+            end = target + length;
+        }
+        return new Delta(blockSize, baseSize, baseModified, newSize, copies);
+    }
+
+    private long applyInPlace(String login, Path path, Delta delta, DataInputStream in, Version previous) throws IOException {
+        long written = 0;
+        try {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.allocate(IO_BUFFER_SIZE);
+                long position = 0;
+                for (Copy copy : delta.copies()) {
+                    written += writeLiteral(in, channel, position, copy.target() - position, buffer, null);
+                    // Блок на своем месте не переписываем - в этом основная экономия записи
+                    if (copy.source() != copy.target()) {
+                        written += copyRange(channel, copy.source(), channel, copy.target(), copy.length(), buffer, null);
+                    }
+                    position = copy.target() + copy.length();
+                }
+                written += writeLiteral(in, channel, position, delta.newSize() - position, buffer, null);
+                channel.truncate(delta.newSize());
+                channel.force(true);
+            }
+
+            byte[] expected = in.readNBytes(DIGEST_LENGTH);
+            if (!Arrays.equals(expected, digestOf(path))) {
+                throw new IllegalArgumentException("Delta result checksum mismatch");
+            }
+            return written;
+        } catch (IOException | RuntimeException e) {
+            // Файл мог остаться наполовину измененным - возвращаем прежнее содержимое из версии
+            fileVersionService.restore(login, previous, path);
+            throw e;
+        }
+    }
+
+    private long rebuild(Path path, Delta delta, DataInputStream in) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".delta");
+        MessageDigest digest = sha256();
+        try {
+            try (FileChannel base = FileChannel.open(path, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE,
+                         StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.allocate(IO_BUFFER_SIZE);
+                long position = 0;
+                for (Copy copy : delta.copies()) {
+                    writeLiteral(in, out, position, copy.target() - position, buffer, digest);
+                    copyRange(base, copy.source(), out, copy.target(), copy.length(), buffer, digest);
+                    position = copy.target() + copy.length();
+                }
+                writeLiteral(in, out, position, delta.newSize() - position, buffer, digest);
+                out.force(true);
+            }
+
+            byte[] expected = in.readNBytes(DIGEST_LENGTH);
+            if (!Arrays.equals(expected, digest.digest())) {
+                throw new IllegalArgumentException("Delta result checksum mismatch");
+            }
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return delta.newSize();
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private long writeLiteral(DataInputStream in, FileChannel out, long position, long length,
+                              ByteBuffer buffer, MessageDigest digest) throws IOException {
+        long remaining = length;
+        while (remaining > 0) {
+            int size = (int) Math.min(buffer.capacity(), remaining);
+            int read = in.readNBytes(buffer.array(), 0, size);
+            if (read < size) {
+                throw new EOFException("Delta body ended prematurely");
+            }
+            if (digest != null) {
+                digest.update(buffer.array(), 0, size);
+            }
+            writeFully(out, buffer.clear().limit(size), position + length - remaining);
+            remaining -= size;
+        }
+        return length;
+    }
+
+    // Копирование идет от начала к концу: при source > target (правка на месте) запись не догоняет чтение
+    private long copyRange(FileChannel from, long source, FileChannel to, long target, long length,
+                           ByteBuffer buffer, MessageDigest digest) throws IOException {
+        long done = 0;
+        while (done < length) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), length - done));
+            while (buffer.hasRemaining()) {
+                if (from.read(buffer, source + done + buffer.position()) < 0) {
+                    throw new EOFException("Base file is shorter than expected");
+                }
+            }
+            buffer.flip();
+            if (digest != null) {
+                digest.update(buffer.array(), 0, buffer.limit());
+            }
+            int size = buffer.limit();
+            writeFully(to, buffer, target + done);
+            done += size;
+        }
+        return length;
+    }
+
+    private void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            offset += channel.write(buffer, offset);
+        }
+    }
+
+    private byte[] digestOf(Path path) throws IOException {
+        MessageDigest digest = sha256();
+        byte[] buffer = new byte[IO_BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(path)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return digest.digest();
+    }
+
+    private FileEntity requireFile(UserEntity user, String filename) {
+        fileStorageService.validateFilename(filename);
+        return fileRepository.findByUserAndFilename(user, filename)
+                .orElseThrow(() -> new FileStorageException("File not found: " + filename));
+    }
+
+    private Path requireStoredPath(UserEntity user, FileEntity file) throws IOException {
+        // Дельта правит файл на месте, упакованный сначала переносится из сегмента
+        if (file.getSegmentId() != null) {
+            fileStorageService.unpack(user, file);
+        }
+        Path path = fileStorageService.getFilePath(user, file.getFilename());
+        if (!Files.exists(path)) {
+            throw new FileStorageException("File not found: " + file.getFilename());
+        }
+        // Блоки сигнатуры и правка на месте относятся к открытому тексту, а на диске - сегменты шифра
+        if (fileEncryption.isEncrypted(path)) {
+            throw new FileStorageException("Delta sync is not available for encrypted files, upload the whole file");
+        }
+        return path;
+    }
+
+    private int checkBlockSize(int blockSize) {
+        if (blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("Block size must be between " + MIN_BLOCK_SIZE + " and " + MAX_BLOCK_SIZE);
+        }
+        return blockSize;
+    }
+
+    // Как в rsync: около sqrt(размера), чтобы сигнатура и потери на границах блоков росли одинаково
+    private int defaultBlockSize(long size) {
+        int root = (int) Math.sqrt((double) size);
+        int blockSize = Integer.highestOneBit(Math.max(root, 1));
+        return Math.max(2048, Math.min(65536, blockSize));
+    }
+
+    private static long blockCount(long size, int blockSize) {
+        return (size + blockSize - 1) / blockSize;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
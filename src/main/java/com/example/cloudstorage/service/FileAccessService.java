@@ -0,0 +1,132 @@
+package com.example.cloudstorage.service;
+
+import com.example.cloudstorage.repository.FileAccessRepository;
+import com.example.cloudstorage.repository.FileAccessRepository.AccessDelta;
+import com.example.cloudstorage.repository.FileAccessRepository.FileAccessStat;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Счетчики скачиваний по файлам. Скачивание только увеличивает счетчик в памяти (LongAdder, без блокировок
+ * и без обращения к БД); раз в file.access.flush-interval-ms накопленное сбрасывается в file_access_stats
+ * одной вставкой. Потеря последнего интервала при падении узла допустима - это статистика, а не учет.
+ *
+ * <p>Память ограничена: в карте только файлы, скачанные с прошлого сброса, не больше file.access.max-tracked-files;
+ * обращения к новым файлам сверх лимита не учитываются (метрика file.access.dropped).
+ */
+@Service
+@RequiredArgsConstructor
+public class FileAccessService {
+    private final FileAccessRepository fileAccessRepository;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${file.access.enabled:true}")
+    private boolean enabled;
+
+    @Value("${file.access.max-tracked-files:100000}")
+    private int maxTrackedFiles;
+
+    @Value("${file.access.max-page-size:1000}")
+    private int maxPageSize;
+
+    private final ConcurrentHashMap<Long, AccessCounter> counters = new ConcurrentHashMap<>();
+    private Counter droppedHits;
+    private Counter lostHits;
+
+    private static final class AccessCounter {
+        final LongAdder hits = new LongAdder();
+        // Гонка записей допустима: расходятся на миллисекунды
+        volatile long lastAccessMillis;
+    }
+
+    @PostConstruct
+    void start() {
+        Gauge.builder("file.access.tracked", counters, ConcurrentHashMap::size)
+                .description("Files with downloads not yet flushed to the database")
+                .register(meterRegistry);
+        droppedHits = Counter.builder("file.access.dropped")
+                .description("Downloads not counted because the tracked file limit was reached")
+                .register(meterRegistry);
+        lostHits = Counter.builder("file.access.lost")
+                .description("Downloads lost because the flush to the database failed")
+                .register(meterRegistry);
+    }
+
+    public void recordAccess(Long fileId) {
+        if (!enabled || fileId == null) {
+            return;
+        }
+        AccessCounter counter = counters.get(fileId);
+        if (counter == null) {
+            // size() суммирует ячейки карты, но вызывается только для файла, которого еще нет в карте
+            if (counters.size() >= maxTrackedFiles) {
+                droppedHits.increment();
+                return;
+            }
+            counter = counters.computeIfAbsent(fileId, id -> new AccessCounter());
+        }
+        counter.hits.increment();
+        counter.lastAccessMillis = System.currentTimeMillis();
+    }
+
+    @Scheduled(fixedDelayString = "${file.access.flush-interval-ms:10000}")
+    public synchronized void flush() {
+        List<AccessDelta> deltas = new ArrayList<>();
+        for (Map.Entry<Long, AccessCounter> entry : counters.entrySet()) {
+            AccessCounter counter = entry.getValue();
+            long hits = counter.hits.sumThenReset();
+            if (hits == 0) {
+                // Не скачивался с прошлого сброса: убираем, чтобы карта не росла за счет однажды скачанных файлов.
+                // Обращение, успевшее взять этот счетчик до удаления, теряется
+                counters.remove(entry.getKey(), counter);
+                continue;
+            }
+            deltas.add(new AccessDelta(entry.getKey(), hits, LocalDateTime.ofInstant(
+                    Instant.ofEpochMilli(counter.lastAccessMillis), ZoneId.systemDefault())));
+        }
+        if (deltas.isEmpty()) {
+            return;
+        }
+
+        try {
+            fileAccessRepository.upsert(deltas);
+        } catch (DataAccessException e) {
+            // Не возвращаем в карту: при устойчивой ошибке пачка копилась бы без предела
+            lostHits.increment(deltas.stream().mapToLong(AccessDelta::hits).sum());
+            System.out.println("❌ Error flushing file access stats: " + e.getMessage());
+        }
+    }
+
+    // При штатной остановке сбрасываем последний интервал
+    @PreDestroy
+    void stop() {
+        flush();
+    }
+
+    // Кандидаты в кэш: самые скачиваемые за последние days дней (без еще не сброшенного интервала)
+    public List<FileAccessStat> getPopular(int days, int limit) {
+        return fileAccessRepository.findPopular(Math.max(days, 1), Math.min(Math.max(limit, 1), maxPageSize));
+    }
+
+    // Кандидаты на перенос в холодное хранилище: не скачивались дольше idleDays дней
+    public List<FileAccessStat> getCold(int idleDays, int limit) {
+        return fileAccessRepository.findCold(Math.max(idleDays, 0), Math.min(Math.max(limit, 1), maxPageSize));
+    }
+}
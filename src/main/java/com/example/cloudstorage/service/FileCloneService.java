@@ -0,0 +1,169 @@
+package com.example.cloudstorage.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Копия файла в хранилище без чтения содержимого в JVM. По очереди пробуются:
+ * <ul>
+ *     <li>reflink (btrfs, XFS) - новый файл делит экстенты со старым, диск копирует блоки только
+ *     при записи. В Java для этого нет API, поэтому вызывается cp --reflink=always;</li>
+ *     <li>жесткая ссылка - второе имя того же inode. Правки на месте обязаны сначала вызвать
+ *     {@link #breakLink}: остальные записи в хранилище идут во временный файл с атомарной заменой
+ *     и ссылку разрывают сами;</li>
+ *     <li>FileChannel.transferTo - копирование в ядре (copy_file_range/sendfile), без буферов в куче.</li>
+ * </ul>
+ * Копия пишется во временный файл и переносится на место атомарно, как и остальные записи.
+ */
+@Service
+@RequiredArgsConstructor
+public class FileCloneService {
+    private static final long REFLINK_TIMEOUT_MS = 10_000;
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${file.copy.reflink:true}")
+    private boolean reflinkEnabled;
+
+    @Value("${file.copy.hard-links:true}")
+    private boolean hardLinksEnabled;
+
+    // Сбрасывается после первого отказа: файловая система reflink не умеет, процесс на каждую копию не нужен
+    private volatile boolean reflinkSupported = true;
+    private final Map<Method, Counter> copies = new EnumMap<>(Method.class);
+
+    public enum Method {
+        REFLINK, HARD_LINK, TRANSFER
+    }
+
+    @PostConstruct
+    void start() {
+        for (Method method : Method.values()) {
+            copies.put(method, Counter.builder("file.copy")
+                    .description("Server-side file copies by filesystem method")
+                    .tag("method", method.name().toLowerCase())
+                    .register(meterRegistry));
+        }
+    }
+
+    public Method clone(Path source, Path target) throws IOException {
+        Path temp = target.resolveSibling(target.getFileName() + ".copy");
+        // Остаток прерванной копии помешал бы createLink
+        Files.deleteIfExists(temp);
+        try {
+            Method method = cloneTo(source, temp);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            copies.get(method).increment();
+            return method;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Копирование при записи для жестких ссылок: если у файла есть другие имена, он заменяется собственной
+     * копией, чтобы правка на месте не изменила копии. Вызывать перед открытием файла на запись.
+     */
+    public void breakLink(Path path) throws IOException {
+        if (linkCount(path) <= 1) {
+            return;
+        }
+        Path temp = path.resolveSibling(path.getFileName() + ".cow");
+        try {
+            if (!reflink(path, temp)) {
+                transfer(path, temp);
+            }
+            Files.setLastModifiedTime(temp, Files.getLastModifiedTime(path));
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private Method cloneTo(Path source, Path temp) throws IOException {
+        if (!Files.isRegularFile(source)) {
+            throw new IOException("Source file not found: " + source.getFileName());
+        }
+        if (reflink(source, temp)) {
+            return Method.REFLINK;
+        }
+        // Без атрибутов unix число ссылок не узнать, и breakLink не смог бы разорвать ссылку
+        if (hardLinksEnabled && source.getFileSystem().supportedFileAttributeViews().contains("unix")) {
+            try {
+                Files.createLink(temp, source);
+                return Method.HARD_LINK;
+            } catch (UnsupportedOperationException | IOException e) {
+                System.out.println("⚠️ Hard link failed for " + source.getFileName() + ", copying: " + e.getMessage());
+                Files.deleteIfExists(temp);
+            }
+        }
+        transfer(source, temp);
+        return Method.TRANSFER;
+    }
+
+    private boolean reflink(Path source, Path temp) throws IOException {
+        if (!reflinkEnabled || !reflinkSupported) {
+            return false;
+        }
+        try {
+            Process process = new ProcessBuilder("cp", "--reflink=always", "--", source.toString(), temp.toString())
+                    .redirectErrorStream(true)
+                    .start();
+            if (!process.waitFor(REFLINK_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                process.destroyForcibly();
+                Files.deleteIfExists(temp);
+                return false;
+            }
+            if (process.exitValue() == 0) {
+                return true;
+            }
+            String output = new String(process.getInputStream().readAllBytes()).trim();
+            reflinkSupported = false;
+            System.out.println("⚠️ Reflink copies are not available, falling back: " + output);
+        } catch (IOException e) {
+            // Нет cp - дальше без reflink
+            reflinkSupported = false;
+            System.out.println("⚠️ Reflink copies are not available, falling back: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while copying " + source.getFileName(), e);
+        }
+        Files.deleteIfExists(temp);
+        return false;
+    }
+
+    private static void transfer(Path source, Path temp) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+        }
+    }
+
+    private static int linkCount(Path path) throws IOException {
+        try {
+            return (Integer) Files.getAttribute(path, "unix:nlink");
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            // Нет атрибутов unix - clone жестких ссылок не создает
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package com.example.cloudstorage.service;
+
+import com.example.cloudstorage.repository.UserKeyRepository;
+import com.example.cloudstorage.repository.UserKeyRepository.WrappedKey;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.apache.commons.compress.utils.SeekableInMemoryByteChannel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Шифрование файлов на диске по схеме envelope: у каждого пользователя свой ключ данных (DEK, AES-256),
+ * в БД он хранится обернутым (AES Key Wrap, RFC 3394) мастер-ключом (KEK) из локального хранилища
+ * ключей PKCS12. Содержимое шифруется потоково по сегментам ({@link SegmentedAead}).
+ *
+ * <p>file.encryption.enabled включает шифрование новых файлов, загруженных через POST /file и PUT /file/content.
+ * Чтение определяет формат по заголовку, поэтому зашифрованные и открытые файлы (записанные другими путями
+ * или до включения) читаются одинаково. Развернутые DEK кэшируются в памяти по логину.
+ */
+@Service
+@RequiredArgsConstructor
+public class FileEncryptionService {
+    private static final String WRAP_ALGORITHM = "AESWrap";
+    private static final byte[] CONTENT_ID_LABEL = "content-id".getBytes(StandardCharsets.US_ASCII);
+
+    private final UserKeyRepository keyRepository;
+    private final PlatformTransactionManager transactionManager;
+
+    @Value("${file.encryption.enabled:false}")
+    private boolean enabled;
+
+    @Value("${file.encryption.keystore-path:./keys/storage.p12}")
+    private String keystorePath;
+
+    @Value("${file.encryption.keystore-password:}")
+    private String keystorePassword;
+
+    // Алиас KEK, которым оборачиваются новые DEK; прежние алиасы должны оставаться в хранилище
+    @Value("${file.encryption.kek-alias:master}")
+    private String kekAlias;
+
+    private Map<String, SecretKey> keyEncryptionKeys = Map.of();
+    private final ConcurrentHashMap<String, SecretKey> dataKeys = new ConcurrentHashMap<>();
+    private TransactionTemplate keyTransaction;
+
+    @PostConstruct
+    void start() throws IOException, GeneralSecurityException {
+        if (!enabled) {
+            return;
+        }
+        if (keystorePassword == null || keystorePassword.isBlank()) {
+            throw new IllegalStateException("file.encryption.keystore-password must be set when encryption is enabled");
+        }
+        keyEncryptionKeys = loadKeyEncryptionKeys(Paths.get(keystorePath), keystorePassword.toCharArray(), kekAlias);
+        if (!keyEncryptionKeys.containsKey(kekAlias)) {
+            throw new IllegalStateException("Key '" + kekAlias + "' not found in " + keystorePath);
+        }
+
+        // Ключ пользователя фиксируется сразу, отдельно от транзакции загрузки: откат загрузки
+        // не должен оставить файл, зашифрованный ключом, которого нет в БД
+        keyTransaction = new TransactionTemplate(transactionManager);
+        keyTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        System.out.println("🔐 File encryption at rest is enabled, key '" + kekAlias + "'");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Пишет содержимое в файл, зашифровав его ключом пользователя (или как есть, если шифрование выключено).
+     */
+    public void write(String login, Path path, byte[] content) throws IOException {
+        if (!enabled) {
+            Files.write(path, content);
+            return;
+        }
+        try (OutputStream out = SegmentedAead.encryptingStream(dataKey(login), Files.newOutputStream(path))) {
+            out.write(content);
+        }
+    }
+
+    public OutputStream openOutputStream(String login, Path path) throws IOException {
+        if (!enabled) {
+            return Files.newOutputStream(path);
+        }
+        return SegmentedAead.encryptingStream(dataKey(login), Files.newOutputStream(path));
+    }
+
+    /**
+     * Имя содержимого для дедупликации в пределах пользователя: HMAC-SHA256 ключом, выведенным из DEK.
+     * В отличие от SHA-256 открытого текста, по такому имени нельзя проверить догадку о содержимом.
+     */
+    public String contentId(String login, byte[] content) throws IOException {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(dataKey(login).getEncoded(), "HmacSHA256"));
+            mac.init(new SecretKeySpec(mac.doFinal(CONTENT_ID_LABEL), "HmacSHA256"));
+            return HexFormat.of().formatHex(mac.doFinal(content));
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Cannot compute content id", e);
+        }
+    }
+
+    // Для записи через репликацию: кворум требует готового содержимого
+    public byte[] encrypt(String login, byte[] content) throws IOException {
+        if (!enabled) {
+            return content;
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream((int) SegmentedAead.ciphertextSize(content.length));
+        try (OutputStream out = SegmentedAead.encryptingStream(dataKey(login), buffer)) {
+            out.write(content);
+        }
+        return buffer.toByteArray();
+    }
+
+    public byte[] decrypt(String login, byte[] stored) throws IOException {
+        if (!enabled || !SegmentedAead.hasHeader(stored, stored.length)) {
+            return stored;
+        }
+        return readAll(login, new SeekableInMemoryByteChannel(stored));
+    }
+
+    public byte[] readAllBytes(String login, Path path) throws IOException {
+        if (!enabled || !SegmentedAead.isEncrypted(path)) {
+            return Files.readAllBytes(path);
+        }
+        return readAll(login, FileChannel.open(path, StandardOpenOption.READ));
+    }
+
+    public InputStream openInputStream(String login, Path path) throws IOException {
+        if (!enabled || !SegmentedAead.isEncrypted(path)) {
+            return Files.newInputStream(path);
+        }
+        return SegmentedAead.decryptingStream(dataKey(login), FileChannel.open(path, StandardOpenOption.READ));
+    }
+
+    // Размер содержимого без расшифровки: у зашифрованного файла вычисляется по длине и заголовку
+    public long plaintextSize(Path path) throws IOException {
+        return enabled ? SegmentedAead.plaintextSize(path) : Files.size(path);
+    }
+
+    // Потоковый доступ к содержимому на месте (дельта, асинхронная передача) для зашифрованного файла невозможен
+    public boolean isEncrypted(Path path) throws IOException {
+        return enabled && SegmentedAead.isEncrypted(path);
+    }
+
+    /**
+     * Resource для отдачи с поддержкой Range: для зашифрованного файла skip переходит сразу к нужному
+     * сегменту, поэтому расшифровываются только сегменты запрошенного диапазона.
+     */
+    public Resource resource(String login, Path path) {
+        if (!enabled) {
+            return new FileSystemResource(path);
+        }
+        return new StoredFileResource(path, this, login);
+    }
+
+    SecretKey dataKey(String login) throws IOException {
+        SecretKey cached = dataKeys.get(login);
+        if (cached != null) {
+            return cached;
+        }
+        WrappedKey wrapped = keyRepository.findByLogin(login).orElse(null);
+        if (wrapped == null) {
+            wrapped = createDataKey(login);
+        }
+        SecretKey key = unwrap(wrapped);
+        SecretKey existing = dataKeys.putIfAbsent(login, key);
+        return existing != null ? existing : key;
+    }
+
+    private WrappedKey createDataKey(String login) throws IOException {
+        try {
+            KeyGenerator generator = KeyGenerator.getInstance("AES");
+            generator.init(256);
+            Cipher cipher = Cipher.getInstance(WRAP_ALGORITHM);
+            cipher.init(Cipher.WRAP_MODE, keyEncryptionKeys.get(kekAlias));
+            byte[] wrapped = cipher.wrap(generator.generateKey());
+            keyTransaction.executeWithoutResult(status -> keyRepository.insertIfAbsent(login, wrapped, kekAlias));
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Cannot create data key", e);
+        }
+        // Перечитываем: при гонке побеждает ключ, вставленный первым
+        return keyRepository.findByLogin(login)
+                .orElseThrow(() -> new IOException("User not found: " + login));
+    }
+
+    private SecretKey unwrap(WrappedKey wrapped) throws IOException {
+        SecretKey kek = keyEncryptionKeys.get(wrapped.kekAlias());
+        if (kek == null) {
+            throw new IOException("Key '" + wrapped.kekAlias() + "' not found in " + keystorePath);
+        }
+        try {
+            Cipher cipher = Cipher.getInstance(WRAP_ALGORITHM);
+            cipher.init(Cipher.UNWRAP_MODE, kek);
+            return (SecretKey) cipher.unwrap(wrapped.wrappedKey(), "AES", Cipher.SECRET_KEY);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Cannot unwrap data key", e);
+        }
+    }
+
+    private byte[] readAll(String login, SeekableByteChannel channel) throws IOException {
+        try (SegmentedAead.DecryptingStream in = SegmentedAead.decryptingStream(dataKey(login), channel)) {
+            if (in.size() > Integer.MAX_VALUE - 8) {
+                throw new IOException("File is too large to read into memory");
+            }
+            // Размер известен заранее: результат выделяется один раз, без копирования при росте буфера
+            byte[] content = new byte[(int) in.size()];
+            int read = in.readNBytes(content, 0, content.length);
+            // Чтение до конца проверяет и тег пустого файла
+            if (read != content.length || in.read() != -1) {
+                throw new IOException("Encrypted file is truncated");
+            }
+            return content;
+        }
+    }
+
+    private static Map<String, SecretKey> loadKeyEncryptionKeys(Path path, char[] password, String newAlias)
+            throws IOException, GeneralSecurityException {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        if (Files.exists(path)) {
+            try (InputStream in = Files.newInputStream(path)) {
+                keyStore.load(in, password);
+            }
+        } else {
+            // Первый запуск: создаем хранилище с новым KEK. Без этого файла зашифрованные данные не прочитать
+            keyStore.load(null, password);
+            KeyGenerator generator = KeyGenerator.getInstance("AES");
+            generator.init(256);
+            keyStore.setEntry(newAlias, new KeyStore.SecretKeyEntry(generator.generateKey()),
+                    new KeyStore.PasswordProtection(password));
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            try (OutputStream out = Files.newOutputStream(path, StandardOpenOption.CREATE_NEW)) {
+                keyStore.store(out, password);
+            }
+            System.out.println("⚠️ Created new keystore " + path + " with key '" + newAlias + "': back it up, files cannot be decrypted without it");
+        }
+
+        Map<String, SecretKey> keys = new HashMap<>();
+        for (String alias : Collections.list(keyStore.aliases())) {
+            if (keyStore.entryInstanceOf(alias, KeyStore.SecretKeyEntry.class)) {
+                Key key = keyStore.getKey(alias, password);
+                keys.put(alias, (SecretKey) key);
+            }
+        }
+        return Map.copyOf(keys);
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.cloudstorage.service;
+
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Правки одного файла на этом узле выполняются по очереди: сохранение, перезапись, дельта
+ * и переименование берут блокировку по (пользователь, имя). Блокировки полосатые - разные
+ * имена изредка делят одну, это только лишнее ожидание.
+ */
+@Service
+public class FileLockService {
+    private static final int STRIPES = 64;
+
+    private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+
+    public FileLockService() {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    public interface Held extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    // Для правок вне транзакции: блокировка снимается при закрытии
+    public Held lock(Long userId, String filename) {
+        ReentrantLock lock = locks[stripe(userId, filename)];
+        lock.lock();
+        return lock::unlock;
+    }
+
+    /**
+     * Для правок в транзакции: блокировка держится до коммита или отката, иначе следующая правка
+     * того же файла изменила бы его на диске раньше, чем зафиксирована строка предыдущей.
+     * Полосы берутся по возрастанию, поэтому переименования навстречу друг другу не зависнут.
+     */
+    public void lockUntilCompletion(Long userId, String... filenames) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            throw new IllegalStateException("File lock requires an active transaction");
+        }
+        int[] stripes = Arrays.stream(filenames).mapToInt(filename -> stripe(userId, filename))
+                .distinct().sorted().toArray();
+        for (int stripe : stripes) {
+            locks[stripe].lock();
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                for (int i = stripes.length - 1; i >= 0; i--) {
+                    locks[stripes[i]].unlock();
+                }
+            }
+        });
+    }
+
+    private int stripe(Long userId, String filename) {
+        return Math.floorMod(Objects.hash(userId, filename), locks.length);
+    }
+}
@@ -0,0 +1,344 @@
+package com.example.cloudstorage.service;
+
+import com.example.cloudstorage.entity.FileEntity;
+import com.example.cloudstorage.entity.FileMetadataEntity;
+import com.example.cloudstorage.repository.FileJobRepository;
+import com.example.cloudstorage.repository.FileJobRepository.ClaimedJob;
+import com.example.cloudstorage.repository.FileMetadataRepository;
+import com.example.cloudstorage.repository.FileRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Фоновая обработка загруженных файлов: контрольная сумма, определение типа по сигнатуре,
+ * размеры и превью для изображений. Задачи лежат в таблице file_jobs, поэтому переживают рестарт.
+ */
+@Service
+@RequiredArgsConstructor
+public class FileProcessingService {
+    private static final long MAX_BACKOFF_MS = TimeUnit.HOURS.toMillis(1);
+
+    private final FileJobRepository fileJobRepository;
+    private final FileRepository fileRepository;
+    private final FileMetadataRepository fileMetadataRepository;
+    private final FileStorageService fileStorageService;
+    private final FileEncryptionService fileEncryption;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${file.processing.workers:4}")
+    private int workers;
+
+    @Value("${file.processing.queue-capacity:64}")
+    private int queueCapacity;
+
+    @Value("${file.processing.batch-size:16}")
+    private int batchSize;
+
+    @Value("${file.processing.max-attempts:5}")
+    private int maxAttempts;
+
+    @Value("${file.processing.retry-backoff-ms:5000}")
+    private long retryBackoffMs;
+
+    @Value("${file.processing.lease-seconds:300}")
+    private int leaseSeconds;
+
+    @Value("${file.processing.thumbnail-size:256}")
+    private int thumbnailSize;
+
+    @Value("${file.processing.max-image-pixels:40000000}")
+    private long maxImagePixels;
+
+    private ThreadPoolExecutor executor;
+
+    @FunctionalInterface
+    private interface Stage {
+        void run() throws IOException;
+    }
+
+    @PostConstruct
+    void start() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "file-processing-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        Gauge.builder("file.processing.queue.local", executor, e -> e.getQueue().size())
+                .description("Jobs claimed by this node and waiting for a worker")
+                .register(meterRegistry);
+        Gauge.builder("file.processing.queue.pending", fileJobRepository, FileJobRepository::countPending)
+                .description("Jobs waiting in the database queue")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Scheduled(fixedDelayString = "${file.processing.poll-interval-ms:1000}")
+    public void poll() {
+        // Backpressure: забираем из БД не больше, чем пул способен принять прямо сейчас
+        int free = executor.getQueue().remainingCapacity() + Math.max(0, workers - executor.getActiveCount());
+        if (free <= 0) {
+            return;
+        }
+
+        List<ClaimedJob> jobs;
+        try {
+            jobs = fileJobRepository.claim(Math.min(free, batchSize), leaseSeconds);
+        } catch (DataAccessException e) {
+            System.out.println("❌ Error claiming file jobs: " + e.getMessage());
+            return;
+        }
+
+        for (ClaimedJob job : jobs) {
+            try {
+                executor.execute(() -> process(job));
+            } catch (RejectedExecutionException e) {
+                fileJobRepository.retryLater(job.id(), 0, "Worker pool saturated");
+            }
+        }
+    }
+
+    void process(ClaimedJob job) {
+        try {
+            Optional<FileEntity> fileOpt = fileRepository.findWithUserById(job.fileId());
+            if (fileOpt.isEmpty()) {
+                // Файл удалили раньше, чем до него дошла очередь
+                fileJobRepository.complete(job.id());
+                return;
+            }
+
+            FileEntity file = fileOpt.get();
+            Path path = fileStorageService.getFilePath(file.getUser(), file.getFilename());
+            FileMetadataEntity metadata = fileMetadataRepository.findById(file.getId())
+                    .orElseGet(FileMetadataEntity::new);
+            metadata.setFileId(file.getId());
+
+            runStage("checksum", () -> metadata.setChecksum(sha256(file)));
+            runStage("mime", () -> metadata.setDetectedType(detectType(file, path)));
+            if (isSupportedImage(metadata.getDetectedType())) {
+                runStage("thumbnail", () -> generateThumbnail(file, path, metadata));
+            }
+
+            metadata.setProcessedAt(LocalDateTime.now());
+            fileMetadataRepository.save(metadata);
+            fileJobRepository.complete(job.id());
+            countJob("success");
+        } catch (Exception e) {
+            String error = e.getClass().getSimpleName() + ": " + e.getMessage();
+            if (job.attempts() >= maxAttempts) {
+                fileJobRepository.fail(job.id(), error);
+                countJob("failed");
+                System.out.println("❌ File job " + job.id() + " failed permanently: " + error);
+            } else {
+                long delay = Math.min(MAX_BACKOFF_MS, retryBackoffMs << Math.min(job.attempts() - 1, 20));
+                fileJobRepository.retryLater(job.id(), delay, error);
+                countJob("retry");
+            }
+        }
+    }
+
+    private void runStage(String stage, Stage action) throws IOException {
+        long start = System.nanoTime();
+        String outcome = "success";
+        try {
+            action.run();
+        } catch (IOException | RuntimeException e) {
+            outcome = "error";
+            throw e;
+        } finally {
+            Timer.builder("file.processing.stage")
+                    .tag("stage", stage)
+                    .tag("outcome", outcome)
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void countJob(String outcome) {
+        Counter.builder("file.processing.jobs")
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    // Сумма и тип - от содержимого, а не от зашифрованных байт на диске; упакованный файл читается из сегмента
+    private String sha256(FileEntity file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = fileStorageService.openContent(file.getUser(), file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    // Тип определяем по сигнатуре содержимого: заявленному клиентом contentType доверять нельзя
+    String detectType(FileEntity file, Path path) throws IOException {
+        byte[] header = new byte[12];
+        int length;
+        try (InputStream in = fileStorageService.openContent(file.getUser(), file)) {
+            length = in.readNBytes(header, 0, header.length);
+        }
+
+        if (startsWith(header, length, 0x89, 'P', 'N', 'G')) {
+            return "image/png";
+        }
+        if (startsWith(header, length, 0xFF, 0xD8, 0xFF)) {
+            return "image/jpeg";
+        }
+        if (startsWith(header, length, 'G', 'I', 'F', '8')) {
+            return "image/gif";
+        }
+        if (startsWith(header, length, 'B', 'M')) {
+            return "image/bmp";
+        }
+        if (length >= 12 && startsWith(header, length, 'R', 'I', 'F', 'F')
+                && header[8] == 'W' && header[9] == 'E' && header[10] == 'B' && header[11] == 'P') {
+            return "image/webp";
+        }
+        if (startsWith(header, length, '%', 'P', 'D', 'F')) {
+            return "application/pdf";
+        }
+        if (startsWith(header, length, 'P', 'K', 0x03, 0x04)) {
+            return "application/zip";
+        }
+        if (startsWith(header, length, 0x1F, 0x8B)) {
+            return "application/gzip";
+        }
+
+        // По расширению имени: у упакованного файла пути на диске нет, но имя то же
+        String probed = Files.probeContentType(path);
+        if (probed != null) {
+            return probed;
+        }
+        return file.getContentType() != null ? file.getContentType() : "application/octet-stream";
+    }
+
+    private boolean startsWith(byte[] header, int length, int... signature) {
+        if (length < signature.length) {
+            return false;
+        }
+        for (int i = 0; i < signature.length; i++) {
+            if ((header[i] & 0xFF) != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isSupportedImage(String type) {
+        return "image/png".equals(type) || "image/jpeg".equals(type)
+                || "image/gif".equals(type) || "image/bmp".equals(type);
+    }
+
+    private void generateThumbnail(FileEntity file, Path path, FileMetadataEntity metadata) throws IOException {
+        // Зашифрованный и упакованный файлы читаются потоком с кэшем в памяти, а не во временном файле с открытым текстом
+        boolean inMemory = file.getSegmentId() != null || fileEncryption.isEncrypted(path);
+        try (InputStream in = inMemory ? fileStorageService.openContent(file.getUser(), file) : null;
+             ImageInputStream input = in != null
+                     ? new MemoryCacheImageInputStream(in)
+                     : ImageIO.createImageInputStream(path.toFile())) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return;
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                metadata.setWidth(width);
+                metadata.setHeight(height);
+
+                // Защита от "бомб": размеры читаем из заголовка и не декодируем гигантские изображения
+                if ((long) width * height > maxImagePixels) {
+                    return;
+                }
+
+                // Субдискретизация при чтении, чтобы не держать в памяти полноразмерный растр
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = Math.max(1, Math.max(width, height) / (thumbnailSize * 2));
+                param.setSourceSubsampling(step, step, 0, 0);
+                BufferedImage source = reader.read(0, param);
+
+                metadata.setThumbnail(toJpegThumbnail(source));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private byte[] toJpegThumbnail(BufferedImage source) throws IOException {
+        double scale = Math.min(1.0, (double) thumbnailSize / Math.max(source.getWidth(), source.getHeight()));
+        int width = Math.max(1, (int) Math.round(source.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(source.getHeight() * scale));
+
+        BufferedImage thumbnail = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = thumbnail.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, width, height);
+            graphics.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(thumbnail, "jpg", out);
+        return out.toByteArray();
+    }
+}
@@ -1,71 +1,224 @@
 package com.example.cloudstorage.service;
 
 import com.example.cloudstorage.entity.FileEntity;
+import com.example.cloudstorage.entity.FileMetadataEntity;
 import com.example.cloudstorage.entity.UserEntity;
+import com.example.cloudstorage.event.FileChangeEvent;
 import com.example.cloudstorage.exception.FileStorageException;
+import com.example.cloudstorage.repository.FileBulkRepository;
+import com.example.cloudstorage.repository.FileBulkRepository.FileStat;
+import com.example.cloudstorage.repository.FileJobRepository;
+import com.example.cloudstorage.repository.FileMetadataRepository;
 import com.example.cloudstorage.repository.FileRepository;
+import com.example.cloudstorage.repository.PackedSegmentRepository;
+import com.example.cloudstorage.repository.TrashRepository;
+import com.example.cloudstorage.repository.TrashRepository.TrashedFile;
+import com.example.cloudstorage.service.FileCloneService.Method;
+import com.example.cloudstorage.service.PackedStorageService.SegmentAddress;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
 public class FileStorageService {
     private final FileRepository fileRepository;
+    private final FileBulkRepository fileBulkRepository;
     private final UserService userService;
+    private final FileJobRepository fileJobRepository;
+    private final FileMetadataRepository fileMetadataRepository;
+    private final TrashRepository trashRepository;
+    private final VolumeReplicationService volumeReplication;
+    private final FileEncryptionService fileEncryption;
+    private final FileAccessService fileAccessService;
+    private final PackedStorageService packedStorage;
+    private final PackedSegmentRepository packedSegmentRepository;
+    private final FileCloneService fileCloneService;
+    private final FileLockService fileLocks;
+    private final ApplicationEventPublisher eventPublisher;
 
     @Value("${file.storage.location}")
     private String storageLocation;
 
-    public void saveFile(UserEntity user, String filename, byte[] fileContent, String contentType) throws IOException {
-        validateFilename(filename);
+    @Value("${file.stat.max-filenames:10000}")
+    private int maxStatFilenames;
 
-        Path storagePath = Paths.get(storageLocation).toAbsolutePath().normalize();
-        if (!Files.exists(storagePath)) {
-            Files.createDirectories(storagePath);
-        }
+    @Value("${file.copy.max-files:1000}")
+    private int maxCopyFiles;
 
-        String userDir = user.getLogin();
-        Path userPath = storagePath.resolve(userDir).normalize();
+    public record CopySpec(String filename, String newFilename) {
+    }
 
-        if (!userPath.startsWith(storagePath)) {
-            throw new FileStorageException("Invalid file path");
+    // method - чем скопировано на диске: reflink, hard_link, transfer или segment (упакованный файл)
+    public record CopiedFile(String filename, long size, String method) {
+    }
+
+    // Лимит 0 молча отклонял бы любую пакетную копию - такую настройку не принимаем при старте
+    @PostConstruct
+    void start() {
+        if (maxCopyFiles < 1) {
+            throw new IllegalStateException("file.copy.max-files must be at least 1");
         }
+    }
 
-        if (!Files.exists(userPath)) {
-            Files.createDirectories(userPath);
+    @Transactional
+    public void saveFile(UserEntity user, String filename, byte[] fileContent, String contentType) throws IOException {
+        validateFilename(filename);
+        fileLocks.lockUntilCompletion(user.getId(), filename);
+
+        if (!volumeReplication.isEnabled() && packedStorage.accepts(fileContent.length)) {
+            // Мелкий файл дописывается в сегмент: ни своего inode, ни open/close, ни создания каталога
+            SegmentAddress address = packedStorage.append(fileEncryption.encrypt(user.getLogin(), fileContent));
+            insertFileRow(user, filename, fileContent.length, contentType, address);
+            // Имя уникально и среди удаленных: файл на диске с этим именем остался от строки корзины,
+            // которую insertFileRow только что удалила, и иначе его никто не уберет
+            Files.deleteIfExists(getFilePath(user, filename));
+            return;
         }
 
+        Path userPath = createUserDirectory(user);
+
         Path filePath = userPath.resolve(filename).normalize();
 
         if (!filePath.startsWith(userPath)) {
             throw new FileStorageException("Invalid file path: attempted path traversal");
         }
 
-        Files.write(filePath, fileContent);
+        if (volumeReplication.isEnabled()) {
+            // Копии на остальные тома пишутся вместе с основной, отдельная репликация не нужна
+            volumeReplication.write(user.getLogin(), filename, fileEncryption.encrypt(user.getLogin(), fileContent));
+        } else {
+            // Файл удаленной строки может быть жесткой ссылкой на копию - запись поверх изменила бы и ее
+            Files.deleteIfExists(filePath);
+            if (fileEncryption.isEnabled()) {
+                // Шифруется потоком по сегментам, без второй копии содержимого в памяти
+                fileEncryption.write(user.getLogin(), filePath, fileContent);
+            } else {
+                Files.write(filePath, fileContent);
+            }
+        }
+
+        insertFileRow(user, filename, fileContent.length, contentType, null);
+    }
+
+    // Регистрирует в БД файл, который уже лежит в хранилище пользователя
+    @Transactional
+    public FileEntity registerStoredFile(UserEntity user, String filename, long size, String contentType) {
+        volumeReplication.replicate(user.getLogin(), filename);
+        return insertFileRow(user, filename, size, contentType, null);
+    }
+
+    private FileEntity insertFileRow(UserEntity user, String filename, long size, String contentType,
+                                     SegmentAddress address) {
+        // Удаленный файл с тем же именем уже перезаписан на диске - из корзины его не восстановить
+        trashRepository.discard(user.getId(), List.of(filename));
 
         FileEntity fileEntity = new FileEntity();
         fileEntity.setFilename(filename);
         fileEntity.setOriginalFilename(filename);
-        fileEntity.setSize((long) fileContent.length);
+        fileEntity.setSize(size);
         fileEntity.setContentType(contentType);
         fileEntity.setUser(user);
+        if (address != null) {
+            fileEntity.setSegmentId(address.segmentId());
+            fileEntity.setSegmentOffset(address.offset());
+            fileEntity.setSegmentLength(address.length());
+        }
 
-        fileRepository.save(fileEntity);
+        FileEntity saved = fileRepository.save(fileEntity);
+
+        // Контрольная сумма, тип и превью считаются в фоне, чтобы не задерживать ответ на загрузку
+        fileJobRepository.enqueue(saved.getId());
+
+        eventPublisher.publishEvent(FileChangeEvent.created(
+                user.getId(), user.getLogin(), saved.getId(), filename, saved.getSize()));
+        return saved;
+    }
+
+    // Обновляет запись файла, содержимое которого уже перезаписано на диске
+    @Transactional
+    public FileEntity updateStoredFile(UserEntity user, FileEntity file, long size, String contentType) {
+        volumeReplication.replicate(user.getLogin(), file.getFilename());
+        // Содержимое теперь в отдельном файле, прежний адрес в сегменте больше не действует
+        file.setSegmentId(null);
+        file.setSegmentOffset(null);
+        file.setSegmentLength(null);
+        file.setSize(size);
+        file.setContentType(contentType);
+        file.setModifiedAt(LocalDateTime.now());
+        FileEntity saved = fileRepository.save(file);
+
+        // Метаданные и превью старого содержимого больше не актуальны
+        fileJobRepository.enqueue(saved.getId());
+
+        eventPublisher.publishEvent(FileChangeEvent.modified(
+                user.getId(), user.getLogin(), saved.getId(), saved.getFilename(), saved.getSize()));
+        return saved;
+    }
+
+    public Path createUserDirectory(UserEntity user) throws IOException {
+        Path storagePath = Paths.get(storageLocation).toAbsolutePath().normalize();
+        if (!Files.exists(storagePath)) {
+            Files.createDirectories(storagePath);
+        }
+
+        String userDir = user.getLogin();
+        Path userPath = storagePath.resolve(userDir).normalize();
+
+        if (!userPath.startsWith(storagePath)) {
+            throw new FileStorageException("Invalid file path");
+        }
+
+        if (!Files.exists(userPath)) {
+            Files.createDirectories(userPath);
+        }
+        return userPath;
     }
 
     public byte[] getFile(UserEntity user, String filename) throws IOException {
         validateFilename(filename);
+        // Файл в корзине еще лежит на диске - наличие проверяем по строке; в ней же адрес упакованного файла
+        FileEntity file = fileRepository.findByUserAndFilename(user, filename)
+                .orElseThrow(() -> new FileStorageException("File not found: " + filename));
+        fileAccessService.recordAccess(file.getId());
+        if (file.getSegmentId() != null) {
+            return readPacked(user, file);
+        }
+        if (volumeReplication.isEnabled()) {
+            // Каждая копия расшифровывается отдельно: устаревшую выдаст размер из БД, и чтение уйдет на другой том
+            return volumeReplication.read(user.getLogin(), filename,
+                    stored -> fileEncryption.decrypt(user.getLogin(), stored), file.getSize());
+        }
         Path filePath = getFilePath(user, filename);
+        if (fileEncryption.isEnabled()) {
+            return fileEncryption.readAllBytes(user.getLogin(), filePath);
+        }
         return Files.readAllBytes(filePath);
     }
 
@@ -73,31 +226,177 @@ public class FileStorageService {
     public void deleteFile(UserEntity user, String filename) throws IOException {
         validateFilename(filename);
 
-        // Сначала удаляем файл из файловой системы
-        Path filePath = getFilePath(user, filename);
-        Files.deleteIfExists(filePath);
+        // Только помечаем строку: файл на диске, версии и метаданные удалит TrashPurgeService
+        // по истечении срока хранения, до этого файл можно восстановить из корзины
+        Long fileId = trashRepository.moveToTrash(user.getId(), filename).orElse(null);
+
+        eventPublisher.publishEvent(FileChangeEvent.deleted(user.getId(), user.getLogin(), fileId, filename));
+
+        System.out.println("🗑️ File moved to trash: " + filename);
+    }
+
+    public List<TrashedFile> getTrash(UserEntity user) {
+        return trashRepository.findTrash(user.getId());
+    }
 
-        // Затем удаляем запись из базы данных
-        fileRepository.deleteByUserAndFilename(user, filename);
+    @Transactional
+    public TrashedFile restoreFile(UserEntity user, String filename) {
+        validateFilename(filename);
+        TrashedFile restored = trashRepository.restore(user.getId(), filename)
+                .orElseThrow(() -> new FileStorageException("File not found in trash or name is already taken: " + filename));
+
+        eventPublisher.publishEvent(FileChangeEvent.created(
+                user.getId(), user.getLogin(), restored.id(), filename, restored.size()));
+        return restored;
+    }
 
-        System.out.println("✅ File deleted from filesystem and database: " + filename);
+    // Окончательное удаление из корзины, не дожидаясь очистки
+    public void discardFile(UserEntity user, String filename) throws IOException {
+        validateFilename(filename);
+        if (trashRepository.discard(user.getId(), List.of(filename)).isEmpty()) {
+            throw new FileStorageException("File not found in trash: " + filename);
+        }
+        // Живого файла с этим именем нет: при загрузке под тем же именем строка корзины удаляется раньше
+        Files.deleteIfExists(getFilePath(user, filename));
+        volumeReplication.delete(user.getLogin(), filename);
     }
 
+    @Transactional
     public void renameFile(UserEntity user, String oldFilename, String newFilename) throws IOException {
         validateFilename(oldFilename);
         validateFilename(newFilename);
+        fileLocks.lockUntilCompletion(user.getId(), oldFilename, newFilename);
 
         Path oldPath = getFilePath(user, oldFilename);
         Path newPath = getFilePath(user, newFilename);
+        Optional<FileEntity> fileOpt = fileRepository.findByUserAndFilename(user, oldFilename);
 
-        Files.move(oldPath, newPath);
+        // Удаленный файл под новым именем из корзины уже не вернуть: его место занимает переименованный
+        boolean replacesTrashed = !trashRepository.discard(user.getId(), List.of(newFilename)).isEmpty();
+        if (fileOpt.isPresent() && fileOpt.get().getSegmentId() != null) {
+            // Адрес упакованного файла от имени не зависит - меняется только строка
+            if (replacesTrashed) {
+                Files.deleteIfExists(newPath);
+            }
+        } else if (replacesTrashed) {
+            Files.move(oldPath, newPath, StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.move(oldPath, newPath);
+        }
+        volumeReplication.rename(user.getLogin(), oldFilename, newFilename);
 
-        Optional<FileEntity> fileOpt = fileRepository.findByUserAndFilename(user, oldFilename);
         if (fileOpt.isPresent()) {
             FileEntity file = fileOpt.get();
             file.setFilename(newFilename);
             fileRepository.save(file);
+
+            eventPublisher.publishEvent(FileChangeEvent.renamed(
+                    user.getId(), user.getLogin(), file.getId(), oldFilename, newFilename, file.getSize()));
+        }
+    }
+
+    /**
+     * Копии файлов под новыми именами без передачи содержимого через клиента и JVM: на каждую - новая строка
+     * files, а на диске reflink, жесткая ссылка или копия в ядре (см. {@link FileCloneService}). Упакованный
+     * файл копируется одной строкой с тем же адресом в сегменте. Имена проверяются до первой копии; если
+     * копия не удалась, уже созданные файлы удаляются, а строки откатываются вместе с транзакцией.
+     */
+    @Transactional
+    public List<CopiedFile> copyFiles(UserEntity user, List<CopySpec> copies) throws IOException {
+        if (copies == null || copies.isEmpty()) {
+            throw new IllegalArgumentException("Copy list cannot be empty");
+        }
+        if (copies.size() > maxCopyFiles) {
+            throw new IllegalArgumentException("Too many files, at most " + maxCopyFiles + " per request");
+        }
+        Set<String> targets = new HashSet<>();
+        for (CopySpec copy : copies) {
+            validateFilename(copy.newFilename());
+            if (!targets.add(copy.newFilename())) {
+                throw new IllegalArgumentException("Duplicate target name: " + copy.newFilename());
+            }
+        }
+        List<String> sourceNames = copies.stream().map(CopySpec::filename).distinct().toList();
+        Map<String, FileEntity> sources = getFilesByNames(user, sourceNames).stream()
+                .collect(Collectors.toMap(FileEntity::getFilename, Function.identity()));
+        List<String> taken = fileRepository.findByUserAndFilenameIn(user, targets).stream()
+                .map(FileEntity::getFilename)
+                .toList();
+        if (!taken.isEmpty()) {
+            throw new FileStorageException("Files already exist: " + String.join(", ", taken));
+        }
+
+        List<String> cloned = new ArrayList<>();
+        List<CopiedFile> result = new ArrayList<>(copies.size());
+        try {
+            for (CopySpec copy : copies) {
+                FileEntity source = sources.get(copy.filename());
+                Path target = getFilePath(user, copy.newFilename());
+                String method;
+                SegmentAddress address = null;
+                if (source.getSegmentId() != null) {
+                    // Уплотнение переносит каждую строку отдельно, так что общий адрес ему не мешает
+                    address = new SegmentAddress(source.getSegmentId(), source.getSegmentOffset(), source.getSegmentLength());
+                    Files.deleteIfExists(target);
+                    method = "segment";
+                } else {
+                    Method cloneMethod = fileCloneService.clone(getFilePath(user, source.getFilename()), target);
+                    cloned.add(copy.newFilename());
+                    volumeReplication.replicate(user.getLogin(), copy.newFilename());
+                    method = cloneMethod.name().toLowerCase();
+                }
+                FileEntity saved = insertFileRow(user, copy.newFilename(), source.getSize(), source.getContentType(), address);
+                result.add(new CopiedFile(saved.getFilename(), saved.getSize(), method));
+            }
+        } catch (IOException | RuntimeException e) {
+            for (String filename : cloned) {
+                Files.deleteIfExists(getFilePath(user, filename));
+                volumeReplication.delete(user.getLogin(), filename);
+            }
+            throw e;
+        }
+        System.out.println("📄 Copied " + result.size() + " file(s) for " + user.getLogin());
+        return result;
+    }
+
+    // Файлы для архива в запрошенном порядке; отсутствующие имена считаются ошибкой клиента
+    public List<FileEntity> getFilesByNames(UserEntity user, List<String> filenames) {
+        filenames.forEach(this::validateFilename);
+        Map<String, FileEntity> byName = fileRepository.findByUserAndFilenameIn(user, filenames).stream()
+                .collect(Collectors.toMap(FileEntity::getFilename, Function.identity()));
+
+        List<String> missing = filenames.stream().filter(name -> !byName.containsKey(name)).toList();
+        if (!missing.isEmpty()) {
+            throw new FileStorageException("Files not found: " + String.join(", ", missing));
         }
+        return filenames.stream().distinct().map(byName::get).toList();
+    }
+
+    // Размер, тип и время изменения без обращения к файлу на диске
+    @Transactional(readOnly = true)
+    public Optional<FileStat> statFile(UserEntity user, String filename) {
+        validateFilename(filename);
+        List<FileStat> found = new ArrayList<>(1);
+        fileBulkRepository.forEachStat(user.getId(), List.of(filename), found::add);
+        return found.stream().findFirst();
+    }
+
+    // Имена проверяются до первой строки ответа, чтобы ошибка клиента еще могла стать 400
+    public Set<String> validateStatRequest(List<String> filenames) {
+        if (filenames == null || filenames.isEmpty()) {
+            throw new IllegalArgumentException("Filenames cannot be empty");
+        }
+        if (filenames.size() > maxStatFilenames) {
+            throw new IllegalArgumentException("Too many filenames, at most " + maxStatFilenames + " per request");
+        }
+        filenames.forEach(this::validateFilename);
+        return new LinkedHashSet<>(filenames);
+    }
+
+    // Один запрос на весь список; порядок строк не совпадает с порядком имен, отсутствующих в результате нет
+    @Transactional(readOnly = true)
+    public void statFiles(UserEntity user, Set<String> filenames, Consumer<FileStat> consumer) {
+        fileBulkRepository.forEachStat(user.getId(), filenames, consumer);
     }
 
     public List<FileEntity> getUserFiles(UserEntity user, int limit) {
@@ -105,7 +404,84 @@ public class FileStorageService {
         return limit > 0 ? files.stream().limit(limit).toList() : files;
     }
 
-    private Path getFilePath(UserEntity user, String filename) throws IOException {
+    public Optional<byte[]> getThumbnail(UserEntity user, String filename) {
+        validateFilename(filename);
+        return fileRepository.findByUserAndFilename(user, filename)
+                .flatMap(file -> fileMetadataRepository.findById(file.getId()))
+                .map(FileMetadataEntity::getThumbnail);
+    }
+
+    /**
+     * Путь к содержимому файла на диске для операций, которые работают с ним на месте (дельта, перезапись,
+     * асинхронная отдача). Упакованный файл для этого переносится из сегмента в отдельный файл.
+     */
+    public Path requireStoredPath(UserEntity user, String filename) throws IOException {
+        validateFilename(filename);
+        FileEntity file = fileRepository.findByUserAndFilename(user, filename)
+                .orElseThrow(() -> new FileStorageException("File not found: " + filename));
+        return unpack(user, file);
+    }
+
+    public Path unpack(UserEntity user, FileEntity file) throws IOException {
+        Path path = getFilePath(user, file.getFilename());
+        if (file.getSegmentId() == null) {
+            return path;
+        }
+        createUserDirectory(user);
+        // Байты переносятся как есть (зашифрованный остается зашифрованным), файл появляется атомарно
+        Path temp = path.resolveSibling(file.getFilename() + ".unpack");
+        try {
+            Files.write(temp, packedStorage.read(file));
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        packedSegmentRepository.unpack(file.getId());
+        file.setSegmentId(null);
+        file.setSegmentOffset(null);
+        file.setSegmentLength(null);
+        return path;
+    }
+
+    // Содержимое в открытом виде, где бы файл ни хранился
+    public InputStream openContent(UserEntity user, FileEntity file) throws IOException {
+        if (file.getSegmentId() != null) {
+            return new ByteArrayInputStream(readPacked(user, file));
+        }
+        return fileEncryption.openInputStream(user.getLogin(), getFilePath(user, file.getFilename()));
+    }
+
+    public byte[] readPacked(UserEntity user, FileEntity file) throws IOException {
+        return fileEncryption.decrypt(user.getLogin(), packedStorage.read(file));
+    }
+
+    /**
+     * Упакованный файл для скачивания по подписанной ссылке: у него нет пути на диске, поэтому в этом
+     * случае нужен один запрос к БД.
+     */
+    public Optional<Resource> packedResource(String login, String filename) throws IOException {
+        Optional<FileEntity> fileOpt = fileRepository.findPackedByLoginAndFilename(login, filename);
+        if (fileOpt.isEmpty()) {
+            return Optional.empty();
+        }
+        FileEntity file = fileOpt.get();
+        long lastModified = file.getModifiedAt() != null
+                ? file.getModifiedAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+                : 0;
+        return Optional.of(new ByteArrayResource(readPacked(file.getUser(), file)) {
+            @Override
+            public String getFilename() {
+                return filename;
+            }
+
+            @Override
+            public long lastModified() {
+                return lastModified;
+            }
+        });
+    }
+
+    public Path getFilePath(UserEntity user, String filename) throws IOException {
         validateFilename(filename);
 
         Path storagePath = Paths.get(storageLocation).toAbsolutePath().normalize();
@@ -0,0 +1,296 @@
+package com.example.cloudstorage.service;
+
+import com.example.cloudstorage.entity.FileEntity;
+import com.example.cloudstorage.entity.UserEntity;
+import com.example.cloudstorage.exception.FileStorageException;
+import com.example.cloudstorage.repository.FileRepository;
+import com.example.cloudstorage.repository.FileVersionRepository;
+import com.example.cloudstorage.repository.FileVersionRepository.Version;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Версии файлов. Текущее содержимое по-прежнему лежит в хранилище пользователя целиком,
+ * а перед перезаписью прежнее содержимое сохраняется как список чанков (content-defined chunking).
+ * Версии одного файла делят совпадающие чанки, поэтому правка 1 МБ в файле на 1 ГБ добавляет
+ * порядка 1 МБ. Чанки без ссылок удаляет фоновый сборщик.
+ *
+ * <p>При включенном шифровании чанк шифруется ключом пользователя, а его имя - HMAC этим же ключом,
+ * поэтому совпадающие чанки делятся только в пределах пользователя.
+ */
+@Service
+@RequiredArgsConstructor
+public class FileVersionService {
+    private static final String CHUNKS_DIR = ".chunks";
+    private static final int TOUCH_BATCH_CHUNKS = 64;
+    private static final int GC_BATCH_SIZE = 1000;
+
+    private final FileStorageService fileStorageService;
+    private final FileRepository fileRepository;
+    private final FileVersionRepository fileVersionRepository;
+    private final FileEncryptionService fileEncryption;
+    private final VolumeReplicationService volumeReplication;
+    private final FileLockService fileLocks;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${file.storage.location}")
+    private String storageLocation;
+
+    @Value("${file.versions.min-chunk-size:16384}")
+    private int minChunkSize;
+
+    @Value("${file.versions.avg-chunk-size:65536}")
+    private int avgChunkSize;
+
+    @Value("${file.versions.max-chunk-size:262144}")
+    private int maxChunkSize;
+
+    @Value("${file.versions.max-versions:10}")
+    private int maxVersions;
+
+    @Value("${file.versions.max-age-days:30}")
+    private int maxAgeDays;
+
+    @Value("${file.versions.gc-grace-seconds:3600}")
+    private int gcGraceSeconds;
+
+    private ContentChunker chunker;
+
+    @PostConstruct
+    void start() {
+        chunker = new ContentChunker(minChunkSize, avgChunkSize, maxChunkSize);
+    }
+
+    /**
+     * Перезаписывает файл: прежнее содержимое становится новой версией, затем на место
+     * файла атомарно переносится новое содержимое.
+     */
+    public void overwriteFile(UserEntity user, String filename, byte[] content, String contentType) throws IOException {
+        try (FileLockService.Held ignored = fileLocks.lock(user.getId(), filename)) {
+            FileEntity file = fileRepository.findByUserAndFilename(user, filename)
+                    .orElseThrow(() -> new FileStorageException("File not found: " + filename));
+            // Новое содержимое пишется отдельным файлом; упакованный файл переносим, чтобы снять с него версию
+            if (file.getSegmentId() != null) {
+                fileStorageService.unpack(user, file);
+            }
+            Path path = fileStorageService.getFilePath(user, filename);
+
+            Version previous = snapshot(user, file, path);
+
+            Path temp = path.resolveSibling(UUID.randomUUID() + ".part");
+            try {
+                fileEncryption.write(user.getLogin(), temp, content);
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException | RuntimeException e) {
+                // Файл не заменен: снятая версия повторяет текущее содержимое
+                fileVersionRepository.deleteVersion(previous.id());
+                throw e;
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+
+            try {
+                fileStorageService.updateStoredFile(user, file, content.length, contentType);
+            } catch (RuntimeException e) {
+                // Строка осталась прежней - возвращаем на диск (и на реплики) содержимое, которое она описывает
+                restore(user.getLogin(), previous, path);
+                volumeReplication.replicate(user.getLogin(), filename);
+                fileVersionRepository.deleteVersion(previous.id());
+                throw e;
+            }
+            applyRetention(file);
+        }
+    }
+
+    public void applyRetention(FileEntity file) {
+        fileVersionRepository.deleteByRetention(file.getId(), maxVersions, maxAgeDays);
+    }
+
+    // Возвращает файл к содержимому версии (атомарной заменой), метаданные файла не меняет
+    public void restore(String login, Version version, Path path) throws IOException {
+        Path temp = path.resolveSibling(UUID.randomUUID() + ".restore");
+        try {
+            try (OutputStream out = fileEncryption.openOutputStream(login, temp)) {
+                writeVersion(login, version, out);
+            }
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    public List<Version> getVersions(UserEntity user, String filename) {
+        return fileVersionRepository.findVersions(requireFile(user, filename).getId());
+    }
+
+    public Version getVersion(UserEntity user, String filename, int version) {
+        return fileVersionRepository.findVersion(requireFile(user, filename).getId(), version)
+                .orElseThrow(() -> new FileStorageException("Version not found: " + version));
+    }
+
+    // Содержимое версии собирается из чанков по порядку, в памяти держится не больше одного чанка
+    public void writeVersion(String login, Version version, OutputStream out) throws IOException {
+        for (String hash : fileVersionRepository.findChunkHashes(version.id())) {
+            if (fileEncryption.isEnabled()) {
+                // Чанки версий, снятых до включения шифрования, decrypt отдает как есть
+                out.write(fileEncryption.decrypt(login, Files.readAllBytes(chunkPath(hash))));
+            } else {
+                Files.copy(chunkPath(hash), out);
+            }
+        }
+    }
+
+    public int pruneVersions(UserEntity user, String filename, int keep) {
+        // keep = 0 стер бы всю историю файла одним запросом
+        if (keep < 1) {
+            throw new IllegalArgumentException("keep must be at least 1");
+        }
+        return fileVersionRepository.deleteByRetention(requireFile(user, filename).getId(), keep, maxAgeDays);
+    }
+
+    @Scheduled(fixedDelayString = "${file.versions.gc-interval-ms:600000}")
+    public void collectGarbage() {
+        if (maxAgeDays > 0) {
+            fileVersionRepository.deleteOlderThan(maxAgeDays);
+        }
+
+        int removed;
+        do {
+            removed = transactionTemplate.execute(status -> {
+                List<String> hashes = fileVersionRepository.deleteUnreferencedChunks(gcGraceSeconds, GC_BATCH_SIZE);
+                for (String hash : hashes) {
+                    try {
+                        Files.deleteIfExists(chunkPath(hash));
+                    } catch (IOException e) {
+                        System.out.println("❌ Error removing chunk " + hash + ": " + e.getMessage());
+                    }
+                }
+                return hashes.size();
+            });
+            if (removed > 0) {
+                System.out.println("🧹 Removed " + removed + " unreferenced chunks");
+            }
+        } while (removed == GC_BATCH_SIZE);
+    }
+
+    public Version snapshot(UserEntity user, FileEntity file, Path path) throws IOException {
+        List<String> hashes = new ArrayList<>();
+        ChunkBatch batch = new ChunkBatch();
+        // Размер считаем по прочитанному: файл могли подменить между stat и open
+        long[] size = new long[1];
+        try (InputStream in = fileEncryption.openInputStream(user.getLogin(), path)) {
+            chunker.chunk(in, (buffer, length) -> {
+                byte[] data = Arrays.copyOf(buffer, length);
+                String hash = chunkHash(user.getLogin(), data);
+                hashes.add(hash);
+                size[0] += length;
+                batch.add(hash, fileEncryption.encrypt(user.getLogin(), data));
+                if (batch.size() >= TOUCH_BATCH_CHUNKS) {
+                    batch.flush();
+                }
+            });
+        } catch (NoSuchFileException e) {
+            throw new FileStorageException("File not found: " + file.getFilename());
+        }
+        batch.flush();
+
+        try {
+            return transactionTemplate.execute(status -> {
+                Version version = fileVersionRepository.insertVersion(file.getId(), size[0], file.getContentType());
+                fileVersionRepository.insertChunkRefs(version.id(), hashes);
+                return version;
+            });
+        } catch (DuplicateKeyException e) {
+            throw new FileStorageException("File is being modified concurrently, try again");
+        }
+    }
+
+    /**
+     * Пачка новых чанков: сначала строки file_chunks (защищают от сборщика), потом файлы
+     * на диске - только те, которых еще нет.
+     */
+    private final class ChunkBatch {
+        private final List<String> hashes = new ArrayList<>();
+        private final List<Integer> sizes = new ArrayList<>();
+        private final List<byte[]> data = new ArrayList<>();
+
+        void add(String hash, byte[] chunk) {
+            hashes.add(hash);
+            sizes.add(chunk.length);
+            data.add(chunk);
+        }
+
+        int size() {
+            return hashes.size();
+        }
+
+        void flush() throws IOException {
+            fileVersionRepository.touchChunks(hashes, sizes);
+            for (int i = 0; i < hashes.size(); i++) {
+                writeChunk(hashes.get(i), data.get(i));
+            }
+            hashes.clear();
+            sizes.clear();
+            data.clear();
+        }
+    }
+
+    private void writeChunk(String hash, byte[] data) throws IOException {
+        Path target = chunkPath(hash);
+        if (Files.exists(target)) {
+            return;
+        }
+        Files.createDirectories(target.getParent());
+        Path temp = target.resolveSibling(hash + "." + Thread.currentThread().threadId() + ".part");
+        try {
+            Files.write(temp, data);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private String chunkHash(String login, byte[] data) throws IOException {
+        return fileEncryption.isEnabled() ? fileEncryption.contentId(login, data) : sha256(data);
+    }
+
+    private Path chunkPath(String hash) {
+        return Paths.get(storageLocation).toAbsolutePath().normalize()
+                .resolve(CHUNKS_DIR).resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private FileEntity requireFile(UserEntity user, String filename) {
+        fileStorageService.validateFilename(filename);
+        return fileRepository.findByUserAndFilename(user, filename)
+                .orElseThrow(() -> new FileStorageException("File not found: " + filename));
+    }
+
+    private static String sha256(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.cloudstorage.service;
+
+import com.example.cloudstorage.dto.FileResponse;
+import com.example.cloudstorage.dto.SearchResponse;
+import com.example.cloudstorage.entity.UserEntity;
+import com.example.cloudstorage.event.FileChangeEvent;
+import com.example.cloudstorage.repository.FileRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.lang.ref.SoftReference;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Поиск по именам файлов. Индекс пользователя строится лениво при первом поиске
+ * и поддерживается событиями FileChangeEvent. Пока индекс холодный (или вытеснен GC через
+ * SoftReference), запросы обслуживает Postgres через pg_trgm.
+ */
+@Service
+@RequiredArgsConstructor
+public class FilenameIndexService {
+    public static final String MODE_PREFIX = "prefix";
+    public static final String MODE_SUBSTRING = "substring";
+
+    private final FileRepository fileRepository;
+
+    @Value("${file.search.max-indexed-users:1000}")
+    private int maxIndexedUsers;
+
+    @Value("${file.search.max-page-size:500}")
+    private int maxPageSize;
+
+    private final Map<Long, Entry> indexes = new ConcurrentHashMap<>();
+    private final ExecutorService buildExecutor = Executors.newFixedThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "filename-index-build");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final class Entry {
+        private final AtomicBoolean building = new AtomicBoolean();
+        private volatile SoftReference<UserFilenameIndex> index = new SoftReference<>(null);
+        private volatile long version;
+        private volatile long lastAccess = System.nanoTime();
+    }
+
+    @PreDestroy
+    void stop() {
+        buildExecutor.shutdownNow();
+    }
+
+    public SearchResponse search(UserEntity user, String query, String mode, int page, int size) {
+        if (query == null || query.isEmpty()) {
+            throw new IllegalArgumentException("Search query cannot be empty");
+        }
+        if (query.length() > 255) {
+            throw new IllegalArgumentException("Search query too long");
+        }
+        if (!MODE_PREFIX.equals(mode) && !MODE_SUBSTRING.equals(mode)) {
+            throw new IllegalArgumentException("Unknown search mode: " + mode);
+        }
+        if (page < 0 || size <= 0) {
+            throw new IllegalArgumentException("Invalid page parameters");
+        }
+        int pageSize = Math.min(size, maxPageSize);
+        int offset = Math.multiplyExact(page, pageSize);
+
+        Entry entry = indexes.computeIfAbsent(user.getId(), id -> new Entry());
+        entry.lastAccess = System.nanoTime();
+
+        // Запрашиваем на один элемент больше, чтобы узнать, есть ли следующая страница
+        List<FileResponse> files;
+        UserFilenameIndex index = entry.index.get();
+        if (index != null) {
+            files = MODE_PREFIX.equals(mode)
+                    ? index.searchPrefix(query, offset, pageSize + 1)
+                    : index.searchSubstring(query, offset, pageSize + 1);
+        } else {
+            scheduleBuild(user.getId(), entry);
+            files = searchDatabase(user.getId(), query, mode, offset, pageSize + 1);
+        }
+
+        boolean hasMore = files.size() > pageSize;
+        return new SearchResponse(hasMore ? files.subList(0, pageSize) : files, page, pageSize, hasMore);
+    }
+
+    @EventListener
+    public void onFileChange(FileChangeEvent event) {
+        Entry entry = indexes.get(event.userId());
+        if (entry == null) {
+            return;
+        }
+
+        synchronized (entry) {
+            // Смена версии заставит незавершенное построение выбросить свой (уже устаревший) результат
+            entry.version++;
+            UserFilenameIndex index = entry.index.get();
+            if (index == null) {
+                return;
+            }
+            switch (event.type()) {
+                case CREATED, MODIFIED -> index.add(event.filename(), event.size() != null ? event.size() : 0);
+                case DELETED -> index.remove(event.filename());
+                case RENAMED -> index.rename(event.oldFilename(), event.filename());
+            }
+        }
+    }
+
+    private void scheduleBuild(Long userId, Entry entry) {
+        if (!entry.building.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            buildExecutor.execute(() -> {
+                try {
+                    long version = entry.version;
+                    UserFilenameIndex index = new UserFilenameIndex(fileRepository.findNamesAndSizesByUserId(userId));
+                    synchronized (entry) {
+                        if (entry.version == version) {
+                            entry.index = new SoftReference<>(index);
+                        }
+                    }
+                    evictIfNeeded();
+                } catch (RuntimeException e) {
+                    System.out.println("❌ Error building filename index for user " + userId + ": " + e.getMessage());
+                } finally {
+                    entry.building.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            entry.building.set(false);
+        }
+    }
+
+    // SoftReference отдает индексы GC под давлением памяти; лимит на число пользователей держит верхнюю границу
+    private void evictIfNeeded() {
+        int excess = indexes.size() - maxIndexedUsers;
+        if (excess <= 0) {
+            return;
+        }
+        indexes.entrySet().stream()
+                .sorted(Comparator.comparingLong(e -> e.getValue().lastAccess))
+                .limit(excess)
+                .map(Map.Entry::getKey)
+                .toList()
+                .forEach(indexes::remove);
+    }
+
+    private List<FileResponse> searchDatabase(Long userId, String query, String mode, int offset, int limit) {
+        String escaped = query.toLowerCase(Locale.ROOT)
+                .replace("\\", "\\\\")
+                .replace("%", "\\%")
+                .replace("_", "\\_");
+        String pattern = MODE_PREFIX.equals(mode) ? escaped + "%" : "%" + escaped + "%";
+        return fileRepository.searchByFilenamePattern(userId, pattern, limit, offset).stream()
+                .map(file -> new FileResponse(file.getFilename(), file.getSize()))
+                .toList();
+    }
+}
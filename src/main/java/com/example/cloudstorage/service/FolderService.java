@@ -0,0 +1,162 @@
+package com.example.cloudstorage.service;
+
+import com.example.cloudstorage.dto.FileResponse;
+import com.example.cloudstorage.dto.FolderListingResponse;
+import com.example.cloudstorage.dto.FolderResponse;
+import com.example.cloudstorage.entity.FileEntity;
+import com.example.cloudstorage.entity.FolderEntity;
+import com.example.cloudstorage.entity.UserEntity;
+import com.example.cloudstorage.exception.FileStorageException;
+import com.example.cloudstorage.repository.FileRepository;
+import com.example.cloudstorage.repository.FolderRepository;
+import com.example.cloudstorage.repository.TrashRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Папки пользователя. Папка - только метаданные: файлы хранятся на диске плоско по имени
+ * (имена по-прежнему уникальны в пределах пользователя), поэтому перенос и переименование
+ * папки меняют одну строку в folders и не затрагивают ни файлы, ни вложенные папки.
+ */
+@Service
+@RequiredArgsConstructor
+public class FolderService {
+    private static final int MAX_DEPTH = 64;
+
+    private final FolderRepository folderRepository;
+    private final FileRepository fileRepository;
+    private final FileStorageService fileStorageService;
+    private final TrashRepository trashRepository;
+
+    @Transactional
+    public FolderResponse createFolder(UserEntity user, String name, Long parentId) {
+        fileStorageService.validateFilename(name);
+        // Под той же блокировкой, что перенос и переименование: проверка имени и вставка не разойдутся
+        folderRepository.lockUserTree(user.getId());
+        if (parentId != null) {
+            requireFolder(user, parentId);
+            if (depth(parentId) >= MAX_DEPTH) {
+                throw new FileStorageException("Folder nesting is too deep");
+            }
+        }
+        requireUniqueName(user, parentId, name);
+
+        FolderEntity folder = new FolderEntity();
+        folder.setUser(user);
+        folder.setParentId(parentId);
+        folder.setName(name);
+        return toResponse(folderRepository.save(folder));
+    }
+
+    @Transactional(readOnly = true)
+    public FolderListingResponse listFolder(UserEntity user, Long folderId, int limit) {
+        Limit fileLimit = limit > 0 ? Limit.of(limit) : Limit.unlimited();
+
+        List<FolderEntity> folders;
+        List<FileEntity> files;
+        List<FolderResponse> path = new ArrayList<>();
+        if (folderId == null) {
+            folders = folderRepository.findByUserAndParentIdIsNullOrderByName(user);
+            files = fileRepository.findByUserAndFolderIdIsNullOrderByFilename(user, fileLimit);
+        } else {
+            requireFolder(user, folderId);
+            Long parentId = null;
+            for (FolderRepository.PathElement element : folderRepository.findPath(folderId, MAX_DEPTH)) {
+                path.add(new FolderResponse(element.getId(), element.getName(), parentId));
+                parentId = element.getId();
+            }
+            folders = folderRepository.findByUserAndParentIdOrderByName(user, folderId);
+            files = fileRepository.findByUserAndFolderIdOrderByFilename(user, folderId, fileLimit);
+        }
+
+        return new FolderListingResponse(folderId, path,
+                folders.stream().map(this::toResponse).toList(),
+                files.stream().map(file -> new FileResponse(file.getFilename(), file.getSize())).toList());
+    }
+
+    @Transactional
+    public FolderResponse renameFolder(UserEntity user, Long folderId, String name) {
+        fileStorageService.validateFilename(name);
+        folderRepository.lockUserTree(user.getId());
+        FolderEntity folder = requireFolder(user, folderId);
+        if (!folder.getName().equals(name)) {
+            requireUniqueName(user, folder.getParentId(), name);
+            folder.setName(name);
+        }
+        return toResponse(folder);
+    }
+
+    @Transactional
+    public FolderResponse moveFolder(UserEntity user, Long folderId, Long targetId) {
+        folderRepository.lockUserTree(user.getId());
+        FolderEntity folder = requireFolder(user, folderId);
+
+        if (targetId != null) {
+            requireFolder(user, targetId);
+            // Нельзя переносить папку в саму себя или в свое поддерево: проверяем предков цели
+            List<FolderRepository.PathElement> targetPath = folderRepository.findPath(targetId, MAX_DEPTH);
+            if (targetPath.stream().anyMatch(element -> element.getId().equals(folderId))) {
+                throw new FileStorageException("Cannot move a folder into itself");
+            }
+            if (targetPath.size() >= MAX_DEPTH) {
+                throw new FileStorageException("Folder nesting is too deep");
+            }
+        }
+
+        if (targetId == null ? folder.getParentId() != null : !targetId.equals(folder.getParentId())) {
+            requireUniqueName(user, targetId, folder.getName());
+            folder.setParentId(targetId);
+        }
+        return toResponse(folder);
+    }
+
+    @Transactional
+    public void deleteFolder(UserEntity user, Long folderId) {
+        folderRepository.lockUserTree(user.getId());
+        FolderEntity folder = requireFolder(user, folderId);
+        if (folderRepository.existsByParentId(folderId) || fileRepository.existsByFolderId(folderId)) {
+            throw new FileStorageException("Folder is not empty");
+        }
+        trashRepository.detachFromFolder(folderId);
+        folderRepository.delete(folder);
+    }
+
+    @Transactional
+    public void moveFile(UserEntity user, String filename, Long folderId) {
+        fileStorageService.validateFilename(filename);
+        folderRepository.lockUserTree(user.getId());
+        if (folderId != null) {
+            requireFolder(user, folderId);
+        }
+        if (fileRepository.moveToFolder(user, filename, folderId) == 0) {
+            throw new FileStorageException("File not found: " + filename);
+        }
+    }
+
+    private FolderEntity requireFolder(UserEntity user, Long folderId) {
+        return folderRepository.findByIdAndUser(folderId, user)
+                .orElseThrow(() -> new FileStorageException("Folder not found: " + folderId));
+    }
+
+    private void requireUniqueName(UserEntity user, Long parentId, String name) {
+        boolean exists = parentId == null
+                ? folderRepository.existsByUserAndParentIdIsNullAndName(user, name)
+                : folderRepository.existsByUserAndParentIdAndName(user, parentId, name);
+        if (exists) {
+            throw new FileStorageException("Folder already exists: " + name);
+        }
+    }
+
+    private int depth(Long folderId) {
+        return folderRepository.findPath(folderId, MAX_DEPTH).size();
+    }
+
+    private FolderResponse toResponse(FolderEntity folder) {
+        return new FolderResponse(folder.getId(), folder.getName(), folder.getParentId());
+    }
+}
@@ -0,0 +1,182 @@
+package com.example.cloudstorage.service;
+
+import com.example.cloudstorage.config.ReadRouting;
+import com.example.cloudstorage.dto.FileResponse;
+import com.example.cloudstorage.entity.UserEntity;
+import com.example.cloudstorage.event.FileChangeEvent;
+import com.example.cloudstorage.event.PostgresNotificationBus;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Кэш ответов /list: для частых значений limit хранится уже сериализованный JSON.
+ * Каждое изменение файлов пользователя выдает ему новое поколение; ответ, построенный
+ * для старого поколения, не отдается и не сохраняется. Объем ограничен в байтах, вытеснение LRU
+ * по пользователям. Другие узлы узнают об изменениях через Postgres LISTEN/NOTIFY.
+ */
+@Service
+@RequiredArgsConstructor
+public class ListingCacheService {
+    static final String CHANNEL = "file_listing_changed";
+
+    private final FileStorageService fileStorageService;
+    private final ObjectMapper objectMapper;
+    private final PostgresNotificationBus notificationBus;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${file.list-cache.max-bytes:16777216}")
+    private long maxBytes;
+
+    @Value("${file.list-cache.limits:0,10,20,50,100}")
+    private Set<Integer> cachedLimits;
+
+    // Поколения берутся из общего счетчика, поэтому сброс всего кэша - это просто новая нижняя граница
+    private final AtomicLong sequence = new AtomicLong();
+    private final Map<Long, Long> generations = new ConcurrentHashMap<>();
+    private volatile long resetGeneration;
+
+    private final LinkedHashMap<Long, UserListings> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    private Counter hits;
+    private Counter misses;
+
+    private static final class UserListings {
+        private final long generation;
+        private final Map<Integer, byte[]> byLimit = new HashMap<>();
+        private long bytes;
+
+        private UserListings(long generation) {
+            this.generation = generation;
+        }
+    }
+
+    @PostConstruct
+    void start() {
+        hits = meterRegistry.counter("file.list.cache", "result", "hit");
+        misses = meterRegistry.counter("file.list.cache", "result", "miss");
+        Gauge.builder("file.list.cache.bytes", this, cache -> cache.cachedBytes()).register(meterRegistry);
+
+        notificationBus.subscribe(CHANNEL, payload -> invalidate(Long.parseLong(payload)));
+        notificationBus.onResync(this::invalidateAll);
+    }
+
+    public byte[] getListing(UserEntity user, int limit) throws JsonProcessingException {
+        if (!cachedLimits.contains(limit)) {
+            return serialize(loadFiles(user, limit));
+        }
+
+        // Поколение читаем до загрузки: если файлы изменятся во время чтения, результат не попадет в кэш
+        long generation = generation(user.getId());
+        byte[] cached = lookup(user.getId(), limit, generation);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+
+        misses.increment();
+        // Заполнение кэша - только с основной базы: после NOTIFY с другого узла реплика может еще не содержать
+        // изменение, и устаревший список остался бы в кэше под новым поколением до следующей правки
+        byte[] json = serialize(ReadRouting.onPrimary(() -> loadFiles(user, limit)));
+        store(user.getId(), limit, generation, json);
+        return json;
+    }
+
+    // После коммита: иначе параллельный /list успел бы закэшировать еще не измененный список
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onFileChange(FileChangeEvent event) {
+        invalidate(event.userId());
+        notificationBus.publish(CHANNEL, event.userId().toString());
+    }
+
+    public void invalidate(Long userId) {
+        generations.put(userId, sequence.incrementAndGet());
+        synchronized (this) {
+            UserListings removed = entries.remove(userId);
+            if (removed != null) {
+                totalBytes -= removed.bytes;
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        resetGeneration = sequence.incrementAndGet();
+        synchronized (this) {
+            entries.clear();
+            totalBytes = 0;
+        }
+    }
+
+    private long generation(Long userId) {
+        return Math.max(generations.getOrDefault(userId, 0L), resetGeneration);
+    }
+
+    private synchronized byte[] lookup(Long userId, int limit, long generation) {
+        UserListings listings = entries.get(userId);
+        if (listings == null || listings.generation != generation) {
+            return null;
+        }
+        return listings.byLimit.get(limit);
+    }
+
+    private synchronized void store(Long userId, int limit, long generation, byte[] json) {
+        if (json.length > maxBytes || generation(userId) != generation) {
+            return;
+        }
+
+        UserListings listings = entries.get(userId);
+        if (listings == null || listings.generation != generation) {
+            if (listings != null) {
+                totalBytes -= listings.bytes;
+            }
+            listings = new UserListings(generation);
+            entries.put(userId, listings);
+        }
+
+        byte[] previous = listings.byLimit.put(limit, json);
+        long delta = json.length - (previous != null ? previous.length : 0);
+        listings.bytes += delta;
+        totalBytes += delta;
+
+        Iterator<Map.Entry<Long, UserListings>> eldest = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<Long, UserListings> entry = eldest.next();
+            if (entry.getKey().equals(userId)) {
+                continue;
+            }
+            totalBytes -= entry.getValue().bytes;
+            eldest.remove();
+        }
+    }
+
+    private synchronized long cachedBytes() {
+        return totalBytes;
+    }
+
+    private List<FileResponse> loadFiles(UserEntity user, int limit) {
+        return fileStorageService.getUserFiles(user, limit).stream()
+                .map(file -> new FileResponse(file.getFilename(), file.getSize()))
+                .toList();
+    }
+
+    private byte[] serialize(List<FileResponse> files) throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(files);
+    }
+}
@@ -0,0 +1,353 @@
+package com.example.cloudstorage.service;
+
+import com.example.cloudstorage.entity.FileEntity;
+import com.example.cloudstorage.repository.PackedSegmentRepository;
+import com.example.cloudstorage.repository.PackedSegmentRepository.PackedEntry;
+import com.example.cloudstorage.repository.PackedSegmentRepository.SegmentUsage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Упаковка мелких файлов (в духе Haystack): файл до file.pack.max-file-size не получает своего inode,
+ * а дописывается в общий сегмент storage/.segments/{id}.seg; в строке files хранится адрес
+ * (сегмент, смещение, длина). Запись - одна позиционная запись в уже открытый канал, чтение - одно
+ * позиционное чтение из кэшированного канала, без open/close и поиска имени в каталоге. Открытых каналов
+ * чтения не больше file.pack.max-open-readers: сверх этого закрываются давно не читанные.
+ *
+ * <p>Каждый узел пишет в свой открытый сегмент и запечатывает его по размеру или возрасту. Удаленные и
+ * распакованные файлы оставляют в сегментах мертвые байты; уплотнение переносит живые записи запечатанного
+ * сегмента в текущий и выводит старый из оборота, а его файл удаляется через file.pack.gc-grace-seconds.
+ *
+ * <p>Сегменты лежат на основном томе и не реплицируются, поэтому с file.replication.volumes упаковка не используется.
+ */
+@Service
+@RequiredArgsConstructor
+public class PackedStorageService {
+    private static final String SEGMENTS_DIR = ".segments";
+
+    private final PackedSegmentRepository segmentRepository;
+    private final PlatformTransactionManager transactionManager;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${file.storage.location}")
+    private String storageLocation;
+
+    @Value("${file.pack.enabled:false}")
+    private boolean enabled;
+
+    @Value("${file.pack.max-file-size:16384}")
+    private int maxFileSize;
+
+    @Value("${file.pack.segment-size:67108864}")
+    private long segmentSize;
+
+    // Сегмент запечатывается и по возрасту: иначе на тихом узле он не стал бы доступен уплотнению
+    @Value("${file.pack.max-segment-age-seconds:86400}")
+    private long maxSegmentAgeSeconds;
+
+    // Сегмент уплотняется, когда живых байт в нем меньше этой доли
+    @Value("${file.pack.compact-live-ratio:0.5}")
+    private double compactLiveRatio;
+
+    @Value("${file.pack.compact-lease-seconds:600}")
+    private long compactLeaseSeconds;
+
+    @Value("${file.pack.gc-grace-seconds:3600}")
+    private long gcGraceSeconds;
+
+    @Value("${file.pack.max-open-readers:1024}")
+    private int maxOpenReaders;
+
+    private final ConcurrentHashMap<Long, Reader> readers = new ConcurrentHashMap<>();
+    private OpenSegment current;
+    private TransactionTemplate segmentTransaction;
+    private Counter appendedBytes;
+    private Counter reclaimedBytes;
+
+    public record SegmentAddress(long segmentId, long offset, int length) {
+    }
+
+    private static final class Reader {
+        private final long segmentId;
+        private final FileChannel channel;
+        private volatile long lastUsedNanos = System.nanoTime();
+
+        private Reader(long segmentId, FileChannel channel) {
+            this.segmentId = segmentId;
+            this.channel = channel;
+        }
+    }
+
+    @FunctionalInterface
+    private interface ChannelRead<T> {
+        T apply(FileChannel channel) throws IOException;
+    }
+
+    private static final class OpenSegment {
+        private final long id;
+        private final FileChannel channel;
+        private final long openedAt = System.currentTimeMillis();
+        private long position;
+
+        private OpenSegment(long id, FileChannel channel) {
+            this.id = id;
+            this.channel = channel;
+        }
+    }
+
+    @PostConstruct
+    void start() throws IOException {
+        appendedBytes = Counter.builder("file.pack.appended.bytes")
+                .description("Bytes appended to packed segments, including compaction copies")
+                .register(meterRegistry);
+        reclaimedBytes = Counter.builder("file.pack.reclaimed.bytes")
+                .description("Segment bytes freed by compaction")
+                .register(meterRegistry);
+        Gauge.builder("file.pack.open.readers", readers, ConcurrentHashMap::size)
+                .description("Segment read channels currently open")
+                .register(meterRegistry);
+        if (!enabled) {
+            return;
+        }
+        Files.createDirectories(segmentsDir());
+        // Сегмент создается и запечатывается сразу, вне транзакции загрузки: ее откат не должен
+        // оставить файлы, ссылающиеся на сегмент, которого нет в БД
+        segmentTransaction = new TransactionTemplate(transactionManager);
+        segmentTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        System.out.println("📦 Small file packing is enabled for files up to " + maxFileSize + " bytes");
+    }
+
+    @PreDestroy
+    synchronized void stop() {
+        if (current != null) {
+            seal(current);
+            current = null;
+        }
+        readers.values().forEach(reader -> closeQuietly(reader.channel));
+        readers.clear();
+    }
+
+    public boolean accepts(long size) {
+        return enabled && size <= maxFileSize;
+    }
+
+    /**
+     * Дописывает содержимое в открытый сегмент узла. Запись без fsync - как и обычная запись файла в saveFile.
+     */
+    public synchronized SegmentAddress append(byte[] data) throws IOException {
+        OpenSegment segment = writableSegment(data.length);
+        long offset = segment.position;
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+            segment.channel.write(buffer, offset + buffer.position());
+        }
+        // Позиция сдвигается только после полной записи: недописанный хвост перезапишет следующий файл
+        segment.position += data.length;
+        appendedBytes.increment(data.length);
+        return new SegmentAddress(segment.id, offset, data.length);
+    }
+
+    public byte[] read(FileEntity file) throws IOException {
+        return read(file.getSegmentId(), file.getSegmentOffset(), file.getSegmentLength());
+    }
+
+    // Позиционное чтение потокобезопасно: один канал на сегмент обслуживает все чтения
+    public byte[] read(long segmentId, long offset, int length) throws IOException {
+        return withReader(segmentId, channel -> {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new IOException("Segment " + segmentId + " is truncated at " + (offset + buffer.position()));
+                }
+            }
+            return buffer.array();
+        });
+    }
+
+    // Для сверки: адрес указывает внутрь существующего сегмента
+    public boolean contains(long segmentId, long offset, int length) throws IOException {
+        try {
+            return offset + length <= withReader(segmentId, FileChannel::size);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${file.pack.compact-interval-ms:600000}")
+    public void compact() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            synchronized (this) {
+                if (current != null && isExpired(current)) {
+                    seal(current);
+                    current = null;
+                }
+            }
+            for (SegmentUsage usage : segmentRepository.findCompactable(maxSegmentAgeSeconds * 2)) {
+                Path path = segmentPath(usage.id());
+                long size = Files.exists(path) ? Files.size(path) : 0;
+                if (usage.liveBytes() >= size * compactLiveRatio && usage.liveBytes() > 0) {
+                    continue;
+                }
+                if (segmentRepository.claim(usage.id(), compactLeaseSeconds)) {
+                    compactSegment(usage.id(), size);
+                }
+            }
+            deleteExpired();
+        } catch (IOException | DataAccessException e) {
+            System.out.println("❌ Error compacting packed segments: " + e.getMessage());
+        }
+    }
+
+    private void compactSegment(long segmentId, long size) throws IOException {
+        long moved = 0;
+        for (PackedEntry entry : segmentRepository.findEntries(segmentId)) {
+            byte[] data = read(segmentId, entry.offset(), entry.length());
+            SegmentAddress address = append(data);
+            // Файл могли распаковать или удалить, пока шло копирование: тогда копия - просто мертвые байты
+            if (segmentRepository.relocate(entry.fileId(), segmentId, entry.offset(), address.segmentId(), address.offset())) {
+                moved += entry.length();
+            }
+        }
+        if (segmentRepository.retire(segmentId)) {
+            reclaimedBytes.increment(Math.max(0, size - moved));
+            System.out.println("📦 Compacted segment " + segmentId + ": " + moved + " of " + size + " bytes moved");
+        }
+    }
+
+    private void deleteExpired() throws IOException {
+        for (long segmentId : segmentRepository.findExpired(gcGraceSeconds)) {
+            if (segmentRepository.delete(segmentId)) {
+                Reader reader = readers.remove(segmentId);
+                if (reader != null) {
+                    closeQuietly(reader.channel);
+                }
+                Files.deleteIfExists(segmentPath(segmentId));
+            }
+        }
+    }
+
+    private OpenSegment writableSegment(int length) throws IOException {
+        if (current != null && (current.position + length > segmentSize || isExpired(current))) {
+            seal(current);
+            current = null;
+        }
+        if (current == null) {
+            long id = segmentTransaction.execute(status -> segmentRepository.create());
+            FileChannel channel = FileChannel.open(segmentPath(id), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            current = new OpenSegment(id, channel);
+        }
+        return current;
+    }
+
+    private boolean isExpired(OpenSegment segment) {
+        return System.currentTimeMillis() - segment.openedAt > TimeUnit.SECONDS.toMillis(maxSegmentAgeSeconds);
+    }
+
+    private void seal(OpenSegment segment) {
+        closeQuietly(segment.channel);
+        try {
+            segmentTransaction.executeWithoutResult(status -> segmentRepository.seal(segment.id));
+        } catch (DataAccessException e) {
+            // Незапечатанный сегмент уплотнение подберет как брошенный
+            System.out.println("⚠️ Cannot seal segment " + segment.id + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Канал мог закрыть вытеснитель, пока шло чтение, или прерывание другого читающего потока - такой
+     * канал убирается из кэша, и чтение повторяется на заново открытом.
+     */
+    private <T> T withReader(long segmentId, ChannelRead<T> action) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            Reader reader = reader(segmentId);
+            try {
+                return action.apply(reader.channel);
+            } catch (ClosedByInterruptException e) {
+                // Прерван этот поток: канал закрыт для всех, повторять чтение незачем
+                readers.remove(segmentId, reader);
+                throw e;
+            } catch (ClosedChannelException e) {
+                readers.remove(segmentId, reader);
+                if (attempt == 2) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private Reader reader(long segmentId) throws IOException {
+        Reader reader = readers.get(segmentId);
+        if (reader == null) {
+            try {
+                reader = readers.computeIfAbsent(segmentId, id -> {
+                    try {
+                        return new Reader(id, FileChannel.open(segmentPath(id), StandardOpenOption.READ));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            evictLeastRecentlyUsed();
+        }
+        reader.lastUsedNanos = System.nanoTime();
+        return reader;
+    }
+
+    // Поиск самого старого - перебором: он нужен только при открытии канала сверх лимита
+    private void evictLeastRecentlyUsed() {
+        while (readers.size() > maxOpenReaders) {
+            readers.values().stream()
+                    .min(Comparator.comparingLong(reader -> reader.lastUsedNanos))
+                    .filter(oldest -> readers.remove(oldest.segmentId, oldest))
+                    .ifPresent(oldest -> closeQuietly(oldest.channel));
+        }
+    }
+
+    private Path segmentsDir() {
+        return Paths.get(storageLocation).toAbsolutePath().normalize().resolve(SEGMENTS_DIR);
+    }
+
+    private Path segmentPath(long segmentId) {
+        return segmentsDir().resolve(segmentId + ".seg");
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // Канал только для чтения или уже записанный сегмент - терять нечего
+        }
+    }
+}
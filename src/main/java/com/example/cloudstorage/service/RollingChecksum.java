@@ -0,0 +1,39 @@
+package com.example.cloudstorage.service;
+
+/**
+ * Слабая контрольная сумма rsync: a = сумма байт, b = взвешенная сумма, обе по модулю 2^16.
+ * Сдвиг окна на один байт пересчитывается за O(1), что позволяет клиенту искать
+ * совпадающие блоки на каждом смещении своего файла.
+ */
+public final class RollingChecksum {
+    private final int length;
+    private int a;
+    private int b;
+
+    public RollingChecksum(byte[] data, int offset, int length) {
+        this.length = length;
+        for (int i = 0; i < length; i++) {
+            int value = data[offset + i] & 0xFF;
+            a += value;
+            b += (length - i) * value;
+        }
+        a &= 0xFFFF;
+        b &= 0xFFFF;
+    }
+
+    public static int of(byte[] data, int offset, int length) {
+        return new RollingChecksum(data, offset, length).value();
+    }
+
+    // Окно сдвигается на байт: outgoing покидает окно слева, incoming входит справа
+    public void roll(byte outgoing, byte incoming) {
+        int out = outgoing & 0xFF;
+        int in = incoming & 0xFF;
+        a = (a - out + in) & 0xFFFF;
+        b = (b - length * out + a) & 0xFFFF;
+    }
+
+    public int value() {
+        return a | (b << 16);
+    }
+}
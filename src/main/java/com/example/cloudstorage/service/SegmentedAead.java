@@ -0,0 +1,335 @@
+package com.example.cloudstorage.service;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Потоковое шифрование файла AES-GCM по сегментам (схема как у streaming AEAD в Tink).
+ *
+ * <p>Формат: заголовок (сигнатура, размер сегмента, случайные соль и префикс nonce), затем сегменты по
+ * {@link #SEGMENT_SIZE} байт открытого текста, у каждого свой тег GCM. Ключ файла выводится из ключа
+ * пользователя и соли (HMAC-SHA256), поэтому nonce не повторяются между файлами. Nonce сегмента - префикс,
+ * номер сегмента и признак последнего сегмента, заголовок входит в AAD. Поэтому сегменты нельзя
+ * переставить, перенести из другого файла или отрезать хвост файла по границе сегмента, а прочитать
+ * любой диапазон можно, расшифровав только сегменты, которые его покрывают.
+ *
+ * <p>В памяти держится один сегмент: ни запись, ни чтение не копируют содержимое файла целиком.
+ * AES и GHASH выполняются интринсиками JVM (AES-NI, PCLMULQDQ/AVX), если процессор их поддерживает.
+ */
+public final class SegmentedAead {
+    public static final int SEGMENT_SIZE = 64 * 1024;
+    static final int TAG_SIZE = 16;
+    private static final byte[] MAGIC = {'C', 'S', 'G', 'C', 'M', 0, 0, 1};
+    private static final int SALT_SIZE = 16;
+    private static final int NONCE_PREFIX_SIZE = 7;
+    private static final int NONCE_SIZE = 12;
+    static final int HEADER_SIZE = MAGIC.length + Integer.BYTES + SALT_SIZE + NONCE_PREFIX_SIZE;
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private SegmentedAead() {
+    }
+
+    public static long ciphertextSize(long plaintextSize) {
+        long segments = Math.max(1, (plaintextSize + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        return HEADER_SIZE + plaintextSize + segments * TAG_SIZE;
+    }
+
+    // Размер сегмента берется из заголовка: файл читается и после смены SEGMENT_SIZE
+    static long plaintextSize(long ciphertextSize, int segmentSize) throws IOException {
+        long body = ciphertextSize - HEADER_SIZE;
+        if (body < TAG_SIZE) {
+            throw new IOException("Encrypted file is truncated");
+        }
+        long segments = (body + segmentSize + TAG_SIZE - 1) / (segmentSize + TAG_SIZE);
+        long last = body - (segments - 1) * (segmentSize + TAG_SIZE);
+        if (last < TAG_SIZE) {
+            throw new IOException("Encrypted file is truncated");
+        }
+        return body - segments * TAG_SIZE;
+    }
+
+    public static boolean hasHeader(byte[] prefix, int length) {
+        return length >= MAGIC.length && Arrays.equals(prefix, 0, MAGIC.length, MAGIC, 0, MAGIC.length);
+    }
+
+    public static boolean isEncrypted(Path path) throws IOException {
+        byte[] prefix = new byte[MAGIC.length];
+        int length;
+        try (InputStream in = Files.newInputStream(path)) {
+            length = in.readNBytes(prefix, 0, prefix.length);
+        }
+        return hasHeader(prefix, length);
+    }
+
+    // Размер содержимого: у зашифрованного файла - по длине и размеру сегмента из заголовка, без расшифровки
+    public static long plaintextSize(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // читаем заголовок целиком
+            }
+            if (!hasHeader(header.array(), header.position())) {
+                return channel.size();
+            }
+            return plaintextSize(channel.size(), header.getInt(MAGIC.length));
+        }
+    }
+
+    public static OutputStream encryptingStream(SecretKey key, OutputStream out) throws IOException {
+        return new EncryptingStream(key, out);
+    }
+
+    /**
+     * Расшифровывающий поток поверх канала; skip переходит к нужному сегменту без чтения предыдущих.
+     * Канал закрывается вместе с потоком.
+     */
+    public static DecryptingStream decryptingStream(SecretKey key, SeekableByteChannel channel) throws IOException {
+        return new DecryptingStream(key, channel);
+    }
+
+    private static byte[] nonce(byte[] header, long segment, boolean last) throws IOException {
+        if (segment > Integer.MAX_VALUE) {
+            throw new IOException("Encrypted file has too many segments");
+        }
+        byte[] nonce = new byte[NONCE_SIZE];
+        System.arraycopy(header, MAGIC.length + Integer.BYTES + SALT_SIZE, nonce, 0, NONCE_PREFIX_SIZE);
+        ByteBuffer.wrap(nonce, NONCE_PREFIX_SIZE, Integer.BYTES).putInt((int) segment);
+        nonce[NONCE_SIZE - 1] = (byte) (last ? 1 : 0);
+        return nonce;
+    }
+
+    private static SecretKey fileKey(SecretKey key, byte[] header) throws IOException {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key.getEncoded(), "HmacSHA256"));
+            mac.update(header, MAGIC.length + Integer.BYTES, SALT_SIZE);
+            return new SecretKeySpec(mac.doFinal(), "AES");
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Cannot derive file key", e);
+        }
+    }
+
+    private static Cipher newCipher() {
+        try {
+            return Cipher.getInstance(TRANSFORMATION);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class EncryptingStream extends OutputStream {
+        private final SecretKey key;
+        private final OutputStream out;
+        private final Cipher cipher = newCipher();
+        private final byte[] header = new byte[HEADER_SIZE];
+        // Полный сегмент шифруется, только когда за ним пришли данные: иначе неизвестно, последний ли он
+        private final byte[] segment = new byte[SEGMENT_SIZE];
+        private final byte[] sealed = new byte[SEGMENT_SIZE + TAG_SIZE];
+        private int buffered;
+        private long segmentIndex;
+        private boolean closed;
+
+        EncryptingStream(SecretKey key, OutputStream out) throws IOException {
+            this.out = out;
+            byte[] random = new byte[SALT_SIZE + NONCE_PREFIX_SIZE];
+            RANDOM.nextBytes(random);
+            ByteBuffer.wrap(header).put(MAGIC).putInt(SEGMENT_SIZE).put(random);
+            this.key = fileKey(key, header);
+            out.write(header);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (buffered == SEGMENT_SIZE) {
+                    seal(false);
+                }
+                int count = Math.min(length, SEGMENT_SIZE - buffered);
+                System.arraycopy(data, offset, segment, buffered, count);
+                buffered += count;
+                offset += count;
+                length -= count;
+            }
+        }
+
+        private void seal(boolean last) throws IOException {
+            try {
+                cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_SIZE * 8, nonce(header, segmentIndex, last)));
+                cipher.updateAAD(header);
+                int length = cipher.doFinal(segment, 0, buffered, sealed, 0);
+                out.write(sealed, 0, length);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Cannot encrypt segment " + segmentIndex, e);
+            }
+            segmentIndex++;
+            buffered = 0;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try (out) {
+                // Пустой файл - один пустой последний сегмент: отрезать у файла нечего
+                seal(true);
+            }
+        }
+    }
+
+    public static final class DecryptingStream extends InputStream {
+        private final SecretKey key;
+        private final SeekableByteChannel channel;
+        private final Cipher cipher = newCipher();
+        private final byte[] header = new byte[HEADER_SIZE];
+        private final int segmentSize;
+        private final long size;
+        private final long segments;
+        private final ByteBuffer sealed;
+        private final byte[] segment;
+        // Сегмент, который сейчас расшифрован в segment (-1 - никакой)
+        private long loadedSegment = -1;
+        private int loadedLength;
+        private long position;
+
+        DecryptingStream(SecretKey key, SeekableByteChannel channel) throws IOException {
+            this.channel = channel;
+            try {
+                ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+                channel.position(0);
+                readFully(headerBuffer);
+                if (!hasHeader(header, header.length)) {
+                    throw new IOException("Not an encrypted file");
+                }
+                this.key = fileKey(key, header);
+                segmentSize = headerBuffer.getInt(MAGIC.length);
+                if (segmentSize <= 0 || segmentSize > 16 * 1024 * 1024) {
+                    throw new IOException("Invalid segment size in encrypted file header");
+                }
+                long ciphertextSize = channel.size();
+                size = plaintextSize(ciphertextSize, segmentSize);
+                segments = Math.max(1, (size + segmentSize - 1) / segmentSize);
+                sealed = ByteBuffer.allocate(segmentSize + TAG_SIZE);
+                segment = new byte[segmentSize];
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        // Размер открытого текста; известен по длине файла, без расшифровки
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (position >= size) {
+                // Пустой файл: тег единственного сегмента тоже должен сойтись
+                if (size == 0 && loadedSegment < 0) {
+                    load(0);
+                }
+                return -1;
+            }
+            long index = position / segmentSize;
+            if (index != loadedSegment) {
+                load(index);
+            }
+            int inSegment = (int) (position - index * segmentSize);
+            int count = Math.min(length, loadedLength - inSegment);
+            System.arraycopy(segment, inSegment, buffer, offset, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            if (n <= 0) {
+                return 0;
+            }
+            long skipped = Math.min(n, size - position);
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            if (loadedSegment < 0 || position >= size) {
+                return 0;
+            }
+            return (int) Math.max(0, loadedSegment * segmentSize + loadedLength - position);
+        }
+
+        private void load(long index) throws IOException {
+            boolean last = index == segments - 1;
+            long start = HEADER_SIZE + index * (segmentSize + TAG_SIZE);
+            int length = last ? (int) (channel.size() - start) : segmentSize + TAG_SIZE;
+            sealed.clear().limit(length);
+            channel.position(start);
+            readFully(sealed);
+            try {
+                cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_SIZE * 8, nonce(header, index, last)));
+                cipher.updateAAD(header);
+                loadedLength = cipher.doFinal(sealed.array(), 0, length, segment, 0);
+            } catch (AEADBadTagException e) {
+                loadedSegment = -1;
+                throw new IOException("Encrypted segment " + index + " failed authentication", e);
+            } catch (GeneralSecurityException e) {
+                loadedSegment = -1;
+                throw new IOException("Cannot decrypt segment " + index, e);
+            }
+            loadedSegment = index;
+        }
+
+        private void readFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException("Encrypted file is truncated");
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
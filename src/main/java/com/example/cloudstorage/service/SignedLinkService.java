@@ -0,0 +1,221 @@
+package com.example.cloudstorage.service;
+
+import com.example.cloudstorage.entity.UserEntity;
+import com.example.cloudstorage.event.FileChangeEvent;
+import com.example.cloudstorage.event.PostgresNotificationBus;
+import com.example.cloudstorage.exception.FileStorageException;
+import com.example.cloudstorage.repository.ChangeJournalRepository;
+import com.example.cloudstorage.repository.ChangeJournalRepository.RenamedName;
+import com.example.cloudstorage.repository.TrashRepository;
+import com.example.cloudstorage.repository.TrashRepository.DeletedName;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.ZoneId;
+import java.util.Base64;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Подписанные ссылки на скачивание: в ссылке логин владельца, имя файла, время выдачи, срок действия
+ * и HMAC-SHA256 от них. Проверка - только вычисление подписи и сравнение, без токенов и запросов к БД;
+ * путь к файлу однозначно определяется логином и именем.
+ *
+ * <p>Удаление и переименование файла отзывают выданные до них ссылки на прежнее имя: файл в корзине еще
+ * лежит на диске, а под освободившимся именем позже может появиться другой файл. Отзывы хранятся в памяти,
+ * пока не истечет максимальный срок ссылки, и рассылаются другим узлам через Postgres LISTEN/NOTIFY;
+ * при старте и после переподключения шины они заново читаются из корзины и журнала изменений.
+ */
+@Service
+@RequiredArgsConstructor
+public class SignedLinkService {
+    static final String CHANNEL = "file_link_revoked";
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private final FileStorageService fileStorageService;
+    private final TrashRepository trashRepository;
+    private final ChangeJournalRepository journalRepository;
+    private final PostgresNotificationBus notificationBus;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${file.storage.location}")
+    private String storageLocation;
+
+    // Общий для всех узлов ключ; пустой - случайный ключ процесса (ссылки не переживут перезапуск)
+    @Value("${file.links.secret:}")
+    private String secret;
+
+    @Value("${file.links.default-ttl-seconds:3600}")
+    private long defaultTtlSeconds;
+
+    @Value("${file.links.max-ttl-seconds:604800}")
+    private long maxTtlSeconds;
+
+    private SecretKeySpec key;
+    private final ThreadLocal<Mac> macs = ThreadLocal.withInitial(this::newMac);
+    // login/filename -> момент удаления (мс)
+    private final ConcurrentHashMap<String, Long> revocations = new ConcurrentHashMap<>();
+    private Counter rejected;
+
+    public record SignedLink(String login, String filename, long issuedAt, long expiresAt, String signature) {
+    }
+
+    @PostConstruct
+    void start() {
+        byte[] keyBytes;
+        if (secret == null || secret.isBlank()) {
+            keyBytes = new byte[32];
+            new SecureRandom().nextBytes(keyBytes);
+            System.out.println("⚠️ file.links.secret is not set: signed links are valid only on this node until restart");
+        } else {
+            keyBytes = secret.getBytes(StandardCharsets.UTF_8);
+        }
+        key = new SecretKeySpec(keyBytes, ALGORITHM);
+        rejected = Counter.builder("file.links.rejected")
+                .description("Signed link downloads refused: bad signature, expired or revoked")
+                .register(meterRegistry);
+
+        notificationBus.subscribe(CHANNEL, this::revokeLocally);
+        notificationBus.onResync(this::reloadRevocations);
+        reloadRevocations();
+    }
+
+    public SignedLink createLink(UserEntity user, String filename, Long ttlSeconds) {
+        fileStorageService.validateFilename(filename);
+        long ttl = ttlSeconds != null ? ttlSeconds : defaultTtlSeconds;
+        if (ttl <= 0 || ttl > maxTtlSeconds) {
+            throw new IllegalArgumentException("ttlSeconds must be between 1 and " + maxTtlSeconds);
+        }
+        if (!fileStorageService.fileExists(user, filename)) {
+            throw new FileStorageException("File not found: " + filename);
+        }
+
+        long issuedAt = System.currentTimeMillis();
+        long expiresAt = issuedAt + TimeUnit.SECONDS.toMillis(ttl);
+        return new SignedLink(user.getLogin(), filename, issuedAt, expiresAt,
+                sign(user.getLogin(), filename, issuedAt, expiresAt));
+    }
+
+    /**
+     * Путь к файлу, если ссылка подлинная, не истекла и не отозвана. Существование файла не проверяется.
+     */
+    public Optional<Path> resolve(String login, String filename, long issuedAt, long expiresAt, String signature) {
+        long now = System.currentTimeMillis();
+        if (expiresAt <= now || expiresAt - issuedAt > TimeUnit.SECONDS.toMillis(maxTtlSeconds)
+                || !verify(login, filename, issuedAt, expiresAt, signature)) {
+            rejected.increment();
+            return Optional.empty();
+        }
+        Long revokedAt = revocations.get(revocationKey(login, filename));
+        if (revokedAt != null && issuedAt <= revokedAt) {
+            rejected.increment();
+            return Optional.empty();
+        }
+
+        Path storagePath = Paths.get(storageLocation).toAbsolutePath().normalize();
+        Path userPath = storagePath.resolve(login).normalize();
+        Path filePath = userPath.resolve(filename).normalize();
+        if (!userPath.startsWith(storagePath) || !filePath.startsWith(userPath) || filePath.equals(userPath)) {
+            rejected.increment();
+            return Optional.empty();
+        }
+        return Optional.of(filePath);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onFileChange(FileChangeEvent event) {
+        String revokedName = switch (event.type()) {
+            case DELETED -> event.filename();
+            // Под прежним именем может появиться другой файл - старая ссылка не должна его отдать
+            case RENAMED -> event.oldFilename();
+            default -> null;
+        };
+        if (revokedName != null) {
+            String name = revocationKey(event.login(), revokedName);
+            revokeLocally(name);
+            notificationBus.publish(CHANNEL, name);
+        }
+    }
+
+    // Ссылки старше максимального срока уже истекли - отзыв для них больше не нужен
+    @Scheduled(fixedDelayString = "${file.links.cleanup-interval-ms:600000}")
+    public void evictExpiredRevocations() {
+        long horizon = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(maxTtlSeconds);
+        revocations.values().removeIf(revokedAt -> revokedAt < horizon);
+    }
+
+    private void revokeLocally(String name) {
+        revocations.merge(name, System.currentTimeMillis(), Math::max);
+    }
+
+    private void reloadRevocations() {
+        try {
+            for (DeletedName deleted : trashRepository.findDeletedSince(maxTtlSeconds)) {
+                long deletedAt = deleted.deletedAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+                revocations.merge(revocationKey(deleted.login(), deleted.filename()), deletedAt, Math::max);
+            }
+            // Журнал хранится file.journal.retention-hours - переименования старше него не восстановятся
+            for (RenamedName renamed : journalRepository.findRenamedSince(maxTtlSeconds)) {
+                long renamedAt = renamed.renamedAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+                revocations.merge(revocationKey(renamed.login(), renamed.oldFilename()), renamedAt, Math::max);
+            }
+        } catch (Exception e) {
+            System.out.println("❌ Error loading revoked links: " + e.getMessage());
+        }
+    }
+
+    private static String revocationKey(String login, String filename) {
+        // В имени файла не бывает '/', поэтому ключ разбирается однозначно
+        return login + "/" + filename;
+    }
+
+    private String sign(String login, String filename, long issuedAt, long expiresAt) {
+        Mac mac = macs.get();
+        // Длины перед полями: граница между логином и именем не сдвигается
+        mac.update(field(login));
+        mac.update(field(filename));
+        mac.update((issuedAt + ":" + expiresAt).getBytes(StandardCharsets.UTF_8));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(mac.doFinal());
+    }
+
+    private boolean verify(String login, String filename, long issuedAt, long expiresAt, String signature) {
+        byte[] expected = sign(login, filename, issuedAt, expiresAt).getBytes(StandardCharsets.US_ASCII);
+        return MessageDigest.isEqual(expected, signature.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static byte[] field(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        byte[] prefixed = new byte[bytes.length + 4];
+        prefixed[0] = (byte) (bytes.length >>> 24);
+        prefixed[1] = (byte) (bytes.length >>> 16);
+        prefixed[2] = (byte) (bytes.length >>> 8);
+        prefixed[3] = (byte) bytes.length;
+        System.arraycopy(bytes, 0, prefixed, 4, bytes.length);
+        return prefixed;
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC is not available", e);
+        }
+    }
+}
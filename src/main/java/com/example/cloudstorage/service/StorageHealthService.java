@@ -0,0 +1,331 @@
+package com.example.cloudstorage.service;
+
+import com.example.cloudstorage.config.ReplicationProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Состояние томов хранилища: основного file.storage.location и file.replication.volumes. Для каждого тома
+ * в фоне, раз в file.health.sample-interval-ms, снимаются свободное место, свободные inode и задержка
+ * пробной записи с fsync. Проверки здоровья и допуск загрузок читают только последний снимок и диск
+ * не трогают.
+ *
+ * <p>У каждого тома свой поток: зависший fsync не останавливает ни опрос других томов, ни общий
+ * планировщик Spring. Пробная запись, которая идет дольше file.health.max-probe-latency-ms, уже считается
+ * медленной, не дожидаясь ее окончания.
+ */
+@Service
+@RequiredArgsConstructor
+public class StorageHealthService {
+    private static final String PROBE_FILE = ".health-probe";
+    private static final int PROBE_SIZE = 4096;
+    // Вес нового замера в сглаженной задержке: один случайный выброс не выключает загрузки
+    private static final double LATENCY_SMOOTHING = 0.3;
+
+    private final ReplicationProperties replicationProperties;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${file.storage.location}")
+    private String storageLocation;
+
+    @Value("${file.health.enabled:true}")
+    private boolean enabled;
+
+    @Value("${file.health.sample-interval-ms:5000}")
+    private long sampleIntervalMs;
+
+    // Запас, который загрузка не может занять: остаток нужен версиям, журналу, временным файлам
+    @Value("${file.health.min-free-bytes:1073741824}")
+    private long minFreeBytes;
+
+    // Готовность снимается раньше, чем место кончится совсем
+    @Value("${file.health.readiness-min-free-ratio:0.05}")
+    private double readinessMinFreeRatio;
+
+    @Value("${file.health.min-free-inodes-ratio:0.02}")
+    private double minFreeInodesRatio;
+
+    @Value("${file.health.max-probe-latency-ms:500}")
+    private long maxProbeLatencyMs;
+
+    private final List<Volume> volumes = new ArrayList<>();
+    private ScheduledExecutorService sampler;
+    private Counter rejectedNoSpace;
+    private Counter rejectedDegraded;
+
+    public enum WriteRejection {
+        NO_SPACE, DEGRADED
+    }
+
+    public enum Condition {
+        UNKNOWN, UP, LOW_SPACE, LOW_INODES, SLOW, FAILING
+    }
+
+    /**
+     * Последний снимок тома. Inode -1 - файловая система их не сообщает (или stat недоступен).
+     */
+    public record VolumeSample(int index, Path root, long usableBytes, long totalBytes, long freeInodes,
+                               long totalInodes, long probeLatencyNanos, String probeError, long sampledAt) {
+    }
+
+    private final class Volume {
+        private final int index;
+        private final Path root;
+        private volatile VolumeSample sample;
+        // Начало идущей пробной записи, 0 - записи нет
+        private volatile long probeStartedNanos;
+        private volatile boolean inodesUnsupported;
+
+        private Volume(int index, Path root) {
+            this.index = index;
+            this.root = root;
+            Gauge.builder("storage.free.bytes", this, volume -> volume.sample == null ? Double.NaN : volume.sample.usableBytes())
+                    .description("Usable space left on the storage volume")
+                    .baseUnit("bytes")
+                    .tag("volume", Integer.toString(index))
+                    .register(meterRegistry);
+            Gauge.builder("storage.free.inodes", this, volume -> volume.sample == null || volume.sample.totalInodes() < 0
+                            ? Double.NaN : volume.sample.freeInodes())
+                    .description("Free inodes on the storage volume")
+                    .tag("volume", Integer.toString(index))
+                    .register(meterRegistry);
+            Gauge.builder("storage.probe.latency", this, volume -> volume.sample == null
+                            ? Double.NaN : volume.sample.probeLatencyNanos() / 1_000_000.0)
+                    .description("Smoothed write+fsync probe latency")
+                    .baseUnit("milliseconds")
+                    .tag("volume", Integer.toString(index))
+                    .register(meterRegistry);
+        }
+    }
+
+    @PostConstruct
+    void start() {
+        volumes.add(new Volume(0, Paths.get(storageLocation).toAbsolutePath().normalize()));
+        for (String root : replicationProperties.getVolumes()) {
+            volumes.add(new Volume(volumes.size(), Paths.get(root).toAbsolutePath().normalize()));
+        }
+        rejectedNoSpace = rejectedCounter(WriteRejection.NO_SPACE);
+        rejectedDegraded = rejectedCounter(WriteRejection.DEGRADED);
+        if (!enabled) {
+            return;
+        }
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        sampler = Executors.newScheduledThreadPool(volumes.size(), runnable -> {
+            Thread thread = new Thread(runnable, "storage-health-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (Volume volume : volumes) {
+            sampler.scheduleWithFixedDelay(() -> sample(volume), 0, sampleIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    void stop() {
+        if (sampler != null) {
+            sampler.shutdownNow();
+        }
+    }
+
+    private Counter rejectedCounter(WriteRejection reason) {
+        return Counter.builder("storage.write.rejected")
+                .description("Uploads rejected before reading the body because of storage health")
+                .tag("reason", reason.name().toLowerCase())
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getVolumeCount() {
+        return volumes.size();
+    }
+
+    public VolumeSample getSample(int index) {
+        return volumes.get(index).sample;
+    }
+
+    /**
+     * Допуск записи declaredBytes байт (-1 - размер неизвестен) до чтения тела: том годится, если после нее
+     * на нем остается file.health.min-free-bytes и он не медленный и не сбоящий. Основной том входит в любой
+     * кворум записи, поэтому его отказ - отказ записи; остальные тома мешают, только когда годных томов
+     * меньше file.replication.write-quorum - копия на негодном томе просто уйдет в очередь восстановления.
+     * Пока снимка нет, том считается годным.
+     */
+    public WriteRejection checkWrite(long declaredBytes) {
+        if (!enabled) {
+            return null;
+        }
+        int quorum = volumes.size() > 1 ? replicationProperties.getWriteQuorum() : 1;
+        int writable = 0;
+        WriteRejection replicaRejection = null;
+        for (Volume volume : volumes) {
+            WriteRejection rejection = writeRejection(volume, declaredBytes);
+            if (rejection == null) {
+                writable++;
+            } else if (volume.index == 0) {
+                return counted(rejection);
+            } else if (replicaRejection == null) {
+                replicaRejection = rejection;
+            }
+        }
+        return writable < quorum ? counted(replicaRejection) : null;
+    }
+
+    private WriteRejection writeRejection(Volume volume, long declaredBytes) {
+        VolumeSample sample = volume.sample;
+        if (sample == null) {
+            return null;
+        }
+        // Сбой пробы проверяется первым: в таком снимке нет и свободного места
+        Condition condition = probeCondition(volume, sample);
+        if (condition == Condition.FAILING) {
+            return WriteRejection.DEGRADED;
+        }
+        if (sample.usableBytes() - Math.max(declaredBytes, 0) < minFreeBytes || lowInodes(sample)) {
+            return WriteRejection.NO_SPACE;
+        }
+        return condition == Condition.SLOW ? WriteRejection.DEGRADED : null;
+    }
+
+    private WriteRejection counted(WriteRejection rejection) {
+        (rejection == WriteRejection.NO_SPACE ? rejectedNoSpace : rejectedDegraded).increment();
+        return rejection;
+    }
+
+    /**
+     * Состояние тома для проверки готовности: место считается кончающимся при остатке меньше
+     * file.health.readiness-min-free-ratio от объема (но не меньше запаса для загрузок).
+     */
+    public Condition getCondition(int index) {
+        Volume volume = volumes.get(index);
+        VolumeSample sample = volume.sample;
+        if (sample == null) {
+            return Condition.UNKNOWN;
+        }
+        Condition probe = probeCondition(volume, sample);
+        if (probe == Condition.FAILING) {
+            return probe;
+        }
+        long readinessFreeBytes = Math.max(minFreeBytes, (long) (sample.totalBytes() * readinessMinFreeRatio));
+        if (sample.usableBytes() < readinessFreeBytes) {
+            return Condition.LOW_SPACE;
+        }
+        if (lowInodes(sample)) {
+            return Condition.LOW_INODES;
+        }
+        return probe;
+    }
+
+    private boolean lowInodes(VolumeSample sample) {
+        return sample.totalInodes() > 0 && sample.freeInodes() < sample.totalInodes() * minFreeInodesRatio;
+    }
+
+    private Condition probeCondition(Volume volume, VolumeSample sample) {
+        if (sample.probeError() != null) {
+            return Condition.FAILING;
+        }
+        long maxLatencyNanos = TimeUnit.MILLISECONDS.toNanos(maxProbeLatencyMs);
+        long startedNanos = volume.probeStartedNanos;
+        if (sample.probeLatencyNanos() > maxLatencyNanos
+                || (startedNanos != 0 && System.nanoTime() - startedNanos > maxLatencyNanos)) {
+            return Condition.SLOW;
+        }
+        return Condition.UP;
+    }
+
+    private void sample(Volume volume) {
+        long usable = -1;
+        long total = -1;
+        long latency = volume.sample == null ? 0 : volume.sample.probeLatencyNanos();
+        String error = null;
+        try {
+            Files.createDirectories(volume.root);
+            FileStore store = Files.getFileStore(volume.root);
+            usable = store.getUsableSpace();
+            total = store.getTotalSpace();
+            long measured = probe(volume);
+            latency = volume.sample == null ? measured
+                    : (long) (LATENCY_SMOOTHING * measured + (1 - LATENCY_SMOOTHING) * latency);
+        } catch (IOException e) {
+            error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            System.out.println("⚠️ Storage volume " + volume.root + " probe failed: " + error);
+        } finally {
+            volume.probeStartedNanos = 0;
+        }
+        long[] inodes = inodes(volume);
+        volume.sample = new VolumeSample(volume.index, volume.root, usable, total, inodes[0], inodes[1],
+                latency, error, System.currentTimeMillis());
+    }
+
+    // Файл пробы перезаписывается на месте: новый inode на каждый замер не нужен
+    private long probe(Volume volume) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(PROBE_SIZE);
+        buffer.putLong(System.nanoTime()).rewind();
+        long started = System.nanoTime();
+        volume.probeStartedNanos = started;
+        try (FileChannel channel = FileChannel.open(volume.root.resolve(PROBE_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, buffer.position());
+            }
+            channel.force(true);
+        }
+        return System.nanoTime() - started;
+    }
+
+    /**
+     * Свободные и всего inode: в Java для этого нет API, поэтому спрашиваем stat -f (coreutils).
+     * Где его нет или файловая система inode не считает (btrfs, zfs сообщают 0), проверка выключается.
+     */
+    private long[] inodes(Volume volume) {
+        if (volume.inodesUnsupported) {
+            return new long[]{-1, -1};
+        }
+        try {
+            Process process = new ProcessBuilder("stat", "-f", "-c", "%d %c", volume.root.toString())
+                    .redirectErrorStream(true)
+                    .start();
+            if (!process.waitFor(sampleIntervalMs, TimeUnit.MILLISECONDS)) {
+                process.destroyForcibly();
+                return new long[]{-1, -1};
+            }
+            String[] parts = new String(process.getInputStream().readAllBytes(), StandardCharsets.US_ASCII).trim().split(" ");
+            if (process.exitValue() == 0 && parts.length == 2 && Long.parseLong(parts[1]) > 0) {
+                return new long[]{Long.parseLong(parts[0]), Long.parseLong(parts[1])};
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Не Linux или другой формат вывода - ниже проверка выключается
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new long[]{-1, -1};
+        }
+        volume.inodesUnsupported = true;
+        System.out.println("⚠️ Inode usage is not available for " + volume.root + ", inode check is disabled");
+        return new long[]{-1, -1};
+    }
+}
@@ -0,0 +1,627 @@
+package com.example.cloudstorage.service;
+
+import com.example.cloudstorage.dto.ScrubReport;
+import com.example.cloudstorage.event.FileChangeEvent;
+import com.example.cloudstorage.repository.FileJobRepository;
+import com.example.cloudstorage.repository.FileVersionRepository;
+import com.example.cloudstorage.repository.FileVersionRepository.Version;
+import com.example.cloudstorage.repository.PackedSegmentRepository;
+import com.example.cloudstorage.repository.ScrubRepository;
+import com.example.cloudstorage.repository.ScrubRepository.StoredFile;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Сверка хранилища с таблицей files. Запись на диск и в БД не атомарна (saveFile пишет файл до вставки
+ * строки, очистка корзины удаляет строку до файла, renameFile вне транзакции), поэтому со временем
+ * накапливаются файлы без строк и строки без файлов.
+ *
+ * <p>Два прохода идут параллельно и ни один не держит в памяти больше одной пачки: строки files читаются
+ * keyset-страницами по id, дерево хранилища обходится {@link Files#walkFileTree}, найденные имена
+ * проверяются пачками по каталогу пользователя. Подозрительное перепроверяется после паузы, чтобы не
+ * принять за расхождение операцию, которая выполняется прямо сейчас. Чтение с диска ограничено общим
+ * лимитом байт в секунду, чтобы сверка не мешала пользовательскому трафику.
+ */
+@Service
+@RequiredArgsConstructor
+public class StorageScrubService {
+    private static final String LOST_AND_FOUND_DIR = ".lost+found";
+    private static final int MAX_REPORTED_ISSUES = 100;
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+    // Проверка метаданных одного файла учитывается в лимите как чтение одного блока
+    private static final long STAT_COST_BYTES = 4096;
+
+    private final ScrubRepository scrubRepository;
+    private final FileVersionRepository fileVersionRepository;
+    private final FileVersionService fileVersionService;
+    private final FileJobRepository fileJobRepository;
+    private final FileEncryptionService fileEncryption;
+    private final PackedStorageService packedStorage;
+    private final PackedSegmentRepository packedSegmentRepository;
+    private final ApplicationEventPublisher eventPublisher;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${file.storage.location}")
+    private String storageLocation;
+
+    @Value("${file.scrub.batch-size:500}")
+    private int batchSize;
+
+    @Value("${file.scrub.max-bytes-per-second:16777216}")
+    private long maxBytesPerSecond;
+
+    @Value("${file.scrub.grace-seconds:3600}")
+    private long graceSeconds;
+
+    @Value("${file.scrub.recheck-delay-ms:5000}")
+    private long recheckDelayMs;
+
+    @Value("${file.scrub.repair:false}")
+    private boolean scheduledRepair;
+
+    @Value("${file.scrub.verify-checksums:false}")
+    private boolean scheduledVerifyChecksums;
+
+    // Доля строк без содержимого, выше которой потерянные файлы не удаляются: это скорее отвалившийся том
+    @Value("${file.scrub.max-missing-ratio:0.05}")
+    private double maxMissingRatio;
+
+    private enum Problem {
+        MISSING, SIZE, CHECKSUM
+    }
+
+    private ExecutorService executor;
+    private final AtomicReference<Run> lastRun = new AtomicReference<>();
+
+    @PostConstruct
+    void start() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "storage-scrub-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    // По умолчанию выключено ("-"): сверку достаточно запускать на одном узле кластера
+    @Scheduled(cron = "${file.scrub.cron:-}")
+    public void scheduledScrub() {
+        try {
+            startScrub(scheduledRepair, scheduledVerifyChecksums);
+        } catch (IllegalStateException e) {
+            System.out.println("⚠️ Scheduled scrub skipped: " + e.getMessage());
+        }
+    }
+
+    public ScrubReport startScrub(boolean repair, boolean verifyChecksums) {
+        // Без содержимого хранилища каждая строка выглядела бы потерянной, а с repair - удалялась бы
+        if (isMissingOrEmpty(storageRoot()) && !scrubRepository.findAfter(0, 1).isEmpty()) {
+            throw new IllegalStateException("Storage root " + storageRoot() + " is missing or empty, scrub aborted");
+        }
+        Run run = new Run(repair, verifyChecksums, new IoRateLimiter(maxBytesPerSecond));
+        Run previous = lastRun.get();
+        if ((previous != null && previous.isRunning()) || !lastRun.compareAndSet(previous, run)) {
+            throw new IllegalStateException("Scrub is already running");
+        }
+
+        System.out.println("🔍 Storage scrub started (repair=" + repair + ", verifyChecksums=" + verifyChecksums + ")");
+        CompletableFuture.allOf(
+                CompletableFuture.runAsync(() -> runPass(run, this::scrubRows), executor),
+                CompletableFuture.runAsync(() -> runPass(run, this::scrubBlobs), executor)
+        ).whenComplete((result, error) -> {
+            run.finishedAt = LocalDateTime.now();
+            ScrubReport report = run.toReport();
+            System.out.println("✅ Storage scrub finished: " + report.getRowsChecked() + " rows, "
+                    + report.getBlobsChecked() + " blobs, " + report.getMissingBlobs() + " missing, "
+                    + report.getOrphanBlobs() + " orphans, " + report.getSizeMismatches() + " size mismatches, "
+                    + report.getChecksumMismatches() + " checksum mismatches, " + report.getRepaired() + " repaired");
+        });
+        return run.toReport();
+    }
+
+    public ScrubReport getLastReport() {
+        Run run = lastRun.get();
+        return run != null ? run.toReport() : null;
+    }
+
+    @FunctionalInterface
+    private interface Pass {
+        void run(Run run) throws IOException;
+    }
+
+    private void runPass(Run run, Pass pass) {
+        try {
+            pass.run(run);
+        } catch (IOException | RuntimeException e) {
+            run.error = e.getClass().getSimpleName() + ": " + e.getMessage();
+            System.out.println("❌ Storage scrub pass failed: " + run.error);
+        }
+    }
+
+    // Проход по БД: для каждой строки есть файл нужного размера (и, по запросу, с той же контрольной суммой)
+    private void scrubRows(Run run) throws IOException {
+        long maxMissing = (long) (scrubRepository.countFiles() * maxMissingRatio);
+        long afterId = 0;
+        List<StoredFile> page;
+        do {
+            page = scrubRepository.findAfter(afterId, batchSize);
+            List<StoredFile> suspects = new ArrayList<>();
+            for (StoredFile file : page) {
+                afterId = file.id();
+                run.rowsChecked.increment();
+                if (inspect(run, file) != null) {
+                    suspects.add(file);
+                }
+            }
+            if (!suspects.isEmpty()) {
+                recheckRows(run, suspects, maxMissing);
+            }
+        } while (page.size() == batchSize);
+
+        if (!run.missing.isEmpty()) {
+            repairMissing(run, maxMissing);
+        }
+    }
+
+    private void recheckRows(Run run, List<StoredFile> suspects, long maxMissing) throws IOException {
+        pause(recheckDelayMs);
+        Map<Long, StoredFile> current = scrubRepository.findByIds(suspects.stream().map(StoredFile::id).toList())
+                .stream().collect(Collectors.toMap(StoredFile::id, Function.identity()));
+
+        for (StoredFile suspect : suspects) {
+            StoredFile file = current.get(suspect.id());
+            // Строку за это время удалили или переименовали - расхождение было временным
+            if (file == null || !file.filename().equals(suspect.filename())) {
+                continue;
+            }
+            Problem problem = inspect(run, file);
+            if (problem == null) {
+                continue;
+            }
+
+            report(run, problem, file.login() + "/" + file.filename() + " (id " + file.id() + ")");
+            if (run.repair && problem == Problem.MISSING) {
+                // Удаление строк откладываем до конца прохода, когда известно, сколько всего пропало;
+                // сверх порога список не нужен - восстановление все равно будет отменено
+                if (run.missing.size() <= maxMissing) {
+                    run.missing.add(file.id());
+                }
+            } else if (run.repair) {
+                repairRow(run, file, problem);
+            }
+        }
+    }
+
+    private Problem inspect(Run run, StoredFile file) throws IOException {
+        if (file.segmentId() != null) {
+            return inspectPacked(run, file);
+        }
+        Path path = filePath(file.login(), file.filename());
+        run.limiter.acquire(STAT_COST_BYTES);
+
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return Problem.MISSING;
+        }
+        // В строке размер содержимого; у зашифрованного файла он вычисляется по заголовку
+        long size = fileEncryption.isEnabled() ? fileEncryption.plaintextSize(path) : attributes.size();
+        if (size != file.size()) {
+            return Problem.SIZE;
+        }
+
+        // Сумму сравниваем, только если она посчитана уже после последнего изменения файла
+        LocalDateTime modified = LocalDateTime.ofInstant(attributes.lastModifiedTime().toInstant(), ZoneId.systemDefault());
+        if (run.verifyChecksums && file.checksum() != null && file.checksumAt() != null
+                && modified.isBefore(file.checksumAt())
+                && !file.checksum().equalsIgnoreCase(sha256(run, file.login(), path))) {
+            return Problem.CHECKSUM;
+        }
+        return null;
+    }
+
+    /**
+     * Упакованный файл: адрес внутри сегмента, размер и (по запросу) сумма. Запись мелкая, поэтому содержимое
+     * читается сразу - это одно позиционное чтение из уже открытого сегмента вместо stat отдельного файла.
+     */
+    private Problem inspectPacked(Run run, StoredFile file) throws IOException {
+        run.limiter.acquire(file.segmentLength());
+        if (!packedStorage.contains(file.segmentId(), file.segmentOffset(), file.segmentLength())) {
+            return Problem.MISSING;
+        }
+        byte[] content;
+        try {
+            content = packedContent(file);
+        } catch (IOException e) {
+            // Не прошла проверка тега зашифрованной записи
+            return Problem.CHECKSUM;
+        }
+        run.bytesVerified.add(content.length);
+        if (content.length != file.size()) {
+            return Problem.SIZE;
+        }
+        // Содержимое по адресу в сегменте не меняется (перезапись распаковывает файл), поэтому сумму сравниваем всегда
+        if (run.verifyChecksums && file.checksum() != null) {
+            MessageDigest digest = newSha256();
+            if (!file.checksum().equalsIgnoreCase(HexFormat.of().formatHex(digest.digest(content)))) {
+                return Problem.CHECKSUM;
+            }
+        }
+        return null;
+    }
+
+    private byte[] packedContent(StoredFile file) throws IOException {
+        return fileEncryption.decrypt(file.login(),
+                packedStorage.read(file.segmentId(), file.segmentOffset(), file.segmentLength()));
+    }
+
+    private void repairMissing(Run run, long maxMissing) throws IOException {
+        long missing = run.missingBlobs.sum();
+        if (missing > maxMissing) {
+            run.error = "Repair of missing files refused: " + missing + " rows have no content (limit "
+                    + maxMissing + ")";
+            System.out.println("⚠️ Storage scrub: " + run.error);
+            return;
+        }
+        for (int from = 0; from < run.missing.size(); from += batchSize) {
+            List<Long> ids = run.missing.subList(from, Math.min(from + batchSize, run.missing.size()));
+            for (StoredFile file : scrubRepository.findByIds(ids)) {
+                // С момента проверки файл могли загрузить заново
+                if (inspect(run, file) == Problem.MISSING) {
+                    repairRow(run, file, Problem.MISSING);
+                }
+            }
+        }
+    }
+
+    private void repairRow(Run run, StoredFile file, Problem problem) throws IOException {
+        Path path = filePath(file.login(), file.filename());
+        switch (problem) {
+            case MISSING -> {
+                List<Version> versions = fileVersionRepository.findVersions(file.id());
+                if (!versions.isEmpty()) {
+                    // Содержимое потеряно, но есть версия - возвращаем последнюю (упакованный файл - отдельным файлом)
+                    Version latest = versions.get(0);
+                    Files.createDirectories(path.getParent());
+                    fileVersionService.restore(file.login(), latest, path);
+                    if (file.segmentId() != null) {
+                        packedSegmentRepository.unpack(file.id());
+                    }
+                    markModified(file, latest.size());
+                } else {
+                    transactionTemplate.execute(status -> {
+                        fileVersionRepository.deleteByFileId(file.id());
+                        return scrubRepository.deleteFile(file.id());
+                    });
+                    eventPublisher.publishEvent(FileChangeEvent.deleted(
+                            file.userId(), file.login(), file.id(), file.filename()));
+                }
+            }
+            // Источник истины - содержимое на диске: строка получает его размер, метаданные пересчитываются
+            case SIZE -> markModified(file, file.segmentId() != null
+                    ? packedContent(file).length
+                    : fileEncryption.plaintextSize(path));
+            // Неизвестно, какая сторона права, поэтому только отчет
+            case CHECKSUM -> {
+                return;
+            }
+        }
+        run.repaired.increment();
+        countRepair(problem.name().toLowerCase());
+    }
+
+    private void markModified(StoredFile file, long size) {
+        transactionTemplate.executeWithoutResult(status -> {
+            scrubRepository.updateSize(file.id(), size);
+            fileJobRepository.enqueue(file.id());
+        });
+        eventPublisher.publishEvent(FileChangeEvent.modified(
+                file.userId(), file.login(), file.id(), file.filename(), size));
+    }
+
+    // Проход по диску: у каждого файла в каталоге пользователя есть строка в files
+    private void scrubBlobs(Run run) throws IOException {
+        Path root = storageRoot();
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+
+        // Глубина 2: корень -> каталоги пользователей -> их файлы
+        Files.walkFileTree(root, EnumSet.noneOf(FileVisitOption.class), 2, new SimpleFileVisitor<>() {
+            private String login;
+            private final List<String> batch = new ArrayList<>();
+
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) {
+                if (dir.equals(root)) {
+                    return FileVisitResult.CONTINUE;
+                }
+                // Служебные каталоги (.chunks, .segments, .lost+found) к пользователям не относятся
+                if (dir.getFileName().toString().startsWith(".")) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                login = dir.getFileName().toString();
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                if (file.getParent().equals(root) || !attributes.isRegularFile()) {
+                    return FileVisitResult.CONTINUE;
+                }
+                run.limiter.acquire(STAT_COST_BYTES);
+                run.blobsChecked.increment();
+                // Свежие файлы пропускаем: saveFile пишет файл раньше, чем вставляет строку
+                if (attributes.lastModifiedTime().toInstant().isBefore(Instant.now().minusSeconds(graceSeconds))) {
+                    batch.add(file.getFileName().toString());
+                    if (batch.size() >= batchSize) {
+                        flush();
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+                if (e instanceof InterruptedIOException) {
+                    throw e;
+                }
+                System.out.println("⚠️ Scrub cannot read " + file + ": " + e.getMessage());
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                if (!dir.equals(root)) {
+                    flush();
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            private void flush() throws IOException {
+                if (!batch.isEmpty()) {
+                    checkOrphans(run, login, List.copyOf(batch));
+                    batch.clear();
+                }
+            }
+        });
+    }
+
+    private void checkOrphans(Run run, String login, List<String> filenames) throws IOException {
+        Set<String> existing = scrubRepository.findExistingFilenames(login, filenames);
+        List<String> suspects = filenames.stream().filter(name -> !existing.contains(name)).toList();
+        if (suspects.isEmpty()) {
+            return;
+        }
+
+        // renameFile переносит файл раньше, чем обновляет строку, - даем ему завершиться
+        pause(recheckDelayMs);
+        Set<String> registered = scrubRepository.findExistingFilenames(login, suspects);
+        for (String filename : suspects) {
+            Path path = storageRoot().resolve(login).resolve(filename);
+            if (registered.contains(filename) || !Files.exists(path)) {
+                continue;
+            }
+
+            run.orphanBlobs.increment();
+            report(run, "orphan", login + "/" + filename);
+            if (run.repair) {
+                quarantine(login, path);
+                run.repaired.increment();
+                countRepair("orphan");
+            }
+        }
+    }
+
+    // Файл без строки не удаляется, а переносится в .lost+found: его можно вернуть вручную
+    private void quarantine(String login, Path path) throws IOException {
+        Path target = storageRoot().resolve(LOST_AND_FOUND_DIR).resolve(login)
+                .resolve(path.getFileName() + "." + System.currentTimeMillis());
+        Files.createDirectories(target.getParent());
+        Files.move(path, target, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void report(Run run, Problem problem, String description) {
+        switch (problem) {
+            case MISSING -> run.missingBlobs.increment();
+            case SIZE -> run.sizeMismatches.increment();
+            case CHECKSUM -> run.checksumMismatches.increment();
+        }
+        report(run, problem.name().toLowerCase(), description);
+    }
+
+    private void report(Run run, String type, String description) {
+        Counter.builder("file.scrub.issues")
+                .tag("type", type)
+                .register(meterRegistry)
+                .increment();
+        synchronized (run.issues) {
+            if (run.issues.size() < MAX_REPORTED_ISSUES) {
+                run.issues.add(type + ": " + description);
+            }
+        }
+        System.out.println("⚠️ Scrub found " + type + ": " + description);
+    }
+
+    private void countRepair(String type) {
+        Counter.builder("file.scrub.repairs")
+                .tag("type", type)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private String sha256(Run run, String login, Path path) throws IOException {
+        MessageDigest digest = newSha256();
+        byte[] buffer = new byte[IO_BUFFER_SIZE];
+        try (InputStream in = fileEncryption.openInputStream(login, path)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                run.limiter.acquire(read);
+                digest.update(buffer, 0, read);
+                run.bytesVerified.add(read);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean isMissingOrEmpty(Path root) {
+        if (!Files.isDirectory(root)) {
+            return true;
+        }
+        try (Stream<Path> entries = Files.list(root)) {
+            return entries.findAny().isEmpty();
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    private Path storageRoot() {
+        return Paths.get(storageLocation).toAbsolutePath().normalize();
+    }
+
+    private Path filePath(String login, String filename) {
+        return storageRoot().resolve(login).resolve(filename);
+    }
+
+    private static void pause(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Scrub interrupted");
+        }
+    }
+
+    private static final class Run {
+        private final boolean repair;
+        private final boolean verifyChecksums;
+        private final IoRateLimiter limiter;
+        private final LocalDateTime startedAt = LocalDateTime.now();
+        private volatile LocalDateTime finishedAt;
+        private volatile String error;
+        private final LongAdder rowsChecked = new LongAdder();
+        private final LongAdder blobsChecked = new LongAdder();
+        private final LongAdder bytesVerified = new LongAdder();
+        private final LongAdder missingBlobs = new LongAdder();
+        private final LongAdder orphanBlobs = new LongAdder();
+        private final LongAdder sizeMismatches = new LongAdder();
+        private final LongAdder checksumMismatches = new LongAdder();
+        private final LongAdder repaired = new LongAdder();
+        private final List<String> issues = new ArrayList<>();
+        // id строк без содержимого, ожидающих восстановления; только поток прохода по БД
+        private final List<Long> missing = new ArrayList<>();
+
+        Run(boolean repair, boolean verifyChecksums, IoRateLimiter limiter) {
+            this.repair = repair;
+            this.verifyChecksums = verifyChecksums;
+            this.limiter = limiter;
+        }
+
+        boolean isRunning() {
+            return finishedAt == null;
+        }
+
+        ScrubReport toReport() {
+            List<String> issuesCopy;
+            synchronized (issues) {
+                issuesCopy = List.copyOf(issues);
+            }
+            return new ScrubReport(isRunning(), repair, verifyChecksums, startedAt, finishedAt,
+                    rowsChecked.sum(), blobsChecked.sum(), bytesVerified.sum(),
+                    missingBlobs.sum(), orphanBlobs.sum(), sizeMismatches.sum(), checksumMismatches.sum(),
+                    repaired.sum(), error, issuesCopy);
+        }
+    }
+
+    /**
+     * Общий на оба прохода лимит чтения: каждый вызов резервирует свой интервал времени
+     * и ждет его начала. Накопления "кредита" во время простоя нет, поэтому нет и всплесков.
+     */
+    private static final class IoRateLimiter {
+        private final long bytesPerSecond;
+        private long nextFreeNanos = System.nanoTime();
+
+        IoRateLimiter(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        void acquire(long bytes) throws InterruptedIOException {
+            if (bytesPerSecond <= 0) {
+                return;
+            }
+            long waitNanos;
+            synchronized (this) {
+                long now = System.nanoTime();
+                long start = Math.max(now, nextFreeNanos);
+                nextFreeNanos = start + bytes * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond;
+                waitNanos = start - now;
+            }
+            if (waitNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Scrub interrupted");
+                }
+            }
+        }
+    }
+}
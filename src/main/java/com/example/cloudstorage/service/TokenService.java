@@ -1,7 +1,9 @@
 package com.example.cloudstorage.service;
 
+import com.example.cloudstorage.config.ReadRouting;
 import com.example.cloudstorage.entity.UserEntity;
 import com.example.cloudstorage.repository.TokenRepository;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import java.time.LocalDateTime;
 import java.util.UUID;
@@ -10,6 +12,9 @@ import java.util.UUID;
 public class TokenService {
     private final TokenRepository tokenRepository;
 
+    @Value("${replica.enabled:false}")
+    private boolean replicaEnabled;
+
     public TokenService(TokenRepository tokenRepository) {
         this.tokenRepository = tokenRepository;
     }
@@ -26,13 +31,21 @@ public class TokenService {
     }
 
     public boolean validateToken(String token) {
-        boolean isValid = tokenRepository.isTokenValid(token);
+        boolean isValid = ReadRouting.onReplica(() -> tokenRepository.isTokenValid(token));
+        // Только что выданный токен мог еще не дойти до реплики
+        if (!isValid && replicaEnabled) {
+            isValid = ReadRouting.onPrimary(() -> tokenRepository.isTokenValid(token));
+        }
         System.out.println("🔍 Validating token: " + token + ", valid: " + isValid);
         return isValid;
     }
 
     public String getUsernameFromToken(String token) {
-        return tokenRepository.getUsernameByToken(token);
+        String username = ReadRouting.onReplica(() -> tokenRepository.getUsernameByToken(token));
+        if (username == null && replicaEnabled) {
+            username = ReadRouting.onPrimary(() -> tokenRepository.getUsernameByToken(token));
+        }
+        return username;
     }
 
     public void invalidateToken(String token) {
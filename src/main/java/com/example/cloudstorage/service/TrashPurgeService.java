@@ -0,0 +1,142 @@
+package com.example.cloudstorage.service;
+
+import com.example.cloudstorage.repository.TrashRepository;
+import com.example.cloudstorage.repository.TrashRepository.PurgedFile;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SecureDirectoryStream;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Физическая очистка корзины. Просроченные строки удаляются пачками в отдельной транзакции, файлы - после
+ * ее фиксации, сгруппированными по каталогу пользователя: каталог открывается один раз, и удаление идет
+ * относительно него (SecureDirectoryStream), без повторного разбора полного пути для каждого файла.
+ *
+ * <p>Если удаление файла не удалось, строки уже нет - такой файл найдет и уберет сверка хранилища.
+ */
+@Service
+@RequiredArgsConstructor
+public class TrashPurgeService {
+    private final TrashRepository trashRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final VolumeReplicationService volumeReplication;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${file.storage.location}")
+    private String storageLocation;
+
+    @Value("${file.trash.retention-hours:720}")
+    private long retentionHours;
+
+    @Value("${file.trash.batch-size:500}")
+    private int batchSize;
+
+    private Counter purgedFiles;
+
+    @PostConstruct
+    void start() {
+        purgedFiles = Counter.builder("trash.purged")
+                .description("Trashed files removed from storage after the retention period")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${file.trash.purge-interval-ms:60000}")
+    public void purgeExpired() {
+        long retentionSeconds = TimeUnit.HOURS.toSeconds(retentionHours);
+        int claimed;
+        do {
+            List<PurgedFile> batch = transactionTemplate.execute(
+                    status -> trashRepository.purgeExpired(retentionSeconds, batchSize));
+            claimed = batch.size();
+            if (claimed > 0) {
+                int removed = unlink(batch);
+                purgedFiles.increment(claimed);
+                System.out.println("🧹 Purged " + claimed + " trashed files (" + removed + " removed from disk)");
+            }
+        } while (claimed == batchSize);
+    }
+
+    int unlink(List<PurgedFile> batch) {
+        Map<String, List<PurgedFile>> byUser = batch.stream().collect(Collectors.groupingBy(PurgedFile::login));
+        int removed = 0;
+        for (Map.Entry<String, List<PurgedFile>> entry : byUser.entrySet()) {
+            removed += unlinkInDirectory(entry.getKey(), entry.getValue());
+        }
+        return removed;
+    }
+
+    private int unlinkInDirectory(String login, List<PurgedFile> files) {
+        Path storagePath = Paths.get(storageLocation).toAbsolutePath().normalize();
+        Path userPath = storagePath.resolve(login).normalize();
+        if (!userPath.startsWith(storagePath) || !Files.isDirectory(userPath)) {
+            return 0;
+        }
+
+        // Пока строка ждала очистки, имя могли занять снова (загрузка, переименование): такой файл уже чужой
+        Set<String> occupied = trashRepository.findOccupiedFilenames(login,
+                files.stream().map(PurgedFile::filename).toList());
+
+        int removed = 0;
+        try (DirectoryStream<Path> directory = Files.newDirectoryStream(userPath)) {
+            SecureDirectoryStream<Path> secure = directory instanceof SecureDirectoryStream<Path> stream ? stream : null;
+            for (PurgedFile file : files) {
+                if (occupied.contains(file.filename())) {
+                    continue;
+                }
+                Path name = Paths.get(file.filename());
+                try {
+                    BasicFileAttributes attributes = secure != null
+                            ? secure.getFileAttributeView(name, BasicFileAttributeView.class, LinkOption.NOFOLLOW_LINKS)
+                            .readAttributes()
+                            : Files.readAttributes(userPath.resolve(name), BasicFileAttributes.class,
+                            LinkOption.NOFOLLOW_LINKS);
+                    // Файл записан после удаления строки - это новая загрузка, строка для которой еще не вставлена
+                    if (isModifiedAfter(attributes, file.deletedAt())) {
+                        continue;
+                    }
+                    if (secure != null) {
+                        secure.deleteFile(name);
+                    } else {
+                        Files.delete(userPath.resolve(name));
+                    }
+                    removed++;
+                    volumeReplication.delete(login, file.filename());
+                } catch (NoSuchFileException e) {
+                    // Файла уже нет - удалять нечего
+                } catch (IOException e) {
+                    System.out.println("❌ Error purging " + login + "/" + file.filename() + ": " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("❌ Error opening storage directory of " + login + ": " + e.getMessage());
+        }
+        return removed;
+    }
+
+    private static boolean isModifiedAfter(BasicFileAttributes attributes, LocalDateTime deletedAt) {
+        return attributes.lastModifiedTime().toInstant()
+                .isAfter(deletedAt.atZone(ZoneId.systemDefault()).toInstant());
+    }
+}
@@ -0,0 +1,262 @@
+package com.example.cloudstorage.service;
+
+import com.example.cloudstorage.dto.FileResponse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Индекс имен файлов одного пользователя: TreeMap для поиска по префиксу и
+ * триграммные posting-листы для поиска подстроки. Идентификаторы документов растут монотонно,
+ * поэтому posting-листы остаются отсортированными без пересортировки; удаленные документы
+ * помечаются null и вычищаются при уплотнении.
+ */
+public class UserFilenameIndex {
+    private static final int MIN_COMPACT_DOCS = 1024;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final TreeMap<String, Integer> byKey = new TreeMap<>();
+    private final Map<String, Integer> byName = new HashMap<>();
+    private final Map<Long, IntList> postings = new HashMap<>();
+
+    private String[] names = new String[16];
+    private String[] lowerNames = new String[16];
+    private long[] sizes = new long[16];
+    private int docCount;
+    private int liveCount;
+
+    public UserFilenameIndex(List<FileResponse> files) {
+        for (FileResponse file : files) {
+            addInternal(file.getFilename(), file.getSize() != null ? file.getSize() : 0);
+        }
+    }
+
+    public void add(String filename, long size) {
+        lock.writeLock().lock();
+        try {
+            removeInternal(filename);
+            addInternal(filename, size);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(String filename) {
+        lock.writeLock().lock();
+        try {
+            removeInternal(filename);
+            if (docCount > MIN_COMPACT_DOCS && liveCount < docCount / 2) {
+                compact();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void rename(String oldFilename, String newFilename) {
+        lock.writeLock().lock();
+        try {
+            Integer docId = byName.get(oldFilename);
+            long size = docId != null ? sizes[docId] : 0;
+            removeInternal(oldFilename);
+            removeInternal(newFilename);
+            addInternal(newFilename, size);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return liveCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<FileResponse> searchPrefix(String prefix, int offset, int limit) {
+        String lowerPrefix = prefix.toLowerCase(Locale.ROOT);
+        lock.readLock().lock();
+        try {
+            List<FileResponse> result = new ArrayList<>(Math.min(limit, 256));
+            int skipped = 0;
+            for (Integer docId : byKey.subMap(lowerPrefix, true, lowerPrefix + Character.MAX_VALUE, false).values()) {
+                if (skipped++ < offset) {
+                    continue;
+                }
+                result.add(new FileResponse(names[docId], sizes[docId]));
+                if (result.size() >= limit) {
+                    break;
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<FileResponse> searchSubstring(String query, int offset, int limit) {
+        String lowerQuery = query.toLowerCase(Locale.ROOT);
+        lock.readLock().lock();
+        try {
+            int[] matches;
+            int matchCount = 0;
+            if (lowerQuery.length() < 3) {
+                // Слишком короткий запрос для триграмм: линейный проход уже в порядке сортировки
+                matches = new int[liveCount];
+                for (Integer docId : byKey.values()) {
+                    if (lowerNames[docId].contains(lowerQuery)) {
+                        matches[matchCount++] = docId;
+                    }
+                }
+                return page(matches, matchCount, offset, limit);
+            }
+
+            int[] candidates = intersectTrigrams(lowerQuery);
+            matches = new int[candidates.length];
+            for (int docId : candidates) {
+                if (names[docId] != null && lowerNames[docId].contains(lowerQuery)) {
+                    matches[matchCount++] = docId;
+                }
+            }
+
+            Integer[] sorted = new Integer[matchCount];
+            for (int i = 0; i < matchCount; i++) {
+                sorted[i] = matches[i];
+            }
+            Arrays.sort(sorted, Comparator.<Integer, String>comparing(id -> lowerNames[id]).thenComparing(id -> names[id]));
+            for (int i = 0; i < matchCount; i++) {
+                matches[i] = sorted[i];
+            }
+            return page(matches, matchCount, offset, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private List<FileResponse> page(int[] docIds, int count, int offset, int limit) {
+        List<FileResponse> result = new ArrayList<>(Math.max(0, Math.min(limit, count - offset)));
+        for (int i = offset; i < count && result.size() < limit; i++) {
+            result.add(new FileResponse(names[docIds[i]], sizes[docIds[i]]));
+        }
+        return result;
+    }
+
+    private int[] intersectTrigrams(String lowerQuery) {
+        List<IntList> lists = new ArrayList<>();
+        for (int i = 0; i + 3 <= lowerQuery.length(); i++) {
+            IntList list = postings.get(trigram(lowerQuery, i));
+            if (list == null) {
+                return new int[0];
+            }
+            lists.add(list);
+        }
+        lists.sort(Comparator.comparingInt(list -> list.size));
+
+        int[] result = Arrays.copyOf(lists.get(0).data, lists.get(0).size);
+        int resultSize = result.length;
+        for (int l = 1; l < lists.size() && resultSize > 0; l++) {
+            IntList other = lists.get(l);
+            int i = 0;
+            int j = 0;
+            int k = 0;
+            while (i < resultSize && j < other.size) {
+                if (result[i] < other.data[j]) {
+                    i++;
+                } else if (result[i] > other.data[j]) {
+                    j++;
+                } else {
+                    result[k++] = result[i];
+                    i++;
+                    j++;
+                }
+            }
+            resultSize = k;
+        }
+        return Arrays.copyOf(result, resultSize);
+    }
+
+    private void addInternal(String filename, long size) {
+        int docId = docCount++;
+        if (docId == names.length) {
+            int capacity = names.length * 2;
+            names = Arrays.copyOf(names, capacity);
+            lowerNames = Arrays.copyOf(lowerNames, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+        }
+
+        String lower = filename.toLowerCase(Locale.ROOT);
+        names[docId] = filename;
+        lowerNames[docId] = lower;
+        sizes[docId] = size;
+        byKey.put(sortKey(lower, filename), docId);
+        byName.put(filename, docId);
+        liveCount++;
+
+        for (int i = 0; i + 3 <= lower.length(); i++) {
+            IntList list = postings.computeIfAbsent(trigram(lower, i), key -> new IntList());
+            // Повторяющаяся в имени триграмма не должна дублировать документ в листе
+            if (list.size == 0 || list.data[list.size - 1] != docId) {
+                list.add(docId);
+            }
+        }
+    }
+
+    private void removeInternal(String filename) {
+        Integer docId = byName.remove(filename);
+        if (docId == null) {
+            return;
+        }
+        byKey.remove(sortKey(lowerNames[docId], filename));
+        names[docId] = null;
+        lowerNames[docId] = null;
+        liveCount--;
+    }
+
+    private void compact() {
+        List<FileResponse> live = new ArrayList<>(liveCount);
+        for (Integer docId : byKey.values()) {
+            live.add(new FileResponse(names[docId], sizes[docId]));
+        }
+
+        byKey.clear();
+        byName.clear();
+        postings.clear();
+        names = new String[Math.max(16, live.size())];
+        lowerNames = new String[names.length];
+        sizes = new long[names.length];
+        docCount = 0;
+        liveCount = 0;
+        for (FileResponse file : live) {
+            addInternal(file.getFilename(), file.getSize());
+        }
+    }
+
+    private static String sortKey(String lower, String filename) {
+        return lower + '\0' + filename;
+    }
+
+    private static long trigram(String value, int offset) {
+        return ((long) value.charAt(offset) << 32) | ((long) value.charAt(offset + 1) << 16) | value.charAt(offset + 2);
+    }
+
+    private static final class IntList {
+        private int[] data = new int[4];
+        private int size;
+
+        void add(int value) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = value;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.example.cloudstorage.service;
+
+import com.example.cloudstorage.config.RateLimitProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Лимиты на пользователя: частота запросов и полоса загрузки/скачивания.
+ *
+ * <p>Каждое ведро - GCRA на одном AtomicLong (теоретическое время прибытия следующей единицы),
+ * пополнение ленивое: считается из разницы с текущим временем в момент запроса. Проверка -
+ * один CAS без блокировок и без аллокаций; состояние пользователя создается только при первом
+ * обращении и удаляется, когда все его ведра полностью восстановились.
+ */
+@Service
+@RequiredArgsConstructor
+public class UserRateLimiter {
+    private static final long THROTTLED_WINDOW_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final RateLimitProperties properties;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, TierLimits> tiers = new HashMap<>();
+    private final ConcurrentHashMap<String, UserLimits> users = new ConcurrentHashMap<>();
+    private UserLimits unlimited;
+
+    @PostConstruct
+    void start() {
+        unlimited = new UserLimits(new TierLimits("unlimited", new RateLimitProperties.Tier()));
+        properties.getTiers().forEach((name, tier) -> tiers.put(name, new TierLimits(name, tier)));
+        if (!tiers.containsKey(properties.getDefaultTier())) {
+            tiers.put(properties.getDefaultTier(),
+                    new TierLimits(properties.getDefaultTier(), new RateLimitProperties.Tier()));
+        }
+        properties.getUsers().forEach((login, tier) -> {
+            if (!tiers.containsKey(tier)) {
+                throw new IllegalArgumentException("Unknown rate limit tier '" + tier + "' for user " + login);
+            }
+        });
+
+        Gauge.builder("ratelimit.throttled.users", users, this::countRecentlyThrottled)
+                .description("Users throttled during the last minute")
+                .register(meterRegistry);
+    }
+
+    public UserLimits limitsFor(String login) {
+        if (!properties.isEnabled()) {
+            return unlimited;
+        }
+        UserLimits limits = users.get(login);
+        if (limits == null) {
+            limits = users.computeIfAbsent(login, key -> new UserLimits(
+                    tiers.get(properties.getUsers().getOrDefault(key, properties.getDefaultTier()))));
+        }
+        return limits;
+    }
+
+    // Полностью восстановившееся состояние ничем не отличается от нового - его можно забыть
+    // (кроме недавно ограниченных: они нужны метрике ratelimit.throttled.users)
+    @Scheduled(fixedDelayString = "${rate-limit.cleanup-interval-ms:60000}")
+    public void evictIdle() {
+        long now = System.nanoTime();
+        users.values().removeIf(limits -> limits.isIdle(now) && !limits.isRecentlyThrottled(now));
+    }
+
+    private double countRecentlyThrottled(Map<String, UserLimits> users) {
+        long now = System.nanoTime();
+        return users.values().stream()
+                .filter(limits -> limits.isRecentlyThrottled(now))
+                .count();
+    }
+
+    /**
+     * Параметры тарифа и счетчики отказов, общие для всех его пользователей.
+     */
+    private final class TierLimits {
+        private final RateLimitProperties.Tier tier;
+        private final Counter throttledRequests;
+        private final Counter throttledUpload;
+        private final Counter throttledDownload;
+
+        TierLimits(String name, RateLimitProperties.Tier tier) {
+            this.tier = tier;
+            this.throttledRequests = throttledCounter(name, "requests");
+            this.throttledUpload = throttledCounter(name, "upload");
+            this.throttledDownload = throttledCounter(name, "download");
+        }
+
+        private Counter throttledCounter(String tier, String kind) {
+            return Counter.builder("ratelimit.throttled")
+                    .description("Requests rejected or transfers slowed down by per-user limits")
+                    .tag("tier", tier)
+                    .tag("kind", kind)
+                    .register(meterRegistry);
+        }
+    }
+
+    public static final class UserLimits {
+        private final TierLimits tier;
+        private final Bucket requests;
+        private final Bucket upload;
+        private final Bucket download;
+        private volatile long lastThrottled;
+
+        private UserLimits(TierLimits tier) {
+            RateLimitProperties.Tier config = tier.tier;
+            this.tier = tier;
+            this.requests = new Bucket(config.getRequestsPerSecond(), config.getRequestBurst());
+            this.upload = new Bucket(config.getUploadBytesPerSecond(),
+                    config.getUploadBytesPerSecond() * config.getBandwidthBurstSeconds());
+            this.download = new Bucket(config.getDownloadBytesPerSecond(),
+                    config.getDownloadBytesPerSecond() * config.getBandwidthBurstSeconds());
+        }
+
+        // 0 - запрос пропущен, иначе через сколько наносекунд можно повторить
+        public long acquireRequest() {
+            return throttled(requests.tryAcquire(1), tier.throttledRequests);
+        }
+
+        // Полоса не отказывает, а задерживает: байты уже переданы, возвращается пауза до следующей порции
+        public long reserveUpload(long bytes) {
+            return throttled(upload.reserve(bytes), tier.throttledUpload);
+        }
+
+        public long reserveDownload(long bytes) {
+            return throttled(download.reserve(bytes), tier.throttledDownload);
+        }
+
+        public boolean shapesBandwidth() {
+            return upload.isLimited() || download.isLimited();
+        }
+
+        private long throttled(long waitNanos, Counter counter) {
+            if (waitNanos > 0) {
+                lastThrottled = System.nanoTime();
+                counter.increment();
+            }
+            return waitNanos;
+        }
+
+        private boolean isRecentlyThrottled(long now) {
+            long throttledAt = lastThrottled;
+            return throttledAt != 0 && now - throttledAt < THROTTLED_WINDOW_NANOS;
+        }
+
+        private boolean isIdle(long now) {
+            return requests.isIdle(now) && upload.isIdle(now) && download.isIdle(now);
+        }
+    }
+
+    /**
+     * Generic cell rate algorithm: tat - момент, к которому ведро опустеет при текущей нагрузке.
+     * Каждая единица сдвигает его на nanosPerUnit; запрос допустим, пока tat опережает текущее время
+     * не больше, чем на допуск (burst).
+     */
+    static final class Bucket {
+        private final double nanosPerUnit;
+        private final long toleranceNanos;
+        private final AtomicLong tat;
+
+        // unitsPerSecond <= 0 - без ограничения
+        Bucket(double unitsPerSecond, double burst) {
+            this.nanosPerUnit = unitsPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / unitsPerSecond : 0;
+            this.toleranceNanos = (long) (Math.max(burst, 1) * nanosPerUnit);
+            this.tat = new AtomicLong(System.nanoTime());
+        }
+
+        boolean isLimited() {
+            return nanosPerUnit > 0;
+        }
+
+        long tryAcquire(long units) {
+            if (!isLimited()) {
+                return 0;
+            }
+            long increment = (long) (units * nanosPerUnit);
+            while (true) {
+                long now = System.nanoTime();
+                long current = tat.get();
+                long next = (current - now > 0 ? current : now) + increment;
+                long excess = next - now - toleranceNanos;
+                if (excess > 0) {
+                    return excess;
+                }
+                if (tat.compareAndSet(current, next)) {
+                    return 0;
+                }
+            }
+        }
+
+        long reserve(long units) {
+            if (!isLimited()) {
+                return 0;
+            }
+            long increment = (long) (units * nanosPerUnit);
+            while (true) {
+                long now = System.nanoTime();
+                long current = tat.get();
+                long next = (current - now > 0 ? current : now) + increment;
+                if (tat.compareAndSet(current, next)) {
+                    return Math.max(0, next - now - toleranceNanos);
+                }
+            }
+        }
+
+        boolean isIdle(long now) {
+            return tat.get() - now <= 0;
+        }
+    }
+}
@@ -0,0 +1,551 @@
+package com.example.cloudstorage.service;
+
+import com.example.cloudstorage.config.ReplicationProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Копии файлов на нескольких томах (разных дисках). Том 0 - основное хранилище file.storage.location:
+ * потоковые загрузки/скачивания, архивы и версии по-прежнему работают только с ним, поэтому его запись
+ * всегда входит в кворум. Остальные тома - file.replication.volumes, с той же раскладкой login/filename.
+ *
+ * <p>Запись идет на все тома параллельно (временный файл и атомарный перенос), ответ - после
+ * write-quorum успешных копий; оставшиеся дописываются в фоне, неудачные попадают в очередь
+ * восстановления и копируются с основного тома. Пока копия не подтверждена, читать ее нельзя.
+ * Время изменения, выставленное при записи, запоминается в памяти, и все копии получают его же: копия
+ * с другим временем устарела. Чтение копии основной том не трогает - если он завис, копия все равно
+ * отдается. После перезапуска время неизвестно, и копии не читаются, пока фоновая сверка не возьмет
+ * его с основного тома.
+ *
+ * <p>Чтение начинается с самого быстрого тома; если он не ответил за свой p95, то же чтение
+ * отправляется на следующий, и берется первый ответ. Задержки меряются по каждому тому; том, чей p95
+ * сильно выше медианы, читается последним.
+ */
+@Service
+@RequiredArgsConstructor
+public class VolumeReplicationService {
+    private static final String TEMP_PREFIX = ".replica-";
+
+    private final ReplicationProperties properties;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${file.storage.location}")
+    private String storageLocation;
+
+    private final List<Volume> volumes = new ArrayList<>();
+    // Копии, которые сейчас нельзя читать: запись еще идет или не удалась. Значение - поколение записи
+    private final ConcurrentHashMap<Replica, Long> stale = new ConcurrentHashMap<>();
+    private final Set<Replica> needsRepair = ConcurrentHashMap.newKeySet();
+    private final AtomicLong generations = new AtomicLong();
+    // Время изменения файла на момент записи (мс); копия считается свежей, только если ее время совпадает
+    private final ConcurrentHashMap<FileKey, Long> stamps = new ConcurrentHashMap<>();
+    // Файлы, которые читались без известного времени: его узнает фоновая сверка с основным томом
+    private final Set<FileKey> unstamped = ConcurrentHashMap.newKeySet();
+
+    private ExecutorService ioExecutor;
+    private ScheduledExecutorService hedgeScheduler;
+    private Counter hedgedReads;
+    private Counter hedgeWins;
+
+    @FunctionalInterface
+    public interface Decoder {
+        byte[] decode(byte[] stored) throws IOException;
+    }
+
+    private record Replica(String login, String filename, int volume) {
+    }
+
+    private record FileKey(String login, String filename) {
+    }
+
+    private final class Volume {
+        private final int index;
+        private final Path root;
+        private final Timer readLatency;
+        private final Timer writeLatency;
+
+        Volume(int index, Path root) {
+            this.index = index;
+            this.root = root;
+            this.readLatency = latencyTimer("read");
+            this.writeLatency = latencyTimer("write");
+            Gauge.builder("storage.volume.outlier", this, volume -> isOutlier(volume) ? 1 : 0)
+                    .description("Whether the volume's read p95 is far above the other volumes")
+                    .tag("volume", Integer.toString(index))
+                    .register(meterRegistry);
+        }
+
+        private Timer latencyTimer(String operation) {
+            return Timer.builder("storage.volume.latency")
+                    .description("File read/write latency per storage volume")
+                    .tag("volume", Integer.toString(index))
+                    .tag("operation", operation)
+                    .publishPercentiles(0.95)
+                    .distributionStatisticExpiry(Duration.ofMinutes(1))
+                    .register(meterRegistry);
+        }
+
+        Path resolve(String login, String filename) throws IOException {
+            Path userPath = root.resolve(login).normalize();
+            Path filePath = userPath.resolve(filename).normalize();
+            if (!userPath.startsWith(root) || !filePath.startsWith(userPath)) {
+                throw new IOException("Invalid file path");
+            }
+            return filePath;
+        }
+
+        long readP95Nanos() {
+            for (ValueAtPercentile value : readLatency.takeSnapshot().percentileValues()) {
+                return (long) value.value(TimeUnit.NANOSECONDS);
+            }
+            return 0;
+        }
+    }
+
+    @PostConstruct
+    void start() {
+        if (properties.getVolumes().isEmpty()) {
+            return;
+        }
+        volumes.add(new Volume(0, Paths.get(storageLocation).toAbsolutePath().normalize()));
+        for (String root : properties.getVolumes()) {
+            volumes.add(new Volume(volumes.size(), Paths.get(root).toAbsolutePath().normalize()));
+        }
+        if (properties.getWriteQuorum() < 1 || properties.getWriteQuorum() > volumes.size()) {
+            throw new IllegalArgumentException("file.replication.write-quorum must be between 1 and " + volumes.size());
+        }
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        ioExecutor = Executors.newFixedThreadPool(properties.getIoThreads(), runnable -> {
+            Thread thread = new Thread(runnable, "volume-io-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        hedgeScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "volume-hedge");
+            thread.setDaemon(true);
+            return thread;
+        });
+        hedgedReads = Counter.builder("storage.volume.hedged.reads")
+                .description("Reads re-issued to another volume after the first one exceeded its p95")
+                .register(meterRegistry);
+        hedgeWins = Counter.builder("storage.volume.hedged.wins")
+                .description("Hedged reads answered by the second volume first")
+                .register(meterRegistry);
+        Gauge.builder("storage.volume.stale", stale, ConcurrentHashMap::size)
+                .description("Replica copies not yet confirmed (in flight or waiting for repair)")
+                .register(meterRegistry);
+        System.out.println("💽 Replicating files to " + volumes.size() + " volumes, write quorum " + properties.getWriteQuorum());
+    }
+
+    @PreDestroy
+    void stop() {
+        if (ioExecutor != null) {
+            ioExecutor.shutdownNow();
+            hedgeScheduler.shutdownNow();
+        }
+    }
+
+    public boolean isEnabled() {
+        return !volumes.isEmpty();
+    }
+
+    /**
+     * Пишет содержимое на все тома и возвращается после кворума. Ошибка основного тома - ошибка записи.
+     */
+    public void write(String login, String filename, byte[] content) throws IOException {
+        long generation = markStale(login, filename);
+        FileTime modified = FileTime.fromMillis(System.currentTimeMillis());
+        stamps.put(new FileKey(login, filename), modified.toMillis());
+        int quorum = properties.getWriteQuorum();
+        AtomicInteger acked = new AtomicInteger();
+        AtomicInteger finished = new AtomicInteger();
+        CompletableFuture<Void> quorumReached = new CompletableFuture<>();
+
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        for (Volume volume : volumes) {
+            CompletableFuture<Void> write = CompletableFuture.runAsync(() -> {
+                long startNanos = System.nanoTime();
+                try {
+                    writeAtomically(volume.resolve(login, filename), content, modified);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                volume.writeLatency.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            }, ioExecutor);
+            writes.add(write.whenComplete((ignored, error) -> {
+                Replica replica = new Replica(login, filename, volume.index);
+                if (error == null) {
+                    stale.remove(replica, generation);
+                    if (acked.incrementAndGet() >= quorum) {
+                        quorumReached.complete(null);
+                    }
+                } else if (volume.index > 0) {
+                    System.out.println("⚠️ Replica write failed on volume " + volume.index + ": " + error.getMessage());
+                    needsRepair.add(replica);
+                }
+                if (finished.incrementAndGet() == volumes.size()) {
+                    quorumReached.complete(null);
+                }
+            }));
+        }
+
+        try {
+            writes.get(0).get();
+            quorumReached.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing replicas", e);
+        } catch (ExecutionException e) {
+            throw unwrap(e.getCause(), "Error writing file");
+        }
+        if (acked.get() < quorum) {
+            throw new IOException("Write quorum not reached: " + acked.get() + " of " + quorum + " copies");
+        }
+    }
+
+    public byte[] read(String login, String filename, long expectedSize) throws IOException {
+        return read(login, filename, stored -> stored, expectedSize);
+    }
+
+    /**
+     * Hedged-чтение. decoder применяется к каждой копии отдельно (расшифровка), expectedSize - размер
+     * из БД (или -1) после него: копия другого размера устарела, и чтение переходит к следующему тому.
+     */
+    public byte[] read(String login, String filename, Decoder decoder, long expectedSize) throws IOException {
+        HedgedRead read = new HedgedRead(login, filename, decoder, expectedSize, readOrder(login, filename));
+        read.launch(false);
+        try {
+            return read.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading file", e);
+        } catch (ExecutionException e) {
+            throw unwrap(e.getCause(), "Error reading file");
+        }
+    }
+
+    /**
+     * Одно чтение: следующий том запускается либо по таймеру (hedge), либо сразу после ошибки предыдущего.
+     */
+    private final class HedgedRead {
+        private final String login;
+        private final String filename;
+        private final Decoder decoder;
+        private final long expectedSize;
+        private final List<Volume> candidates;
+        private final CompletableFuture<byte[]> result = new CompletableFuture<>();
+        private final AtomicInteger launched = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+
+        HedgedRead(String login, String filename, Decoder decoder, long expectedSize, List<Volume> candidates) {
+            this.login = login;
+            this.filename = filename;
+            this.decoder = decoder;
+            this.expectedSize = expectedSize;
+            this.candidates = candidates;
+        }
+
+        void launch(boolean hedge) {
+            int attempt = launched.getAndIncrement();
+            if (attempt >= candidates.size() || result.isDone()) {
+                return;
+            }
+            if (hedge) {
+                hedgedReads.increment();
+            }
+            Volume volume = candidates.get(attempt);
+            CompletableFuture.supplyAsync(() -> readFrom(volume, login, filename, decoder, expectedSize), ioExecutor)
+                    .whenComplete((bytes, error) -> {
+                        if (error == null) {
+                            if (result.complete(bytes) && hedge) {
+                                hedgeWins.increment();
+                            }
+                        } else if (failed.incrementAndGet() == candidates.size()) {
+                            result.completeExceptionally(error);
+                        } else if (launched.get() == failed.get()) {
+                            // Все запущенные чтения отказали - следующий том сразу, без задержки
+                            launch(false);
+                        }
+                    });
+            if (properties.isHedgedReads() && attempt + 1 < candidates.size()) {
+                hedgeScheduler.schedule(() -> {
+                    if (!result.isDone() && launched.get() == attempt + 1) {
+                        launch(true);
+                    }
+                }, hedgeDelayNanos(volume), TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    // Основной том уже содержит новое содержимое (потоковая загрузка, дельта, восстановление версии)
+    public void replicate(String login, String filename) {
+        if (!isEnabled()) {
+            return;
+        }
+        long generation = markStale(login, filename);
+        for (Volume volume : replicas()) {
+            Replica replica = new Replica(login, filename, volume.index);
+            CompletableFuture.runAsync(() -> copyFromPrimary(replica, generation), ioExecutor);
+        }
+    }
+
+    public void rename(String login, String oldFilename, String newFilename) {
+        if (!isEnabled()) {
+            return;
+        }
+        long generation = markStale(login, newFilename);
+        // Перенос сохраняет время изменения - оно переходит к новому имени
+        Long stamp = stamps.remove(new FileKey(login, oldFilename));
+        if (stamp != null) {
+            stamps.put(new FileKey(login, newFilename), stamp);
+        }
+        for (Volume volume : replicas()) {
+            Replica replica = new Replica(login, newFilename, volume.index);
+            CompletableFuture.runAsync(() -> {
+                try {
+                    Path target = volume.resolve(login, newFilename);
+                    Files.move(volume.resolve(login, oldFilename), target, StandardCopyOption.REPLACE_EXISTING);
+                    stale.remove(replica, generation);
+                } catch (IOException e) {
+                    // Старой копии нет или том недоступен - копия будет взята с основного тома
+                    needsRepair.add(replica);
+                }
+            }, ioExecutor);
+        }
+    }
+
+    public void delete(String login, String filename) {
+        if (!isEnabled()) {
+            return;
+        }
+        stamps.remove(new FileKey(login, filename));
+        unstamped.remove(new FileKey(login, filename));
+        for (Volume volume : replicas()) {
+            stale.remove(new Replica(login, filename, volume.index));
+            needsRepair.remove(new Replica(login, filename, volume.index));
+            CompletableFuture.runAsync(() -> {
+                try {
+                    Files.deleteIfExists(volume.resolve(login, filename));
+                } catch (IOException e) {
+                    System.out.println("❌ Error deleting replica on volume " + volume.index + ": " + e.getMessage());
+                }
+            }, ioExecutor);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${file.replication.repair-interval-ms:10000}")
+    public void repairPending() {
+        if (!isEnabled()) {
+            return;
+        }
+        for (FileKey key : List.copyOf(unstamped)) {
+            unstamped.remove(key);
+            stampFromPrimary(key);
+        }
+        for (Replica replica : List.copyOf(needsRepair)) {
+            Long generation = stale.get(replica);
+            needsRepair.remove(replica);
+            if (generation != null) {
+                copyFromPrimary(replica, generation);
+            }
+        }
+    }
+
+    public int getPendingRepairs() {
+        return needsRepair.size();
+    }
+
+    private void copyFromPrimary(Replica replica, long generation) {
+        Volume volume = volumes.get(replica.volume());
+        try {
+            Path source = volumes.get(0).resolve(replica.login(), replica.filename());
+            Path target = volume.resolve(replica.login(), replica.filename());
+            Files.createDirectories(target.getParent());
+            Path temp = target.resolveSibling(TEMP_PREFIX + UUID.randomUUID());
+            try {
+                // Время берется до копирования: если основной том изменится во время копии, она останется устаревшей
+                FileTime modified = Files.getLastModifiedTime(source);
+                Files.copy(source, temp, StandardCopyOption.REPLACE_EXISTING);
+                Files.setLastModifiedTime(temp, modified);
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                stamps.put(new FileKey(replica.login(), replica.filename()), modified.toMillis());
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            stale.remove(replica, generation);
+        } catch (NoSuchFileException e) {
+            // Файл уже удален с основного тома - копировать нечего
+            stale.remove(replica, generation);
+        } catch (IOException e) {
+            System.out.println("⚠️ Replica repair failed on volume " + volume.index + ": " + e.getMessage());
+            needsRepair.add(replica);
+        }
+    }
+
+    // Время неизвестно (после перезапуска): берется с основного тома, копии с другим временем восстанавливаются
+    private void stampFromPrimary(FileKey key) {
+        try {
+            long modified = Files.getLastModifiedTime(volumes.get(0).resolve(key.login(), key.filename())).toMillis();
+            if (stamps.putIfAbsent(key, modified) != null) {
+                // Файл уже записан заново - время известно
+                return;
+            }
+            for (Volume volume : replicas()) {
+                Path copy = volume.resolve(key.login(), key.filename());
+                if (!Files.exists(copy) || Files.getLastModifiedTime(copy).toMillis() != modified) {
+                    scheduleRepair(new Replica(key.login(), key.filename(), volume.index));
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // Основной копии нет - сверять не с чем, копии так и не читаются
+        } catch (IOException e) {
+            System.out.println("⚠️ Replica check failed for " + key.login() + "/" + key.filename() + ": " + e.getMessage());
+        }
+    }
+
+    private long markStale(String login, String filename) {
+        long generation = generations.incrementAndGet();
+        for (Volume volume : replicas()) {
+            stale.put(new Replica(login, filename, volume.index), generation);
+        }
+        return generation;
+    }
+
+    private List<Volume> replicas() {
+        return volumes.subList(1, volumes.size());
+    }
+
+    private List<Volume> readOrder(String login, String filename) {
+        List<Volume> order = new ArrayList<>();
+        order.add(volumes.get(0));
+        FileKey key = new FileKey(login, filename);
+        if (!stamps.containsKey(key)) {
+            // Без времени записи свежесть копий не проверить - пока читается только основной том
+            unstamped.add(key);
+            return order;
+        }
+        for (Volume volume : replicas()) {
+            if (!stale.containsKey(new Replica(login, filename, volume.index))) {
+                order.add(volume);
+            }
+        }
+        // Выбросы - в конец, остальные по p95; основной том первым при равенстве (sort устойчивый)
+        order.sort(Comparator.comparing((Volume volume) -> isOutlier(volume))
+                .thenComparingLong(Volume::readP95Nanos));
+        return order;
+    }
+
+    private long hedgeDelayNanos(Volume volume) {
+        long min = TimeUnit.MILLISECONDS.toNanos(properties.getHedgeMinDelayMs());
+        long max = TimeUnit.MILLISECONDS.toNanos(properties.getHedgeMaxDelayMs());
+        return Math.max(min, Math.min(max, volume.readP95Nanos()));
+    }
+
+    private boolean isOutlier(Volume volume) {
+        if (volumes.size() < 2) {
+            return false;
+        }
+        long[] p95s = volumes.stream().mapToLong(Volume::readP95Nanos).sorted().toArray();
+        long median = p95s[p95s.length / 2];
+        return median > 0 && volume.readP95Nanos() > median * properties.getOutlierFactor();
+    }
+
+    private byte[] readFrom(Volume volume, String login, String filename, Decoder decoder, long expectedSize) {
+        long startNanos = System.nanoTime();
+        try {
+            Path path = volume.resolve(login, filename);
+            if (volume.index > 0 && !matchesStamp(path, login, filename)) {
+                throw staleCopy(volume, login, filename);
+            }
+            byte[] stored = Files.readAllBytes(path);
+            volume.readLatency.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            byte[] content;
+            try {
+                content = decoder.decode(stored);
+            } catch (IOException e) {
+                // Копия не расшифровывается - она повреждена или от другой записи
+                throw volume.index > 0 ? staleCopy(volume, login, filename) : e;
+            }
+            if (expectedSize >= 0 && content.length != expectedSize) {
+                throw staleCopy(volume, login, filename);
+            }
+            return content;
+        } catch (IOException e) {
+            // Отказ тоже задержка: медленно отказывающий диск должен попасть в выбросы
+            volume.readLatency.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Сравнение с точностью до миллисекунд: тома могут быть на файловых системах с разной точностью времени
+    private boolean matchesStamp(Path copy, String login, String filename) throws IOException {
+        Long stamp = stamps.get(new FileKey(login, filename));
+        return stamp != null && Files.getLastModifiedTime(copy).toMillis() == stamp;
+    }
+
+    private IOException staleCopy(Volume volume, String login, String filename) {
+        if (volume.index > 0) {
+            scheduleRepair(new Replica(login, filename, volume.index));
+        }
+        return new IOException("Stale copy on volume " + volume.index);
+    }
+
+    private void scheduleRepair(Replica replica) {
+        stale.putIfAbsent(replica, generations.incrementAndGet());
+        needsRepair.add(replica);
+    }
+
+    private static void writeAtomically(Path target, byte[] content, FileTime modified) throws IOException {
+        Files.createDirectories(target.getParent());
+        Path temp = target.resolveSibling(TEMP_PREFIX + UUID.randomUUID());
+        try {
+            Files.write(temp, content);
+            Files.setLastModifiedTime(temp, modified);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static IOException unwrap(Throwable error, String message) {
+        while (error instanceof CompletionException || error instanceof UncheckedIOException) {
+            error = error.getCause();
+        }
+        return error instanceof IOException io ? io : new IOException(message, error);
+    }
+}
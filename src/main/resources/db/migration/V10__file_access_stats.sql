@@ -0,0 +1,7 @@
+-- Счетчики обращений к файлам: накапливаются в памяти и сбрасываются сюда пачкой (FileAccessService).
+-- Строка есть только у файлов, которые хоть раз скачивали; удаляется вместе со строкой файла
+CREATE TABLE file_access_stats (
+    file_id BIGINT PRIMARY KEY REFERENCES files(id) ON DELETE CASCADE,
+    download_count BIGINT NOT NULL DEFAULT 0,
+    last_accessed_at TIMESTAMP NOT NULL
+);
@@ -0,0 +1,18 @@
+-- Сегменты упаковки мелких файлов (file.pack.*): общий файл storage/.segments/{id}.seg, в который
+-- дописываются файлы до file.pack.max-file-size. Запечатанный сегмент больше не пополняется и может быть
+-- уплотнен; после уплотнения он выводится из оборота (retired_at) и удаляется по истечении file.pack.gc-grace-seconds
+CREATE TABLE pack_segments (
+    id BIGSERIAL PRIMARY KEY,
+    sealed BOOLEAN NOT NULL DEFAULT FALSE,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    lease_until TIMESTAMP,
+    retired_at TIMESTAMP
+);
+
+-- Адрес содержимого упакованного файла; у обычного файла все три поля NULL
+ALTER TABLE files ADD COLUMN segment_id BIGINT REFERENCES pack_segments(id);
+ALTER TABLE files ADD COLUMN segment_offset BIGINT;
+ALTER TABLE files ADD COLUMN segment_length INTEGER;
+
+-- Уплотнение считает живые байты и перебирает файлы по сегменту
+CREATE INDEX idx_files_segment ON files (segment_id, segment_offset) WHERE segment_id IS NOT NULL;
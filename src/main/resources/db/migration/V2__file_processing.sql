@@ -0,0 +1,23 @@
+CREATE TABLE file_jobs (
+    id BIGSERIAL PRIMARY KEY,
+    file_id BIGINT NOT NULL REFERENCES files(id) ON DELETE CASCADE,
+    status VARCHAR(20) NOT NULL DEFAULT 'PENDING',
+    attempts INTEGER NOT NULL DEFAULT 0,
+    next_run_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    locked_until TIMESTAMP,
+    last_error VARCHAR(1000),
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    updated_at TIMESTAMP
+);
+
+CREATE INDEX idx_file_jobs_runnable ON file_jobs (next_run_at) WHERE status IN ('PENDING', 'RUNNING');
+
+CREATE TABLE file_metadata (
+    file_id BIGINT PRIMARY KEY REFERENCES files(id) ON DELETE CASCADE,
+    checksum VARCHAR(64),
+    detected_type VARCHAR(100),
+    width INTEGER,
+    height INTEGER,
+    thumbnail BYTEA,
+    processed_at TIMESTAMP
+);
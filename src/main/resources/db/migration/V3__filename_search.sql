@@ -0,0 +1,3 @@
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+CREATE INDEX idx_files_filename_trgm ON files USING gin (lower(filename) gin_trgm_ops);
@@ -0,0 +1,18 @@
+-- Дерево папок хранится списком смежности: перенос и переименование папки меняют одну строку,
+-- файлы на диске лежат по-прежнему плоско и при этом не трогаются
+CREATE TABLE folders (
+    id BIGSERIAL PRIMARY KEY,
+    user_id BIGINT NOT NULL REFERENCES users(id) ON DELETE CASCADE,
+    parent_id BIGINT REFERENCES folders(id),
+    name VARCHAR(255) NOT NULL,
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    CONSTRAINT uk_folders_sibling_name UNIQUE NULLS NOT DISTINCT (user_id, parent_id, name)
+);
+
+-- Содержимое папки и обход поддерева вниз
+CREATE INDEX idx_folders_user_parent ON folders (user_id, parent_id, name);
+
+ALTER TABLE files ADD COLUMN folder_id BIGINT REFERENCES folders(id);
+
+-- Листинг папки: стоимость зависит от размера папки, а не от общего числа файлов
+CREATE INDEX idx_files_user_folder ON files (user_id, folder_id, filename);
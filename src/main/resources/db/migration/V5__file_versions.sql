@@ -0,0 +1,57 @@
+-- Чанки версий файлов: содержимое лежит в storage/.chunks/<xx>/<sha256>, здесь - учет ссылок
+CREATE TABLE file_chunks (
+    hash CHAR(64) PRIMARY KEY,
+    size INTEGER NOT NULL,
+    ref_count INTEGER NOT NULL DEFAULT 0,
+    -- Обновляется при каждом повторном использовании; сборщик не трогает недавно записанные чанки
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE INDEX idx_file_chunks_unreferenced ON file_chunks (created_at) WHERE ref_count = 0;
+
+CREATE TABLE file_versions (
+    id BIGSERIAL PRIMARY KEY,
+    file_id BIGINT NOT NULL REFERENCES files(id) ON DELETE CASCADE,
+    version INTEGER NOT NULL,
+    size BIGINT NOT NULL,
+    content_type VARCHAR(100),
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    UNIQUE (file_id, version)
+);
+
+CREATE TABLE file_version_chunks (
+    version_id BIGINT NOT NULL REFERENCES file_versions(id) ON DELETE CASCADE,
+    seq INTEGER NOT NULL,
+    chunk_hash CHAR(64) NOT NULL REFERENCES file_chunks(hash),
+    PRIMARY KEY (version_id, seq)
+);
+
+-- Счетчик ссылок ведет база: одна строка версии может ссылаться на один чанк несколько раз,
+-- поэтому считаем по группам за весь оператор, а не построчно
+CREATE FUNCTION file_chunks_ref_inc() RETURNS trigger AS $$
+BEGIN
+    UPDATE file_chunks c SET ref_count = c.ref_count + d.n
+    FROM (SELECT chunk_hash, COUNT(*) AS n FROM inserted GROUP BY chunk_hash) d
+    WHERE c.hash = d.chunk_hash;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE FUNCTION file_chunks_ref_dec() RETURNS trigger AS $$
+BEGIN
+    UPDATE file_chunks c SET ref_count = c.ref_count - d.n
+    FROM (SELECT chunk_hash, COUNT(*) AS n FROM deleted GROUP BY chunk_hash) d
+    WHERE c.hash = d.chunk_hash;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER file_version_chunks_ref_inc
+    AFTER INSERT ON file_version_chunks
+    REFERENCING NEW TABLE AS inserted
+    FOR EACH STATEMENT EXECUTE FUNCTION file_chunks_ref_inc();
+
+CREATE TRIGGER file_version_chunks_ref_dec
+    AFTER DELETE ON file_version_chunks
+    REFERENCING OLD TABLE AS deleted
+    FOR EACH STATEMENT EXECUTE FUNCTION file_chunks_ref_dec();
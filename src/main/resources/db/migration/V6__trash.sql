@@ -0,0 +1,5 @@
+-- Удаление логическое: строка остается с deleted_at до физической очистки (file.trash.retention-hours)
+ALTER TABLE files ADD COLUMN deleted_at TIMESTAMP;
+
+-- Очистка выбирает просроченные строки по времени удаления, не просматривая живые
+CREATE INDEX idx_files_deleted_at ON files (deleted_at) WHERE deleted_at IS NOT NULL;
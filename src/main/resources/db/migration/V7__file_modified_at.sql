@@ -0,0 +1,4 @@
+-- Время последней записи содержимого: HEAD /file и пакетный stat отдают его как Last-Modified и строят из него ETag
+ALTER TABLE files ADD COLUMN modified_at TIMESTAMP;
+
+UPDATE files SET modified_at = created_at;
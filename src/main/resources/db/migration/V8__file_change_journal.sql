@@ -0,0 +1,23 @@
+-- Журнал изменений файлов для выборки дельты по курсору (GET /changes?since=)
+-- Номер изменения свой у каждого пользователя: строка счетчика блокируется до коммита, поэтому
+-- изменения одного пользователя фиксируются строго в порядке номеров и курсор не перескакивает незакоммиченные
+CREATE TABLE file_change_seq (
+    user_id BIGINT PRIMARY KEY REFERENCES users(id) ON DELETE CASCADE,
+    seq BIGINT NOT NULL,
+    -- Записи с номером не больше min_seq удалены сжатием: более старый курсор требует полного /list
+    min_seq BIGINT NOT NULL DEFAULT 0
+);
+
+CREATE TABLE file_changes (
+    user_id BIGINT NOT NULL REFERENCES users(id) ON DELETE CASCADE,
+    seq BIGINT NOT NULL,
+    type VARCHAR(16) NOT NULL,
+    filename VARCHAR(255) NOT NULL,
+    old_filename VARCHAR(255),
+    size BIGINT,
+    changed_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (user_id, seq)
+);
+
+-- Сжатие выбирает самые старые записи, не просматривая весь журнал
+CREATE INDEX idx_file_changes_changed_at ON file_changes (changed_at);
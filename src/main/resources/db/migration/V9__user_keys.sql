@@ -0,0 +1,8 @@
+-- Ключи шифрования файлов (DEK) пользователей, зашифрованные мастер-ключом (KEK) из локального хранилища ключей.
+-- kek_alias - под каким алиасом хранилища лежит KEK: после ротации старые DEK разворачиваются прежним ключом
+CREATE TABLE user_keys (
+    user_id BIGINT PRIMARY KEY REFERENCES users(id) ON DELETE CASCADE,
+    wrapped_key BYTEA NOT NULL,
+    kek_alias VARCHAR(64) NOT NULL,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
@@ -0,0 +1,127 @@
+package com.example.cloudstorage;
+
+import com.example.cloudstorage.config.AdmissionControlConfig;
+import com.example.cloudstorage.config.AdmissionControlFilter;
+import com.example.cloudstorage.config.AdmissionProperties;
+import com.example.cloudstorage.service.AdmissionControlService;
+import com.example.cloudstorage.service.AdmissionControlService.Operation;
+import com.example.cloudstorage.service.StorageHealthService;
+import com.example.cloudstorage.service.StorageHealthService.WriteRejection;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.FilterChain;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.boot.autoconfigure.security.SecurityProperties;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class AdmissionControlFilterTest {
+    private static final int MEGABYTE = 1024 * 1024;
+
+    @Mock
+    private StorageHealthService storageHealth;
+
+    private AdmissionControlService admissionControl;
+    private AdmissionControlFilter filter;
+
+    @BeforeEach
+    void setUp() {
+        AdmissionProperties.Operation download = new AdmissionProperties.Operation();
+        download.setInitialLimit(10);
+        download.setMinLimit(1);
+        download.setMaxLimit(20);
+        download.setTargetLatencyMs(200);
+        download.setBackoffRatio(0.5);
+
+        AdmissionProperties properties = new AdmissionProperties();
+        properties.setOperations(Map.of("download", download));
+        admissionControl = new AdmissionControlService(properties, new SimpleMeterRegistry());
+        ReflectionTestUtils.invokeMethod(admissionControl, "start");
+        filter = new AdmissionControlFilter(admissionControl, storageHealth);
+    }
+
+    @Test
+    void testLargeDownloadIsJudgedByBytesWritten() throws Exception {
+        // 300 мс на 5 МБ ответа - около 60 мс на мегабайт, в пределах цели, хотя Content-Length у GET нет
+        filter.doFilter(new MockHttpServletRequest("GET", "/file"), new MockHttpServletResponse(),
+                respondSlowly(300, 5 * MEGABYTE));
+
+        assertEquals(10, admissionControl.getLimit(Operation.DOWNLOAD));
+        assertEquals(0, admissionControl.getInFlight(Operation.DOWNLOAD));
+    }
+
+    @Test
+    void testSlowSmallDownloadReducesLimit() throws Exception {
+        filter.doFilter(new MockHttpServletRequest("GET", "/file"), new MockHttpServletResponse(),
+                respondSlowly(300, 1024));
+
+        assertEquals(5, admissionControl.getLimit(Operation.DOWNLOAD));
+    }
+
+    @Test
+    void testUnclassifiedRequestBypassesAdmission() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(new MockHttpServletRequest("GET", "/list"), response, respondSlowly(300, 1024));
+
+        assertEquals(10, admissionControl.getLimit(Operation.DOWNLOAD));
+        assertEquals(1024, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    void testCopyIsCheckedAgainstStorageHealth() throws Exception {
+        // Размер тела копии - размер списка имен, поэтому объем записи не объявляется
+        when(storageHealth.checkWrite(-1)).thenReturn(WriteRejection.NO_SPACE);
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/file/copy/bulk");
+        request.setContent("[{\"filename\": \"a.bin\", \"name\": \"b.bin\"}]".getBytes());
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        FilterChain chain = mock(FilterChain.class);
+
+        filter.doFilter(request, response, chain);
+
+        assertEquals(507, response.getStatus());
+        verifyNoInteractions(chain);
+        assertEquals(0, admissionControl.getInFlight(Operation.COPY));
+    }
+
+    @Test
+    void testBufferedUploadWithoutContentLengthIsRefused() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        FilterChain chain = mock(FilterChain.class);
+
+        filter.doFilter(new MockHttpServletRequest("POST", "/file"), response, chain);
+
+        assertEquals(411, response.getStatus());
+        verifyNoInteractions(chain);
+        assertEquals(0, admissionControl.getInFlight(Operation.UPLOAD));
+        assertEquals(0, admissionControl.getBufferedBytes());
+    }
+
+    @Test
+    void testFilterRunsAfterAuthentication() {
+        // Запрос без токена отклоняется цепочкой Spring Security раньше, чем займет разрешение
+        int order = new AdmissionControlConfig().admissionControlFilter(admissionControl, storageHealth).getOrder();
+
+        assertTrue(order > SecurityProperties.DEFAULT_FILTER_ORDER);
+    }
+
+    private static FilterChain respondSlowly(long millis, int bytes) {
+        return (request, response) -> {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            response.getOutputStream().write(new byte[bytes]);
+        };
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.cloudstorage;
+
+import com.example.cloudstorage.config.AdmissionProperties;
+import com.example.cloudstorage.service.AdmissionControlService;
+import com.example.cloudstorage.service.AdmissionControlService.Decision;
+import com.example.cloudstorage.service.AdmissionControlService.Operation;
+import com.example.cloudstorage.service.AdmissionControlService.Rejection;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AdmissionControlServiceTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private AdmissionControlService admissionControl;
+
+    @BeforeEach
+    void setUp() {
+        AdmissionProperties.Operation download = new AdmissionProperties.Operation();
+        download.setInitialLimit(4);
+        download.setMinLimit(2);
+        download.setMaxLimit(8);
+        download.setTargetLatencyMs(1000);
+
+        AdmissionProperties properties = new AdmissionProperties();
+        properties.setMemoryBudgetBytes(1000);
+        properties.setMemoryFactor(2.0);
+        properties.setOperations(Map.of("download", download));
+
+        meterRegistry = new SimpleMeterRegistry();
+        admissionControl = new AdmissionControlService(properties, meterRegistry);
+        ReflectionTestUtils.invokeMethod(admissionControl, "start");
+    }
+
+    @Test
+    void testConcurrencyLimitShedsExcessRequests() {
+        List<Decision> admitted = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Decision decision = admissionControl.tryAdmit(Operation.DOWNLOAD, -1);
+            assertTrue(decision.admitted());
+            admitted.add(decision);
+        }
+
+        Decision rejected = admissionControl.tryAdmit(Operation.DOWNLOAD, -1);
+        assertFalse(rejected.admitted());
+        assertEquals(Rejection.CONCURRENCY, rejected.rejection());
+        assertEquals(1.0, meterRegistry.get("admission.rejected")
+                .tag("operation", "download").tag("reason", "concurrency").counter().count());
+
+        admitted.get(0).permit().release(0, false);
+        assertTrue(admissionControl.tryAdmit(Operation.DOWNLOAD, -1).admitted());
+    }
+
+    @Test
+    void testMemoryBudgetIsReservedBeforeBodyIsRead() {
+        // 300 байт тела при коэффициенте 2 - 600 байт бюджета из 1000
+        Decision first = admissionControl.tryAdmit(Operation.UPLOAD, 300);
+        assertTrue(first.admitted());
+        assertEquals(600, admissionControl.getBufferedBytes());
+
+        Decision second = admissionControl.tryAdmit(Operation.UPLOAD, 300);
+        assertEquals(Rejection.MEMORY, second.rejection());
+
+        Decision huge = admissionControl.tryAdmit(Operation.UPLOAD, 10_000);
+        assertEquals(Rejection.TOO_LARGE, huge.rejection());
+
+        first.permit().release(0, false);
+        first.permit().release(0, false);
+        assertEquals(0, admissionControl.getBufferedBytes());
+        assertTrue(admissionControl.tryAdmit(Operation.UPLOAD, 300).admitted());
+
+        // Без Content-Length объем тела неизвестен - такую загрузку в память не допускаем
+        Decision unknown = admissionControl.tryAdmit(Operation.UPLOAD, -1);
+        assertEquals(Rejection.LENGTH_REQUIRED, unknown.rejection());
+        assertEquals(600, admissionControl.getBufferedBytes());
+
+        // Потоковые загрузки бюджет памяти не расходуют
+        assertTrue(admissionControl.tryAdmit(Operation.STREAM_UPLOAD, 1_000_000).admitted());
+    }
+
+    @Test
+    void testLimitAdaptsToLatency() {
+        // Ошибки/медленные ответы - мультипликативное уменьшение, но не ниже minLimit
+        for (int i = 0; i < 10; i++) {
+            admissionControl.tryAdmit(Operation.DOWNLOAD, -1).permit().release(0, true);
+        }
+        assertEquals(2, admissionControl.getLimit(Operation.DOWNLOAD));
+
+        // Быстрые ответы при загруженном лимите - аддитивное увеличение, но не выше maxLimit
+        for (int i = 0; i < 10; i++) {
+            List<Decision> batch = new ArrayList<>();
+            for (int j = admissionControl.getLimit(Operation.DOWNLOAD); j > 0; j--) {
+                batch.add(admissionControl.tryAdmit(Operation.DOWNLOAD, -1));
+            }
+            batch.forEach(decision -> decision.permit().release(0, false));
+        }
+        assertEquals(8, admissionControl.getLimit(Operation.DOWNLOAD));
+        assertEquals(0, admissionControl.getInFlight(Operation.DOWNLOAD));
+    }
+}
@@ -0,0 +1,222 @@
+package com.example.cloudstorage;
+
+import com.example.cloudstorage.dto.ArchiveImportResponse;
+import com.example.cloudstorage.dto.FileResponse;
+import com.example.cloudstorage.entity.UserEntity;
+import com.example.cloudstorage.repository.FileBulkRepository;
+import com.example.cloudstorage.repository.FileBulkRepository.NewFile;
+import com.example.cloudstorage.repository.FileJobRepository;
+import com.example.cloudstorage.repository.FileRepository;
+import com.example.cloudstorage.repository.TrashRepository;
+import com.example.cloudstorage.repository.TrashRepository.TrashedFile;
+import com.example.cloudstorage.service.ArchiveImportService;
+import com.example.cloudstorage.service.FileStorageService;
+import com.example.cloudstorage.service.VolumeReplicationService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class ArchiveImportServiceTest {
+
+    @Mock
+    private FileStorageService fileStorageService;
+
+    @Mock
+    private FileRepository fileRepository;
+
+    @Mock
+    private FileBulkRepository fileBulkRepository;
+
+    @Mock
+    private FileJobRepository fileJobRepository;
+
+    @Mock
+    private TrashRepository trashRepository;
+
+    @Mock
+    private VolumeReplicationService volumeReplication;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    private ArchiveImportService importService;
+    private UserEntity user;
+    private Path userDir;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        userDir = Files.createDirectories(Files.createTempDirectory("import-test").resolve("alice"));
+        importService = new ArchiveImportService(fileStorageService, fileRepository, fileBulkRepository,
+                fileJobRepository, trashRepository, volumeReplication, transactionTemplate, eventPublisher);
+        ReflectionTestUtils.setField(importService, "writerThreads", 2);
+        ReflectionTestUtils.setField(importService, "bufferThreshold", 1024);
+        ReflectionTestUtils.setField(importService, "memoryBudget", 64 * 1024);
+        ReflectionTestUtils.setField(importService, "maxEntries", 100);
+        ReflectionTestUtils.setField(importService, "maxTotalSize", 1024L * 1024);
+        ReflectionTestUtils.setField(importService, "maxCompressionRatio", 100);
+        ReflectionTestUtils.setField(importService, "batchSize", 1);
+        ReflectionTestUtils.invokeMethod(importService, "start");
+
+        user = new UserEntity();
+        user.setId(1L);
+        user.setLogin("alice");
+        lenient().when(fileStorageService.getFilePath(eq(user), anyString()))
+                .thenAnswer(invocation -> userDir.resolve(invocation.<String>getArgument(1)));
+        lenient().doAnswer(invocation -> {
+            invocation.<Consumer<TransactionStatus>>getArgument(0).accept(null);
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any());
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.invokeMethod(importService, "stop");
+    }
+
+    @Test
+    void testAllBatchesAreInsertedInOneTransaction() throws Exception {
+        when(fileRepository.findNamesAndSizesByUserId(1L)).thenReturn(List.of(new FileResponse("taken.txt", 1L)));
+        when(fileBulkRepository.insertAll(eq(1L), anyList())).thenAnswer(invocation -> ids(invocation.getArgument(1)));
+
+        // Крупная запись пишется потоком, остальные - через пул писателей
+        ArchiveImportResponse response = importService.importArchive(user, zip(Map.of(
+                "a.txt", "alpha".getBytes(),
+                "dir/b.txt", "beta".getBytes(),
+                "big.bin", new byte[5000],
+                "taken.txt", "x".getBytes())), ArchiveImportService.FORMAT_ZIP);
+
+        assertEquals(3, response.getImported());
+        assertEquals(List.of("taken.txt: file already exists"), response.getSkipped());
+        assertEquals("alpha", Files.readString(userDir.resolve("a.txt")));
+        assertEquals("beta", Files.readString(userDir.resolve("b.txt")));
+        assertEquals(5000, Files.size(userDir.resolve("big.bin")));
+        assertEquals(List.of(), leftoverTemps());
+
+        // Пачки по одной строке, но фиксация одна
+        verify(transactionTemplate, times(1)).executeWithoutResult(any());
+        verify(fileBulkRepository, times(3)).insertAll(eq(1L), anyList());
+        verify(volumeReplication).replicate("alice", "a.txt");
+        verify(volumeReplication).replicate("alice", "b.txt");
+        verify(volumeReplication).replicate("alice", "big.bin");
+    }
+
+    @Test
+    void testFileUploadedDuringImportIsNotReplaced() throws Exception {
+        when(fileBulkRepository.insertAll(eq(1L), anyList())).thenAnswer(invocation -> ids(invocation.getArgument(1)));
+        // Параллельная загрузка уже записала файл, но строку еще не вставила
+        Files.writeString(userDir.resolve("small.txt"), "concurrent");
+        Files.writeString(userDir.resolve("big.bin"), "concurrent");
+
+        ArchiveImportResponse response = importService.importArchive(user, zip(Map.of(
+                "small.txt", "archived".getBytes(),
+                "big.bin", new byte[5000],
+                "new.txt", "new".getBytes())), ArchiveImportService.FORMAT_ZIP);
+
+        assertEquals(1, response.getImported());
+        assertEquals(2, response.getSkipped().size());
+        assertEquals("concurrent", Files.readString(userDir.resolve("small.txt")));
+        assertEquals("concurrent", Files.readString(userDir.resolve("big.bin")));
+        assertEquals("new", Files.readString(userDir.resolve("new.txt")));
+        assertEquals(List.of(), leftoverTemps());
+        verify(volumeReplication, never()).replicate("alice", "small.txt");
+    }
+
+    @Test
+    void testTrashedFileIsReplaced() throws Exception {
+        when(trashRepository.findTrash(1L)).thenReturn(List.of(new TrashedFile(5L, "old.txt", 3L, LocalDateTime.now())));
+        when(fileBulkRepository.insertAll(eq(1L), anyList())).thenAnswer(invocation -> ids(invocation.getArgument(1)));
+        Files.writeString(userDir.resolve("old.txt"), "old");
+
+        ArchiveImportResponse response = importService.importArchive(user,
+                zip(Map.of("old.txt", "archived".getBytes())), ArchiveImportService.FORMAT_ZIP);
+
+        assertEquals(1, response.getImported());
+        assertEquals("archived", Files.readString(userDir.resolve("old.txt")));
+        verify(trashRepository).discard(1L, List.of("old.txt"));
+    }
+
+    @Test
+    void testFailedInsertRemovesOnlyFilesOfThisImport() throws Exception {
+        when(fileBulkRepository.insertAll(eq(1L), anyList()))
+                .thenAnswer(invocation -> ids(invocation.getArgument(1)))
+                .thenThrow(new DuplicateKeyException("files_user_id_filename_key"));
+        Files.writeString(userDir.resolve("kept.txt"), "concurrent");
+
+        assertThrows(DuplicateKeyException.class, () -> importService.importArchive(user, zip(Map.of(
+                "a.txt", "alpha".getBytes(),
+                "b.txt", "beta".getBytes(),
+                "kept.txt", "archived".getBytes())), ArchiveImportService.FORMAT_ZIP));
+
+        // Транзакция одна: первая пачка откатилась вместе со второй, файлы обеих удаляются
+        assertFalse(Files.exists(userDir.resolve("a.txt")));
+        assertFalse(Files.exists(userDir.resolve("b.txt")));
+        assertEquals("concurrent", Files.readString(userDir.resolve("kept.txt")));
+        verifyNoInteractions(volumeReplication);
+    }
+
+    @Test
+    void testBufferThresholdAboveBudgetIsRejected() {
+        ArchiveImportService misconfigured = new ArchiveImportService(fileStorageService, fileRepository,
+                fileBulkRepository, fileJobRepository, trashRepository, volumeReplication, transactionTemplate,
+                eventPublisher);
+        ReflectionTestUtils.setField(misconfigured, "writerThreads", 1);
+        ReflectionTestUtils.setField(misconfigured, "bufferThreshold", 2048);
+        ReflectionTestUtils.setField(misconfigured, "memoryBudget", 1024);
+
+        assertThrows(IllegalStateException.class, () -> ReflectionTestUtils.invokeMethod(misconfigured, "start"));
+    }
+
+    private List<Path> leftoverTemps() throws IOException {
+        try (Stream<Path> files = Files.list(userDir)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(".part")).toList();
+        }
+    }
+
+    private static Map<String, Long> ids(List<NewFile> files) {
+        Map<String, Long> ids = new HashMap<>();
+        files.forEach(file -> ids.put(file.filename(), (long) file.filename().hashCode()));
+        return ids;
+    }
+
+    private static ByteArrayInputStream zip(Map<String, byte[]> entries) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(out)) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                zip.putNextEntry(new ZipEntry(entry.getKey()));
+                zip.write(entry.getValue());
+                zip.closeEntry();
+            }
+        }
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+}
@@ -0,0 +1,197 @@
+package com.example.cloudstorage;
+
+import com.example.cloudstorage.entity.FileEntity;
+import com.example.cloudstorage.entity.UserEntity;
+import com.example.cloudstorage.service.ArchiveService;
+import com.example.cloudstorage.service.FileEncryptionService;
+import com.example.cloudstorage.service.FileStorageService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class ArchiveServiceTest {
+    private static final int BUFFER_THRESHOLD = 1024;
+    private static final int MEMORY_BUDGET = 4096;
+
+    @Mock
+    private FileStorageService fileStorageService;
+
+    private ArchiveService archiveService;
+    private UserEntity user;
+    private Path dir;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        dir = Files.createTempDirectory("archive-test");
+        // Шифрование выключено: файлы читаются с диска как есть
+        FileEncryptionService fileEncryption = new FileEncryptionService(null, null);
+        archiveService = new ArchiveService(fileStorageService, fileEncryption);
+        ReflectionTestUtils.setField(archiveService, "readAheadThreads", 2);
+        ReflectionTestUtils.setField(archiveService, "readAheadWindow", 2);
+        ReflectionTestUtils.setField(archiveService, "bufferThreshold", BUFFER_THRESHOLD);
+        ReflectionTestUtils.setField(archiveService, "memoryBudget", MEMORY_BUDGET);
+        ReflectionTestUtils.invokeMethod(archiveService, "start");
+
+        user = new UserEntity();
+        user.setId(1L);
+        user.setLogin("alice");
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.invokeMethod(archiveService, "stop");
+    }
+
+    @Test
+    void testZipKeepsOrderAndStoresCompressedFormats() throws Exception {
+        List<FileEntity> files = List.of(
+                stored("notes.txt", "text/plain", "hello ".repeat(100).getBytes()),
+                stored("photo.jpg", "image/jpeg", randomBytes(500)),
+                // Больше порога буферизации: CRC считается заранее, содержимое идет с диска
+                stored("video.mp4", null, randomBytes(BUFFER_THRESHOLD * 3)),
+                stored("empty.log", "text/plain", new byte[0]));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        archiveService.writeZip(user, files, out);
+
+        // ZipInputStream сверяет CRC и размеры STORED-записей с содержимым
+        List<ZipEntry> entries = new ArrayList<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            ZipEntry entry;
+            int i = 0;
+            while ((entry = zip.getNextEntry()) != null) {
+                entries.add(entry);
+                assertArrayEquals(Files.readAllBytes(dir.resolve(files.get(i++).getFilename())), zip.readAllBytes());
+            }
+        }
+        assertEquals(List.of("notes.txt", "photo.jpg", "video.mp4", "empty.log"),
+                entries.stream().map(ZipEntry::getName).toList());
+        assertEquals(ZipEntry.DEFLATED, entries.get(0).getMethod());
+        assertEquals(ZipEntry.STORED, entries.get(1).getMethod());
+        assertEquals(ZipEntry.STORED, entries.get(2).getMethod());
+        assertEquals(crc(Files.readAllBytes(dir.resolve("video.mp4"))), entries.get(2).getCrc());
+        assertEquals(MEMORY_BUDGET, memory().availablePermits());
+    }
+
+    @Test
+    void testFilesOverBudgetAreStreamedFromDisk() throws Exception {
+        ReflectionTestUtils.invokeMethod(archiveService, "stop");
+        ReflectionTestUtils.setField(archiveService, "memoryBudget", 100);
+        ReflectionTestUtils.invokeMethod(archiveService, "start");
+        List<FileEntity> files = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            files.add(stored("part-" + i + ".bin", null, randomBytes(BUFFER_THRESHOLD / 2)));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        archiveService.writeZip(user, files, out);
+
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            for (FileEntity file : files) {
+                assertEquals(file.getFilename(), zip.getNextEntry().getName());
+                assertArrayEquals(Files.readAllBytes(dir.resolve(file.getFilename())), zip.readAllBytes());
+            }
+            assertNull(zip.getNextEntry());
+        }
+        assertEquals(100, memory().availablePermits());
+    }
+
+    @Test
+    void testPackedFileIsReadFromSegment() throws Exception {
+        byte[] content = "packed content".getBytes();
+        FileEntity file = file("small.txt", "text/plain");
+        file.setSegmentId(7L);
+        when(fileStorageService.getFilePath(user, "small.txt")).thenReturn(dir.resolve("small.txt"));
+        when(fileStorageService.readPacked(user, file)).thenReturn(content);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        archiveService.writeZip(user, List.of(file), out);
+
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            assertEquals("small.txt", zip.getNextEntry().getName());
+            assertArrayEquals(content, zip.readAllBytes());
+        }
+        assertEquals(MEMORY_BUDGET, memory().availablePermits());
+    }
+
+    @Test
+    void testAbortedDownloadReturnsReadAheadBuffers() throws Exception {
+        List<FileEntity> files = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            files.add(stored("doc-" + i + ".txt", "text/plain", randomBytes(BUFFER_THRESHOLD / 2)));
+        }
+        // Клиент обрывает соединение на первой записи в ответ
+        OutputStream broken = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+        };
+
+        assertThrows(IOException.class, () -> archiveService.writeZip(user, files, broken));
+
+        // Прочитанные вперед файлы возвращают буферы после завершения чтения
+        Semaphore memory = memory();
+        for (int i = 0; i < 100 && memory.availablePermits() < MEMORY_BUDGET; i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(MEMORY_BUDGET, memory.availablePermits());
+    }
+
+    private FileEntity stored(String filename, String contentType, byte[] content) throws IOException {
+        Path path = Files.write(dir.resolve(filename), content);
+        // После обрыва до части файлов чтение не доходит
+        lenient().when(fileStorageService.getFilePath(user, filename)).thenReturn(path);
+        return file(filename, contentType);
+    }
+
+    private static FileEntity file(String filename, String contentType) {
+        FileEntity file = new FileEntity();
+        file.setFilename(filename);
+        file.setContentType(contentType);
+        return file;
+    }
+
+    private Semaphore memory() {
+        return (Semaphore) ReflectionTestUtils.getField(archiveService, "memory");
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static long crc(byte[] content) {
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        return crc.getValue();
+    }
+}
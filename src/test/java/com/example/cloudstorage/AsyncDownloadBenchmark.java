@@ -0,0 +1,129 @@
+package com.example.cloudstorage;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.*;
+
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Нагрузочный сценарий: N одновременных "медленных" клиентов, которые отправляют запрос на скачивание
+ * и не читают ответ. Сравнивает число потоков и занятую кучу для блокирующего GET /file и GET /async/file.
+ * Запуск: ./gradlew benchmark -Dbenchmark.clients=5000 (нужен ulimit -n не меньше 2 * clients + запас).
+ */
+@Tag("benchmark")
+@Import(TestcontainersConfiguration.class)
+@SpringBootTest(
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {
+                "server.tomcat.max-connections=20000",
+                "server.tomcat.accept-count=20000",
+                "logging.level.com.example.cloudstorage=INFO"
+        }
+)
+public class AsyncDownloadBenchmark {
+    private static final int FILE_SIZE = 4 * 1024 * 1024;
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Test
+    void compareBlockingAndAsyncDownloads() throws Exception {
+        int clients = Integer.getInteger("benchmark.clients", 5000);
+        String token = registerAndLogin();
+        uploadFile(token, "benchmark.bin");
+
+        Sample blocking = measure("/cloud/file?filename=benchmark.bin", token, clients);
+        Sample async = measure("/cloud/async/file?filename=benchmark.bin", token, clients);
+
+        System.out.printf("%n%-12s %10s %14s %16s%n", "path", "clients", "threads (+)", "heap used (+MB)");
+        System.out.printf("%-12s %10d %14d %16d%n", "blocking", clients, blocking.threads(), blocking.heapMb());
+        System.out.printf("%-12s %10d %14d %16d%n", "async", clients, async.threads(), async.heapMb());
+
+        assertThat(async.threads()).isLessThan(blocking.threads());
+    }
+
+    private record Sample(int threads, long heapMb) {
+    }
+
+    private Sample measure(String path, String token, int clients) throws Exception {
+        System.gc();
+        Thread.sleep(1000);
+        int baseThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+        long baseHeap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+
+        List<Socket> sockets = new ArrayList<>(clients);
+        try {
+            byte[] request = ("GET " + path + " HTTP/1.1\r\n" +
+                    "Host: localhost\r\n" +
+                    "Authorization: Bearer " + token + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+            for (int i = 0; i < clients; i++) {
+                // Маленький приемный буфер и отсутствие чтения имитируют медленного клиента
+                Socket socket = new Socket();
+                socket.setReceiveBufferSize(4096);
+                socket.connect(new InetSocketAddress("localhost", port), 10_000);
+                OutputStream out = socket.getOutputStream();
+                out.write(request);
+                out.flush();
+                sockets.add(socket);
+            }
+
+            Thread.sleep(10_000);
+            System.gc();
+            Thread.sleep(1000);
+            int threads = ManagementFactory.getThreadMXBean().getThreadCount() - baseThreads;
+            long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() - baseHeap;
+            return new Sample(threads, heap / (1024 * 1024));
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+            Thread.sleep(5_000);
+        }
+    }
+
+    private String registerAndLogin() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        String credentials = """
+            {
+                "login": "benchmark@test.com",
+                "password": "Benchmark123!"
+            }
+            """;
+        restTemplate.postForEntity("/register", new HttpEntity<>(credentials, headers), String.class);
+        ResponseEntity<Map> login = restTemplate.postForEntity("/login", new HttpEntity<>(credentials, headers), Map.class);
+        assertThat(login.getStatusCode()).isEqualTo(HttpStatus.OK);
+        return (String) login.getBody().get("authToken");
+    }
+
+    private void uploadFile(String token, String filename) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.setBearerAuth(token);
+        Map<String, String> body = Map.of(
+                "content", Base64.getEncoder().encodeToString(new byte[FILE_SIZE]),
+                "contentType", "application/octet-stream");
+        ResponseEntity<String> response = restTemplate.postForEntity(
+                "/file?filename=" + filename, new HttpEntity<>(body, headers), String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+    }
+}
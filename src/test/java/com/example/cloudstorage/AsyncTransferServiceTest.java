@@ -0,0 +1,274 @@
+package com.example.cloudstorage;
+
+import com.example.cloudstorage.config.RateLimitProperties;
+import com.example.cloudstorage.entity.UserEntity;
+import com.example.cloudstorage.service.AsyncTransferService;
+import com.example.cloudstorage.service.FileEncryptionService;
+import com.example.cloudstorage.service.FileStorageService;
+import com.example.cloudstorage.service.UserRateLimiter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Контейнер заменен поддельными потоками: тест сам вызывает onDataAvailable/onWritePossible,
+ * как это делал бы контейнер при готовности сокета.
+ */
+@ExtendWith(MockitoExtension.class)
+public class AsyncTransferServiceTest {
+    private static final int BUFFER_SIZE = 1024;
+
+    @Mock
+    private FileStorageService fileStorageService;
+
+    @Mock
+    private HttpServletRequest request;
+
+    @Mock
+    private HttpServletResponse response;
+
+    @Mock
+    private AsyncContext context;
+
+    private FileEncryptionService encryption;
+    private AsyncTransferService transferService;
+    private UserEntity user;
+    private Path userDir;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        userDir = Files.createDirectories(Files.createTempDirectory("async-test").resolve("alice"));
+        RateLimitProperties properties = new RateLimitProperties();
+        properties.setEnabled(false);
+        UserRateLimiter rateLimiter = new UserRateLimiter(properties, new SimpleMeterRegistry());
+        ReflectionTestUtils.invokeMethod(rateLimiter, "start");
+
+        encryption = new FileEncryptionService(null, null);
+        transferService = new AsyncTransferService(fileStorageService, rateLimiter, encryption);
+        ReflectionTestUtils.setField(transferService, "bufferSize", BUFFER_SIZE);
+        ReflectionTestUtils.setField(transferService, "timeoutMs", 10_000L);
+        ReflectionTestUtils.setField(transferService, "maxConnections", 10);
+        ReflectionTestUtils.setField(transferService, "maxUploadSize", 1024L * 1024);
+        ReflectionTestUtils.setField(transferService, "decryptThreads", 2);
+        ReflectionTestUtils.invokeMethod(transferService, "start");
+
+        user = new UserEntity();
+        user.setId(1L);
+        user.setLogin("alice");
+        lenient().when(request.startAsync()).thenReturn(context);
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.invokeMethod(transferService, "stop");
+    }
+
+    @Test
+    void testUploadIsWrittenInChunksAndRegistered() throws Exception {
+        byte[] content = randomBytes(BUFFER_SIZE * 10 + 123);
+        when(fileStorageService.getFilePath(user, "big.bin")).thenReturn(userDir.resolve("big.bin"));
+        Body body = new Body(content);
+        when(request.getInputStream()).thenReturn(body);
+
+        assertTrue(transferService.startUpload(user, "big.bin", "application/octet-stream", request, response));
+        body.deliver();
+
+        verify(context, timeout(5000)).complete();
+        assertArrayEquals(content, Files.readAllBytes(userDir.resolve("big.bin")));
+        verify(fileStorageService).registerStoredFile(user, "big.bin", content.length, "application/octet-stream");
+        verify(response).setStatus(200);
+        assertEquals(List.of(), partFiles());
+    }
+
+    @Test
+    void testConcurrentUploadsOfSameNameUseSeparateTempFiles() throws Exception {
+        when(fileStorageService.getFilePath(user, "same.txt")).thenReturn(userDir.resolve("same.txt"));
+        Body first = new Body("first upload".getBytes());
+        Body second = new Body("second".getBytes());
+        when(request.getInputStream()).thenReturn(first, first, second, second);
+
+        transferService.startUpload(user, "same.txt", "text/plain", request, response);
+        transferService.startUpload(user, "same.txt", "text/plain", request, response);
+        assertEquals(2, partFiles().size());
+
+        // Вторая загрузка обрывается: ее остаток удаляется, не задевая первую
+        second.listener.onError(new IOException("Connection reset"));
+        assertEquals(1, partFiles().size());
+        first.deliver();
+
+        verify(context, timeout(5000).times(2)).complete();
+        assertEquals("first upload", Files.readString(userDir.resolve("same.txt")));
+        verify(fileStorageService, times(1)).registerStoredFile(eq(user), eq("same.txt"), anyLong(), anyString());
+        assertEquals(List.of(), partFiles());
+    }
+
+    @Test
+    void testUploadOverLimitIsRejectedAndRemoved() throws Exception {
+        ReflectionTestUtils.setField(transferService, "maxUploadSize", (long) BUFFER_SIZE);
+        when(fileStorageService.getFilePath(user, "huge.bin")).thenReturn(userDir.resolve("huge.bin"));
+        Body body = new Body(randomBytes(BUFFER_SIZE * 3));
+        when(request.getInputStream()).thenReturn(body);
+        when(response.getWriter()).thenReturn(new PrintWriter(new ByteArrayOutputStream()));
+
+        transferService.startUpload(user, "huge.bin", "application/octet-stream", request, response);
+        body.listener.onDataAvailable();
+
+        verify(context, timeout(5000)).complete();
+        verify(response).setStatus(413);
+        assertFalse(Files.exists(userDir.resolve("huge.bin")));
+        assertEquals(List.of(), partFiles());
+        verify(fileStorageService, never()).registerStoredFile(any(), any(), anyLong(), any());
+    }
+
+    @Test
+    void testDownloadStreamsWholeFile() throws Exception {
+        byte[] content = randomBytes(BUFFER_SIZE * 7 + 5);
+        Path path = Files.write(userDir.resolve("video.bin"), content);
+        when(fileStorageService.requireStoredPath(user, "video.bin")).thenReturn(path);
+        Sink sink = new Sink();
+        when(response.getOutputStream()).thenReturn(sink);
+
+        assertTrue(transferService.startDownload(user, "video.bin", request, response));
+        sink.listener.onWritePossible();
+
+        verify(context, timeout(5000)).complete();
+        assertArrayEquals(content, sink.bytes.toByteArray());
+        verify(response).setContentLengthLong(content.length);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testEncryptedDownloadIsDecrypted() throws Exception {
+        // Шифрование включено, ключ пользователя уже развернут: хранилище ключей и БД не нужны
+        ReflectionTestUtils.setField(encryption, "enabled", true);
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(256);
+        ((ConcurrentHashMap<String, SecretKey>) ReflectionTestUtils.getField(encryption, "dataKeys"))
+                .put("alice", generator.generateKey());
+        // Несколько сегментов шифрования и много буферов передачи
+        byte[] content = randomBytes(200_000);
+        Path path = userDir.resolve("secret.bin");
+        encryption.write("alice", path, content);
+        when(fileStorageService.requireStoredPath(user, "secret.bin")).thenReturn(path);
+        Sink sink = new Sink();
+        when(response.getOutputStream()).thenReturn(sink);
+
+        assertTrue(transferService.startDownload(user, "secret.bin", request, response));
+        sink.listener.onWritePossible();
+
+        verify(context, timeout(5000)).complete();
+        assertArrayEquals(content, sink.bytes.toByteArray());
+        verify(response).setContentLengthLong(content.length);
+    }
+
+    private List<Path> partFiles() throws Exception {
+        try (Stream<Path> files = Files.list(userDir)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(".part")).toList();
+        }
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    // Тело запроса, которое целиком уже пришло: готово к чтению, пока не кончится
+    private static final class Body extends ServletInputStream {
+        private final ByteArrayInputStream data;
+        private ReadListener listener;
+
+        private Body(byte[] content) {
+            data = new ByteArrayInputStream(content);
+        }
+
+        // Как контейнер: данные доступны, затем, когда чтение дошло до конца, - onAllDataRead
+        private void deliver() throws Exception {
+            listener.onDataAvailable();
+            for (int i = 0; i < 500 && !isFinished(); i++) {
+                Thread.sleep(10);
+            }
+            assertTrue(isFinished());
+            listener.onAllDataRead();
+        }
+
+        @Override
+        public boolean isFinished() {
+            return data.available() == 0;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setReadListener(ReadListener readListener) {
+            listener = readListener;
+        }
+
+        @Override
+        public int read() {
+            return data.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            return data.read(b, off, len);
+        }
+    }
+
+    private static final class Sink extends ServletOutputStream {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private WriteListener listener;
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            listener = writeListener;
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            bytes.write(b);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            bytes.write(b, off, len);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.cloudstorage;
+
+import com.example.cloudstorage.event.FileChangeEvent;
+import com.example.cloudstorage.event.PostgresNotificationBus;
+import com.example.cloudstorage.service.ChangeFeedService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class ChangeFeedServiceTest {
+
+    @Mock
+    private PostgresNotificationBus notificationBus;
+
+    private ChangeFeedService changeFeed;
+
+    @BeforeEach
+    void setUp() {
+        changeFeed = new ChangeFeedService(notificationBus, new ObjectMapper(), new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(changeFeed, "bufferSize", 4);
+        ReflectionTestUtils.setField(changeFeed, "timeoutMs", 60_000L);
+        ReflectionTestUtils.setField(changeFeed, "maxSubscribers", 100);
+        ReflectionTestUtils.invokeMethod(changeFeed, "start");
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.invokeMethod(changeFeed, "stop");
+    }
+
+    @Test
+    void testChangeIsDeliveredToOwnerOnlyAndPublished() throws Exception {
+        RecordingEmitter alice = subscribe(1L, new RecordingEmitter());
+        RecordingEmitter bob = subscribe(2L, new RecordingEmitter());
+
+        changeFeed.onFileChange(FileChangeEvent.created(1L, "alice", 5L, "a.txt", 3L));
+
+        alice.await(1);
+        assertTrue(alice.events.get(0).contains("filename=a.txt"));
+        assertTrue(bob.events.isEmpty());
+        verify(notificationBus).publish(eq("file_changes"), contains("\"filename\":\"a.txt\""));
+    }
+
+    @Test
+    void testChangeFromOtherNodeIsDelivered() throws Exception {
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Consumer<String>> handler = ArgumentCaptor.forClass(Consumer.class);
+        verify(notificationBus).subscribe(eq("file_changes"), handler.capture());
+        RecordingEmitter alice = subscribe(1L, new RecordingEmitter());
+
+        handler.getValue().accept("{\"userId\":1,\"type\":\"renamed\",\"filename\":\"b.txt\",\"oldFilename\":\"a.txt\",\"size\":3}");
+
+        alice.await(1);
+        assertTrue(alice.events.get(0).contains("oldFilename=a.txt"));
+    }
+
+    @Test
+    void testSlowSubscriberIsDisconnected() {
+        RecordingEmitter slow = subscribe(1L, new RecordingEmitter(new CountDownLatch(1)));
+        assertEquals(1, changeFeed.getSubscriberCount());
+
+        // Первое событие застряло в отправке, следующие заполняют буфер из четырех
+        for (int i = 0; i < 5; i++) {
+            changeFeed.onFileChange(FileChangeEvent.created(1L, "alice", (long) i, "f" + i + ".txt", 1L));
+        }
+
+        assertEquals(0, changeFeed.getSubscriberCount());
+        assertTrue(slow.completed);
+        slow.release.countDown();
+    }
+
+    private RecordingEmitter subscribe(Long userId, RecordingEmitter emitter) {
+        ReflectionTestUtils.invokeMethod(changeFeed, "register", userId, emitter);
+        return emitter;
+    }
+
+    private static final class RecordingEmitter extends SseEmitter {
+        private final List<String> events = new CopyOnWriteArrayList<>();
+        private final CountDownLatch release;
+        private volatile boolean completed;
+
+        RecordingEmitter() {
+            this(new CountDownLatch(0));
+        }
+
+        RecordingEmitter(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+            StringBuilder event = new StringBuilder();
+            builder.build().forEach(part -> event.append(part.getData()));
+            events.add(event.toString());
+        }
+
+        @Override
+        public void complete() {
+            completed = true;
+        }
+
+        void await(int count) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (events.size() < count) {
+                assertTrue(System.nanoTime() < deadline, "Events not delivered in time");
+                Thread.sleep(5);
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.cloudstorage;
+
+import com.example.cloudstorage.entity.UserEntity;
+import com.example.cloudstorage.event.FileChangeEvent;
+import com.example.cloudstorage.repository.ChangeJournalRepository;
+import com.example.cloudstorage.repository.ChangeJournalRepository.Cursor;
+import com.example.cloudstorage.repository.ChangeJournalRepository.JournalChange;
+import com.example.cloudstorage.repository.ChangeJournalRepository.NewChange;
+import com.example.cloudstorage.service.ChangeJournalService;
+import com.example.cloudstorage.service.ChangeJournalService.ChangePage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class ChangeJournalServiceTest {
+
+    @Mock
+    private ChangeJournalRepository journalRepository;
+
+    private ChangeJournalService journalService;
+    private UserEntity user;
+
+    @BeforeEach
+    void setUp() {
+        journalService = new ChangeJournalService(journalRepository);
+        ReflectionTestUtils.setField(journalService, "maxPageSize", 100);
+
+        user = new UserEntity();
+        user.setId(1L);
+        user.setLogin("alice");
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        TransactionSynchronizationManager.setActualTransactionActive(false);
+    }
+
+    @Test
+    void testChangesOfOneTransactionAreWrittenInOneBatchBeforeCommit() {
+        TransactionSynchronizationManager.initSynchronization();
+        TransactionSynchronizationManager.setActualTransactionActive(true);
+
+        journalService.onFileChange(FileChangeEvent.created(1L, "alice", 10L, "a.txt", 3L));
+        journalService.onFileChange(FileChangeEvent.renamed(1L, "alice", 10L, "a.txt", "b.txt", 3L));
+        verifyNoInteractions(journalRepository);
+
+        TransactionSynchronizationUtils.triggerBeforeCommit(false);
+        TransactionSynchronizationUtils.triggerAfterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+
+        verify(journalRepository).append(1L, List.of(
+                new NewChange("created", "a.txt", null, 3L),
+                new NewChange("renamed", "b.txt", "a.txt", 3L)));
+    }
+
+    @Test
+    void testChangeOutsideTransactionIsWrittenImmediately() {
+        journalService.onFileChange(FileChangeEvent.deleted(1L, "alice", 10L, "a.txt"));
+
+        verify(journalRepository).append(1L, List.of(new NewChange("deleted", "a.txt", null, null)));
+    }
+
+    @Test
+    void testChangesArePaginatedByCursor() {
+        when(journalRepository.findCursor(1L)).thenReturn(new Cursor(12, 0));
+        when(journalRepository.findSince(1L, 5L, 3)).thenReturn(List.of(change(6), change(7), change(8)));
+
+        ChangePage page = journalService.getChangesSince(user, 5, 2);
+
+        assertEquals(2, page.changes().size());
+        assertEquals(7, page.cursor());
+        assertTrue(page.hasMore());
+        assertFalse(page.resync());
+    }
+
+    @Test
+    void testCursorBehindCompactedJournalRequiresResync() {
+        when(journalRepository.findCursor(1L)).thenReturn(new Cursor(120, 100));
+
+        ChangePage page = journalService.getChangesSince(user, 40, 50);
+
+        assertTrue(page.resync());
+        assertEquals(120, page.cursor());
+        verify(journalRepository, never()).findSince(anyLong(), anyLong(), anyInt());
+    }
+
+    private static JournalChange change(long seq) {
+        return new JournalChange(seq, "created", "f" + seq + ".txt", null, 1L, LocalDateTime.now());
+    }
+}
@@ -3,7 +3,22 @@ package com.example.cloudstorage;
 import com.example.cloudstorage.controller.CloudStorageController;
 import com.example.cloudstorage.dto.AuthRequest;
 import com.example.cloudstorage.entity.UserEntity;
+import com.example.cloudstorage.repository.FileBulkRepository.FileStat;
+import com.example.cloudstorage.service.ArchiveImportService;
+import com.example.cloudstorage.service.ArchiveService;
+import com.example.cloudstorage.service.AsyncTransferService;
+import com.example.cloudstorage.service.ChangeFeedService;
+import com.example.cloudstorage.service.ChangeJournalService;
+import com.example.cloudstorage.service.DeltaSyncService;
+import com.example.cloudstorage.service.FileAccessService;
+import com.example.cloudstorage.service.FileEncryptionService;
 import com.example.cloudstorage.service.FileStorageService;
+import com.example.cloudstorage.service.FileVersionService;
+import com.example.cloudstorage.service.FilenameIndexService;
+import com.example.cloudstorage.service.FolderService;
+import com.example.cloudstorage.service.ListingCacheService;
+import com.example.cloudstorage.service.SignedLinkService;
+import com.example.cloudstorage.service.StorageScrubService;
 import com.example.cloudstorage.service.TokenService;
 import com.example.cloudstorage.service.UserService;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -11,14 +26,20 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.context.annotation.Import;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.servlet.MockMvc;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
 import java.util.Optional;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -43,6 +64,48 @@ public class CloudStorageControllerTest {
     @MockitoBean
     private FileStorageService fileStorageService;
 
+    @MockitoBean
+    private FilenameIndexService filenameIndexService;
+
+    @MockitoBean
+    private ArchiveService archiveService;
+
+    @MockitoBean
+    private ArchiveImportService archiveImportService;
+
+    @MockitoBean
+    private AsyncTransferService asyncTransferService;
+
+    @MockitoBean
+    private ListingCacheService listingCacheService;
+
+    @MockitoBean
+    private FolderService folderService;
+
+    @MockitoBean
+    private FileVersionService fileVersionService;
+
+    @MockitoBean
+    private DeltaSyncService deltaSyncService;
+
+    @MockitoBean
+    private StorageScrubService storageScrubService;
+
+    @MockitoBean
+    private SignedLinkService signedLinkService;
+
+    @MockitoBean
+    private ChangeFeedService changeFeedService;
+
+    @MockitoBean
+    private ChangeJournalService changeJournalService;
+
+    @MockitoBean
+    private FileEncryptionService fileEncryption;
+
+    @MockitoBean
+    private FileAccessService fileAccessService;
+
     @Test
     void testLoginSuccess() throws Exception {
         // Arrange
@@ -136,6 +199,82 @@ public class CloudStorageControllerTest {
                 .andExpect(status().isUnauthorized());
     }
 
+    @Test
+    void testListFilesReturnsCachedJson() throws Exception {
+        // Arrange
+        UserEntity user = new UserEntity();
+        user.setId(1L);
+        user.setLogin("testuser@example.com");
+
+        when(tokenService.validateToken("valid-token")).thenReturn(true);
+        when(tokenService.getUsernameFromToken("valid-token")).thenReturn("testuser@example.com");
+        when(userService.findByLogin("testuser@example.com")).thenReturn(Optional.of(user));
+        when(listingCacheService.getListing(user, 0))
+                .thenReturn("[{\"filename\":\"a.txt\",\"size\":3}]".getBytes());
+
+        // Act & Assert
+        mockMvc.perform(get("/list")
+                        .header("Authorization", "Bearer valid-token"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$[0].filename").value("a.txt"))
+                .andExpect(jsonPath("$[0].size").value(3));
+    }
+
+    @Test
+    void testHeadFileReturnsMetadataWithoutReadingContent() throws Exception {
+        UserEntity user = new UserEntity();
+        user.setId(1L);
+        user.setLogin("testuser@example.com");
+        LocalDateTime createdAt = LocalDateTime.of(2024, 5, 1, 12, 0);
+        FileStat stat = new FileStat(7L, "a.txt", 3L, "text/plain", createdAt, createdAt.plusHours(1));
+
+        when(tokenService.validateToken("valid-token")).thenReturn(true);
+        when(tokenService.getUsernameFromToken("valid-token")).thenReturn("testuser@example.com");
+        when(userService.findByLogin("testuser@example.com")).thenReturn(Optional.of(user));
+        when(fileStorageService.statFile(user, "a.txt")).thenReturn(Optional.of(stat));
+
+        mockMvc.perform(head("/file")
+                        .param("filename", "a.txt")
+                        .header("Authorization", "Bearer valid-token"))
+                .andExpect(status().isOk())
+                .andExpect(header().longValue("Content-Length", 3L))
+                .andExpect(header().string("Content-Type", "text/plain"))
+                .andExpect(header().string("ETag", stat.etag()))
+                .andExpect(header().exists("Last-Modified"));
+
+        verify(fileStorageService, never()).getFile(any(), anyString());
+    }
+
+    @Test
+    void testSignedLinkServesRangeWithoutToken() throws Exception {
+        Path file = Files.createTempFile("signed-link", ".bin");
+        Files.writeString(file, "0123456789");
+        when(signedLinkService.resolve("alice", "release.bin", 1L, 2L, "sig")).thenReturn(Optional.of(file));
+        when(fileEncryption.resource("alice", file)).thenReturn(new FileSystemResource(file));
+
+        mockMvc.perform(get("/public/file")
+                        .param("u", "alice").param("f", "release.bin")
+                        .param("t", "1").param("e", "2").param("s", "sig")
+                        .header("Range", "bytes=2-5"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string("Content-Range", "bytes 2-5/10"))
+                .andExpect(content().string("2345"));
+
+        verifyNoInteractions(tokenService, userService);
+    }
+
+    @Test
+    void testSignedLinkRejectedWhenNotVerified() throws Exception {
+        when(signedLinkService.resolve(anyString(), anyString(), anyLong(), anyLong(), anyString()))
+                .thenReturn(Optional.empty());
+
+        mockMvc.perform(get("/public/file")
+                        .param("u", "alice").param("f", "release.bin")
+                        .param("t", "1").param("e", "2").param("s", "forged"))
+                .andExpect(status().isForbidden());
+    }
+
     @Test
     void testLogoutSuccess() throws Exception {
         // Arrange
@@ -0,0 +1,72 @@
+package com.example.cloudstorage;
+
+import com.example.cloudstorage.service.ContentChunker;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ContentChunkerTest {
+
+    private final ContentChunker chunker = new ContentChunker(2048, 8192, 32768);
+
+    @Test
+    void testChunksReassembleToOriginal() throws Exception {
+        byte[] data = randomBytes(1_000_000, 1);
+
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        List<Integer> sizes = new ArrayList<>();
+        chunker.chunk(new ByteArrayInputStream(data), (buffer, length) -> {
+            joined.write(buffer, 0, length);
+            sizes.add(length);
+        });
+
+        assertArrayEquals(data, joined.toByteArray());
+        assertTrue(sizes.subList(0, sizes.size() - 1).stream().allMatch(size -> size >= 2048 && size <= 32768));
+    }
+
+    @Test
+    void testInsertionChangesOnlyNearbyChunks() throws Exception {
+        byte[] original = randomBytes(1_000_000, 2);
+        // Вставка 100 байт в середину сдвигает все последующие байты
+        byte[] edited = new byte[original.length + 100];
+        System.arraycopy(original, 0, edited, 0, 500_000);
+        System.arraycopy(randomBytes(100, 3), 0, edited, 500_000, 100);
+        System.arraycopy(original, 500_000, edited, 500_100, original.length - 500_000);
+
+        Set<String> before = chunks(original);
+        List<String> after = new ArrayList<>();
+        chunker.chunk(new ByteArrayInputStream(edited), (buffer, length) ->
+                after.add(Arrays.toString(Arrays.copyOf(buffer, length))));
+
+        long changed = after.stream().filter(chunk -> !before.contains(chunk)).count();
+        assertTrue(changed <= 3, "changed chunks: " + changed + " of " + after.size());
+    }
+
+    @Test
+    void testInvalidSizesAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new ContentChunker(4096, 6000, 32768));
+        assertThrows(IllegalArgumentException.class, () -> new ContentChunker(16384, 8192, 32768));
+    }
+
+    private Set<String> chunks(byte[] data) throws Exception {
+        Set<String> chunks = new HashSet<>();
+        chunker.chunk(new ByteArrayInputStream(data), (buffer, length) ->
+                chunks.add(Arrays.toString(Arrays.copyOf(buffer, length))));
+        return chunks;
+    }
+
+    private byte[] randomBytes(int size, long seed) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+}
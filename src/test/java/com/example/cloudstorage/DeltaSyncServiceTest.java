@@ -0,0 +1,232 @@
+package com.example.cloudstorage;
+
+import com.example.cloudstorage.dto.DeltaUploadResponse;
+import com.example.cloudstorage.entity.FileEntity;
+import com.example.cloudstorage.entity.UserEntity;
+import com.example.cloudstorage.repository.FileRepository;
+import com.example.cloudstorage.repository.FileVersionRepository.Version;
+import com.example.cloudstorage.service.DeltaSyncService;
+import com.example.cloudstorage.service.FileCloneService;
+import com.example.cloudstorage.service.FileEncryptionService;
+import com.example.cloudstorage.service.FileLockService;
+import com.example.cloudstorage.service.FileStorageService;
+import com.example.cloudstorage.service.FileVersionService;
+import com.example.cloudstorage.service.RollingChecksum;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class DeltaSyncServiceTest {
+    private static final int BLOCK_SIZE = 1024;
+
+    @Mock
+    private FileStorageService fileStorageService;
+
+    @Mock
+    private FileVersionService fileVersionService;
+
+    @Mock
+    private FileRepository fileRepository;
+
+    @Mock
+    private FileEncryptionService fileEncryption;
+
+    @Mock
+    private FileCloneService fileCloneService;
+
+    @Mock
+    private FileLockService fileLocks;
+
+    @InjectMocks
+    private DeltaSyncService deltaSyncService;
+
+    private UserEntity user;
+    private Path path;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        ReflectionTestUtils.setField(deltaSyncService, "maxFileSize", 10L * 1024 * 1024);
+
+        user = new UserEntity();
+        user.setId(1L);
+        user.setLogin("testuser");
+
+        FileEntity file = new FileEntity();
+        file.setId(5L);
+        file.setFilename("data.bin");
+        file.setContentType("application/octet-stream");
+
+        path = Files.createTempDirectory("delta-sync-test").resolve("data.bin");
+        when(fileRepository.findByUserAndFilename(user, "data.bin")).thenReturn(Optional.of(file));
+        when(fileStorageService.getFilePath(user, "data.bin")).thenReturn(path);
+    }
+
+    @Test
+    void testEditInMiddleIsAppliedInPlace() throws Exception {
+        byte[] original = randomBytes(256 * 1024, 1);
+        Files.write(path, original);
+        byte[] edited = original.clone();
+        System.arraycopy(randomBytes(100, 2), 0, edited, 100_000, 100);
+
+        DeltaUploadResponse response = upload(delta(signature(), edited));
+
+        assertArrayEquals(edited, Files.readAllBytes(path));
+        assertTrue(response.isInPlace());
+        // Переписан только блок с правкой (правка может задеть два соседних блока)
+        assertTrue(response.getWrittenBytes() <= 2 * BLOCK_SIZE, "written " + response.getWrittenBytes());
+        assertTrue(response.getLiteralBytes() <= 2 * BLOCK_SIZE);
+    }
+
+    @Test
+    void testInsertionAtStartIsRebuiltIntoNewFile() throws Exception {
+        byte[] original = randomBytes(64 * 1024, 3);
+        Files.write(path, original);
+        byte[] shifted = new byte[original.length + 10];
+        System.arraycopy(original, 0, shifted, 10, original.length);
+
+        DeltaUploadResponse response = upload(delta(signature(), shifted));
+
+        assertArrayEquals(shifted, Files.readAllBytes(path));
+        assertFalse(response.isInPlace());
+        assertEquals(10, response.getLiteralBytes());
+    }
+
+    @Test
+    void testChecksumMismatchRestoresPreviousVersion() throws Exception {
+        byte[] original = randomBytes(32 * 1024, 4);
+        Files.write(path, original);
+        byte[] edited = original.clone();
+        edited[0] ^= 1;
+
+        byte[] delta = delta(signature(), edited);
+        delta[delta.length - 1] ^= 1;
+
+        assertThrows(IllegalArgumentException.class, () -> upload(delta));
+        verify(fileVersionService).restore(eq("testuser"), any(Version.class), eq(path));
+        verify(fileStorageService, never()).updateStoredFile(any(), any(), anyLong(), any());
+    }
+
+    private DeltaUploadResponse upload(byte[] delta) throws Exception {
+        when(fileVersionService.snapshot(any(), any(), eq(path)))
+                .thenReturn(new Version(1L, 1, Files.size(path), null, LocalDateTime.now()));
+        return deltaSyncService.applyDelta(user, "data.bin", null, new ByteArrayInputStream(delta));
+    }
+
+    private byte[] signature() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        deltaSyncService.writeSignature(deltaSyncService.prepareSignature(user, "data.bin", BLOCK_SIZE), out);
+        return out.toByteArray();
+    }
+
+    // Клиентская сторона протокола: поиск блоков сигнатуры скользящим окном по новому содержимому
+    private byte[] delta(byte[] signature, byte[] data) throws Exception {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(signature));
+        assertEquals(DeltaSyncService.SIGNATURE_MAGIC, in.readInt());
+        assertEquals(DeltaSyncService.PROTOCOL_VERSION, in.readUnsignedByte());
+        int blockSize = in.readInt();
+        long baseSize = in.readLong();
+        long modified = in.readLong();
+        int blocks = in.readInt();
+
+        Map<Integer, List<Integer>> byWeak = new HashMap<>();
+        List<byte[]> strong = new ArrayList<>();
+        for (int i = 0; i < blocks; i++) {
+            int weak = in.readInt();
+            strong.add(in.readNBytes(DeltaSyncService.STRONG_HASH_LENGTH));
+            if ((long) (i + 1) * blockSize <= baseSize) {
+                byWeak.computeIfAbsent(weak, key -> new ArrayList<>()).add(i);
+            }
+        }
+
+        List<long[]> copies = new ArrayList<>();
+        ByteArrayOutputStream literals = new ByteArrayOutputStream();
+        RollingChecksum rolling = null;
+        int i = 0;
+        while (i < data.length) {
+            if (i + blockSize <= data.length) {
+                if (rolling == null) {
+                    rolling = new RollingChecksum(data, i, blockSize);
+                }
+                Integer block = findBlock(byWeak.get(rolling.value()), strong, data, i, blockSize);
+                if (block != null) {
+                    long[] last = copies.isEmpty() ? null : copies.get(copies.size() - 1);
+                    if (last != null && last[1] + last[2] == block && last[0] + last[2] * blockSize == i) {
+                        last[2]++;
+                    } else {
+                        copies.add(new long[]{i, block, 1});
+                    }
+                    i += blockSize;
+                    rolling = null;
+                    continue;
+                }
+            }
+            literals.write(data[i]);
+            if (rolling != null && i + blockSize < data.length) {
+                rolling.roll(data[i], data[i + blockSize]);
+            } else {
+                rolling = null;
+            }
+            i++;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(DeltaSyncService.DELTA_MAGIC);
+        out.writeByte(DeltaSyncService.PROTOCOL_VERSION);
+        out.writeInt(blockSize);
+        out.writeLong(baseSize);
+        out.writeLong(modified);
+        out.writeLong(data.length);
+        out.writeInt(copies.size());
+        for (long[] copy : copies) {
+            out.writeLong(copy[0]);
+            out.writeInt((int) copy[1]);
+            out.writeInt((int) copy[2]);
+        }
+        out.write(literals.toByteArray());
+        out.write(MessageDigest.getInstance("SHA-256").digest(data));
+        return bytes.toByteArray();
+    }
+
+    private Integer findBlock(List<Integer> candidates, List<byte[]> strong, byte[] data, int offset, int length)
+            throws Exception {
+        if (candidates == null) {
+            return null;
+        }
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(data, offset, length);
+        byte[] hash = Arrays.copyOf(digest.digest(), DeltaSyncService.STRONG_HASH_LENGTH);
+        return candidates.stream().filter(block -> Arrays.equals(hash, strong.get(block))).findFirst().orElse(null);
+    }
+
+    private byte[] randomBytes(int size, long seed) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.cloudstorage;
+
+import com.example.cloudstorage.service.SegmentedAead;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * JMH: пропускная способность записи и чтения файла в открытом виде и с шифрованием по сегментам,
+ * плюс Range-чтение 1 МБ из середины зашифрованного файла. Прогоняется дважды: с интринсиками AES/GHASH
+ * (AES-NI, PCLMULQDQ) и с выключенными, чтобы видеть, сколько дает аппаратное ускорение.
+ * Запуск: ./gradlew benchmark --tests '*EncryptionBenchmark'
+ */
+@Tag("benchmark")
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class EncryptionBenchmark {
+    private static final int RANGE_SIZE = 1024 * 1024;
+    private static final String[] NO_INTRINSICS = {
+            "-XX:+UnlockDiagnosticVMOptions",
+            "-XX:-UseAESIntrinsics",
+            "-XX:-UseAESCTRIntrinsics",
+            "-XX:-UseGHASHIntrinsics"
+    };
+
+    @Param({"16777216"})
+    public int size;
+
+    private byte[] content;
+    private SecretKey key;
+    private Path dir;
+    private Path plainFile;
+    private Path encryptedFile;
+    private Path target;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        content = new byte[size];
+        new Random(42).nextBytes(content);
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(256);
+        key = generator.generateKey();
+
+        dir = Files.createTempDirectory("encryption-benchmark");
+        plainFile = dir.resolve("plain.bin");
+        encryptedFile = dir.resolve("encrypted.bin");
+        target = dir.resolve("target.bin");
+        Files.write(plainFile, content);
+        try (OutputStream out = SegmentedAead.encryptingStream(key, Files.newOutputStream(encryptedFile))) {
+            out.write(content);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        for (Path path : List.of(plainFile, encryptedFile, target)) {
+            Files.deleteIfExists(path);
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public void writePlaintext() throws Exception {
+        Files.write(target, content);
+    }
+
+    @Benchmark
+    public void writeEncrypted() throws Exception {
+        try (OutputStream out = SegmentedAead.encryptingStream(key, Files.newOutputStream(target))) {
+            out.write(content);
+        }
+    }
+
+    @Benchmark
+    public byte[] readPlaintext() throws Exception {
+        return Files.readAllBytes(plainFile);
+    }
+
+    @Benchmark
+    public byte[] readEncrypted() throws Exception {
+        try (SegmentedAead.DecryptingStream in = SegmentedAead.decryptingStream(key,
+                FileChannel.open(encryptedFile, StandardOpenOption.READ))) {
+            return in.readNBytes((int) in.size());
+        }
+    }
+
+    @Benchmark
+    public void rangePlaintext(Blackhole blackhole) throws Exception {
+        try (InputStream in = Files.newInputStream(plainFile)) {
+            in.skip(size / 2);
+            blackhole.consume(in.readNBytes(RANGE_SIZE));
+        }
+    }
+
+    @Benchmark
+    public void rangeEncrypted(Blackhole blackhole) throws Exception {
+        try (InputStream in = SegmentedAead.decryptingStream(key, FileChannel.open(encryptedFile, StandardOpenOption.READ))) {
+            in.skip(size / 2);
+            blackhole.consume(in.readNBytes(RANGE_SIZE));
+        }
+    }
+
+    @Test
+    void compareEncryptedAndPlaintextThroughput() throws Exception {
+        Collection<RunResult> intrinsics = run("aes-ni");
+        Collection<RunResult> software = run("software", NO_INTRINSICS);
+
+        System.out.printf("%n%-16s %14s %14s%n", "benchmark", "aes-ni MB/s", "software MB/s");
+        List<RunResult> baseline = new ArrayList<>(software);
+        for (RunResult result : intrinsics) {
+            String name = result.getParams().getBenchmark();
+            double withIntrinsics = megabytesPerSecond(result);
+            double withoutIntrinsics = baseline.stream()
+                    .filter(other -> other.getParams().getBenchmark().equals(name))
+                    .mapToDouble(EncryptionBenchmark::megabytesPerSecond)
+                    .findFirst().orElse(Double.NaN);
+            System.out.printf("%-16s %14.1f %14.1f%n", name.substring(name.lastIndexOf('.') + 1),
+                    withIntrinsics, withoutIntrinsics);
+        }
+
+        assertThat(intrinsics).isNotEmpty();
+    }
+
+    private static Collection<RunResult> run(String label, String... jvmArgs) throws Exception {
+        System.out.println("▶️ JMH run: " + label);
+        Options options = new OptionsBuilder()
+                .include(EncryptionBenchmark.class.getName() + "\\.")
+                .forks(1)
+                .jvmArgsAppend(jvmArgs)
+                .build();
+        return new Runner(options).run();
+    }
+
+    private static double megabytesPerSecond(RunResult result) {
+        String name = result.getParams().getBenchmark();
+        int size = Integer.parseInt(result.getParams().getParam("size"));
+        long bytes = name.contains("range") ? RANGE_SIZE : size;
+        return result.getPrimaryResult().getScore() * bytes / (1024.0 * 1024.0);
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.cloudstorage;
+
+import com.example.cloudstorage.repository.FileAccessRepository;
+import com.example.cloudstorage.repository.FileAccessRepository.AccessDelta;
+import com.example.cloudstorage.service.FileAccessService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class FileAccessServiceTest {
+
+    @Mock
+    private FileAccessRepository fileAccessRepository;
+
+    private FileAccessService accessService;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        accessService = new FileAccessService(fileAccessRepository, meterRegistry);
+        ReflectionTestUtils.setField(accessService, "enabled", true);
+        ReflectionTestUtils.setField(accessService, "maxTrackedFiles", 2);
+        ReflectionTestUtils.setField(accessService, "maxPageSize", 1000);
+        ReflectionTestUtils.invokeMethod(accessService, "start");
+    }
+
+    @Test
+    void testFlushWritesAccumulatedHitsInOneUpsert() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int i = 0; i < 1000; i++) {
+            executor.execute(() -> accessService.recordAccess(1L));
+        }
+        accessService.recordAccess(2L);
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        accessService.flush();
+
+        List<AccessDelta> deltas = captureUpsert();
+        assertEquals(List.of(1L, 2L), deltas.stream().map(AccessDelta::fileId).toList());
+        assertEquals(1000, deltas.get(0).hits());
+        assertEquals(1, deltas.get(1).hits());
+        assertNotNull(deltas.get(0).lastAccessedAt());
+    }
+
+    @Test
+    void testIdleCountersAreEvicted() {
+        accessService.recordAccess(1L);
+        accessService.flush();
+        // Интервал без скачиваний: писать нечего, счетчик убирается из памяти
+        accessService.flush();
+
+        verify(fileAccessRepository, times(1)).upsert(anyList());
+        assertEquals(0, meterRegistry.get("file.access.tracked").gauge().value());
+    }
+
+    @Test
+    void testHitsBeyondTrackedLimitAreDropped() {
+        accessService.recordAccess(1L);
+        accessService.recordAccess(2L);
+        accessService.recordAccess(3L);
+        // Уже отслеживаемые файлы продолжают считаться
+        accessService.recordAccess(1L);
+
+        accessService.flush();
+
+        List<AccessDelta> deltas = captureUpsert();
+        assertEquals(List.of(1L, 2L), deltas.stream().map(AccessDelta::fileId).toList());
+        assertEquals(2, deltas.get(0).hits());
+        assertEquals(1, meterRegistry.get("file.access.dropped").counter().count());
+    }
+
+    @Test
+    void testFailedFlushDropsBatch() {
+        when(fileAccessRepository.upsert(anyList())).thenThrow(new DataAccessResourceFailureException("down"));
+        accessService.recordAccess(1L);
+        accessService.recordAccess(1L);
+
+        accessService.flush();
+        accessService.flush();
+
+        verify(fileAccessRepository, times(1)).upsert(anyList());
+        assertEquals(2, meterRegistry.get("file.access.lost").counter().count());
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<AccessDelta> captureUpsert() {
+        ArgumentCaptor<List<AccessDelta>> captor = ArgumentCaptor.forClass(List.class);
+        verify(fileAccessRepository).upsert(captor.capture());
+        return captor.getValue().stream().sorted(Comparator.comparingLong(AccessDelta::fileId)).toList();
+    }
+}
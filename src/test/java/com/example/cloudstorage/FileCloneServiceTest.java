@@ -0,0 +1,78 @@
+package com.example.cloudstorage;
+
+import com.example.cloudstorage.service.FileCloneService;
+import com.example.cloudstorage.service.FileCloneService.Method;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class FileCloneServiceTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private FileCloneService fileCloneService;
+    private Path dir;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        dir = Files.createTempDirectory("clone-test");
+        meterRegistry = new SimpleMeterRegistry();
+        fileCloneService = new FileCloneService(meterRegistry);
+        // reflink зависит от файловой системы временного каталога - проверяем запасные способы
+        ReflectionTestUtils.setField(fileCloneService, "reflinkEnabled", false);
+        ReflectionTestUtils.setField(fileCloneService, "hardLinksEnabled", true);
+        ReflectionTestUtils.invokeMethod(fileCloneService, "start");
+    }
+
+    @Test
+    void testHardLinkCopyIsDetachedBeforeInPlaceWrite() throws Exception {
+        assumeTrue(dir.getFileSystem().supportedFileAttributeViews().contains("unix"));
+        Path source = Files.writeString(dir.resolve("a.txt"), "original");
+        Path copy = dir.resolve("b.txt");
+
+        assertEquals(Method.HARD_LINK, fileCloneService.clone(source, copy));
+        assertEquals(2, Files.getAttribute(source, "unix:nlink"));
+
+        long modified = Files.getLastModifiedTime(copy).toMillis();
+        fileCloneService.breakLink(copy);
+        // Время изменения сохраняется: по нему дельта проверяет, что файл не менялся
+        assertEquals(modified, Files.getLastModifiedTime(copy).toMillis());
+        Files.writeString(copy, "changed");
+
+        assertEquals("original", Files.readString(source));
+        assertEquals(1, Files.getAttribute(source, "unix:nlink"));
+        assertFalse(Files.exists(dir.resolve("b.txt.cow")));
+        assertEquals(1.0, meterRegistry.get("file.copy").tag("method", "hard_link").counter().count());
+    }
+
+    @Test
+    void testTransferCopyWhenLinksAreDisabled() throws Exception {
+        ReflectionTestUtils.setField(fileCloneService, "hardLinksEnabled", false);
+        byte[] content = new byte[3 * 1024 * 1024 + 17];
+        content[content.length - 1] = 42;
+        Path source = Files.write(dir.resolve("big.bin"), content);
+        Path copy = dir.resolve("copy.bin");
+        // Остаток файла удаленной строки с тем же именем заменяется копией
+        Files.writeString(copy, "stale");
+
+        assertEquals(Method.TRANSFER, fileCloneService.clone(source, copy));
+
+        assertArrayEquals(content, Files.readAllBytes(copy));
+        assertFalse(Files.exists(dir.resolve("copy.bin.copy")));
+    }
+
+    @Test
+    void testMissingSourceLeavesNoTarget() {
+        Path copy = dir.resolve("copy.txt");
+
+        assertThrows(IOException.class, () -> fileCloneService.clone(dir.resolve("missing.txt"), copy));
+        assertFalse(Files.exists(copy));
+    }
+}
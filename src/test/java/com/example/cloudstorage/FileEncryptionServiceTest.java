@@ -0,0 +1,149 @@
+package com.example.cloudstorage;
+
+import com.example.cloudstorage.repository.UserKeyRepository;
+import com.example.cloudstorage.repository.UserKeyRepository.WrappedKey;
+import com.example.cloudstorage.service.FileEncryptionService;
+import com.example.cloudstorage.service.SegmentedAead;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.io.Resource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Хранилище ключей - во временном каталоге, ключ пользователя "хранится" в моке репозитория.
+ */
+@ExtendWith(MockitoExtension.class)
+public class FileEncryptionServiceTest {
+
+    @Mock
+    private UserKeyRepository keyRepository;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private FileEncryptionService encryption;
+    private Path dir;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        dir = Files.createTempDirectory("encryption-test");
+        AtomicReference<WrappedKey> stored = new AtomicReference<>();
+        lenient().doAnswer(invocation -> {
+            stored.compareAndSet(null, new WrappedKey(invocation.getArgument(1), invocation.getArgument(2)));
+            return null;
+        }).when(keyRepository).insertIfAbsent(eq("alice"), any(), anyString());
+        lenient().when(keyRepository.findByLogin("alice")).thenAnswer(invocation -> Optional.ofNullable(stored.get()));
+
+        encryption = new FileEncryptionService(keyRepository, transactionManager);
+        ReflectionTestUtils.setField(encryption, "enabled", true);
+        ReflectionTestUtils.setField(encryption, "keystorePath", dir.resolve("keys/storage.p12").toString());
+        ReflectionTestUtils.setField(encryption, "keystorePassword", "changeit");
+        ReflectionTestUtils.setField(encryption, "kekAlias", "master");
+        ReflectionTestUtils.invokeMethod(encryption, "start");
+    }
+
+    @Test
+    void testRoundTripAcrossSegmentBoundaries() throws Exception {
+        for (int size : new int[]{0, 1, SegmentedAead.SEGMENT_SIZE, SegmentedAead.SEGMENT_SIZE + 1, 300_000}) {
+            byte[] content = randomBytes(size);
+            Path path = dir.resolve("file-" + size);
+
+            encryption.write("alice", path, content);
+
+            assertTrue(encryption.isEncrypted(path));
+            assertEquals(SegmentedAead.ciphertextSize(size), Files.size(path));
+            assertEquals(size, encryption.plaintextSize(path));
+            assertArrayEquals(content, encryption.readAllBytes("alice", path));
+            assertArrayEquals(content, encryption.decrypt("alice", Files.readAllBytes(path)));
+        }
+        // Ключ пользователя создан один раз и дальше берется из кэша
+        verify(keyRepository).insertIfAbsent(eq("alice"), any(), eq("master"));
+    }
+
+    @Test
+    void testRangeReadSkipsToSegment() throws Exception {
+        byte[] content = randomBytes(5 * SegmentedAead.SEGMENT_SIZE + 123);
+        Path path = dir.resolve("range.bin");
+        encryption.write("alice", path, content);
+
+        Resource resource = encryption.resource("alice", path);
+        assertEquals(content.length, resource.contentLength());
+        try (InputStream in = resource.getInputStream()) {
+            long offset = 3L * SegmentedAead.SEGMENT_SIZE - 10;
+            assertEquals(offset, in.skip(offset));
+            byte[] range = in.readNBytes(20);
+            assertArrayEquals(Arrays.copyOfRange(content, (int) offset, (int) offset + 20), range);
+        }
+    }
+
+    @Test
+    void testTamperedSegmentIsRejected() throws Exception {
+        byte[] content = randomBytes(3 * SegmentedAead.SEGMENT_SIZE);
+        Path path = dir.resolve("tampered.bin");
+        encryption.write("alice", path, content);
+
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            long position = Files.size(path) - 100;
+            file.seek(position);
+            int original = file.read();
+            file.seek(position);
+            file.write(original ^ 1);
+        }
+
+        IOException error = assertThrows(IOException.class, () -> encryption.readAllBytes("alice", path));
+        assertTrue(error.getMessage().contains("authentication"));
+        // Сегменты до испорченного по-прежнему читаются
+        try (InputStream in = encryption.openInputStream("alice", path)) {
+            assertArrayEquals(Arrays.copyOf(content, 1000), in.readNBytes(1000));
+        }
+    }
+
+    @Test
+    void testTruncationAtSegmentBoundaryIsDetected() throws Exception {
+        byte[] content = randomBytes(3 * SegmentedAead.SEGMENT_SIZE);
+        Path path = dir.resolve("truncated.bin");
+        encryption.write("alice", path, content);
+
+        // Отрезан последний сегмент целиком: оставшийся последний был записан как не последний
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.setLength(SegmentedAead.ciphertextSize(2L * SegmentedAead.SEGMENT_SIZE));
+        }
+
+        assertThrows(IOException.class, () -> encryption.readAllBytes("alice", path));
+    }
+
+    @Test
+    void testPlaintextFileIsReadAsIs() throws Exception {
+        Path path = dir.resolve("plain.txt");
+        Files.writeString(path, "hello");
+
+        assertFalse(encryption.isEncrypted(path));
+        assertEquals(5, encryption.plaintextSize(path));
+        assertArrayEquals("hello".getBytes(), encryption.readAllBytes("alice", path));
+        verifyNoInteractions(keyRepository);
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+}
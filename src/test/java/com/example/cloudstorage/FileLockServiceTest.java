@@ -0,0 +1,48 @@
+package com.example.cloudstorage;
+
+import com.example.cloudstorage.service.FileLockService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FileLockServiceTest {
+    private final FileLockService fileLocks = new FileLockService();
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void testLockIsHeldUntilTransactionCompletes() throws Exception {
+        TransactionSynchronizationManager.initSynchronization();
+        fileLocks.lockUntilCompletion(1L, "a.txt", "b.txt");
+
+        // Правка того же файла из другого потока ждет завершения транзакции, а не выхода из метода
+        CompletableFuture<Void> other = CompletableFuture.runAsync(() -> {
+            try (FileLockService.Held ignored = fileLocks.lock(1L, "b.txt")) {
+                // Блокировка получена
+            }
+        });
+        assertThrows(TimeoutException.class, () -> other.get(200, TimeUnit.MILLISECONDS));
+
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+        }
+        other.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void testLockOutsideTransactionIsRejected() {
+        assertThrows(IllegalStateException.class, () -> fileLocks.lockUntilCompletion(1L, "a.txt"));
+    }
+}
@@ -0,0 +1,184 @@
+package com.example.cloudstorage;
+
+import com.example.cloudstorage.entity.FileEntity;
+import com.example.cloudstorage.entity.FileMetadataEntity;
+import com.example.cloudstorage.entity.UserEntity;
+import com.example.cloudstorage.repository.FileJobRepository;
+import com.example.cloudstorage.repository.FileJobRepository.ClaimedJob;
+import com.example.cloudstorage.repository.FileMetadataRepository;
+import com.example.cloudstorage.repository.FileRepository;
+import com.example.cloudstorage.service.FileEncryptionService;
+import com.example.cloudstorage.service.FileProcessingService;
+import com.example.cloudstorage.service.FileStorageService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class FileProcessingServiceTest {
+
+    @Mock
+    private FileJobRepository fileJobRepository;
+
+    @Mock
+    private FileRepository fileRepository;
+
+    @Mock
+    private FileMetadataRepository fileMetadataRepository;
+
+    @Mock
+    private FileStorageService fileStorageService;
+
+    @Mock
+    private FileEncryptionService fileEncryption;
+
+    private SimpleMeterRegistry meterRegistry;
+    private FileProcessingService processingService;
+    private UserEntity user;
+    private Path dir;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        dir = Files.createTempDirectory("processing-test");
+        meterRegistry = new SimpleMeterRegistry();
+        processingService = new FileProcessingService(fileJobRepository, fileRepository, fileMetadataRepository,
+                fileStorageService, fileEncryption, meterRegistry);
+        ReflectionTestUtils.setField(processingService, "workers", 1);
+        ReflectionTestUtils.setField(processingService, "queueCapacity", 1);
+        ReflectionTestUtils.setField(processingService, "batchSize", 16);
+        ReflectionTestUtils.setField(processingService, "maxAttempts", 3);
+        ReflectionTestUtils.setField(processingService, "retryBackoffMs", 1000L);
+        ReflectionTestUtils.setField(processingService, "leaseSeconds", 300);
+        ReflectionTestUtils.setField(processingService, "thumbnailSize", 16);
+        ReflectionTestUtils.setField(processingService, "maxImagePixels", 1_000_000L);
+        ReflectionTestUtils.invokeMethod(processingService, "start");
+
+        user = new UserEntity();
+        user.setId(1L);
+        user.setLogin("alice");
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.invokeMethod(processingService, "stop");
+    }
+
+    @Test
+    void testProcessStoresChecksumTypeAndCompletesJob() throws Exception {
+        byte[] content = "%PDF-1.7 document".getBytes();
+        storedFile(5L, "doc.bin", content);
+        when(fileMetadataRepository.findById(5L)).thenReturn(Optional.empty());
+
+        process(new ClaimedJob(50L, 5L, 1));
+
+        ArgumentCaptor<FileMetadataEntity> saved = ArgumentCaptor.forClass(FileMetadataEntity.class);
+        verify(fileMetadataRepository).save(saved.capture());
+        assertEquals(5L, saved.getValue().getFileId());
+        assertEquals(sha256(content), saved.getValue().getChecksum());
+        // Тип по сигнатуре, а не по имени или заявленному contentType
+        assertEquals("application/pdf", saved.getValue().getDetectedType());
+        assertNull(saved.getValue().getThumbnail());
+        assertNotNull(saved.getValue().getProcessedAt());
+        verify(fileJobRepository).complete(50L);
+        assertEquals(1.0, meterRegistry.get("file.processing.jobs").tag("outcome", "success").counter().count());
+    }
+
+    @Test
+    void testImageGetsDimensionsAndThumbnail() throws Exception {
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(64, 32, BufferedImage.TYPE_INT_RGB), "png", png);
+        storedFile(6L, "photo.png", png.toByteArray());
+        when(fileMetadataRepository.findById(6L)).thenReturn(Optional.empty());
+
+        process(new ClaimedJob(60L, 6L, 1));
+
+        ArgumentCaptor<FileMetadataEntity> saved = ArgumentCaptor.forClass(FileMetadataEntity.class);
+        verify(fileMetadataRepository).save(saved.capture());
+        assertEquals("image/png", saved.getValue().getDetectedType());
+        assertEquals(64, saved.getValue().getWidth());
+        assertEquals(32, saved.getValue().getHeight());
+
+        BufferedImage thumbnail = ImageIO.read(new ByteArrayInputStream(saved.getValue().getThumbnail()));
+        assertEquals(16, thumbnail.getWidth());
+        assertEquals(8, thumbnail.getHeight());
+    }
+
+    @Test
+    void testJobOfDeletedFileIsCompleted() {
+        when(fileRepository.findWithUserById(7L)).thenReturn(Optional.empty());
+
+        process(new ClaimedJob(70L, 7L, 1));
+
+        verify(fileJobRepository).complete(70L);
+        verifyNoInteractions(fileMetadataRepository);
+    }
+
+    @Test
+    void testFailedJobIsRetriedWithBackoffThenFailed() throws Exception {
+        FileEntity file = storedFile(8L, "broken.bin", new byte[0]);
+        when(fileStorageService.openContent(user, file)).thenThrow(new IOException("disk error"));
+        when(fileMetadataRepository.findById(8L)).thenReturn(Optional.empty());
+
+        // Задержка удваивается с каждой попыткой
+        process(new ClaimedJob(80L, 8L, 2));
+        verify(fileJobRepository).retryLater(eq(80L), eq(2000L), contains("disk error"));
+
+        process(new ClaimedJob(80L, 8L, 3));
+        verify(fileJobRepository).fail(eq(80L), contains("disk error"));
+        verify(fileJobRepository, never()).complete(anyLong());
+        verify(fileMetadataRepository, never()).save(any());
+    }
+
+    @Test
+    void testPollClaimsOnlyWhatThePoolCanAccept() {
+        when(fileJobRepository.claim(anyInt(), anyInt())).thenReturn(List.of());
+
+        processingService.poll();
+
+        // Один свободный воркер и одно место в очереди пула
+        verify(fileJobRepository).claim(2, 300);
+    }
+
+    private void process(ClaimedJob job) {
+        ReflectionTestUtils.invokeMethod(processingService, "process", job);
+    }
+
+    private FileEntity storedFile(long id, String filename, byte[] content) throws IOException {
+        FileEntity file = new FileEntity();
+        file.setId(id);
+        file.setFilename(filename);
+        file.setUser(user);
+        Path path = Files.write(dir.resolve(filename), content);
+        when(fileRepository.findWithUserById(id)).thenReturn(Optional.of(file));
+        when(fileStorageService.getFilePath(user, filename)).thenReturn(path);
+        lenient().when(fileStorageService.openContent(user, file))
+                .thenAnswer(invocation -> new ByteArrayInputStream(content));
+        return file;
+    }
+
+    private static String sha256(byte[] content) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+    }
+}
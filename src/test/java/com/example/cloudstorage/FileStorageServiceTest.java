@@ -2,19 +2,36 @@ package com.example.cloudstorage;
 
 import com.example.cloudstorage.entity.FileEntity;
 import com.example.cloudstorage.entity.UserEntity;
+import com.example.cloudstorage.exception.FileStorageException;
+import com.example.cloudstorage.repository.FileJobRepository;
 import com.example.cloudstorage.repository.FileRepository;
+import com.example.cloudstorage.repository.PackedSegmentRepository;
+import com.example.cloudstorage.repository.TrashRepository;
+import com.example.cloudstorage.service.FileAccessService;
+import com.example.cloudstorage.service.FileCloneService;
+import com.example.cloudstorage.service.FileCloneService.Method;
+import com.example.cloudstorage.service.FileEncryptionService;
+import com.example.cloudstorage.service.FileLockService;
 import com.example.cloudstorage.service.FileStorageService;
+import com.example.cloudstorage.service.FileStorageService.CopiedFile;
+import com.example.cloudstorage.service.FileStorageService.CopySpec;
+import com.example.cloudstorage.service.PackedStorageService;
+import com.example.cloudstorage.service.PackedStorageService.SegmentAddress;
+import com.example.cloudstorage.service.VolumeReplicationService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.test.util.ReflectionTestUtils;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
@@ -26,6 +43,36 @@ public class FileStorageServiceTest {
     @Mock
     private FileRepository fileRepository;
 
+    @Mock
+    private FileJobRepository fileJobRepository;
+
+    @Mock
+    private TrashRepository trashRepository;
+
+    @Mock
+    private VolumeReplicationService volumeReplication;
+
+    @Mock
+    private FileEncryptionService fileEncryption;
+
+    @Mock
+    private FileAccessService fileAccessService;
+
+    @Mock
+    private PackedStorageService packedStorage;
+
+    @Mock
+    private PackedSegmentRepository packedSegmentRepository;
+
+    @Mock
+    private FileCloneService fileCloneService;
+
+    @Mock
+    private FileLockService fileLocks;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
     @InjectMocks
     private FileStorageService fileStorageService;
 
@@ -38,6 +85,7 @@ public class FileStorageServiceTest {
 
         // Устанавливаем путь к файловому хранилищу через reflection
         ReflectionTestUtils.setField(fileStorageService, "storageLocation", tempDir.toString());
+        ReflectionTestUtils.setField(fileStorageService, "maxCopyFiles", 1000);
     }
 
     @Test
@@ -62,6 +110,7 @@ public class FileStorageServiceTest {
 
         // Assert
         verify(fileRepository, times(1)).save(any(FileEntity.class));
+        verify(fileJobRepository, times(1)).enqueue(1L);
         // Проверяем, что файл был создан
         assertTrue(Files.exists(tempDir.resolve("testuser").resolve("test.txt")));
     }
@@ -79,16 +128,169 @@ public class FileStorageServiceTest {
         Files.createDirectories(userDir);
         Files.write(userDir.resolve("test.txt"), "test content".getBytes());
 
-        // Убираем ненужный стаббинг, так как метод deleteByUserAndFilename не требует мокирования
-        // когда(fileRepository.findByUserAndFilename(user, filename)).thenReturn(Optional.of(fileEntity));
+        when(trashRepository.moveToTrash(1L, filename)).thenReturn(Optional.of(5L));
 
         // Act
         fileStorageService.deleteFile(user, filename);
 
         // Assert
-        verify(fileRepository, times(1)).deleteByUserAndFilename(user, filename);
-        // Проверяем, что файл был удален
-        assertFalse(Files.exists(userDir.resolve("test.txt")));
+        verify(trashRepository, times(1)).moveToTrash(1L, filename);
+        verify(fileRepository, never()).deleteByUserAndFilename(any(), any());
+        // Файл остается на диске до очистки корзины
+        assertTrue(Files.exists(userDir.resolve("test.txt")));
+    }
+
+    @Test
+    void testSaveFileDiscardsTrashedFileWithSameName() throws Exception {
+        UserEntity user = new UserEntity();
+        user.setId(1L);
+        user.setLogin("testuser");
+        when(fileRepository.save(any(FileEntity.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        fileStorageService.saveFile(user, "test.txt", "new content".getBytes(), "text/plain");
+
+        verify(trashRepository).discard(1L, List.of("test.txt"));
+    }
+
+    @Test
+    void testGetFileRecordsAccess() throws Exception {
+        UserEntity user = new UserEntity();
+        user.setId(1L);
+        user.setLogin("testuser");
+        Path userDir = Files.createDirectories(tempDir.resolve("testuser"));
+        Files.write(userDir.resolve("test.txt"), "test content".getBytes());
+        FileEntity file = new FileEntity();
+        file.setId(7L);
+        file.setFilename("test.txt");
+        when(fileRepository.findByUserAndFilename(user, "test.txt")).thenReturn(Optional.of(file));
+
+        assertArrayEquals("test content".getBytes(), fileStorageService.getFile(user, "test.txt"));
+
+        verify(fileAccessService).recordAccess(7L);
+    }
+
+    @Test
+    void testGetFileMissingRowIsNotCounted() {
+        UserEntity user = new UserEntity();
+        user.setId(1L);
+        user.setLogin("testuser");
+        when(fileRepository.findByUserAndFilename(user, "test.txt")).thenReturn(Optional.empty());
+
+        assertThrows(FileStorageException.class, () -> fileStorageService.getFile(user, "test.txt"));
+        verify(fileAccessService, never()).recordAccess(any());
+    }
+
+    @Test
+    void testSmallFileIsPackedIntoSegment() throws Exception {
+        UserEntity user = new UserEntity();
+        user.setId(1L);
+        user.setLogin("testuser");
+        byte[] content = "small".getBytes();
+        when(packedStorage.accepts(content.length)).thenReturn(true);
+        when(fileEncryption.encrypt("testuser", content)).thenReturn(content);
+        when(packedStorage.append(content)).thenReturn(new SegmentAddress(3L, 128L, content.length));
+        when(fileRepository.save(any(FileEntity.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        fileStorageService.saveFile(user, "small.txt", content, "text/plain");
+
+        verify(fileRepository).save(argThat(file -> file.getSegmentId() == 3L && file.getSegmentOffset() == 128L
+                && file.getSegmentLength() == content.length && file.getSize() == content.length));
+        // Отдельного файла на диске нет
+        assertFalse(Files.exists(tempDir.resolve("testuser").resolve("small.txt")));
+    }
+
+    @Test
+    void testGetFileReadsPackedFileFromSegment() throws Exception {
+        UserEntity user = new UserEntity();
+        user.setId(1L);
+        user.setLogin("testuser");
+        FileEntity file = new FileEntity();
+        file.setId(7L);
+        file.setFilename("small.txt");
+        file.setSegmentId(3L);
+        file.setSegmentOffset(128L);
+        file.setSegmentLength(5);
+        when(fileRepository.findByUserAndFilename(user, "small.txt")).thenReturn(Optional.of(file));
+        when(packedStorage.read(file)).thenReturn("small".getBytes());
+        when(fileEncryption.decrypt("testuser", "small".getBytes())).thenAnswer(invocation -> invocation.getArgument(1));
+
+        assertArrayEquals("small".getBytes(), fileStorageService.getFile(user, "small.txt"));
+        verify(fileAccessService).recordAccess(7L);
+    }
+
+    @Test
+    void testCopyFileClonesOnDiskAndInsertsRow() throws Exception {
+        UserEntity user = new UserEntity();
+        user.setId(1L);
+        user.setLogin("testuser");
+        FileEntity source = new FileEntity();
+        source.setFilename("a.txt");
+        source.setSize(5_000_000_000L);
+        source.setContentType("video/mp4");
+        when(fileRepository.findByUserAndFilenameIn(user, List.of("a.txt"))).thenReturn(List.of(source));
+        when(fileRepository.findByUserAndFilenameIn(user, Set.of("b.txt"))).thenReturn(List.of());
+        when(fileCloneService.clone(any(Path.class), any(Path.class))).thenReturn(Method.HARD_LINK);
+        when(fileRepository.save(any(FileEntity.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        List<CopiedFile> copied = fileStorageService.copyFiles(user, List.of(new CopySpec("a.txt", "b.txt")));
+
+        assertEquals(List.of(new CopiedFile("b.txt", 5_000_000_000L, "hard_link")), copied);
+        Path userDir = tempDir.resolve("testuser").toAbsolutePath().normalize();
+        verify(fileCloneService).clone(userDir.resolve("a.txt"), userDir.resolve("b.txt"));
+        verify(fileRepository).save(argThat(file -> file.getFilename().equals("b.txt")
+                && file.getSize() == 5_000_000_000L && file.getSegmentId() == null));
+        verify(volumeReplication).replicate("testuser", "b.txt");
+    }
+
+    @Test
+    void testCopyPackedFileSharesSegmentAddress() throws Exception {
+        UserEntity user = new UserEntity();
+        user.setId(1L);
+        user.setLogin("testuser");
+        FileEntity source = new FileEntity();
+        source.setFilename("small.txt");
+        source.setSize(5L);
+        source.setSegmentId(3L);
+        source.setSegmentOffset(128L);
+        source.setSegmentLength(5);
+        when(fileRepository.findByUserAndFilenameIn(user, List.of("small.txt"))).thenReturn(List.of(source));
+        when(fileRepository.findByUserAndFilenameIn(user, Set.of("copy.txt"))).thenReturn(List.of());
+        when(fileRepository.save(any(FileEntity.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        List<CopiedFile> copied = fileStorageService.copyFiles(user, List.of(new CopySpec("small.txt", "copy.txt")));
+
+        assertEquals("segment", copied.get(0).method());
+        verify(fileRepository).save(argThat(file -> file.getSegmentId() == 3L && file.getSegmentOffset() == 128L));
+        verifyNoInteractions(fileCloneService);
+    }
+
+    @Test
+    void testCopyFailsBeforeCloningWhenTargetExists() {
+        UserEntity user = new UserEntity();
+        user.setId(1L);
+        user.setLogin("testuser");
+        FileEntity source = new FileEntity();
+        source.setFilename("a.txt");
+        FileEntity existing = new FileEntity();
+        existing.setFilename("b.txt");
+        when(fileRepository.findByUserAndFilenameIn(user, List.of("a.txt"))).thenReturn(List.of(source));
+        when(fileRepository.findByUserAndFilenameIn(user, Set.of("b.txt", "c.txt"))).thenReturn(List.of(existing));
+
+        assertThrows(FileStorageException.class, () -> fileStorageService.copyFiles(user,
+                List.of(new CopySpec("a.txt", "c.txt"), new CopySpec("a.txt", "b.txt"))));
+        verifyNoInteractions(fileCloneService);
+        verify(fileRepository, never()).save(any());
+    }
+
+    @Test
+    void testRestoreFileFailsWhenNotInTrash() {
+        UserEntity user = new UserEntity();
+        user.setId(1L);
+        user.setLogin("testuser");
+        when(trashRepository.restore(1L, "test.txt")).thenReturn(Optional.empty());
+
+        assertThrows(FileStorageException.class, () -> fileStorageService.restoreFile(user, "test.txt"));
+        verify(eventPublisher, never()).publishEvent(any());
     }
 
     @Test
@@ -110,6 +312,13 @@ public class FileStorageServiceTest {
                 () -> fileStorageService.validateFilename("file\\name.txt"));
     }
 
+    @Test
+    void testZeroCopyLimitIsRejectedAtStartup() {
+        ReflectionTestUtils.setField(fileStorageService, "maxCopyFiles", 0);
+
+        assertThrows(IllegalStateException.class, () -> ReflectionTestUtils.invokeMethod(fileStorageService, "start"));
+    }
+
     @Test
     void testFileExists() {
         // Arrange
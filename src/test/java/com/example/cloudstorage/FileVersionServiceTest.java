@@ -0,0 +1,223 @@
+package com.example.cloudstorage;
+
+import com.example.cloudstorage.entity.FileEntity;
+import com.example.cloudstorage.entity.UserEntity;
+import com.example.cloudstorage.repository.FileRepository;
+import com.example.cloudstorage.repository.FileVersionRepository;
+import com.example.cloudstorage.repository.FileVersionRepository.Version;
+import com.example.cloudstorage.service.FileEncryptionService;
+import com.example.cloudstorage.service.FileLockService;
+import com.example.cloudstorage.service.FileStorageService;
+import com.example.cloudstorage.service.FileVersionService;
+import com.example.cloudstorage.service.SegmentedAead;
+import com.example.cloudstorage.service.VolumeReplicationService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class FileVersionServiceTest {
+
+    @Mock
+    private FileStorageService fileStorageService;
+
+    @Mock
+    private FileRepository fileRepository;
+
+    @Mock
+    private FileVersionRepository fileVersionRepository;
+
+    @Mock
+    private VolumeReplicationService volumeReplication;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    private FileVersionService fileVersionService;
+    private UserEntity user;
+    private Path root;
+    private Path userDir;
+    // Ссылки версий на чанки, как их записал бы insertChunkRefs
+    private final Map<Long, List<String>> chunkRefs = new HashMap<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        root = Files.createTempDirectory("versions-test");
+        userDir = Files.createDirectories(root.resolve("alice"));
+        // Шифрование выключено: файлы читаются с диска как есть
+        fileVersionService = createService(new FileEncryptionService(null, null));
+
+        user = new UserEntity();
+        user.setId(1L);
+        user.setLogin("alice");
+        lenient().when(transactionTemplate.execute(any()))
+                .thenAnswer(invocation -> invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+        lenient().when(fileVersionRepository.insertVersion(anyLong(), anyLong(), any()))
+                .thenAnswer(invocation -> new Version(chunkRefs.size() + 1L, chunkRefs.size() + 1,
+                        invocation.getArgument(1), invocation.getArgument(2), LocalDateTime.now()));
+        lenient().doAnswer(invocation -> chunkRefs.put(invocation.getArgument(0), invocation.getArgument(1)))
+                .when(fileVersionRepository).insertChunkRefs(anyLong(), anyList());
+        lenient().when(fileVersionRepository.findChunkHashes(anyLong()))
+                .thenAnswer(invocation -> chunkRefs.get(invocation.<Long>getArgument(0)));
+    }
+
+    @Test
+    void testOverwriteKeepsPreviousContentAsVersion() throws Exception {
+        byte[] previous = randomBytes(20_000);
+        FileEntity file = stored("report.bin", previous);
+
+        fileVersionService.overwriteFile(user, "report.bin", "new content".getBytes(), "text/plain");
+
+        assertEquals("new content", Files.readString(userDir.resolve("report.bin")));
+        assertArrayEquals(previous, versionContent(1L));
+        verify(fileStorageService).updateStoredFile(user, file, 11, "text/plain");
+        verify(fileVersionRepository).deleteByRetention(10L, 10, 30);
+        verify(fileVersionRepository, never()).deleteVersion(anyLong());
+        assertEquals(List.of(), temps());
+    }
+
+    @Test
+    void testFailedRowUpdateRestoresPreviousContent() throws Exception {
+        byte[] previous = randomBytes(20_000);
+        FileEntity file = stored("report.bin", previous);
+        when(fileStorageService.updateStoredFile(user, file, 11, "text/plain"))
+                .thenThrow(new IllegalStateException("Connection lost"));
+
+        assertThrows(IllegalStateException.class,
+                () -> fileVersionService.overwriteFile(user, "report.bin", "new content".getBytes(), "text/plain"));
+
+        // Диск снова соответствует строке, лишняя версия удалена, реплики получат прежнее содержимое
+        assertArrayEquals(previous, Files.readAllBytes(userDir.resolve("report.bin")));
+        verify(fileVersionRepository).deleteVersion(1L);
+        verify(volumeReplication).replicate("alice", "report.bin");
+        verify(fileVersionRepository, never()).deleteByRetention(anyLong(), anyInt(), anyInt());
+        assertEquals(List.of(), temps());
+    }
+
+    @Test
+    void testVersionsOfSameContentShareChunks() throws Exception {
+        byte[] content = randomBytes(50_000);
+        FileEntity file = stored("data.bin", content);
+
+        fileVersionService.snapshot(user, file, userDir.resolve("data.bin"));
+        fileVersionService.snapshot(user, file, userDir.resolve("data.bin"));
+
+        assertEquals(chunkRefs.get(1L), chunkRefs.get(2L));
+        assertTrue(chunkRefs.get(1L).size() > 1);
+        try (Stream<Path> chunks = Files.walk(root.resolve(".chunks"))) {
+            assertEquals(chunkRefs.get(1L).stream().distinct().count(), chunks.filter(Files::isRegularFile).count());
+        }
+        assertArrayEquals(content, versionContent(2L));
+    }
+
+    @Test
+    void testPruneKeepsAtLeastOneVersion() {
+        assertThrows(IllegalArgumentException.class, () -> fileVersionService.pruneVersions(user, "report.bin", 0));
+        verifyNoInteractions(fileVersionRepository);
+    }
+
+    @Test
+    void testEncryptedFileVersionStaysEncrypted() throws Exception {
+        FileEncryptionService encryption = enabledEncryption();
+        fileVersionService = createService(encryption);
+        byte[] previous = randomBytes(20_000);
+        FileEntity file = stored("secret.bin", previous);
+        encryption.write("alice", userDir.resolve("secret.bin"), previous);
+        when(fileStorageService.updateStoredFile(user, file, 11, "text/plain"))
+                .thenThrow(new IllegalStateException("Connection lost"));
+
+        assertThrows(IllegalStateException.class,
+                () -> fileVersionService.overwriteFile(user, "secret.bin", "new content".getBytes(), "text/plain"));
+
+        // Чанки версии зашифрованы, восстановленный файл - тоже
+        try (Stream<Path> chunks = Files.walk(root.resolve(".chunks"))) {
+            for (Path chunk : chunks.filter(Files::isRegularFile).toList()) {
+                byte[] stored = Files.readAllBytes(chunk);
+                assertTrue(SegmentedAead.hasHeader(stored, stored.length));
+            }
+        }
+        assertTrue(encryption.isEncrypted(userDir.resolve("secret.bin")));
+        assertArrayEquals(previous, encryption.readAllBytes("alice", userDir.resolve("secret.bin")));
+        assertArrayEquals(previous, versionContent(1L));
+    }
+
+    private FileVersionService createService(FileEncryptionService encryption) {
+        FileVersionService service = new FileVersionService(fileStorageService, fileRepository, fileVersionRepository,
+                encryption, volumeReplication, new FileLockService(), transactionTemplate);
+        ReflectionTestUtils.setField(service, "storageLocation", root.toString());
+        ReflectionTestUtils.setField(service, "minChunkSize", 256);
+        ReflectionTestUtils.setField(service, "avgChunkSize", 1024);
+        ReflectionTestUtils.setField(service, "maxChunkSize", 4096);
+        ReflectionTestUtils.setField(service, "maxVersions", 10);
+        ReflectionTestUtils.setField(service, "maxAgeDays", 30);
+        ReflectionTestUtils.invokeMethod(service, "start");
+        return service;
+    }
+
+    // Шифрование включено, ключ пользователя уже развернут: хранилище ключей и БД не нужны
+    @SuppressWarnings("unchecked")
+    private static FileEncryptionService enabledEncryption() throws Exception {
+        FileEncryptionService encryption = new FileEncryptionService(null, null);
+        ReflectionTestUtils.setField(encryption, "enabled", true);
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(256);
+        ((ConcurrentHashMap<String, SecretKey>) ReflectionTestUtils.getField(encryption, "dataKeys"))
+                .put("alice", generator.generateKey());
+        return encryption;
+    }
+
+    private FileEntity stored(String filename, byte[] content) throws IOException {
+        Path path = Files.write(userDir.resolve(filename), content);
+        FileEntity file = new FileEntity();
+        file.setId(10L);
+        file.setFilename(filename);
+        file.setSize((long) content.length);
+        file.setUser(user);
+        lenient().when(fileRepository.findByUserAndFilename(user, filename)).thenReturn(Optional.of(file));
+        lenient().when(fileStorageService.getFilePath(user, filename)).thenReturn(path);
+        return file;
+    }
+
+    private byte[] versionContent(long versionId) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        fileVersionService.writeVersion("alice", new Version(versionId, (int) versionId, 0, null, LocalDateTime.now()), out);
+        return out.toByteArray();
+    }
+
+    private List<Path> temps() throws IOException {
+        try (Stream<Path> files = Files.list(userDir)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(".part")
+                    || path.getFileName().toString().endsWith(".restore")).toList();
+        }
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.cloudstorage;
+
+import com.example.cloudstorage.dto.FileResponse;
+import com.example.cloudstorage.dto.SearchResponse;
+import com.example.cloudstorage.entity.FileEntity;
+import com.example.cloudstorage.entity.UserEntity;
+import com.example.cloudstorage.event.FileChangeEvent;
+import com.example.cloudstorage.repository.FileRepository;
+import com.example.cloudstorage.service.FilenameIndexService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class FilenameIndexServiceTest {
+
+    @Mock
+    private FileRepository fileRepository;
+
+    private FilenameIndexService indexService;
+    private UserEntity alice;
+    private UserEntity bob;
+
+    @BeforeEach
+    void setUp() {
+        indexService = new FilenameIndexService(fileRepository);
+        ReflectionTestUtils.setField(indexService, "maxIndexedUsers", 10);
+        ReflectionTestUtils.setField(indexService, "maxPageSize", 500);
+        alice = user(1L, "alice");
+        bob = user(2L, "bob");
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.invokeMethod(indexService, "stop");
+    }
+
+    @Test
+    void testColdSearchGoesToDatabaseAndBuildsIndex() throws Exception {
+        // Пока строится индекс, ожидание ниже тоже идет в БД с другими шаблонами
+        lenient().when(fileRepository.searchByFilenamePattern(1L, "50\\%\\_off%", 11, 0))
+                .thenReturn(List.of(file("50%_off.txt", 3L)));
+        when(fileRepository.findNamesAndSizesByUserId(1L)).thenReturn(List.of(
+                new FileResponse("report.pdf", 10L), new FileResponse("notes.txt", 5L)));
+
+        // Пока индекса нет, отвечает Postgres; спецсимволы LIKE экранируются
+        SearchResponse cold = indexService.search(alice, "50%_OFF", FilenameIndexService.MODE_PREFIX, 0, 10);
+        assertEquals(List.of("50%_off.txt"), names(cold));
+
+        awaitIndexed(alice, "report");
+        SearchResponse warm = indexService.search(alice, "t", FilenameIndexService.MODE_SUBSTRING, 0, 1);
+        assertEquals(List.of("notes.txt"), names(warm));
+        assertTrue(warm.isHasMore());
+        verify(fileRepository, times(1)).findNamesAndSizesByUserId(1L);
+    }
+
+    @Test
+    void testEventsUpdateBuiltIndex() throws Exception {
+        when(fileRepository.findNamesAndSizesByUserId(1L)).thenReturn(List.of(new FileResponse("a.txt", 1L)));
+        // Событие до первого поиска не создает индекс
+        indexService.onFileChange(FileChangeEvent.created(1L, "alice", 9L, "early.txt", 1L));
+        indexService.search(alice, "a", FilenameIndexService.MODE_PREFIX, 0, 10);
+        awaitIndexed(alice, "a.txt");
+
+        indexService.onFileChange(FileChangeEvent.created(1L, "alice", 2L, "b.txt", 2L));
+        indexService.onFileChange(FileChangeEvent.renamed(1L, "alice", 1L, "a.txt", "c.txt", 1L));
+        indexService.onFileChange(FileChangeEvent.deleted(1L, "alice", 2L, "b.txt"));
+        // События других пользователей индекс не трогают
+        indexService.onFileChange(FileChangeEvent.created(2L, "bob", 3L, "d.txt", 1L));
+
+        assertEquals(List.of("c.txt"), names(indexService.search(alice, ".txt", FilenameIndexService.MODE_SUBSTRING, 0, 10)));
+    }
+
+    @Test
+    void testBuildRacingWithEventIsDiscarded() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(fileRepository.findNamesAndSizesByUserId(1L)).thenAnswer(invocation -> {
+            loading.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return List.of(new FileResponse("old.txt", 1L));
+        });
+
+        indexService.search(alice, "old", FilenameIndexService.MODE_PREFIX, 0, 10);
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+        // Снимок из БД устарел, пока строился: индекс без new.txt публиковать нельзя
+        indexService.onFileChange(FileChangeEvent.created(1L, "alice", 2L, "new.txt", 1L));
+        release.countDown();
+
+        verify(fileRepository, timeout(5000)).findNamesAndSizesByUserId(1L);
+        Thread.sleep(100);
+        indexService.search(alice, "old", FilenameIndexService.MODE_PREFIX, 0, 10);
+        verify(fileRepository, times(2)).searchByFilenamePattern(eq(1L), anyString(), anyInt(), anyInt());
+    }
+
+    @Test
+    void testLeastRecentlySearchedUserIsEvicted() throws Exception {
+        ReflectionTestUtils.setField(indexService, "maxIndexedUsers", 1);
+        when(fileRepository.findNamesAndSizesByUserId(1L)).thenReturn(List.of(new FileResponse("a.txt", 1L)));
+        when(fileRepository.findNamesAndSizesByUserId(2L)).thenReturn(List.of(new FileResponse("b.txt", 1L)));
+
+        indexService.search(alice, "a", FilenameIndexService.MODE_PREFIX, 0, 10);
+        awaitIndexed(alice, "a.txt");
+        indexService.search(bob, "b", FilenameIndexService.MODE_PREFIX, 0, 10);
+        awaitIndexed(bob, "b.txt");
+
+        Map<?, ?> indexes = (Map<?, ?>) ReflectionTestUtils.getField(indexService, "indexes");
+        for (int i = 0; i < 100 && indexes.containsKey(1L); i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(List.of(2L), List.copyOf(indexes.keySet()));
+    }
+
+    // Индекс строится в фоне: ждем, пока поиск начнет находить то, чего нет в ответе БД
+    private void awaitIndexed(UserEntity user, String query) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            if (!indexService.search(user, query, FilenameIndexService.MODE_SUBSTRING, 0, 10).getFiles().isEmpty()) {
+                return;
+            }
+            Thread.sleep(20);
+        }
+        fail("Index for " + user.getLogin() + " was not built");
+    }
+
+    private static List<String> names(SearchResponse response) {
+        return response.getFiles().stream().map(FileResponse::getFilename).toList();
+    }
+
+    private static UserEntity user(Long id, String login) {
+        UserEntity user = new UserEntity();
+        user.setId(id);
+        user.setLogin(login);
+        return user;
+    }
+
+    private static FileEntity file(String filename, long size) {
+        FileEntity file = new FileEntity();
+        file.setFilename(filename);
+        file.setSize(size);
+        return file;
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.cloudstorage;
+
+import com.example.cloudstorage.dto.FolderResponse;
+import com.example.cloudstorage.entity.FolderEntity;
+import com.example.cloudstorage.entity.UserEntity;
+import com.example.cloudstorage.exception.FileStorageException;
+import com.example.cloudstorage.repository.FileRepository;
+import com.example.cloudstorage.repository.FolderRepository;
+import com.example.cloudstorage.repository.TrashRepository;
+import com.example.cloudstorage.service.FileStorageService;
+import com.example.cloudstorage.service.FolderService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class FolderServiceTest {
+
+    @Mock
+    private FolderRepository folderRepository;
+
+    @Mock
+    private FileRepository fileRepository;
+
+    @Mock
+    private FileStorageService fileStorageService;
+
+    @Mock
+    private TrashRepository trashRepository;
+
+    @InjectMocks
+    private FolderService folderService;
+
+    private UserEntity user;
+
+    @BeforeEach
+    void setUp() {
+        user = new UserEntity();
+        user.setId(1L);
+        user.setLogin("testuser");
+    }
+
+    @Test
+    void testMoveFolderChangesOnlyItsParent() {
+        FolderEntity docs = folder(10L, null, "docs");
+        FolderEntity archive = folder(20L, null, "archive");
+        when(folderRepository.findByIdAndUser(10L, user)).thenReturn(Optional.of(docs));
+        when(folderRepository.findByIdAndUser(20L, user)).thenReturn(Optional.of(archive));
+        when(folderRepository.findPath(eq(20L), anyInt())).thenReturn(List.of(element(20L, "archive")));
+
+        FolderResponse moved = folderService.moveFolder(user, 10L, 20L);
+
+        assertEquals(20L, moved.getParentId());
+        verify(folderRepository).lockUserTree(1L);
+        verifyNoInteractions(fileRepository);
+    }
+
+    @Test
+    void testCreateFolderChecksNameUnderTreeLock() {
+        when(folderRepository.existsByUserAndParentIdIsNullAndName(user, "docs")).thenReturn(false);
+        when(folderRepository.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+
+        folderService.createFolder(user, "docs", null);
+
+        // Блокировка берется до проверки имени, иначе параллельное создание пройдет ту же проверку
+        InOrder order = inOrder(folderRepository);
+        order.verify(folderRepository).lockUserTree(1L);
+        order.verify(folderRepository).existsByUserAndParentIdIsNullAndName(user, "docs");
+        order.verify(folderRepository).save(any());
+    }
+
+    @Test
+    void testRenameFolderToTakenNameIsRejected() {
+        when(folderRepository.findByIdAndUser(10L, user)).thenReturn(Optional.of(folder(10L, null, "docs")));
+        when(folderRepository.existsByUserAndParentIdIsNullAndName(user, "photos")).thenReturn(true);
+
+        assertThrows(FileStorageException.class, () -> folderService.renameFolder(user, 10L, "photos"));
+        verify(folderRepository).lockUserTree(1L);
+    }
+
+    @Test
+    void testMoveFolderIntoOwnSubtreeIsRejected() {
+        FolderEntity docs = folder(10L, null, "docs");
+        FolderEntity nested = folder(30L, 10L, "nested");
+        when(folderRepository.findByIdAndUser(10L, user)).thenReturn(Optional.of(docs));
+        when(folderRepository.findByIdAndUser(30L, user)).thenReturn(Optional.of(nested));
+        when(folderRepository.findPath(eq(30L), anyInt()))
+                .thenReturn(List.of(element(10L, "docs"), element(30L, "nested")));
+
+        assertThrows(FileStorageException.class, () -> folderService.moveFolder(user, 10L, 30L));
+        assertNull(docs.getParentId());
+    }
+
+    @Test
+    void testDeleteNonEmptyFolderIsRejected() {
+        when(folderRepository.findByIdAndUser(10L, user)).thenReturn(Optional.of(folder(10L, null, "docs")));
+        when(folderRepository.existsByParentId(10L)).thenReturn(false);
+        when(fileRepository.existsByFolderId(10L)).thenReturn(true);
+
+        assertThrows(FileStorageException.class, () -> folderService.deleteFolder(user, 10L));
+        verify(folderRepository, never()).delete(any());
+    }
+
+    @Test
+    void testMoveMissingFileFails() {
+        when(fileRepository.moveToFolder(user, "missing.txt", null)).thenReturn(0);
+
+        assertThrows(FileStorageException.class, () -> folderService.moveFile(user, "missing.txt", null));
+    }
+
+    private FolderEntity folder(Long id, Long parentId, String name) {
+        FolderEntity folder = new FolderEntity();
+        folder.setId(id);
+        folder.setParentId(parentId);
+        folder.setName(name);
+        folder.setUser(user);
+        return folder;
+    }
+
+    private FolderRepository.PathElement element(Long id, String name) {
+        return new FolderRepository.PathElement() {
+            @Override
+            public Long getId() {
+                return id;
+            }
+
+            @Override
+            public String getName() {
+                return name;
+            }
+        };
+    }
+}
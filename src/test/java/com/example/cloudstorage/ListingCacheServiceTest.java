@@ -0,0 +1,127 @@
+package com.example.cloudstorage;
+
+import com.example.cloudstorage.config.ReadRouting;
+import com.example.cloudstorage.entity.FileEntity;
+import com.example.cloudstorage.entity.UserEntity;
+import com.example.cloudstorage.event.FileChangeEvent;
+import com.example.cloudstorage.event.PostgresNotificationBus;
+import com.example.cloudstorage.service.FileStorageService;
+import com.example.cloudstorage.service.ListingCacheService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class ListingCacheServiceTest {
+
+    @Mock
+    private FileStorageService fileStorageService;
+
+    @Mock
+    private PostgresNotificationBus notificationBus;
+
+    private ListingCacheService listingCacheService;
+
+    private UserEntity user;
+
+    @BeforeEach
+    void setUp() {
+        listingCacheService = new ListingCacheService(
+                fileStorageService, new ObjectMapper(), notificationBus, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(listingCacheService, "maxBytes", 1024L);
+        ReflectionTestUtils.setField(listingCacheService, "cachedLimits", Set.of(0, 10));
+        ReflectionTestUtils.invokeMethod(listingCacheService, "start");
+
+        user = new UserEntity();
+        user.setId(1L);
+        user.setLogin("testuser");
+    }
+
+    @Test
+    void testRepeatedListingIsServedFromCache() throws Exception {
+        when(fileStorageService.getUserFiles(user, 0)).thenReturn(List.of(file("a.txt", 3L)));
+
+        byte[] first = listingCacheService.getListing(user, 0);
+        byte[] second = listingCacheService.getListing(user, 0);
+
+        assertSame(first, second);
+        assertEquals("[{\"filename\":\"a.txt\",\"size\":3}]", new String(second, StandardCharsets.UTF_8));
+        verify(fileStorageService, times(1)).getUserFiles(user, 0);
+    }
+
+    @Test
+    void testCacheIsFilledFromPrimary() throws Exception {
+        // Реплика могла еще не получить изменение, о котором пришел NOTIFY, - кэшируется только чтение с основной
+        List<String> targets = new ArrayList<>();
+        when(fileStorageService.getUserFiles(eq(user), anyInt())).thenAnswer(invocation -> {
+            Object target = ReflectionTestUtils.invokeMethod(ReadRouting.class, "target");
+            targets.add(String.valueOf(target));
+            return List.of(file("a.txt", 3L));
+        });
+
+        listingCacheService.getListing(user, 0);
+        listingCacheService.getListing(user, 7);
+
+        // Некэшируемый limit может читать и с реплики
+        assertEquals(List.of("PRIMARY", "null"), targets);
+    }
+
+    @Test
+    void testFileChangeInvalidatesAndNotifiesOtherNodes() throws Exception {
+        when(fileStorageService.getUserFiles(user, 0))
+                .thenReturn(List.of(file("a.txt", 3L)))
+                .thenReturn(List.of(file("a.txt", 3L), file("b.txt", 5L)));
+
+        listingCacheService.getListing(user, 0);
+        listingCacheService.onFileChange(FileChangeEvent.created(1L, "testuser", 2L, "b.txt", 5L));
+        byte[] listing = listingCacheService.getListing(user, 0);
+
+        assertTrue(new String(listing, StandardCharsets.UTF_8).contains("b.txt"));
+        verify(notificationBus).publish(anyString(), eq("1"));
+    }
+
+    @Test
+    void testListingLoadedDuringChangeIsNotCached() throws Exception {
+        // Файл добавлен, пока строился список: устаревший результат отдаем, но не кэшируем
+        when(fileStorageService.getUserFiles(user, 0)).thenAnswer(invocation -> {
+            listingCacheService.invalidate(1L);
+            return List.of(file("a.txt", 3L));
+        });
+
+        listingCacheService.getListing(user, 0);
+        listingCacheService.getListing(user, 0);
+
+        verify(fileStorageService, times(2)).getUserFiles(user, 0);
+    }
+
+    @Test
+    void testUncommonLimitIsNotCached() throws Exception {
+        when(fileStorageService.getUserFiles(user, 7)).thenReturn(List.of());
+
+        listingCacheService.getListing(user, 7);
+        listingCacheService.getListing(user, 7);
+
+        verify(fileStorageService, times(2)).getUserFiles(user, 7);
+    }
+
+    private FileEntity file(String filename, Long size) {
+        FileEntity file = new FileEntity();
+        file.setFilename(filename);
+        file.setSize(size);
+        return file;
+    }
+}
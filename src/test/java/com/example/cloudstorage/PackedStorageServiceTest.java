@@ -0,0 +1,162 @@
+package com.example.cloudstorage;
+
+import com.example.cloudstorage.repository.PackedSegmentRepository;
+import com.example.cloudstorage.repository.PackedSegmentRepository.PackedEntry;
+import com.example.cloudstorage.repository.PackedSegmentRepository.SegmentUsage;
+import com.example.cloudstorage.service.PackedStorageService;
+import com.example.cloudstorage.service.PackedStorageService.SegmentAddress;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class PackedStorageServiceTest {
+
+    @Mock
+    private PackedSegmentRepository segmentRepository;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private PackedStorageService packedStorage;
+    private Path segments;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Path root = Files.createTempDirectory("pack-test");
+        segments = root.resolve(".segments");
+        packedStorage = new PackedStorageService(segmentRepository, transactionManager, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(packedStorage, "storageLocation", root.toString());
+        ReflectionTestUtils.setField(packedStorage, "enabled", true);
+        ReflectionTestUtils.setField(packedStorage, "maxFileSize", 8);
+        ReflectionTestUtils.setField(packedStorage, "segmentSize", 12L);
+        ReflectionTestUtils.setField(packedStorage, "maxSegmentAgeSeconds", 3600L);
+        ReflectionTestUtils.setField(packedStorage, "compactLiveRatio", 0.5);
+        ReflectionTestUtils.setField(packedStorage, "compactLeaseSeconds", 60L);
+        ReflectionTestUtils.setField(packedStorage, "gcGraceSeconds", 0L);
+        ReflectionTestUtils.setField(packedStorage, "maxOpenReaders", 2);
+        ReflectionTestUtils.invokeMethod(packedStorage, "start");
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.invokeMethod(packedStorage, "stop");
+    }
+
+    @Test
+    void testOnlySmallFilesArePacked() {
+        assertTrue(packedStorage.accepts(8));
+        assertFalse(packedStorage.accepts(9));
+    }
+
+    @Test
+    void testAppendsAreReadBackAndSegmentRotatesWhenFull() throws Exception {
+        when(segmentRepository.create()).thenReturn(1L, 2L);
+
+        SegmentAddress first = packedStorage.append("hello".getBytes());
+        SegmentAddress second = packedStorage.append("world!".getBytes());
+        // Не помещается в сегмент 1 (12 байт): он запечатывается, запись идет в новый
+        SegmentAddress third = packedStorage.append("again".getBytes());
+
+        assertEquals(new SegmentAddress(1L, 0, 5), first);
+        assertEquals(new SegmentAddress(1L, 5, 6), second);
+        assertEquals(new SegmentAddress(2L, 0, 5), third);
+        verify(segmentRepository).seal(1L);
+
+        assertArrayEquals("world!".getBytes(), packedStorage.read(1L, 5, 6));
+        assertArrayEquals("again".getBytes(), packedStorage.read(2L, 0, 5));
+        assertEquals(11, Files.size(segments.resolve("1.seg")));
+        assertTrue(packedStorage.contains(1L, 5, 6));
+        assertFalse(packedStorage.contains(1L, 8, 6));
+    }
+
+    @Test
+    void testLeastRecentlyReadSegmentIsClosedOverLimit() throws Exception {
+        when(segmentRepository.create()).thenReturn(1L, 2L, 3L, 4L);
+        for (String data : List.of("one12345", "two12345", "three123")) {
+            packedStorage.append(data.getBytes());
+        }
+
+        packedStorage.read(1L, 0, 8);
+        packedStorage.read(2L, 0, 8);
+        packedStorage.read(1L, 0, 8);
+        packedStorage.read(3L, 0, 8);
+
+        // Лимит 2: закрыт канал сегмента 2, прочитанного раньше всех
+        Map<Long, ?> readers = readers();
+        assertEquals(2, readers.size());
+        assertTrue(readers.containsKey(1L));
+        assertTrue(readers.containsKey(3L));
+        assertArrayEquals("two12345".getBytes(), packedStorage.read(2L, 0, 8));
+    }
+
+    @Test
+    void testClosedReaderIsReopened() throws Exception {
+        when(segmentRepository.create()).thenReturn(1L);
+        packedStorage.append("hello".getBytes());
+        packedStorage.read(1L, 0, 5);
+
+        // Как после прерывания другого читающего потока: канал в кэше закрыт
+        ((FileChannel) ReflectionTestUtils.getField(readers().get(1L), "channel")).close();
+
+        assertArrayEquals("hello".getBytes(), packedStorage.read(1L, 0, 5));
+    }
+
+    @Test
+    void testCompactionMovesLiveEntriesAndDeletesOldSegment() throws Exception {
+        when(segmentRepository.create()).thenReturn(1L, 2L);
+        packedStorage.append("dead1".getBytes());
+        packedStorage.append("live".getBytes());
+        // Сегмент 1 запечатан: 9 байт, живых из них 4
+        packedStorage.append("dead2xx".getBytes());
+
+        when(segmentRepository.findCompactable(anyLong())).thenReturn(List.of(new SegmentUsage(1L, 4)));
+        when(segmentRepository.claim(1L, 60L)).thenReturn(true);
+        when(segmentRepository.findEntries(1L)).thenReturn(List.of(new PackedEntry(42L, 5, 4)));
+        when(segmentRepository.relocate(42L, 1L, 5, 2L, 7)).thenReturn(true);
+        when(segmentRepository.retire(1L)).thenReturn(true);
+        when(segmentRepository.findExpired(0L)).thenReturn(List.of(1L));
+        when(segmentRepository.delete(1L)).thenReturn(true);
+
+        packedStorage.compact();
+
+        // Живая запись дописана в текущий сегмент после "dead2xx", старый сегмент удален
+        assertArrayEquals("live".getBytes(), packedStorage.read(2L, 7, 4));
+        assertFalse(Files.exists(segments.resolve("1.seg")));
+    }
+
+    @Test
+    void testSegmentWithMostlyLiveBytesIsNotCompacted() throws Exception {
+        when(segmentRepository.create()).thenReturn(1L, 2L);
+        packedStorage.append("live1".getBytes());
+        packedStorage.append("live2".getBytes());
+        packedStorage.append("next".getBytes());
+
+        when(segmentRepository.findCompactable(anyLong())).thenReturn(List.of(new SegmentUsage(1L, 10)));
+
+        packedStorage.compact();
+
+        verify(segmentRepository, never()).claim(anyLong(), anyLong());
+        assertTrue(Files.exists(segments.resolve("1.seg")));
+    }
+
+    private Map<Long, ?> readers() {
+        return (Map<Long, ?>) ReflectionTestUtils.getField(packedStorage, "readers");
+    }
+}
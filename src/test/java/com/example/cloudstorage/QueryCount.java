@@ -0,0 +1,39 @@
+package com.example.cloudstorage;
+
+import com.example.cloudstorage.config.QueryMetrics;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Подсчет SQL-запросов, выполненных в текущем потоке. MockMvc обрабатывает запрос в потоке теста,
+ * поэтому сюда попадают все запросы фильтров, контроллера и сервисов, но не фоновых воркеров.
+ */
+public final class QueryCount {
+
+    @FunctionalInterface
+    public interface Action {
+        void run() throws Exception;
+    }
+
+    private QueryCount() {
+    }
+
+    public static List<String> capture(Action action) throws Exception {
+        List<String> statements = QueryMetrics.startCapture();
+        try {
+            action.run();
+            return List.copyOf(statements);
+        } finally {
+            QueryMetrics.stopCapture();
+        }
+    }
+
+    public static void assertStatements(int expected, Action action) throws Exception {
+        List<String> statements = capture(action);
+        assertThat(statements)
+                .as("SQL statements issued: %s", statements)
+                .hasSize(expected);
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.cloudstorage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.head;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Регрессия по числу SQL-запросов на endpoint: N+1 или лишний round-trip ломают сборку.
+ * При осознанном изменении числа запросов ожидаемое значение правится вместе с кодом.
+ */
+@Import(TestcontainersConfiguration.class)
+@SpringBootTest(properties = "file.storage.location=./build/test-uploads")
+@AutoConfigureMockMvc
+public class QueryCountTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private String token;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        String login = "queries-" + UUID.randomUUID() + "@test.com";
+        String credentials = objectMapper.writeValueAsString(Map.of("login", login, "password", "Queries123!"));
+
+        mockMvc.perform(cloud(post("/cloud/register"))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(credentials))
+                .andExpect(status().isOk());
+        MvcResult loginResult = mockMvc.perform(cloud(post("/cloud/login"))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(credentials))
+                .andExpect(status().isOk())
+                .andReturn();
+        token = (String) objectMapper.readValue(loginResult.getResponse().getContentAsString(), Map.class).get("authToken");
+
+        for (int i = 0; i < 3; i++) {
+            upload("file-" + i + ".txt");
+        }
+    }
+
+    @Test
+    void uploadIssuesConstantNumberOfStatements() throws Exception {
+        // токен и пользователь (фильтр + контроллер), проверка имени, DELETE из корзины с тем же именем,
+        // INSERT files, INSERT file_jobs, запись в журнал изменений,
+        // pg_notify для сброса кэша списка и для ленты изменений на других узлах
+        QueryCount.assertStatements(12, () -> upload("another.txt"));
+    }
+
+    @Test
+    void listDoesNotDependOnNumberOfFiles() throws Exception {
+        List<String> statements = QueryCount.capture(() -> mockMvc.perform(authorized(get("/cloud/list")))
+                .andExpect(status().isOk()));
+
+        assertThat(statements).hasSize(6);
+        assertThat(statements).filteredOn(name -> name.contains("files")).hasSize(1);
+    }
+
+    @Test
+    void repeatedListIsServedFromCache() throws Exception {
+        mockMvc.perform(authorized(get("/cloud/list"))).andExpect(status().isOk());
+
+        List<String> statements = QueryCount.capture(() -> mockMvc.perform(authorized(get("/cloud/list")))
+                .andExpect(status().isOk()));
+
+        assertThat(statements).hasSize(5);
+        assertThat(statements).filteredOn(name -> name.contains("files")).isEmpty();
+    }
+
+    @Test
+    void downloadIssuesConstantNumberOfStatements() throws Exception {
+        // Файл в корзине остается на диске до очистки, поэтому наличие проверяется по строке
+        QueryCount.assertStatements(6, () -> mockMvc.perform(authorized(get("/cloud/file").param("filename", "file-0.txt")))
+                .andExpect(status().isOk()));
+    }
+
+    @Test
+    void bulkStatIssuesSingleFilesQuery() throws Exception {
+        List<String> filenames = IntStream.range(0, 1000).mapToObj(i -> "file-" + i + ".txt").toList();
+
+        List<String> statements = QueryCount.capture(() -> mockMvc.perform(authorized(post("/cloud/file/stat"))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(filenames)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.files.length()").value(3))
+                .andExpect(jsonPath("$.missing.length()").value(997)));
+
+        assertThat(statements).filteredOn(name -> name.contains("files")).hasSize(1);
+    }
+
+    @Test
+    void headReadsOnlyMetadata() throws Exception {
+        List<String> statements = QueryCount.capture(() -> mockMvc.perform(authorized(head("/cloud/file").param("filename", "file-0.txt")))
+                .andExpect(status().isOk())
+                .andExpect(header().exists("ETag")));
+
+        assertThat(statements).filteredOn(name -> name.contains("files")).hasSize(1);
+    }
+
+    @Test
+    void changesSinceCursorReadOnlyJournalTail() throws Exception {
+        MvcResult all = mockMvc.perform(authorized(get("/cloud/changes").param("since", "0")))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.changes.length()").value(3))
+                .andExpect(jsonPath("$.resync").value(false))
+                .andReturn();
+        long cursor = ((Number) objectMapper.readValue(all.getResponse().getContentAsString(), Map.class)
+                .get("cursor")).longValue();
+
+        upload("another.txt");
+
+        List<String> statements = QueryCount.capture(() -> mockMvc.perform(authorized(get("/cloud/changes")
+                        .param("since", Long.toString(cursor))))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.changes.length()").value(1))
+                .andExpect(jsonPath("$.changes[0].filename").value("another.txt"))
+                .andExpect(jsonPath("$.cursor").value(cursor + 1)));
+
+        assertThat(statements).filteredOn(name -> name.contains("files")).isEmpty();
+    }
+
+    private void upload(String filename) throws Exception {
+        String body = objectMapper.writeValueAsString(Map.of(
+                "content", Base64.getEncoder().encodeToString(filename.getBytes()),
+                "contentType", "text/plain"));
+        mockMvc.perform(authorized(post("/cloud/file").param("filename", filename))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(body))
+                .andExpect(status().isOk());
+    }
+
+    private MockHttpServletRequestBuilder authorized(MockHttpServletRequestBuilder request) {
+        return cloud(request).header("auth-token", token);
+    }
+
+    private MockHttpServletRequestBuilder cloud(MockHttpServletRequestBuilder request) {
+        return request.contextPath("/cloud");
+    }
+}
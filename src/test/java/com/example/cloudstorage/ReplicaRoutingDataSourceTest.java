@@ -0,0 +1,138 @@
+package com.example.cloudstorage;
+
+import com.example.cloudstorage.config.ReadRouting;
+import com.example.cloudstorage.config.ReplicaProperties;
+import com.example.cloudstorage.config.ReplicaRoutingDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Две базы H2 в памяти вместо основной и реплики: в каждой таблица с ее именем, так что по результату
+ * запроса видно, куда он ушел.
+ */
+public class ReplicaRoutingDataSourceTest {
+
+    private JdbcTemplate primaryJdbc;
+    private JdbcTemplate replicaJdbc;
+    private SwitchableDataSource replica;
+    private ReplicaRoutingDataSource routing;
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate readWrite;
+    private TransactionTemplate readOnly;
+
+    @BeforeEach
+    void setUp() {
+        String suffix = UUID.randomUUID().toString();
+        DriverManagerDataSource primary = new DriverManagerDataSource("jdbc:h2:mem:primary-" + suffix + ";DB_CLOSE_DELAY=-1");
+        replica = new SwitchableDataSource(
+                new DriverManagerDataSource("jdbc:h2:mem:replica-" + suffix + ";DB_CLOSE_DELAY=-1"));
+        primaryJdbc = new JdbcTemplate(primary);
+        replicaJdbc = new JdbcTemplate(replica);
+        for (JdbcTemplate db : new JdbcTemplate[]{primaryJdbc, replicaJdbc}) {
+            db.execute("CREATE TABLE node (name VARCHAR(16))");
+            db.execute("CREATE TABLE replica_lag (ms BIGINT)");
+        }
+        primaryJdbc.update("INSERT INTO node VALUES ('primary')");
+        replicaJdbc.update("INSERT INTO node VALUES ('replica')");
+        replicaJdbc.update("INSERT INTO replica_lag VALUES (0)");
+
+        ReplicaProperties properties = new ReplicaProperties();
+        properties.setStickinessMs(60_000);
+        properties.setMaxLagMs(500);
+        properties.setLagQuery("SELECT ms FROM replica_lag");
+        routing = new ReplicaRoutingDataSource(primary, replica, properties, false);
+        routing.checkReplica();
+
+        LazyConnectionDataSourceProxy dataSource = new LazyConnectionDataSourceProxy(routing);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+        readWrite = new TransactionTemplate(transactionManager);
+        readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReadRouting.clearCurrentUser();
+        routing.close();
+    }
+
+    @Test
+    void testReadOnlyTransactionsGoToReplica() {
+        assertEquals("replica", readOnly.execute(status -> node()));
+        assertEquals("primary", readWrite.execute(status -> node()));
+        // Вне транзакции - основная база, если чтение не помечено явно
+        assertEquals("primary", node());
+        assertEquals("replica", ReadRouting.onReplica(this::node));
+    }
+
+    @Test
+    void testUserReadsOwnWritesFromPrimary() {
+        ReadRouting.setCurrentUser("alice");
+        readWrite.executeWithoutResult(status -> jdbcTemplate.update("INSERT INTO node VALUES ('alice-file')"));
+
+        assertEquals("primary", readOnly.execute(status -> node()));
+
+        ReadRouting.setCurrentUser("bob");
+        assertEquals("replica", readOnly.execute(status -> node()));
+    }
+
+    @Test
+    void testLaggingReplicaFallsBackToPrimary() {
+        replicaJdbc.update("UPDATE replica_lag SET ms = 5000");
+        routing.checkReplica();
+
+        assertFalse(routing.isReplicaUsable());
+        assertEquals("primary", readOnly.execute(status -> node()));
+
+        replicaJdbc.update("UPDATE replica_lag SET ms = 100");
+        routing.checkReplica();
+        assertEquals("replica", readOnly.execute(status -> node()));
+    }
+
+    @Test
+    void testUnavailableReplicaFallsBackToPrimary() {
+        replica.down = true;
+
+        // Реплика отказала при получении соединения: запрос уходит на основную базу без ошибки
+        assertEquals("primary", readOnly.execute(status -> node()));
+        assertFalse(routing.isReplicaUsable());
+
+        replica.down = false;
+        routing.checkReplica();
+        assertEquals("replica", readOnly.execute(status -> node()));
+    }
+
+    private String node() {
+        return jdbcTemplate.queryForObject("SELECT name FROM node FETCH FIRST 1 ROWS ONLY", String.class);
+    }
+
+    private static final class SwitchableDataSource extends DelegatingDataSource {
+        private volatile boolean down;
+
+        SwitchableDataSource(DriverManagerDataSource target) {
+            super(target);
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            if (down) {
+                throw new SQLException("Connection refused");
+            }
+            return super.getConnection();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.cloudstorage;
+
+import com.example.cloudstorage.entity.UserEntity;
+import com.example.cloudstorage.event.FileChangeEvent;
+import com.example.cloudstorage.event.PostgresNotificationBus;
+import com.example.cloudstorage.exception.FileStorageException;
+import com.example.cloudstorage.repository.ChangeJournalRepository;
+import com.example.cloudstorage.repository.ChangeJournalRepository.RenamedName;
+import com.example.cloudstorage.repository.TrashRepository;
+import com.example.cloudstorage.repository.TrashRepository.DeletedName;
+import com.example.cloudstorage.service.FileStorageService;
+import com.example.cloudstorage.service.SignedLinkService;
+import com.example.cloudstorage.service.SignedLinkService.SignedLink;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class SignedLinkServiceTest {
+
+    @Mock
+    private FileStorageService fileStorageService;
+
+    @Mock
+    private TrashRepository trashRepository;
+
+    @Mock
+    private ChangeJournalRepository journalRepository;
+
+    @Mock
+    private PostgresNotificationBus notificationBus;
+
+    private SignedLinkService linkService;
+    private UserEntity user;
+
+    @BeforeEach
+    void setUp() {
+        linkService = new SignedLinkService(fileStorageService, trashRepository, journalRepository, notificationBus,
+                new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(linkService, "storageLocation", "/srv/storage");
+        ReflectionTestUtils.setField(linkService, "secret", "test-secret");
+        ReflectionTestUtils.setField(linkService, "defaultTtlSeconds", 3600L);
+        ReflectionTestUtils.setField(linkService, "maxTtlSeconds", 86400L);
+        when(trashRepository.findDeletedSince(86400L)).thenReturn(List.of());
+        when(journalRepository.findRenamedSince(86400L)).thenReturn(List.of());
+        ReflectionTestUtils.invokeMethod(linkService, "start");
+
+        user = new UserEntity();
+        user.setId(1L);
+        user.setLogin("alice");
+    }
+
+    @Test
+    void testValidLinkResolvesToStoredFile() {
+        SignedLink link = issue("report.pdf");
+
+        Path path = linkService.resolve(link.login(), link.filename(), link.issuedAt(), link.expiresAt(), link.signature())
+                .orElseThrow();
+
+        assertEquals(Path.of("/srv/storage/alice/report.pdf").toAbsolutePath(), path);
+    }
+
+    @Test
+    void testTamperedLinkIsRejected() {
+        SignedLink link = issue("report.pdf");
+
+        assertTrue(linkService.resolve(link.login(), "other.pdf", link.issuedAt(), link.expiresAt(), link.signature()).isEmpty());
+        assertTrue(linkService.resolve("bob", link.filename(), link.issuedAt(), link.expiresAt(), link.signature()).isEmpty());
+        assertTrue(linkService.resolve(link.login(), link.filename(), link.issuedAt(), link.expiresAt() + 1000,
+                link.signature()).isEmpty());
+    }
+
+    @Test
+    void testExpiredLinkIsRejected() {
+        SignedLink link = issue("report.pdf");
+
+        assertTrue(linkService.resolve(link.login(), link.filename(), link.issuedAt() - 10_000, link.issuedAt() - 1,
+                link.signature()).isEmpty());
+    }
+
+    @Test
+    void testDeletionRevokesEarlierLinksOnly() throws Exception {
+        SignedLink before = issue("report.pdf");
+        Thread.sleep(2);
+
+        linkService.onFileChange(FileChangeEvent.deleted(1L, "alice", 5L, "report.pdf"));
+        Thread.sleep(2);
+        SignedLink after = issue("report.pdf");
+
+        assertTrue(linkService.resolve(before.login(), before.filename(), before.issuedAt(), before.expiresAt(),
+                before.signature()).isEmpty());
+        assertTrue(linkService.resolve(after.login(), after.filename(), after.issuedAt(), after.expiresAt(),
+                after.signature()).isPresent());
+        verify(notificationBus).publish(anyString(), eq("alice/report.pdf"));
+    }
+
+    @Test
+    void testRevocationsAreReloadedFromTrash() {
+        SignedLink link = issue("report.pdf");
+        when(trashRepository.findDeletedSince(86400L))
+                .thenReturn(List.of(new DeletedName("alice", "report.pdf", LocalDateTime.now().plusSeconds(1))));
+
+        ReflectionTestUtils.invokeMethod(linkService, "reloadRevocations");
+
+        assertTrue(linkService.resolve(link.login(), link.filename(), link.issuedAt(), link.expiresAt(),
+                link.signature()).isEmpty());
+    }
+
+    @Test
+    void testRenameRevokesLinksToOldName() throws Exception {
+        SignedLink link = issue("report.pdf");
+        Thread.sleep(2);
+
+        // Файл переименован, под прежним именем загружен другой - старая ссылка его не отдает
+        linkService.onFileChange(FileChangeEvent.renamed(1L, "alice", 5L, "report.pdf", "final.pdf", 10L));
+
+        assertTrue(linkService.resolve(link.login(), link.filename(), link.issuedAt(), link.expiresAt(),
+                link.signature()).isEmpty());
+        verify(notificationBus).publish(anyString(), eq("alice/report.pdf"));
+    }
+
+    @Test
+    void testRenameRevocationsAreReloadedFromJournal() {
+        SignedLink link = issue("report.pdf");
+        when(journalRepository.findRenamedSince(86400L))
+                .thenReturn(List.of(new RenamedName("alice", "report.pdf", LocalDateTime.now().plusSeconds(1))));
+
+        ReflectionTestUtils.invokeMethod(linkService, "reloadRevocations");
+
+        assertTrue(linkService.resolve(link.login(), link.filename(), link.issuedAt(), link.expiresAt(),
+                link.signature()).isEmpty());
+    }
+
+    @Test
+    void testLinkForMissingFileIsRefused() {
+        when(fileStorageService.fileExists(user, "missing.txt")).thenReturn(false);
+
+        assertThrows(FileStorageException.class, () -> linkService.createLink(user, "missing.txt", null));
+        assertThrows(IllegalArgumentException.class, () -> linkService.createLink(user, "missing.txt", 86401L));
+    }
+
+    private SignedLink issue(String filename) {
+        when(fileStorageService.fileExists(user, filename)).thenReturn(true);
+        return linkService.createLink(user, filename, 60L);
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.cloudstorage;
+
+import com.example.cloudstorage.config.ReplicationProperties;
+import com.example.cloudstorage.service.StorageHealthService;
+import com.example.cloudstorage.service.StorageHealthService.Condition;
+import com.example.cloudstorage.service.StorageHealthService.VolumeSample;
+import com.example.cloudstorage.service.StorageHealthService.WriteRejection;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StorageHealthServiceTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private StorageHealthService storageHealth;
+    private Path root;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        root = Files.createTempDirectory("health-test");
+        storageHealth = startService(new ReplicationProperties());
+    }
+
+    private StorageHealthService startService(ReplicationProperties replicationProperties) {
+        meterRegistry = new SimpleMeterRegistry();
+        StorageHealthService storageHealth = new StorageHealthService(replicationProperties, meterRegistry);
+        ReflectionTestUtils.setField(storageHealth, "storageLocation", root.toString());
+        ReflectionTestUtils.setField(storageHealth, "enabled", true);
+        ReflectionTestUtils.setField(storageHealth, "sampleIntervalMs", 60_000L);
+        ReflectionTestUtils.setField(storageHealth, "minFreeBytes", 0L);
+        ReflectionTestUtils.setField(storageHealth, "readinessMinFreeRatio", 0.0);
+        ReflectionTestUtils.setField(storageHealth, "minFreeInodesRatio", 0.0);
+        ReflectionTestUtils.setField(storageHealth, "maxProbeLatencyMs", 60_000L);
+        ReflectionTestUtils.invokeMethod(storageHealth, "start");
+        return storageHealth;
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.invokeMethod(storageHealth, "stop");
+    }
+
+    @Test
+    void testVolumeIsSampledInBackground() throws Exception {
+        VolumeSample sample = awaitSample();
+
+        assertEquals(root.toAbsolutePath().normalize(), sample.root());
+        assertTrue(sample.usableBytes() > 0);
+        assertTrue(sample.totalBytes() >= sample.usableBytes());
+        assertNull(sample.probeError());
+        assertTrue(Files.exists(root.resolve(".health-probe")));
+        assertEquals(Condition.UP, storageHealth.getCondition(0));
+        assertNull(storageHealth.checkWrite(1024));
+    }
+
+    @Test
+    void testUploadThatDoesNotFitIsRejectedUpFront() throws Exception {
+        VolumeSample sample = awaitSample();
+
+        assertEquals(WriteRejection.NO_SPACE, storageHealth.checkWrite(sample.usableBytes() + 1));
+        // Без объявленного размера проверяется только запас
+        assertNull(storageHealth.checkWrite(-1));
+
+        ReflectionTestUtils.setField(storageHealth, "minFreeBytes", sample.usableBytes() + 1);
+        assertEquals(WriteRejection.NO_SPACE, storageHealth.checkWrite(-1));
+        assertEquals(2.0, meterRegistry.get("storage.write.rejected").tag("reason", "no_space").counter().count());
+    }
+
+    @Test
+    void testReadinessGoesDownBeforeDiskIsFull() throws Exception {
+        awaitSample();
+
+        // Загрузки еще проходят, но доля свободного места уже ниже порога готовности
+        ReflectionTestUtils.setField(storageHealth, "readinessMinFreeRatio", 1.01);
+        assertEquals(Condition.LOW_SPACE, storageHealth.getCondition(0));
+        assertNull(storageHealth.checkWrite(1024));
+    }
+
+    @Test
+    void testSlowProbeRejectsUploadsAsDegraded() throws Exception {
+        awaitSample();
+
+        ReflectionTestUtils.setField(storageHealth, "maxProbeLatencyMs", -1L);
+        assertEquals(Condition.SLOW, storageHealth.getCondition(0));
+        assertEquals(WriteRejection.DEGRADED, storageHealth.checkWrite(1024));
+    }
+
+    @Test
+    void testFailingReplicaRejectsOnlyWhenQuorumIsLost() throws Exception {
+        ReflectionTestUtils.invokeMethod(storageHealth, "stop");
+        // Том B не создать - на его месте обычный файл, проба на нем сбоит
+        Path broken = Files.writeString(Files.createTempDirectory("health-b").resolve("volume"), "not a directory");
+        ReplicationProperties replication = new ReplicationProperties();
+        replication.setVolumes(List.of(Files.createTempDirectory("health-a").toString(), broken.toString()));
+        replication.setWriteQuorum(2);
+        storageHealth = startService(replication);
+        for (int index = 0; index < 3; index++) {
+            awaitSample(index);
+        }
+
+        assertEquals(Condition.FAILING, storageHealth.getCondition(2));
+        // Основной том и том A дают кворум 2: копия на B уйдет в восстановление
+        assertNull(storageHealth.checkWrite(1024));
+
+        replication.setWriteQuorum(3);
+        assertEquals(WriteRejection.DEGRADED, storageHealth.checkWrite(1024));
+    }
+
+    private VolumeSample awaitSample() throws InterruptedException {
+        return awaitSample(0);
+    }
+
+    private VolumeSample awaitSample(int index) throws InterruptedException {
+        for (int i = 0; i < 100 && storageHealth.getSample(index) == null; i++) {
+            Thread.sleep(50);
+        }
+        VolumeSample sample = storageHealth.getSample(index);
+        assertNotNull(sample);
+        return sample;
+    }
+}
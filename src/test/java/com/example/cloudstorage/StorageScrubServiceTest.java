@@ -0,0 +1,266 @@
+package com.example.cloudstorage;
+
+import com.example.cloudstorage.dto.ScrubReport;
+import com.example.cloudstorage.event.FileChangeEvent;
+import com.example.cloudstorage.repository.FileJobRepository;
+import com.example.cloudstorage.repository.FileVersionRepository;
+import com.example.cloudstorage.repository.PackedSegmentRepository;
+import com.example.cloudstorage.repository.ScrubRepository;
+import com.example.cloudstorage.repository.ScrubRepository.StoredFile;
+import com.example.cloudstorage.repository.UserKeyRepository;
+import com.example.cloudstorage.service.FileEncryptionService;
+import com.example.cloudstorage.service.FileVersionService;
+import com.example.cloudstorage.service.PackedStorageService;
+import com.example.cloudstorage.service.StorageScrubService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class StorageScrubServiceTest {
+
+    @Mock
+    private ScrubRepository scrubRepository;
+
+    @Mock
+    private FileVersionRepository fileVersionRepository;
+
+    @Mock
+    private FileVersionService fileVersionService;
+
+    @Mock
+    private FileJobRepository fileJobRepository;
+
+    @Mock
+    private PackedStorageService packedStorage;
+
+    @Mock
+    private PackedSegmentRepository packedSegmentRepository;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    private StorageScrubService scrubService;
+    private Path root;
+    private List<StoredFile> rows;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        root = Files.createTempDirectory("scrub-test");
+        // Шифрование выключено: файлы читаются как есть
+        FileEncryptionService fileEncryption = new FileEncryptionService(
+                mock(UserKeyRepository.class), mock(PlatformTransactionManager.class));
+        scrubService = new StorageScrubService(scrubRepository, fileVersionRepository, fileVersionService,
+                fileJobRepository, fileEncryption, packedStorage, packedSegmentRepository, eventPublisher,
+                transactionTemplate, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(scrubService, "storageLocation", root.toString());
+        ReflectionTestUtils.setField(scrubService, "batchSize", 500);
+        ReflectionTestUtils.setField(scrubService, "maxBytesPerSecond", 0L);
+        ReflectionTestUtils.setField(scrubService, "graceSeconds", 60L);
+        ReflectionTestUtils.setField(scrubService, "recheckDelayMs", 0L);
+        // В тестовом наборе из трех строк одна без файла
+        ReflectionTestUtils.setField(scrubService, "maxMissingRatio", 0.5);
+        ReflectionTestUtils.invokeMethod(scrubService, "start");
+
+        Path userDir = Files.createDirectories(root.resolve("alice"));
+        Files.writeString(userDir.resolve("ok.txt"), "abc");
+        Files.writeString(userDir.resolve("big.txt"), "12345");
+        Files.writeString(userDir.resolve("orphan.bin"), "lost");
+        Files.setLastModifiedTime(userDir.resolve("orphan.bin"), FileTime.from(Instant.now().minusSeconds(3600)));
+        // Только что записанный файл без строки - загрузка, которая еще не дошла до вставки в БД
+        Files.writeString(userDir.resolve("uploading.bin"), "new");
+        Files.createDirectories(root.resolve(".chunks").resolve("ab"));
+        Files.writeString(root.resolve(".chunks").resolve("ab").resolve("abcdef"), "chunk");
+
+        rows = List.of(
+                row(1L, "ok.txt", 3),
+                row(2L, "gone.txt", 7),
+                row(3L, "big.txt", 10));
+        // Проход по БД асинхронный: в тесте с отклоненным запуском до этих вызовов может не дойти
+        lenient().when(scrubRepository.findAfter(0L, 500)).thenReturn(rows);
+        lenient().when(scrubRepository.findAfter(0L, 1)).thenAnswer(invocation -> rows.subList(0, 1));
+        lenient().when(scrubRepository.countFiles()).thenAnswer(invocation -> (long) rows.size());
+        lenient().when(scrubRepository.findByIds(anyList())).thenAnswer(invocation -> {
+            List<Long> ids = invocation.getArgument(0);
+            return rows.stream().filter(row -> ids.contains(row.id())).toList();
+        });
+        lenient().when(scrubRepository.findExistingFilenames(eq("alice"), anyList())).thenAnswer(invocation -> {
+            List<String> filenames = invocation.getArgument(1);
+            return filenames.stream()
+                    .filter(name -> rows.stream().anyMatch(row -> row.filename().equals(name)))
+                    .collect(Collectors.toSet());
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.invokeMethod(scrubService, "stop");
+    }
+
+    @Test
+    void testReportOnlyFindsDriftWithoutTouchingAnything() throws Exception {
+        ScrubReport report = runScrub(false);
+
+        assertNull(report.getError());
+        assertEquals(3, report.getRowsChecked());
+        assertEquals(4, report.getBlobsChecked());
+        assertEquals(1, report.getMissingBlobs());
+        assertEquals(1, report.getSizeMismatches());
+        assertEquals(1, report.getOrphanBlobs());
+        assertEquals(0, report.getRepaired());
+        assertEquals(3, report.getIssues().size());
+
+        assertTrue(Files.exists(root.resolve("alice").resolve("orphan.bin")));
+        verify(scrubRepository, never()).deleteFile(anyLong());
+        verify(scrubRepository, never()).updateSize(anyLong(), anyLong());
+        verifyNoInteractions(eventPublisher);
+    }
+
+    @Test
+    void testRepairReconcilesRowsAndQuarantinesOrphans() throws Exception {
+        when(fileVersionRepository.findVersions(2L)).thenReturn(List.of());
+        when(transactionTemplate.execute(any())).thenAnswer(invocation ->
+                invocation.getArgument(0, TransactionCallback.class).doInTransaction(null));
+        doAnswer(invocation -> {
+            invocation.<Consumer<TransactionStatus>>getArgument(0).accept(null);
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any());
+
+        ScrubReport report = runScrub(true);
+
+        assertNull(report.getError());
+        assertEquals(3, report.getRepaired());
+
+        // Строка без файла и без версий удаляется
+        verify(fileVersionRepository).deleteByFileId(2L);
+        verify(scrubRepository).deleteFile(2L);
+        verify(eventPublisher).publishEvent(FileChangeEvent.deleted(10L, "alice", 2L, "gone.txt"));
+
+        // Размер берется с диска, метаданные пересчитываются
+        verify(scrubRepository).updateSize(3L, 5L);
+        verify(fileJobRepository).enqueue(3L);
+        verify(eventPublisher).publishEvent(FileChangeEvent.modified(10L, "alice", 3L, "big.txt", 5L));
+
+        // Файл без строки не удаляется, а переносится в .lost+found; свежий файл не трогаем
+        assertFalse(Files.exists(root.resolve("alice").resolve("orphan.bin")));
+        List<Path> quarantined;
+        try (var listing = Files.list(root.resolve(".lost+found").resolve("alice"))) {
+            quarantined = listing.toList();
+        }
+        assertEquals(1, quarantined.size());
+        assertEquals("lost", Files.readString(quarantined.get(0)));
+        assertTrue(Files.exists(root.resolve("alice").resolve("uploading.bin")));
+        assertTrue(Files.exists(root.resolve(".chunks").resolve("ab").resolve("abcdef")));
+    }
+
+    @Test
+    void testMassMissingIsReportedButNotRepaired() throws Exception {
+        rows = List.of(
+                row(1L, "ok.txt", 3),
+                row(2L, "gone.txt", 7),
+                row(4L, "lost.txt", 2));
+        when(scrubRepository.findAfter(0L, 500)).thenReturn(rows);
+
+        ScrubReport report = runScrub(true);
+
+        // Две из трех строк без файлов - выше порога: строки остаются, запуск помечен ошибкой
+        assertEquals(2, report.getMissingBlobs());
+        assertNotNull(report.getError());
+        verify(scrubRepository, never()).deleteFile(anyLong());
+        verify(fileVersionService, never()).restore(any(), any(), any());
+        // Остальные расхождения чинятся как обычно
+        assertFalse(Files.exists(root.resolve("alice").resolve("orphan.bin")));
+    }
+
+    @Test
+    void testScrubIsAbortedWhenStorageRootIsEmpty() throws Exception {
+        Path emptyRoot = Files.createTempDirectory("scrub-empty");
+        ReflectionTestUtils.setField(scrubService, "storageLocation", emptyRoot.toString());
+
+        // Похоже на несмонтированный том: все строки выглядели бы потерянными
+        assertThrows(IllegalStateException.class, () -> scrubService.startScrub(true, false));
+
+        ReflectionTestUtils.setField(scrubService, "storageLocation", emptyRoot.resolve("missing").toString());
+        assertThrows(IllegalStateException.class, () -> scrubService.startScrub(true, false));
+        assertNull(scrubService.getLastReport());
+        verify(scrubRepository, never()).deleteFile(anyLong());
+    }
+
+    @Test
+    void testPackedRowsAreCheckedInSegment() throws Exception {
+        rows = List.of(
+                packed(4L, "note.txt", 3, 0),
+                packed(5L, "cut.txt", 3, 3),
+                packed(6L, "short.txt", 5, 6));
+        when(scrubRepository.findAfter(0L, 500)).thenReturn(rows);
+        when(packedStorage.contains(eq(1L), anyLong(), anyInt())).thenAnswer(invocation ->
+                invocation.<Long>getArgument(1) != 3L);
+        when(packedStorage.read(eq(1L), anyLong(), anyInt())).thenReturn("abc".getBytes());
+
+        ScrubReport report = runScrub(false);
+
+        assertNull(report.getError());
+        assertEquals(3, report.getRowsChecked());
+        // Файлов на диске у упакованных строк нет - это не расхождение; обрезанный сегмент - есть
+        assertEquals(1, report.getMissingBlobs());
+        assertEquals(1, report.getSizeMismatches());
+        verifyNoInteractions(packedSegmentRepository);
+    }
+
+    @Test
+    void testSecondRunIsRejectedWhileFirstIsInProgress() {
+        ReflectionTestUtils.setField(scrubService, "recheckDelayMs", 500L);
+
+        scrubService.startScrub(false, false);
+
+        assertThrows(IllegalStateException.class, () -> scrubService.startScrub(false, false));
+    }
+
+    private ScrubReport runScrub(boolean repair) throws InterruptedException {
+        scrubService.startScrub(repair, false);
+        long deadline = System.currentTimeMillis() + 10_000;
+        ScrubReport report = scrubService.getLastReport();
+        while (report.isRunning() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            report = scrubService.getLastReport();
+        }
+        assertFalse(report.isRunning());
+        return report;
+    }
+
+    private StoredFile row(long id, String filename, long size) {
+        return new StoredFile(id, 10L, "alice", filename, size, LocalDateTime.now().minusDays(1), null, null,
+                null, 0, 0);
+    }
+
+    private StoredFile packed(long id, String filename, long size, long offset) {
+        return new StoredFile(id, 10L, "alice", filename, size, LocalDateTime.now().minusDays(1), null, null,
+                1L, offset, 3);
+    }
+}
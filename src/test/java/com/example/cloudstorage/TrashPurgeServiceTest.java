@@ -0,0 +1,102 @@
+package com.example.cloudstorage;
+
+import com.example.cloudstorage.repository.TrashRepository;
+import com.example.cloudstorage.repository.TrashRepository.PurgedFile;
+import com.example.cloudstorage.service.TrashPurgeService;
+import com.example.cloudstorage.service.VolumeReplicationService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class TrashPurgeServiceTest {
+
+    @Mock
+    private TrashRepository trashRepository;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    @Mock
+    private VolumeReplicationService volumeReplication;
+
+    private TrashPurgeService purgeService;
+    private Path userDir;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Path root = Files.createTempDirectory("trash-test");
+        userDir = Files.createDirectories(root.resolve("alice"));
+        purgeService = new TrashPurgeService(trashRepository, transactionTemplate, volumeReplication, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(purgeService, "storageLocation", root.toString());
+        ReflectionTestUtils.setField(purgeService, "retentionHours", 24L);
+        ReflectionTestUtils.setField(purgeService, "batchSize", 2);
+        ReflectionTestUtils.invokeMethod(purgeService, "start");
+
+        when(transactionTemplate.execute(any())).thenAnswer(invocation ->
+                invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+    }
+
+    @Test
+    void testPurgeRemovesExpiredFilesInBatches() throws Exception {
+        LocalDateTime deletedAt = LocalDateTime.now().minusDays(2);
+        old("a.txt");
+        old("b.txt");
+        old("c.txt");
+        when(trashRepository.purgeExpired(86400L, 2)).thenReturn(
+                List.of(purged(1L, "a.txt", deletedAt), purged(2L, "b.txt", deletedAt)),
+                List.of(purged(3L, "c.txt", deletedAt)));
+        when(trashRepository.findOccupiedFilenames(eq("alice"), anyList())).thenReturn(Set.of());
+
+        purgeService.purgeExpired();
+
+        verify(trashRepository, times(2)).purgeExpired(86400L, 2);
+        assertFalse(Files.exists(userDir.resolve("a.txt")));
+        assertFalse(Files.exists(userDir.resolve("b.txt")));
+        assertFalse(Files.exists(userDir.resolve("c.txt")));
+    }
+
+    @Test
+    void testPurgeKeepsFilesReusedAfterDeletion() throws Exception {
+        LocalDateTime deletedAt = LocalDateTime.now().minusDays(2);
+        old("taken.txt");
+        // Загрузка под тем же именем уже записала файл, но строку еще не вставила
+        Files.writeString(userDir.resolve("uploading.txt"), "new");
+        when(trashRepository.purgeExpired(86400L, 2)).thenReturn(
+                List.of(purged(1L, "taken.txt", deletedAt), purged(2L, "uploading.txt", deletedAt)),
+                List.of());
+        when(trashRepository.findOccupiedFilenames(eq("alice"), anyList())).thenReturn(Set.of("taken.txt"));
+
+        purgeService.purgeExpired();
+
+        assertTrue(Files.exists(userDir.resolve("taken.txt")));
+        assertTrue(Files.exists(userDir.resolve("uploading.txt")));
+    }
+
+    private void old(String filename) throws Exception {
+        Path file = Files.writeString(userDir.resolve(filename), "content");
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now().minusSeconds(3 * 86400)));
+    }
+
+    private PurgedFile purged(long id, String filename, LocalDateTime deletedAt) {
+        return new PurgedFile(id, "alice", filename, deletedAt);
+    }
+}
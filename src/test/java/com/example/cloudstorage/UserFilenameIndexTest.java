@@ -0,0 +1,60 @@
+package com.example.cloudstorage;
+
+import com.example.cloudstorage.dto.FileResponse;
+import com.example.cloudstorage.service.UserFilenameIndex;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserFilenameIndexTest {
+
+    private static List<String> names(List<FileResponse> files) {
+        return files.stream().map(FileResponse::getFilename).toList();
+    }
+
+    @Test
+    void testPrefixAndSubstringSearch() {
+        UserFilenameIndex index = new UserFilenameIndex(List.of(
+                new FileResponse("Report-2024.pdf", 10L),
+                new FileResponse("report-2023.pdf", 20L),
+                new FileResponse("photo.jpg", 30L)));
+
+        assertEquals(List.of("report-2023.pdf", "Report-2024.pdf"), names(index.searchPrefix("REP", 0, 10)));
+        assertEquals(List.of("report-2023.pdf", "Report-2024.pdf"), names(index.searchSubstring("pdf", 0, 10)));
+        assertEquals(List.of("Report-2024.pdf"), names(index.searchSubstring("2024", 0, 10)));
+        assertEquals(List.of("photo.jpg"), names(index.searchSubstring("o.", 0, 10)));
+        assertTrue(index.searchSubstring("missing", 0, 10).isEmpty());
+    }
+
+    @Test
+    void testUpdatesAreVisible() {
+        UserFilenameIndex index = new UserFilenameIndex(List.of(new FileResponse("a.txt", 1L)));
+
+        index.add("notes.txt", 5L);
+        index.rename("a.txt", "b.txt");
+        index.remove("notes.txt");
+
+        assertEquals(List.of("b.txt"), names(index.searchSubstring("txt", 0, 10)));
+        assertEquals(1L, index.searchPrefix("b", 0, 10).get(0).getSize());
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    void testPaginationAfterCompaction() {
+        List<FileResponse> files = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            files.add(new FileResponse(String.format("file-%04d.log", i), (long) i));
+        }
+        UserFilenameIndex index = new UserFilenameIndex(files);
+        for (int i = 0; i < 2000; i++) {
+            index.remove(String.format("file-%04d.log", i));
+        }
+
+        assertEquals(1000, index.size());
+        assertEquals(List.of("file-2010.log", "file-2011.log"), names(index.searchSubstring("file-", 10, 2)));
+        assertEquals(List.of("file-2999.log"), names(index.searchPrefix("file-29", 99, 10)));
+    }
+}
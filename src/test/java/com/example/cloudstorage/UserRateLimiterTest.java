@@ -0,0 +1,104 @@
+package com.example.cloudstorage;
+
+import com.example.cloudstorage.config.RateLimitProperties;
+import com.example.cloudstorage.service.UserRateLimiter;
+import com.example.cloudstorage.service.UserRateLimiter.UserLimits;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserRateLimiterTest {
+
+    private RateLimitProperties properties;
+    private SimpleMeterRegistry meterRegistry;
+    private UserRateLimiter rateLimiter;
+
+    @BeforeEach
+    void setUp() {
+        RateLimitProperties.Tier standard = new RateLimitProperties.Tier();
+        standard.setRequestsPerSecond(1);
+        standard.setRequestBurst(3);
+        standard.setDownloadBytesPerSecond(1000);
+
+        properties = new RateLimitProperties();
+        properties.setTiers(Map.of("standard", standard, "premium", new RateLimitProperties.Tier()));
+        properties.setUsers(Map.of("vip", "premium"));
+
+        meterRegistry = new SimpleMeterRegistry();
+        rateLimiter = new UserRateLimiter(properties, meterRegistry);
+        ReflectionTestUtils.invokeMethod(rateLimiter, "start");
+    }
+
+    @Test
+    void testBurstIsAllowedThenRequestsAreRejected() {
+        UserLimits limits = rateLimiter.limitsFor("alice");
+
+        assertEquals(0, limits.acquireRequest());
+        assertEquals(0, limits.acquireRequest());
+        assertEquals(0, limits.acquireRequest());
+
+        long waitNanos = limits.acquireRequest();
+        assertTrue(waitNanos > 0 && waitNanos <= TimeUnit.SECONDS.toNanos(1), "wait " + waitNanos);
+        assertEquals(1.0, meterRegistry.get("ratelimit.throttled")
+                .tag("tier", "standard").tag("kind", "requests").counter().count());
+        assertEquals(1.0, meterRegistry.get("ratelimit.throttled.users").gauge().value());
+    }
+
+    @Test
+    void testUsersHaveIndependentBucketsAndTiers() {
+        UserLimits alice = rateLimiter.limitsFor("alice");
+        for (int i = 0; i < 3; i++) {
+            alice.acquireRequest();
+        }
+
+        assertSame(alice, rateLimiter.limitsFor("alice"));
+        assertEquals(0, rateLimiter.limitsFor("bob").acquireRequest());
+
+        UserLimits vip = rateLimiter.limitsFor("vip");
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(0, vip.acquireRequest());
+        }
+        assertFalse(vip.shapesBandwidth());
+        assertTrue(alice.shapesBandwidth());
+    }
+
+    @Test
+    void testBandwidthIsDelayedNotRejected() {
+        UserLimits limits = rateLimiter.limitsFor("alice");
+
+        // Секунда трафика проходит сразу, дальше каждая порция ждет пропорционально размеру
+        assertEquals(0, limits.reserveDownload(1000));
+        long wait = limits.reserveDownload(500);
+        assertTrue(wait > TimeUnit.MILLISECONDS.toNanos(400) && wait <= TimeUnit.MILLISECONDS.toNanos(500), "wait " + wait);
+        long next = limits.reserveDownload(500);
+        assertTrue(next > wait, "wait grows while the client keeps sending: " + next);
+
+        assertEquals(0, limits.reserveUpload(1_000_000));
+    }
+
+    @Test
+    void testIdleUsersAreEvicted() {
+        UserLimits limits = rateLimiter.limitsFor("alice");
+
+        rateLimiter.evictIdle();
+
+        assertNotSame(limits, rateLimiter.limitsFor("alice"));
+    }
+
+    @Test
+    void testDisabledLimiterLetsEverythingThrough() {
+        properties.setEnabled(false);
+
+        UserLimits limits = rateLimiter.limitsFor("alice");
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, limits.acquireRequest());
+        }
+        assertFalse(limits.shapesBandwidth());
+    }
+}
@@ -0,0 +1,207 @@
+package com.example.cloudstorage;
+
+import com.example.cloudstorage.config.ReplicationProperties;
+import com.example.cloudstorage.service.VolumeReplicationService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Тома - временные каталоги: основной и две копии.
+ */
+public class VolumeReplicationServiceTest {
+
+    private Path primary;
+    private Path replicaA;
+    private Path replicaB;
+    private MeterRegistry meterRegistry;
+    private VolumeReplicationService replication;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        primary = Files.createTempDirectory("volume-primary");
+        replicaA = Files.createTempDirectory("volume-a");
+        replicaB = Files.createTempDirectory("volume-b");
+        replication = startService();
+    }
+
+    private VolumeReplicationService startService() {
+        ReplicationProperties properties = new ReplicationProperties();
+        properties.setVolumes(List.of(replicaA.toString(), replicaB.toString()));
+        properties.setWriteQuorum(2);
+        meterRegistry = new SimpleMeterRegistry();
+        VolumeReplicationService service = new VolumeReplicationService(properties, meterRegistry);
+        ReflectionTestUtils.setField(service, "storageLocation", primary.toString());
+        ReflectionTestUtils.invokeMethod(service, "start");
+        return service;
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.invokeMethod(replication, "stop");
+    }
+
+    @Test
+    void testWriteReachesAllVolumes() throws Exception {
+        byte[] content = "hello".getBytes();
+
+        replication.write("alice", "a.txt", content);
+
+        assertArrayEquals(content, Files.readAllBytes(primary.resolve("alice/a.txt")));
+        awaitTrue(() -> Files.exists(replicaA.resolve("alice/a.txt")) && Files.exists(replicaB.resolve("alice/a.txt")));
+        assertArrayEquals(content, replication.read("alice", "a.txt", content.length));
+    }
+
+    @Test
+    void testReadFallsBackToReplicaWhenPrimaryCopyIsMissing() throws Exception {
+        byte[] content = "hello".getBytes();
+        replication.write("alice", "a.txt", content);
+        awaitTrue(() -> Files.exists(replicaA.resolve("alice/a.txt")) && Files.exists(replicaB.resolve("alice/a.txt")));
+
+        Files.delete(primary.resolve("alice/a.txt"));
+
+        assertArrayEquals(content, replication.read("alice", "a.txt", content.length));
+    }
+
+    @Test
+    void testCopyOfWrongSizeIsNotServed() throws Exception {
+        replication.write("alice", "a.txt", "hello".getBytes());
+        awaitTrue(() -> Files.exists(replicaA.resolve("alice/a.txt")) && Files.exists(replicaB.resolve("alice/a.txt")));
+
+        // Размер в БД уже другой: ни одна из копий не годится
+        assertThrows(IOException.class, () -> replication.read("alice", "a.txt", 42));
+    }
+
+    @Test
+    void testFailedReplicaIsRepairedFromPrimary() throws Exception {
+        // Каталог пользователя на томе B не создать - на его месте обычный файл
+        Files.writeString(replicaB.resolve("alice"), "not a directory");
+        byte[] content = "hello".getBytes();
+
+        replication.write("alice", "a.txt", content);
+        awaitTrue(() -> replication.getPendingRepairs() == 1);
+
+        Files.delete(replicaB.resolve("alice"));
+        replication.repairPending();
+
+        assertEquals(0, replication.getPendingRepairs());
+        assertArrayEquals(content, Files.readAllBytes(replicaB.resolve("alice/a.txt")));
+    }
+
+    @Test
+    void testRenameAndDeleteAreMirrored() throws Exception {
+        replication.write("alice", "a.txt", "hello".getBytes());
+        awaitTrue(() -> Files.exists(replicaA.resolve("alice/a.txt")) && Files.exists(replicaB.resolve("alice/a.txt")));
+
+        Files.move(primary.resolve("alice/a.txt"), primary.resolve("alice/b.txt"));
+        replication.rename("alice", "a.txt", "b.txt");
+        awaitTrue(() -> Files.exists(replicaA.resolve("alice/b.txt")) && Files.exists(replicaB.resolve("alice/b.txt")));
+        assertFalse(Files.exists(replicaA.resolve("alice/a.txt")));
+
+        replication.delete("alice", "b.txt");
+        awaitTrue(() -> !Files.exists(replicaA.resolve("alice/b.txt")) && !Files.exists(replicaB.resolve("alice/b.txt")));
+    }
+
+    @Test
+    void testReplicaMissedBeforeRestartIsNotServed() throws Exception {
+        replication.write("alice", "a.txt", "hello".getBytes());
+        awaitTrue(() -> Files.exists(replicaA.resolve("alice/a.txt")) && Files.exists(replicaB.resolve("alice/a.txt")));
+
+        // Процесс перезапущен, пока обновлялся только основной том: размер тот же, отличается время изменения
+        ReflectionTestUtils.invokeMethod(replication, "stop");
+        replication = startService();
+        Path primaryCopy = Files.writeString(primary.resolve("alice/a.txt"), "HELLO");
+        Files.setLastModifiedTime(primaryCopy, FileTime.fromMillis(System.currentTimeMillis() + 5000));
+        slowDownPrimary();
+
+        // Время записи после перезапуска неизвестно - копии не читаются, пока сверка его не узнает
+        assertEquals("HELLO", new String(replication.read("alice", "a.txt", 5)));
+        assertEquals(0, replication.getPendingRepairs());
+
+        replication.repairPending();
+        assertEquals(0, replication.getPendingRepairs());
+        assertEquals("HELLO", Files.readString(replicaA.resolve("alice/a.txt")));
+        assertEquals("HELLO", Files.readString(replicaB.resolve("alice/a.txt")));
+    }
+
+    @Test
+    void testStalledPrimaryDoesNotBlockReplicaRead() throws Exception {
+        replication.write("alice", "a.txt", "hello".getBytes());
+        awaitTrue(() -> Files.exists(replicaA.resolve("alice/a.txt")) && Files.exists(replicaB.resolve("alice/a.txt")));
+
+        // Основная копия - именованный канал без писателя: открытие на чтение висит, как на зависшем диске
+        Path primaryCopy = primary.resolve("alice/a.txt");
+        Files.delete(primaryCopy);
+        Process mkfifo = new ProcessBuilder("mkfifo", primaryCopy.toString()).start();
+        assumeTrue(mkfifo.waitFor() == 0, "mkfifo is not available");
+
+        try {
+            assertTimeoutPreemptively(Duration.ofSeconds(5),
+                    () -> assertEquals("hello", new String(replication.read("alice", "a.txt", 5))));
+            assertEquals(1.0, meterRegistry.get("storage.volume.hedged.reads").counter().count());
+        } finally {
+            // Писатель освобождает зависшее чтение основного тома
+            Thread writer = new Thread(() -> {
+                try (OutputStream out = Files.newOutputStream(primaryCopy)) {
+                    out.flush();
+                } catch (IOException ignored) {
+                }
+            });
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    @Test
+    void testCopyThatFailsToDecodeFallsBackToAnotherVolume() throws Exception {
+        replication.write("alice", "a.txt", "enc:hello".getBytes());
+        awaitTrue(() -> Files.exists(replicaA.resolve("alice/a.txt")) && Files.exists(replicaB.resolve("alice/a.txt")));
+        Path copy = replicaA.resolve("alice/a.txt");
+        FileTime modified = Files.getLastModifiedTime(copy);
+        Files.writeString(copy, "garbage!!");
+        Files.setLastModifiedTime(copy, modified);
+        slowDownPrimary();
+
+        VolumeReplicationService.Decoder decoder = stored -> {
+            String text = new String(stored);
+            if (!text.startsWith("enc:")) {
+                throw new IOException("Authentication failed");
+            }
+            return text.substring(4).getBytes();
+        };
+
+        assertEquals("hello", new String(replication.read("alice", "a.txt", decoder, 5)));
+        assertEquals(1, replication.getPendingRepairs());
+    }
+
+    // Основной том читается последним: его p95 выше, чем у копий
+    private void slowDownPrimary() {
+        for (int i = 0; i < 20; i++) {
+            meterRegistry.get("storage.volume.latency").tag("volume", "0").tag("operation", "read").timer()
+                    .record(Duration.ofSeconds(1));
+        }
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Condition not met in time");
+            Thread.sleep(10);
+        }
+    }
+}